@@ -0,0 +1,92 @@
+package co.vuckovic.demo.bench;
+
+import co.vuckovic.demo.config.AuthoritySet;
+import co.vuckovic.demo.config.AuthoritySetCache;
+import co.vuckovic.demo.config.KeycloakAuthenticationToken;
+import co.vuckovic.demo.config.KeycloakJwtAuthenticationConverter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverterAdapter;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of turning a decoded JWT into authorities and checking them against the
+ * admin rule: the stock converter plus a string scan versus interned authority sets and a
+ * bitmap intersection. The {@code *Check} benchmarks time the decision alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthorizationBenchmark {
+
+    private Jwt jwt;
+    private ReactiveJwtAuthenticationConverterAdapter stockConverter;
+    private KeycloakJwtAuthenticationConverter cachedConverter;
+    private AuthoritySet adminRule;
+    private AbstractAuthenticationToken stockToken;
+    private KeycloakAuthenticationToken cachedToken;
+
+    @Setup
+    public void setUp() {
+        jwt = Jwt.withTokenValue("token")
+                .header("alg", "RS256")
+                .subject("715da428-8464-4d74-bb69-a4718bc05882")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(3600))
+                .claim("roles", List.of("offline_access", "uma_authorization", "USER", "EDITOR", "manage-users"))
+                .build();
+
+        var granted = new JwtGrantedAuthoritiesConverter();
+        granted.setAuthorityPrefix("ROLE_");
+        granted.setAuthoritiesClaimName("roles");
+        var converter = new JwtAuthenticationConverter();
+        converter.setJwtGrantedAuthoritiesConverter(granted);
+        stockConverter = new ReactiveJwtAuthenticationConverterAdapter(converter);
+
+        AuthoritySetCache authoritySets = new AuthoritySetCache();
+        cachedConverter = new KeycloakJwtAuthenticationConverter(authoritySets);
+        adminRule = authoritySets.forRoles(List.of("ADMIN", "manage-users"));
+        stockToken = stockConverter.convert(jwt).block();
+        cachedToken = (KeycloakAuthenticationToken) cachedConverter.convert(jwt).block();
+    }
+
+    @Benchmark
+    public boolean stock() {
+        return stockCheck(stockConverter.convert(jwt).block());
+    }
+
+    @Benchmark
+    public boolean precomputed() {
+        return precomputedCheck((KeycloakAuthenticationToken) cachedConverter.convert(jwt).block());
+    }
+
+    @Benchmark
+    public boolean stockCheck() {
+        return stockCheck(stockToken);
+    }
+
+    @Benchmark
+    public boolean precomputedCheck() {
+        return precomputedCheck(cachedToken);
+    }
+
+    private static boolean stockCheck(AbstractAuthenticationToken auth) {
+        return auth.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .anyMatch(a -> a.equals("ROLE_ADMIN") || a.equals("ROLE_manage-users"));
+    }
+
+    private boolean precomputedCheck(KeycloakAuthenticationToken auth) {
+        return auth.authoritySet().hasAny(adminRule);
+    }
+}
@@ -0,0 +1,72 @@
+package co.vuckovic.demo.bench;
+
+import co.vuckovic.demo.config.CachingReactiveJwtDecoder;
+import co.vuckovic.demo.config.AuthoritySetCache;
+import co.vuckovic.demo.config.KeycloakConfig;
+import co.vuckovic.demo.config.KeycloakJwtAuthenticationConverter;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of authenticating one bearer token (decode, verify, convert to an
+ * {@link Authentication}) with and without the decoded-token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtDecoderBenchmark {
+
+    private String token;
+    private ReactiveJwtDecoder uncached;
+    private ReactiveJwtDecoder cached;
+    private KeycloakJwtAuthenticationConverter converter;
+
+    @Setup
+    public void setUp() throws Exception {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("bench").generate();
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("bench").build(),
+                new JWTClaimsSet.Builder()
+                        .subject("715da428-8464-4d74-bb69-a4718bc05882")
+                        .issuer("http://keycloak:8080/realms/demo")
+                        .expirationTime(Date.from(Instant.now().plusSeconds(3600)))
+                        .issueTime(new Date())
+                        .claim("roles", List.of("USER", "EDITOR", "ADMIN", "manage-users"))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        token = jwt.serialize();
+
+        RSAKey publicKey = key.toPublicJWK();
+        uncached = NimbusReactiveJwtDecoder.withJwkSource(signed -> Flux.just(publicKey)).build();
+        cached = new CachingReactiveJwtDecoder(uncached, 10_000);
+        converter = new KeycloakConfig().jwtConverter(new AuthoritySetCache());
+    }
+
+    @Benchmark
+    public Authentication uncached() {
+        return uncached.decode(token).flatMap(converter::convert).block();
+    }
+
+    @Benchmark
+    public Authentication cached() {
+        return cached.decode(token).flatMap(converter::convert).block();
+    }
+}
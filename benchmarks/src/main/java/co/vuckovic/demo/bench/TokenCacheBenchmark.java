@@ -0,0 +1,83 @@
+package co.vuckovic.demo.bench;
+
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakTokenProperties;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.service.KeycloakLoadBalancer;
+import co.vuckovic.demo.service.KeycloakTokenProvider;
+import co.vuckovic.demo.service.UserCache;
+import co.vuckovic.demo.service.Versioned;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot-path cost of the in-memory caches every admin call goes through: handing out the
+ * cached admin token and hitting the user detail cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenCacheBenchmark {
+
+    private static final Set<UserFacet> INCLUDE = UserFacet.DEFAULT;
+
+    private KeycloakTokenProvider tokenProvider;
+    private UserCache userCache;
+
+    @Setup
+    public void setUp() {
+        // the token endpoint is stubbed; after the first fetch every call is served from memory
+        WebClient.Builder tokenEndpoint = WebClient.builder().exchangeFunction(req -> Mono.just(
+                ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .body("""
+                                {"access_token":"token","token_type":"Bearer","expires_in":3600,
+                                 "refresh_token":"refresh","refresh_expires_in":1800}""")
+                        .build()));
+        KeycloakProperties props = new KeycloakProperties(
+                "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // a single endpoint, so requests pass through without routing settings
+        KeycloakLoadBalancer loadBalancer = new KeycloakLoadBalancer(
+                props, null, WebClient.builder(), new ReactorClientHttpConnector(), registry);
+        tokenProvider = new KeycloakTokenProvider(
+                props, new KeycloakTokenProperties(Duration.ofSeconds(30), true),
+                tokenEndpoint, new ReactorClientHttpConnector(), loadBalancer, registry);
+        tokenProvider.getToken().block();
+
+        userCache = new UserCache(new KeycloakCacheProperties(true, 10_000, 1_000, Duration.ofMinutes(1)),
+                new SimpleMeterRegistry());
+        for (int i = 0; i < 10_000; i++) {
+            userCache.putDetail("user-" + i, INCLUDE, new Versioned<>(
+                    new UserResponse("user-" + i, "user" + i, null, true, List.of("USER"), null, null, null, null),
+                    "etag-" + i), userCache.stamp());
+        }
+    }
+
+    @Benchmark
+    public String adminToken() {
+        return tokenProvider.getToken().block();
+    }
+
+    @Benchmark
+    public Versioned<UserResponse> userDetailHit() {
+        return userCache.getDetail("user-4242", INCLUDE);
+    }
+}
@@ -0,0 +1,173 @@
+package co.vuckovic.demo.load;
+
+import co.vuckovic.demo.DemoApplication;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Boots the application against {@link StubKeycloak} and drives each admin endpoint with a
+ * fixed number of concurrent clients, reporting throughput, latency percentiles, the heap still
+ * in use after a GC and the peak number of platform threads (virtual threads are not counted,
+ * so {@code -Dkeycloak.backend=admin-client} shows only its carriers). Settings
+ * are system properties; any other property (e.g. {@code -Dkeycloak.cache.enabled=false})
+ * reaches the application as usual.
+ * <ul>
+ *     <li>{@code load.latency} / {@code load.jitter}: stub Keycloak response delay (default 5ms / 0ms)</li>
+ *     <li>{@code load.users}: users in the stub realm (default 1000)</li>
+ *     <li>{@code load.concurrency}: concurrent clients (default 32)</li>
+ *     <li>{@code load.warmup} / {@code load.duration}: per endpoint (default 5s / 20s)</li>
+ * </ul>
+ */
+public final class LoadHarness {
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Duration latency = duration("load.latency", "5ms");
+        Duration jitter = duration("load.jitter", "0ms");
+        int users = Integer.getInteger("load.users", 1000);
+        int concurrency = Integer.getInteger("load.concurrency", 32);
+        Duration warmup = duration("load.warmup", "5s");
+        Duration measure = duration("load.duration", "20s");
+
+        RSAKey key = new RSAKeyGenerator(2048).keyID("load").generate();
+        try (StubKeycloak keycloak = new StubKeycloak(key.toPublicJWK(), users, latency, jitter);
+             ConfigurableApplicationContext app = new SpringApplicationBuilder(DemoApplication.class)
+                     // command-line arguments, so they win over application.yml
+                     .run(Stream.concat(Stream.of(
+                             "--server.port=0",
+                             "--keycloak.server-url=" + keycloak.url(),
+                             "--spring.security.oauth2.resourceserver.jwt.jwk-set-uri="
+                                     + keycloak.url() + "/realms/demo/protocol/openid-connect/certs",
+                             "--spring.docker.compose.enabled=false"), Stream.of(args))
+                             .toArray(String[]::new))) {
+            int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+            String token = adminToken(key);
+            WebClient client = WebClient.builder()
+                    .baseUrl("http://localhost:" + port)
+                    .clientConnector(new ReactorClientHttpConnector(HttpClient.create(
+                            ConnectionProvider.builder("load").maxConnections(concurrency).build())))
+                    .defaultHeaders(h -> h.setBearerAuth(token))
+                    .build();
+
+            List<Scenario> scenarios = List.of(
+                    new Scenario("GET /users?size=100", c -> c.get().uri("/api/admin/users?size=100")),
+                    new Scenario("GET /users/{id}", c -> c.get().uri("/api/admin/users/{id}?include=roles,groups",
+                            randomUser(users))),
+                    new Scenario("GET /users/search", c -> c.get().uri("/api/admin/users/search?search={s}&size=20",
+                            "user" + ThreadLocalRandom.current().nextInt(100))),
+                    new Scenario("PATCH /users/{id}", c -> c.patch().uri("/api/admin/users/{id}", randomUser(users))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue("{\"enabled\":true}")));
+
+            System.out.printf("%nstub latency %s (+%s jitter), %d users, %d clients, %s per endpoint%n%n",
+                    latency, jitter, users, concurrency, measure);
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            System.out.printf("%-22s %10s %8s %10s %10s %10s %10s %8s %8s%n",
+                    "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "heap MB", "threads");
+            for (Scenario scenario : scenarios) {
+                run(client, scenario, concurrency, warmup);
+                threads.resetPeakThreadCount();
+                Result result = run(client, scenario, concurrency, measure);
+                memory.gc();
+                Histogram h = result.latencies();
+                System.out.printf("%-22s %10d %8d %10.1f %10.2f %10.2f %10.2f %8d %8d%n",
+                        scenario.name(), h.getTotalCount(), result.errors(),
+                        h.getTotalCount() / (measure.toMillis() / 1000.0),
+                        h.getValueAtPercentile(50) / 1000.0,
+                        h.getValueAtPercentile(99) / 1000.0,
+                        h.getValueAtPercentile(99.9) / 1000.0,
+                        memory.getHeapMemoryUsage().getUsed() >> 20,
+                        threads.getPeakThreadCount());
+            }
+        }
+    }
+
+    /**
+     * Closed loop: each client sends its next request as soon as the previous one completed.
+     * Latencies of successful responses are recorded in microseconds.
+     */
+    private static Result run(WebClient client, Scenario scenario, int concurrency, Duration duration) {
+        Histogram latencies = new ConcurrentHistogram(3);
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+        Flux.range(0, concurrency)
+                .flatMap(worker -> Mono.defer(() -> {
+                            long start = System.nanoTime();
+                            return scenario.request().apply(client)
+                                    .exchangeToMono(resp -> resp.releaseBody().thenReturn(resp.statusCode()))
+                                    .doOnNext(status -> {
+                                        if (status.is2xxSuccessful()) {
+                                            latencies.recordValue((System.nanoTime() - start) / 1_000);
+                                        } else {
+                                            errors.incrementAndGet();
+                                        }
+                                    })
+                                    .onErrorResume(e -> {
+                                        errors.incrementAndGet();
+                                        return Mono.empty();
+                                    });
+                        })
+                        .repeat(() -> System.nanoTime() < deadline), concurrency)
+                .blockLast();
+        return new Result(latencies, errors.get());
+    }
+
+    private static String adminToken(RSAKey key) throws Exception {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("load-harness")
+                        .issuer("http://keycloak:8080/realms/demo")
+                        .issueTime(new Date())
+                        .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                        .claim("roles", List.of("ADMIN"))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    private static String randomUser(int users) {
+        return StubKeycloak.userId(ThreadLocalRandom.current().nextInt(users));
+    }
+
+    private static Duration duration(String property, String defaultValue) {
+        return DurationStyle.detectAndParse(System.getProperty(property, defaultValue));
+    }
+
+    private record Scenario(String name, Function<WebClient, WebClient.RequestHeadersSpec<?>> request) {}
+
+    private record Result(Histogram latencies, long errors) {}
+}
@@ -0,0 +1,185 @@
+package co.vuckovic.demo.load;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Starts the packaged application as a separate process against {@link StubKeycloak} and
+ * reports the time from launching it to the first answered admin request, and its resident
+ * memory right after (read from {@code /proc}, so Linux only). Each launch is a cold start; the
+ * median of all launches is reported. Settings are system properties, and the arguments are
+ * passed on to the application:
+ * <ul>
+ *     <li>{@code startup.modes}: any of {@code jvm} (the executable jar), {@code aot} (extracted,
+ *     with {@code spring.aot.enabled}), {@code cds} (as aot, plus the class data sharing archive)
+ *     and {@code native} (default jvm,aot,cds). aot and cds need {@code mvn -Pcds package},
+ *     native needs {@code mvn -Pnative native:compile}.</li>
+ *     <li>{@code startup.runs}: launches per mode (default 5)</li>
+ *     <li>{@code startup.target}: the application's build directory (default target)</li>
+ * </ul>
+ */
+public final class StartupBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> modes = Arrays.asList(System.getProperty("startup.modes", "jvm,aot,cds").split(","));
+        int runs = Integer.getInteger("startup.runs", 5);
+        Path target = Path.of(System.getProperty("startup.target", "target"));
+
+        RSAKey key = new RSAKeyGenerator(2048).keyID("startup").generate();
+        String token = adminToken(key);
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        try (StubKeycloak keycloak = new StubKeycloak(key.toPublicJWK(), 100, Duration.ZERO, Duration.ZERO)) {
+            System.out.printf("%n%-8s %6s %16s %12s %12s%n", "mode", "runs", "first req ms", "min ms", "RSS MB");
+            for (String mode : modes) {
+                Command command = command(mode.trim(), target);
+                long[] millis = new long[runs];
+                long[] rss = new long[runs];
+                for (int run = 0; run < runs; run++) {
+                    Launch launch = launch(command, keycloak, token, http, args);
+                    millis[run] = launch.firstRequest().toMillis();
+                    rss[run] = launch.rssKb();
+                }
+                Arrays.sort(millis);
+                Arrays.sort(rss);
+                System.out.printf("%-8s %6d %16d %12d %12s%n", mode, runs, millis[runs / 2], millis[0],
+                        rss[runs / 2] < 0 ? "-" : String.valueOf(rss[runs / 2] >> 10));
+            }
+        }
+    }
+
+    private static Command command(String mode, Path target) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Path cds = target.resolve("cds");
+        return switch (mode) {
+            case "jvm" -> new Command(target, List.of(java, "-jar", executableJar(target)));
+            case "aot" -> new Command(cds, List.of(java, "-Dspring.aot.enabled=true", "-jar", executableJar(cds)));
+            // run where the training run ran: the archive records the class path as given
+            case "cds" -> new Command(cds, List.of(java, "-XX:SharedArchiveFile=application.jsa",
+                    "-Dspring.aot.enabled=true", "-jar", executableJar(cds)));
+            case "native" -> new Command(target, List.of(target.resolve("sso").toAbsolutePath().toString()));
+            default -> throw new IllegalArgumentException("Unknown startup mode " + mode);
+        };
+    }
+
+    private static String executableJar(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.endsWith("-exec.jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No executable jar in " + dir));
+        }
+    }
+
+    /**
+     * One cold start: polls the admin API until it answers 200, then reads the process's RSS.
+     */
+    private static Launch launch(Command command, StubKeycloak keycloak, String token, HttpClient http,
+                                 String[] args) throws Exception {
+        int port = freePort();
+        List<String> full = new ArrayList<>(command.args());
+        full.addAll(List.of(
+                "--server.port=" + port,
+                "--keycloak.server-url=" + keycloak.url(),
+                "--spring.security.oauth2.resourceserver.jwt.jwk-set-uri="
+                        + keycloak.url() + "/realms/demo/protocol/openid-connect/certs",
+                "--spring.docker.compose.enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.org.springframework.security=WARN"));
+        full.addAll(Arrays.asList(args));
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/admin/users?size=10"))
+                .header("Authorization", "Bearer " + token)
+                .build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(full)
+                .directory(command.directory().toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File("startup-benchmark.log").getAbsoluteFile()))
+                .start();
+        try {
+            while (System.nanoTime() - start < TIMEOUT.toNanos()) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Application exited with " + process.exitValue()
+                            + ", see startup-benchmark.log");
+                }
+                try {
+                    if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return new Launch(Duration.ofNanos(System.nanoTime() - start), rssKb(process.pid()));
+                    }
+                } catch (ConnectException notListeningYet) {
+                    // keep polling
+                }
+                Thread.sleep(5);
+            }
+            throw new IllegalStateException("No answer within " + TIMEOUT + ", see startup-benchmark.log");
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    private static long rssKb(long pid) throws IOException {
+        Path status = Path.of("/proc", String.valueOf(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        try (Stream<String> lines = Files.lines(status)) {
+            return lines.filter(l -> l.startsWith("VmRSS:"))
+                    .map(l -> Long.parseLong(l.replaceAll("\\D", "")))
+                    .findFirst()
+                    .orElse(-1L);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String adminToken(RSAKey key) throws Exception {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("startup-benchmark")
+                        .issuer("http://keycloak:8080/realms/demo")
+                        .issueTime(new Date())
+                        .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                        .claim("roles", List.of("ADMIN"))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    private record Command(Path directory, List<String> args) {}
+
+    private record Launch(Duration firstRequest, long rssKb) {}
+}
@@ -0,0 +1,115 @@
+package co.vuckovic.demo.load;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Just enough of the Keycloak token, JWKS and admin APIs for {@link LoadHarness}, backed by
+ * {@code users} generated users. Every response is held back by {@code latency} plus up to
+ * {@code jitter} to stand in for a real Keycloak.
+ */
+final class StubKeycloak implements AutoCloseable {
+
+    private static final String REALM = "/admin/realms/demo";
+    private static final String ROLES = """
+            [{"id":"r-user","name":"USER","composite":false,"clientRole":false,"containerId":"demo"},
+             {"id":"r-editor","name":"EDITOR","composite":false,"clientRole":false,"containerId":"demo"},
+             {"id":"r-admin","name":"ADMIN","composite":false,"clientRole":false,"containerId":"demo"}]""";
+
+    private final int users;
+    private final Duration latency;
+    private final Duration jitter;
+    private final String jwks;
+    private final DisposableServer server;
+
+    StubKeycloak(RSAKey publicKey, int users, Duration latency, Duration jitter) {
+        this.users = users;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.jwks = new JWKSet(publicKey).toString();
+        this.server = HttpServer.create()
+                .port(0)
+                .route(r -> r
+                        .post("/realms/master/protocol/openid-connect/token", (req, res) -> json(res, """
+                                {"access_token":"stub-admin-token","token_type":"Bearer","expires_in":300,
+                                 "refresh_token":"stub-refresh-token","refresh_expires_in":1800}"""))
+                        .get("/realms/demo/protocol/openid-connect/certs", (req, res) -> json(res, jwks))
+                        .get(REALM + "/users/{id}/role-mappings/realm/composite", (req, res) -> json(res, ROLES))
+                        .get(REALM + "/users/{id}/role-mappings/realm", (req, res) -> json(res, ROLES))
+                        .get(REALM + "/users/{id}/groups", (req, res) -> json(res, "[]"))
+                        .get(REALM + "/users/{id}/sessions", (req, res) -> json(res, "[]"))
+                        .get(REALM + "/users/{id}", (req, res) -> json(res, user(index(req.param("id")))))
+                        .put(REALM + "/users/{id}", (req, res) -> req.receive().then()
+                                .then(delay())
+                                .then(res.status(HttpResponseStatus.NO_CONTENT).send().then()))
+                        .get(REALM + "/users", this::listUsers)
+                        .get(REALM + "/roles/{role}/users", this::listUsers)
+                        .get(REALM + "/roles", (req, res) -> json(res, ROLES))
+                        .get(REALM + "/admin-events", (req, res) -> json(res, "[]")))
+                .bindNow();
+    }
+
+    String url() {
+        return "http://localhost:" + server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private Mono<Void> listUsers(HttpServerRequest req, HttpServerResponse res) {
+        var query = new QueryStringDecoder(req.uri()).parameters();
+        int first = intParam(query.get("first"), 0);
+        int max = intParam(query.get("max"), 100);
+        String search = query.containsKey("search") ? query.get("search").get(0) : null;
+        String page = IntStream.range(0, users)
+                .filter(i -> search == null || ("user" + i).contains(search))
+                .skip(first)
+                .limit(max)
+                .mapToObj(StubKeycloak::user)
+                .collect(Collectors.joining(",", "[", "]"));
+        return json(res, page);
+    }
+
+    private Mono<Void> json(HttpServerResponse res, String body) {
+        return delay().then(res.header("Content-Type", "application/json").sendString(Mono.just(body)).then());
+    }
+
+    private Mono<Long> delay() {
+        long extra = jitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(jitter.toNanos());
+        return Mono.delay(latency.plusNanos(extra));
+    }
+
+    static String userId(int i) {
+        return "00000000-0000-0000-0000-%012d".formatted(i);
+    }
+
+    private static int index(String id) {
+        return Integer.parseInt(id.substring(id.lastIndexOf('-') + 1));
+    }
+
+    private static String user(int i) {
+        return """
+                {"id":"%s","createdTimestamp":1718000000000,"username":"user%d","enabled":true,
+                 "emailVerified":true,"firstName":"User","lastName":"%d","email":"user%d@example.com",
+                 "attributes":{"department":["sales"]}}""".formatted(userId(i), i, i, i);
+    }
+
+    private static int intParam(List<String> values, int defaultValue) {
+        return values == null ? defaultValue : Integer.parseInt(values.get(0));
+    }
+}
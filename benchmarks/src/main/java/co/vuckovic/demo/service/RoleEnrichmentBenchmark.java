@@ -0,0 +1,208 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties.Enrichment;
+import co.vuckovic.demo.dto.UserResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * {@code ?expand=roles} listings against a stub Keycloak of each realm shape, once per
+ * strategy. Reports the Keycloak calls and wall time of each, and the strategy {@code auto}
+ * picks for the shape, which should be the one with fewer calls. Both strategies must return
+ * the same roles, or the run fails. Every user holds the composite default role and one of the
+ * other roles. Settings are system properties:
+ * <ul>
+ *     <li>{@code enrichment.users}: realm sizes (default 100,1000,10000)</li>
+ *     <li>{@code enrichment.roles}: realm roles besides the default ones (default 5,50,500)</li>
+ *     <li>{@code enrichment.latency}: added to every stub response (default 5ms)</li>
+ *     <li>{@code enrichment.concurrency}: lookups in flight (default 8)</li>
+ * </ul>
+ */
+public final class RoleEnrichmentBenchmark {
+
+    private static final String REALM = "/admin/realms/demo";
+    private static final String DEFAULT_ROLE = "default-roles-demo";
+    private static final List<String> DEFAULT_CHILDREN = List.of("offline_access", "uma_authorization");
+
+    private RoleEnrichmentBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int[] userCounts = ints(System.getProperty("enrichment.users", "100,1000,10000"));
+        int[] roleCounts = ints(System.getProperty("enrichment.roles", "5,50,500"));
+        Duration latency = DurationStyle.detectAndParse(System.getProperty("enrichment.latency", "5ms"));
+        int concurrency = Integer.getInteger("enrichment.concurrency", 8);
+
+        System.out.printf("%n%8s %6s %14s %12s %14s %12s %10s%n",
+                "users", "roles", "per-user calls", "per-user ms", "bulk calls", "bulk ms", "auto");
+        for (int users : userCounts) {
+            for (int roles : roleCounts) {
+                try (Realm realm = new Realm(users, roles, latency)) {
+                    Run perUser = run(realm, Enrichment.PER_USER, concurrency);
+                    Run bulk = run(realm, Enrichment.BULK, concurrency);
+                    if (!perUser.users().equals(bulk.users())) {
+                        throw new IllegalStateException("Strategies disagree for " + users + " users, " + roles + " roles");
+                    }
+                    Run auto = run(realm, Enrichment.AUTO, concurrency);
+                    System.out.printf("%8d %6d %14d %12d %14d %12d %10s%n", users, roles,
+                            perUser.calls(), perUser.millis(), bulk.calls(), bulk.millis(), auto.strategy());
+                }
+            }
+        }
+    }
+
+    private static Run run(Realm realm, Enrichment strategy, int concurrency) {
+        WebClient client = WebClient.builder()
+                .baseUrl(realm.url())
+                .codecs(c -> c.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                .build();
+        KeycloakProperties props = new KeycloakProperties(realm.url(), "demo", null, null, "master", "admin-cli",
+                "admin", "admin", null);
+        KeycloakRoleProperties roleProps = new KeycloakRoleProperties(Duration.ofMinutes(5), Duration.ofSeconds(5), false,
+                strategy, concurrency);
+        KeycloakPagingProperties pagingProps = new KeycloakPagingProperties(100, 1000, 4, true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RoleCatalog catalog = new RoleCatalog(client, props, roleProps, pagingProps, registry);
+        UserRoleEnricher enricher = new UserRoleEnricher(client, props, roleProps, pagingProps, catalog, registry);
+
+        long before = realm.calls.get();
+        long start = System.nanoTime();
+        List<UserResponse> users = enricher.streamUsers(500).collectList().block();
+        long millis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        // the strategy that actually ran, as counted by the enricher
+        String ran = registry.find("keycloak.roles.enrichment").counters().stream()
+                .filter(c -> c.count() > 0)
+                .map(c -> c.getId().getTag("strategy"))
+                .findFirst()
+                .orElseThrow();
+        return new Run(users, realm.calls.get() - before, millis, ran);
+    }
+
+    private static int[] ints(String csv) {
+        return Arrays.stream(csv.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private record Run(List<UserResponse> users, long calls, long millis, String strategy) {}
+
+    /**
+     * Users {@code user0..}; user {@code i} holds the default role and {@code role-(i % roles)}. No groups.
+     */
+    private static final class Realm implements AutoCloseable {
+
+        final AtomicLong calls = new AtomicLong();
+        private final int users;
+        private final int roles;
+        private final Duration latency;
+        private final DisposableServer server;
+
+        Realm(int users, int roles, Duration latency) {
+            this.users = users;
+            this.roles = roles;
+            this.latency = latency;
+            this.server = HttpServer.create()
+                    .port(0)
+                    .route(r -> r
+                            .get(REALM + "/users/count", (req, res) -> json(res, String.valueOf(users)))
+                            .get(REALM + "/users/{id}/role-mappings/realm/composite", (req, res) ->
+                                    json(res, roleArray(effectiveRoles(index(req.param("id"))))))
+                            .get(REALM + "/users", (req, res) -> page(req, res, IntStream.range(0, users)))
+                            .get(REALM + "/roles/{role}/composites/realm", (req, res) ->
+                                    json(res, roleArray(DEFAULT_ROLE.equals(req.param("role")) ? DEFAULT_CHILDREN : List.of())))
+                            .get(REALM + "/roles/{role}/users", (req, res) -> page(req, res, members(req.param("role"))))
+                            // no group maps a realm role, so auto may pick bulk
+                            .get(REALM + "/roles/{role}/groups", (req, res) -> json(res, "[]"))
+                            .get(REALM + "/roles", (req, res) -> {
+                                var query = new QueryStringDecoder(req.uri()).parameters();
+                                int first = Integer.parseInt(query.get("first").get(0));
+                                int max = Integer.parseInt(query.get("max").get(0));
+                                return json(res, roleArray(allRoles().stream().skip(first).limit(max).toList()));
+                            }))
+                    .bindNow();
+        }
+
+        String url() {
+            return "http://localhost:" + server.port();
+        }
+
+        @Override
+        public void close() {
+            server.disposeNow();
+        }
+
+        private List<String> allRoles() {
+            List<String> all = new ArrayList<>(List.of(DEFAULT_ROLE));
+            all.addAll(DEFAULT_CHILDREN);
+            IntStream.range(0, roles).forEach(i -> all.add("role-" + i));
+            return all;
+        }
+
+        private List<String> effectiveRoles(int user) {
+            List<String> effective = new ArrayList<>(List.of(DEFAULT_ROLE));
+            effective.addAll(DEFAULT_CHILDREN);
+            effective.add("role-" + user % roles);
+            return effective;
+        }
+
+        private IntStream members(String role) {
+            if (DEFAULT_ROLE.equals(role)) {
+                return IntStream.range(0, users);
+            }
+            if (!role.startsWith("role-")) {
+                return IntStream.empty();
+            }
+            int r = Integer.parseInt(role.substring("role-".length()));
+            return IntStream.iterate(r, i -> i < users, i -> i + roles);
+        }
+
+        private Mono<Void> page(HttpServerRequest req, HttpServerResponse res, IntStream ids) {
+            var query = new QueryStringDecoder(req.uri()).parameters();
+            int first = Integer.parseInt(query.get("first").get(0));
+            int max = Integer.parseInt(query.get("max").get(0));
+            return json(res, ids.skip(first).limit(max)
+                    .mapToObj(i -> """
+                            {"id":"%s","username":"user%d","email":"user%d@example.com","enabled":true}"""
+                            .formatted(userId(i), i, i))
+                    .collect(Collectors.joining(",", "[", "]")));
+        }
+
+        private Mono<Void> json(HttpServerResponse res, String body) {
+            calls.incrementAndGet();
+            return Mono.delay(latency)
+                    .then(res.header("Content-Type", "application/json").sendString(Mono.just(body)).then());
+        }
+
+        private static String roleArray(List<String> names) {
+            return names.stream()
+                    .map(name -> """
+                            {"id":"%s","name":"%s","composite":%b,"clientRole":false,"containerId":"demo"}"""
+                            .formatted(name, name, DEFAULT_ROLE.equals(name)))
+                    .collect(Collectors.joining(",", "[", "]"));
+        }
+
+        private static String userId(int i) {
+            return "00000000-0000-0000-0000-%012d".formatted(i);
+        }
+
+        private static int index(String id) {
+            return Integer.parseInt(id.substring(id.lastIndexOf('-') + 1));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * One Keycloak list page turned into {@code UserSummary} JSON, by binding and re-serializing
+ * (the object-mapping mode) versus the token-level {@link UserSummaryTranscoder} (pass-through
+ * mode). The page is fed in socket-sized chunks, as it arrives from Keycloak. Run with
+ * {@code -prof gc} to compare allocation per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserListProjectionBenchmark {
+
+    private static final int CHUNK = 8192;
+
+    // briefRepresentation=true, as requested by the list endpoint
+    private static final String USER_JSON = """
+            {"id":"%s","username":"user%d","firstName":"First","lastName":"Last","email":"user%d@example.com",\
+            "emailVerified":true,"createdTimestamp":1718000000000,"enabled":true,"totp":false,\
+            "disableableCredentialTypes":[],"requiredActions":[],"notBefore":0,\
+            "access":{"manageGroupMembership":true,"view":true,"mapRoles":true,"impersonate":false,"manage":true}}""";
+
+    @Param({"100", "1000"})
+    public int pageSize;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter summaryWriter;
+    private byte[] page;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        summaryWriter = objectMapper.writerFor(UserSummary.class);
+        page = IntStream.range(0, pageSize)
+                .mapToObj(i -> USER_JSON.formatted(UUID.nameUUIDFromBytes(("user" + i).getBytes()), i, i))
+                .collect(Collectors.joining(",", "[", "]"))
+                .getBytes();
+    }
+
+    @Benchmark
+    public byte[] objectMapping() throws Exception {
+        UserRep[] users = objectMapper.readValue(page, UserRep[].class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pageSize * 64);
+        for (int i = 0; i < users.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(summaryWriter.writeValueAsBytes(new UserSummary(users[i].id(), users[i].username())));
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] passThrough() {
+        try (UserSummaryTranscoder transcoder = new UserSummaryTranscoder(objectMapper.getFactory())) {
+            for (int offset = 0; offset < page.length; offset += CHUNK) {
+                transcoder.feed(ByteBuffer.wrap(page, offset, Math.min(CHUNK, page.length - offset)));
+            }
+            return transcoder.finish();
+        }
+    }
+}
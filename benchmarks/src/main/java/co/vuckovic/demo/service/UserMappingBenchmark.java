@@ -0,0 +1,89 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSessionInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * JSON and DTO mapping on the user read path: parsing Keycloak's user representation,
+ * mapping it to {@link UserRep}, reading a list page and writing a {@link UserResponse}.
+ * Lives in the service package to reach the package-private Keycloak representations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserMappingBenchmark {
+
+    private static final String USER_JSON = """
+            {"id":"%s","createdTimestamp":1718000000000,"username":"user%d","enabled":true,"totp":false,
+             "emailVerified":true,"firstName":"First","lastName":"Last","email":"user%d@example.com",
+             "attributes":{"department":["sales"],"locale":["en"]},"disableableCredentialTypes":[],
+             "requiredActions":[],"notBefore":0,
+             "access":{"manageGroupMembership":true,"view":true,"mapRoles":true,"impersonate":false,"manage":true}}""";
+
+    private ObjectMapper objectMapper;
+    private byte[] user;
+    private byte[] page;
+    private UserRepresentation representation;
+    private UserResponse response;
+
+    @Setup
+    public void setUp() throws Exception {
+        // same defaults as the application's Boot-configured mapper
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        user = userJson(0).getBytes();
+        page = IntStream.range(0, 100)
+                .mapToObj(UserMappingBenchmark::userJson)
+                .collect(Collectors.joining(",", "[", "]"))
+                .getBytes();
+        representation = UserRepresentation.parse(user, objectMapper);
+        response = new UserResponse(
+                "715da428-8464-4d74-bb69-a4718bc05882", "user0", "user0@example.com", true,
+                List.of("USER", "EDITOR", "offline_access"), List.of("/staff/editors"),
+                Map.of("department", List.of("sales")),
+                List.of(new UserSessionInfo("5c1c7d3e", "10.0.0.1", 1718000000000L, 1718000100000L)),
+                List.of(UserFacet.SESSIONS));
+    }
+
+    @Benchmark
+    public UserRepresentation parseRepresentation() {
+        return UserRepresentation.parse(user, objectMapper);
+    }
+
+    @Benchmark
+    public UserRep representationToUserRep() {
+        return objectMapper.convertValue(representation.body(), UserRep.class);
+    }
+
+    @Benchmark
+    public UserRep readUserRep() throws Exception {
+        return objectMapper.readValue(user, UserRep.class);
+    }
+
+    @Benchmark
+    public UserRep[] readPageOf100() throws Exception {
+        return objectMapper.readValue(page, UserRep[].class);
+    }
+
+    @Benchmark
+    public byte[] writeUserResponse() throws Exception {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    private static String userJson(int i) {
+        return USER_JSON.formatted(UUID.nameUUIDFromBytes(("user" + i).getBytes()), i, i);
+    }
+}
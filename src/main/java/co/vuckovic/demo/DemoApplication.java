@@ -1,14 +1,55 @@
 package co.vuckovic.demo;
 
+import co.vuckovic.demo.config.ApplicationRuntimeHints;
+import co.vuckovic.demo.config.KeycloakAdminEventProperties;
+import co.vuckovic.demo.config.KeycloakBatchProperties;
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.config.KeycloakCoalescingProperties;
+import co.vuckovic.demo.config.KeycloakDetailProperties;
+import co.vuckovic.demo.config.KeycloakExportProperties;
+import co.vuckovic.demo.config.KeycloakHttpProperties;
+import co.vuckovic.demo.config.KeycloakImportProperties;
+import co.vuckovic.demo.config.KeycloakJobProperties;
+import co.vuckovic.demo.config.KeycloakJwtProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
 import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakReplicaProperties;
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.config.KeycloakRoutingProperties;
+import co.vuckovic.demo.config.KeycloakTokenProperties;
+import co.vuckovic.demo.config.KeycloakUpdateProperties;
+import co.vuckovic.demo.config.SecurityRuleProperties;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.info.Info;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
-@EnableConfigurationProperties(KeycloakProperties.class)
+@EnableConfigurationProperties({
+		KeycloakProperties.class,
+		KeycloakTokenProperties.class,
+		KeycloakPagingProperties.class,
+		KeycloakDetailProperties.class,
+		KeycloakRoleProperties.class,
+		KeycloakBatchProperties.class,
+		KeycloakJobProperties.class,
+		KeycloakImportProperties.class,
+		KeycloakExportProperties.class,
+		KeycloakUpdateProperties.class,
+		KeycloakCacheProperties.class,
+		KeycloakReplicaProperties.class,
+		KeycloakCoalescingProperties.class,
+		KeycloakAdminEventProperties.class,
+		KeycloakHttpProperties.class,
+		KeycloakRoutingProperties.class,
+		KeycloakResilienceProperties.class,
+		KeycloakJwtProperties.class,
+		SecurityRuleProperties.class
+})
+@ImportRuntimeHints(ApplicationRuntimeHints.class)
 @OpenAPIDefinition(info = @Info(title = "My API", version = "1.0", description = "User management API"))
 public class DemoApplication {
 
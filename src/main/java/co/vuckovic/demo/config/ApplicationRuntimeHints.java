@@ -0,0 +1,65 @@
+package co.vuckovic.demo.config;
+
+import co.vuckovic.demo.dto.RoleCatalogStatus;
+import co.vuckovic.demo.dto.UserBatchOperation;
+import co.vuckovic.demo.dto.UserBatchResult;
+import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserEnableRequest;
+import co.vuckovic.demo.dto.UserExport;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserImportFailure;
+import co.vuckovic.demo.dto.UserImportPolicy;
+import co.vuckovic.demo.dto.UserImportProgress;
+import co.vuckovic.demo.dto.UserJob;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSearchPage;
+import co.vuckovic.demo.dto.UserSearchQuery;
+import co.vuckovic.demo.dto.UserSessionInfo;
+import co.vuckovic.demo.dto.UserSummary;
+import co.vuckovic.demo.dto.UserUpdateRequest;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+
+/**
+ * Reflection for a native image beyond what AOT processing infers from controller signatures:
+ * every DTO, since some are only written through an {@code ObjectWriter} or streamed as NDJSON,
+ * and the properties behind the Keycloak client and the security rules. Keycloak's own JSON
+ * types are registered with {@link RegisterReflectionForBinding} on the beans that read them.
+ */
+public class ApplicationRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final Class<?>[] BOUND_TYPES = {
+            RoleCatalogStatus.class,
+            UserBatchOperation.class,
+            UserBatchResult.class,
+            UserCreateRequest.class,
+            UserEnableRequest.class,
+            UserExport.class,
+            UserFacet.class,
+            UserField.class,
+            UserImportFailure.class,
+            UserImportPolicy.class,
+            UserImportProgress.class,
+            UserJob.class,
+            UserPage.class,
+            UserPatchRequest.class,
+            UserResponse.class,
+            UserSearchPage.class,
+            UserSearchQuery.class,
+            UserSessionInfo.class,
+            UserSummary.class,
+            UserUpdateRequest.class,
+            KeycloakProperties.class,
+            SecurityRuleProperties.class
+    };
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), BOUND_TYPES);
+    }
+}
@@ -0,0 +1,29 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Immutable, interned set of granted authorities with a bit per authority, so checking it
+ * against a rule's required authorities is a single bitmap intersection.
+ */
+public final class AuthoritySet {
+
+    private final Set<GrantedAuthority> authorities;
+    private final BitSet bits;
+
+    AuthoritySet(Set<GrantedAuthority> authorities, BitSet bits) {
+        this.authorities = authorities;
+        this.bits = bits;
+    }
+
+    public Set<GrantedAuthority> authorities() {
+        return authorities;
+    }
+
+    public boolean hasAny(AuthoritySet required) {
+        return bits.intersects(required.bits);
+    }
+}
@@ -0,0 +1,54 @@
+package co.vuckovic.demo.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds each distinct {@code roles} claim into an {@link AuthoritySet} once. Authority
+ * objects are interned and every authority name gets a stable bit, shared by token
+ * authorities and the compiled authorization rules.
+ */
+@Component
+public class AuthoritySetCache {
+
+    public static final String ROLE_PREFIX = "ROLE_";
+
+    private final Map<String, Integer> bitIndex = new ConcurrentHashMap<>();
+    private final Map<String, GrantedAuthority> interned = new ConcurrentHashMap<>();
+    private final AtomicInteger nextBit = new AtomicInteger();
+    private final Cache<List<String>, AuthoritySet> byRoles = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
+    /**
+     * Authorities for the raw role names of a {@code roles} claim, each prefixed with {@code ROLE_}.
+     */
+    public AuthoritySet forRoles(Collection<String> roles) {
+        return byRoles.get(List.copyOf(roles), key -> of(key.stream().map(r -> ROLE_PREFIX + r).toList()));
+    }
+
+    /**
+     * Authorities by their full names, e.g. {@code ROLE_ADMIN}.
+     */
+    public AuthoritySet of(Collection<String> authorities) {
+        Set<GrantedAuthority> set = new LinkedHashSet<>();
+        BitSet bits = new BitSet();
+        for (String name : authorities) {
+            set.add(interned.computeIfAbsent(name, SimpleGrantedAuthority::new));
+            bits.set(bitIndex.computeIfAbsent(name, n -> nextBit.getAndIncrement()));
+        }
+        return new AuthoritySet(Set.copyOf(set), bits);
+    }
+}
@@ -0,0 +1,79 @@
+package co.vuckovic.demo.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Publishes connection pool gauges to the application's own registry, tagged by pool name and
+ * remote address. Reactor Netty's default registrar writes to the global registry, so a second
+ * application context in the same JVM registered the same gauges again.
+ */
+final class ConnectionPoolMeters implements ConnectionProvider.MeterRegistrar {
+
+    private static final String PREFIX = "reactor.netty.connection.provider";
+
+    private final MeterRegistry meterRegistry;
+    // the pool whose gauges are published for each name and address
+    private final Map<String, Registered> registered = new ConcurrentHashMap<>();
+
+    ConnectionPoolMeters(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public synchronized void registerMetrics(String poolName, String id, SocketAddress remoteAddress,
+                                             ConnectionPoolMetrics metrics) {
+        // a pool recreated for the same address takes over the gauges of the old one
+        Registered previous = registered.remove(key(poolName, remoteAddress));
+        if (previous != null) {
+            previous.meters().forEach(meterRegistry::remove);
+        }
+        Tags tags = Tags.of("name", poolName, "remote.address", remoteAddress.toString());
+        registered.put(key(poolName, remoteAddress), new Registered(id, List.of(
+                gauge(".total.connections", "Connections open, active or idle", tags, metrics,
+                        ConnectionPoolMetrics::allocatedSize),
+                gauge(".active.connections", "Connections lent out to a request", tags, metrics,
+                        ConnectionPoolMetrics::acquiredSize),
+                gauge(".idle.connections", "Connections open and unused", tags, metrics,
+                        ConnectionPoolMetrics::idleSize),
+                gauge(".pending.connections", "Requests waiting for a connection", tags, metrics,
+                        ConnectionPoolMetrics::pendingAcquireSize),
+                gauge(".max.connections", "Connections the pool may open", tags, metrics,
+                        ConnectionPoolMetrics::maxAllocatedSize),
+                gauge(".max.pending.connections", "Requests allowed to wait for a connection", tags, metrics,
+                        ConnectionPoolMetrics::maxPendingAcquireSize))));
+    }
+
+    @Override
+    public synchronized void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        Registered current = registered.get(key(poolName, remoteAddress));
+        if (current != null && current.id().equals(id)) {
+            registered.remove(key(poolName, remoteAddress));
+            current.meters().forEach(meterRegistry::remove);
+        }
+    }
+
+    private Meter gauge(String suffix, String description, Tags tags, ConnectionPoolMetrics metrics,
+                        ToIntFunction<ConnectionPoolMetrics> value) {
+        return Gauge.builder(PREFIX + suffix, metrics, value::applyAsInt)
+                .description(description)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private static String key(String poolName, SocketAddress remoteAddress) {
+        return poolName + "|" + remoteAddress;
+    }
+
+    private record Registered(String id, List<Meter> meters) {}
+}
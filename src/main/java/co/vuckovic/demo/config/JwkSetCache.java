@@ -0,0 +1,133 @@
+package co.vuckovic.demo.config;
+
+import co.vuckovic.demo.service.SingleFlight;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Realm signing keys for the resource server. Fetched eagerly at startup and refreshed in the
+ * background, so no request pays for the JWKS round trip; a token signed with an unknown
+ * {@code kid} (key rotation) triggers one rate-limited re-fetch. Keys come from
+ * {@code jwk-set-uri}, or else from the {@code jwks_uri} the {@code issuer-uri} advertises in its
+ * OpenID configuration.
+ */
+@Slf4j
+@Component
+@RegisterReflectionForBinding(JwkSetCache.OpenIdConfiguration.class)
+public class JwkSetCache {
+
+    private final WebClient webClient;
+    private final String source;
+    private final Mono<String> jwkSetUri;
+    private final KeycloakJwtProperties jwtProps;
+
+    private final SingleFlight<JWKSet> fetching = new SingleFlight<>();
+    private final Disposable.Swap refresher = Disposables.swap();
+    private volatile JWKSet keys = new JWKSet();
+    private volatile Instant fetchedAt = Instant.EPOCH;
+
+    public JwkSetCache(WebClient.Builder webClientBuilder,
+                       OAuth2ResourceServerProperties resourceServerProps,
+                       KeycloakJwtProperties jwtProps) {
+        this.webClient = webClientBuilder.build();
+        this.jwtProps = jwtProps;
+        OAuth2ResourceServerProperties.Jwt jwt = resourceServerProps.getJwt();
+        if (jwt.getJwkSetUri() != null) {
+            this.source = jwt.getJwkSetUri();
+            this.jwkSetUri = Mono.just(jwt.getJwkSetUri());
+        } else if (jwt.getIssuerUri() != null) {
+            this.source = jwt.getIssuerUri();
+            this.jwkSetUri = discover(jwt.getIssuerUri());
+        } else {
+            throw new IllegalStateException("Set spring.security.oauth2.resourceserver.jwt.jwk-set-uri or issuer-uri");
+        }
+    }
+
+    /**
+     * The issuer's {@code jwks_uri}, looked up once; a failed lookup is tried again on the next fetch.
+     */
+    private Mono<String> discover(String issuerUri) {
+        return webClient.get()
+                .uri(issuerUri.replaceAll("/+$", "") + "/.well-known/openid-configuration")
+                .retrieve()
+                .bodyToMono(OpenIdConfiguration.class)
+                .mapNotNull(OpenIdConfiguration::jwks_uri)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No jwks_uri advertised by " + issuerUri)))
+                .cache(uri -> Duration.ofMillis(Long.MAX_VALUE), e -> Duration.ZERO, () -> Duration.ZERO);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        refresher.update(Flux.interval(Duration.ZERO, jwtProps.jwksRefreshInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> refresh()
+                        .onErrorResume(e -> {
+                            log.warn("JWKS refresh from {} failed: {}", source, e.toString());
+                            return Mono.empty();
+                        }))
+                .subscribe());
+    }
+
+    @PreDestroy
+    void stop() {
+        refresher.dispose();
+    }
+
+    /**
+     * JWK source for {@code NimbusReactiveJwtDecoder}: keys matching the token header.
+     */
+    public Flux<JWK> select(SignedJWT jwt) {
+        JWKSelector selector = new JWKSelector(JWKMatcher.forJWSHeader(jwt.getHeader()));
+        List<JWK> matches = selector.select(keys);
+        if (!matches.isEmpty()) {
+            return Flux.fromIterable(matches);
+        }
+        if (Instant.now().isBefore(fetchedAt.plus(jwtProps.jwksMinRefreshInterval()))) {
+            return Flux.empty();
+        }
+        return refresh().flatMapIterable(selector::select);
+    }
+
+    Mono<JWKSet> refresh() {
+        return fetching.run(() -> jwkSetUri
+                .flatMap(uri -> webClient.get()
+                        .uri(uri)
+                        .retrieve()
+                        .bodyToMono(String.class))
+                .map(JwkSetCache::parse)
+                .doOnNext(set -> {
+                    keys = set;
+                    fetchedAt = Instant.now();
+                }));
+    }
+
+    record OpenIdConfiguration(String jwks_uri) {}
+
+    private static JWKSet parse(String body) {
+        try {
+            return JWKSet.parse(body);
+        } catch (ParseException e) {
+            throw new IllegalStateException("Malformed JWK set", e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package co.vuckovic.demo.config;
+
+import jakarta.ws.rs.client.ClientBuilder;
+import lombok.RequiredArgsConstructor;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.keycloak.admin.client.JacksonProvider;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.KeycloakBuilder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keycloak's blocking admin client, only created for {@code keycloak.backend=admin-client}.
+ * It logs in with the same master-realm admin as {@code KeycloakTokenProvider} but renews its
+ * own token, and its Apache HTTP pool is sized and timed from {@code keycloak.http}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "keycloak.backend", havingValue = "admin-client")
+@RequiredArgsConstructor
+public class KeycloakAdminClientConfig {
+
+    private final KeycloakProperties props;
+    private final KeycloakHttpProperties http;
+
+    @Bean(destroyMethod = "close")
+    public Keycloak keycloakAdminClient() {
+        ResteasyClientBuilder client = ((ResteasyClientBuilder) ClientBuilder.newBuilder())
+                .connectionPoolSize(http.maxConnections())
+                .maxPooledPerRoute(http.maxConnections())
+                .connectionCheckoutTimeout(http.pendingAcquireTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .connectTimeout(http.connectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(http.readTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        // what the admin client registers on its own default client
+        client.register(new JacksonProvider(), 100);
+        return KeycloakBuilder.builder()
+                // not load balanced: only the WebClient backend spreads calls over keycloak.server-urls
+                .serverUrl(props.endpoints().get(0))
+                .realm(props.masterRealm())
+                .clientId(props.masterClientId())
+                .username(props.adminUser())
+                .password(props.adminPassword())
+                .resteasyClient(client.build())
+                .build();
+    }
+}
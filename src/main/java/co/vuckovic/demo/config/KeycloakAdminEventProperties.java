@@ -0,0 +1,19 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Polling of the realm's admin events, used to notice changes made outside this service.
+ * Requires "Save admin events" to be enabled on the realm.
+ */
+@ConfigurationProperties("keycloak.admin-events")
+public record KeycloakAdminEventProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("10s") Duration pollInterval,
+        @DefaultValue("100") int pageSize,
+        // how far this instance's clock may run ahead of Keycloak's; events that recent are read again at startup
+        @DefaultValue("1m") Duration clockSkew
+) {}
@@ -0,0 +1,21 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+/**
+ * JWT authentication that keeps the precomputed {@link AuthoritySet} for authorization checks.
+ */
+public class KeycloakAuthenticationToken extends JwtAuthenticationToken {
+
+    private final transient AuthoritySet authoritySet;
+
+    public KeycloakAuthenticationToken(Jwt jwt, AuthoritySet authoritySet) {
+        super(jwt, authoritySet.authorities());
+        this.authoritySet = authoritySet;
+    }
+
+    public AuthoritySet authoritySet() {
+        return authoritySet;
+    }
+}
@@ -0,0 +1,12 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("keycloak.batch")
+public record KeycloakBatchProperties(
+        // batch operations running against Keycloak at the same time
+        @DefaultValue("8") int concurrency,
+        // operations started per second, 0 for no limit
+        @DefaultValue("0") int rateLimit
+) {}
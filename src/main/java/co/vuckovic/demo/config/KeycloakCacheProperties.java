@@ -0,0 +1,16 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.cache")
+public record KeycloakCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        // users with cached details, each holding every facet combination read for it
+        @DefaultValue("10000") long maxUsers,
+        @DefaultValue("1000") long maxPages,
+        // upper bound on staleness when an admin event is missed
+        @DefaultValue("60s") Duration ttl
+) {}
@@ -0,0 +1,13 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.coalescing")
+public record KeycloakCoalescingProperties(
+        @DefaultValue("true") boolean enabled,
+        // a GET may only be joined this long after it was sent, bounding how stale a shared answer can be
+        @DefaultValue("100ms") Duration window
+) {}
@@ -1,17 +1,35 @@
 package co.vuckovic.demo.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableReactiveMethodSecurity;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.ReactiveAuthorizationManager;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.oauth2.server.resource.authentication.*;
+import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+import org.springframework.security.oauth2.jwt.JwtClaimValidator;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.security.web.server.authorization.AuthorizationContext;
-import reactor.core.publisher.Mono;
+import org.springframework.security.web.server.util.matcher.OrServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 @Configuration
 @EnableWebFluxSecurity
@@ -21,53 +39,107 @@ public class KeycloakConfig {
     @Bean
     public SecurityWebFilterChain securityFilterChain(
             ServerHttpSecurity http,
-            ReactiveJwtAuthenticationConverterAdapter jwtConverter
+            KeycloakJwtAuthenticationConverter jwtConverter,
+            SecurityRuleProperties ruleProps,
+            AuthoritySetCache authoritySets
     ) {
         return http
                 .csrf(csrf -> csrf.disable())
-                .authorizeExchange(ex -> ex
-                        .pathMatchers("/api/users").hasRole("USER")
-                        .pathMatchers("/api/edit").hasRole("EDITOR")
-                        .pathMatchers("/api/admin/**")
-                        .access(this::adminOrManageUsers)
-                        .pathMatchers(
-                                "/swagger-ui.html",
-                                "/swagger-ui/**",
-                                "/swagger-ui/index.html",
-                                "/v3/api-docs/**",
-                                "/webjars/**"
-                        ).permitAll()
-                        .anyExchange().authenticated()
-                )
+                .authorizeExchange(ex -> {
+                    // compiled once: each rule becomes a path matcher plus a precomputed authority bitmap
+                    for (SecurityRuleProperties.Rule rule : ruleProps.rules()) {
+                        var access = matchers(ex, rule);
+                        if (rule.permitAll()) {
+                            access.permitAll();
+                        } else if (rule.roles().isEmpty()) {
+                            access.authenticated();
+                        } else {
+                            access.access(hasAnyRole(authoritySets, authoritySets.forRoles(rule.roles())));
+                        }
+                    }
+                    ex.anyExchange().authenticated();
+                })
                 .oauth2ResourceServer(o -> o
                         .jwt(j -> j.jwtAuthenticationConverter(jwtConverter))
                 )
                 .build();
     }
 
+    /**
+     * Verifies signatures against the cached realm keys, limited to the configured
+     * {@code jws-algorithms}, then checks the timestamps and, when configured, the issuer and
+     * audiences, as Spring Boot's own decoder would.
+     */
+    @Bean
+    public ReactiveJwtDecoder jwtDecoder(JwkSetCache jwkSetCache,
+                                         OAuth2ResourceServerProperties resourceServerProps,
+                                         KeycloakJwtProperties jwtProps,
+                                         MeterRegistry meterRegistry) {
+        OAuth2ResourceServerProperties.Jwt jwt = resourceServerProps.getJwt();
+        var builder = NimbusReactiveJwtDecoder.withJwkSource(jwkSetCache::select);
+        for (String name : jwt.getJwsAlgorithms()) {
+            SignatureAlgorithm algorithm = SignatureAlgorithm.from(name);
+            if (algorithm == null) {
+                throw new IllegalStateException("Unsupported JWS algorithm: " + name);
+            }
+            builder.jwsAlgorithm(algorithm);
+        }
+        NimbusReactiveJwtDecoder decoder = builder.build();
+        decoder.setJwtValidator(validator(jwt));
+        if (!jwtProps.cacheEnabled()) {
+            return decoder;
+        }
+        var caching = new CachingReactiveJwtDecoder(decoder, jwtProps.cacheMaxSize());
+        CaffeineCacheMetrics.monitor(meterRegistry, caching.cache(), "jwt.decoded");
+        return caching;
+    }
+
+    private static OAuth2TokenValidator<Jwt> validator(OAuth2ResourceServerProperties.Jwt jwt) {
+        List<OAuth2TokenValidator<Jwt>> validators = new ArrayList<>();
+        validators.add(jwt.getIssuerUri() != null
+                ? JwtValidators.createDefaultWithIssuer(jwt.getIssuerUri())
+                : JwtValidators.createDefault());
+        List<String> audiences = jwt.getAudiences();
+        if (!audiences.isEmpty()) {
+            validators.add(new JwtClaimValidator<List<String>>(JwtClaimNames.AUD,
+                    aud -> aud != null && !Collections.disjoint(aud, audiences)));
+        }
+        return new DelegatingOAuth2TokenValidator<>(validators);
+    }
+
     @Bean
-    public ReactiveJwtAuthenticationConverterAdapter jwtConverter() {
-        var grantedConverter = new JwtGrantedAuthoritiesConverter();
-        grantedConverter.setAuthorityPrefix("ROLE_");
-        grantedConverter.setAuthoritiesClaimName("roles");
+    public KeycloakJwtAuthenticationConverter jwtConverter(AuthoritySetCache authoritySets) {
+        return new KeycloakJwtAuthenticationConverter(authoritySets);
+    }
 
-        var conv = new JwtAuthenticationConverter();
-        conv.setJwtGrantedAuthoritiesConverter(grantedConverter);
-        return new ReactiveJwtAuthenticationConverterAdapter(conv);
+    private static ServerHttpSecurity.AuthorizeExchangeSpec.Access matchers(
+            ServerHttpSecurity.AuthorizeExchangeSpec ex,
+            SecurityRuleProperties.Rule rule
+    ) {
+        String[] paths = rule.paths().toArray(String[]::new);
+        if (rule.methods().isEmpty()) {
+            return ex.pathMatchers(paths);
+        }
+        List<ServerWebExchangeMatcher> byMethod = rule.methods().stream()
+                .map(method -> ServerWebExchangeMatchers.pathMatchers(method, paths))
+                .toList();
+        return ex.matchers(new OrServerWebExchangeMatcher(byMethod));
     }
 
-    private Mono<org.springframework.security.authorization.AuthorizationDecision>
-    adminOrManageUsers(
-            Mono<org.springframework.security.core.Authentication> authMono,
-            AuthorizationContext ctx
+    private static ReactiveAuthorizationManager<AuthorizationContext> hasAnyRole(
+            AuthoritySetCache authoritySets,
+            AuthoritySet required
     ) {
-        return authMono.map(auth -> {
-            Collection<? extends GrantedAuthority> auths = auth.getAuthorities();
-            boolean ok = auths.stream()
-                    .map(GrantedAuthority::getAuthority)
-                    .anyMatch(a -> a.equals("ROLE_ADMIN")
-                            || a.equals("ROLE_manage-users"));
-            return new org.springframework.security.authorization.AuthorizationDecision(ok);
-        });
+        return (authMono, ctx) -> authMono
+                .filter(Authentication::isAuthenticated)
+                .map(auth -> {
+                    AuthoritySet granted = auth instanceof KeycloakAuthenticationToken token
+                            ? token.authoritySet()
+                            : authoritySets.of(auth.getAuthorities().stream()
+                                    .map(GrantedAuthority::getAuthority)
+                                    .toList());
+                    return new AuthorizationDecision(granted.hasAny(required));
+                })
+                .defaultIfEmpty(new AuthorizationDecision(false));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,14 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.detail")
+public record KeycloakDetailProperties(
+        // budget for the whole user detail lookup, including the user itself
+        @DefaultValue("2s") Duration timeout,
+        // a facet slower than this is left out and reported as incomplete
+        @DefaultValue("500ms") Duration facetTimeout
+) {}
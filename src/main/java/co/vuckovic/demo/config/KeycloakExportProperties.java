@@ -0,0 +1,18 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+
+@ConfigurationProperties("keycloak.export")
+public record KeycloakExportProperties(
+        // export files and their checkpoints are written here
+        @DefaultValue("data/exports") Path directory,
+        // users per Keycloak page, and per gzip member in the file
+        @DefaultValue("500") int pageSize,
+        // pages read and enriched ahead of the one being written
+        @DefaultValue("2") int prefetchPages,
+        // role lookups in flight per page
+        @DefaultValue("8") int concurrency
+) {}
@@ -0,0 +1,58 @@
+package co.vuckovic.demo.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * One tuned Reactor Netty client shared by every WebClient that talks to Keycloak, including
+ * token fetches. Pool gauges (active, idle, pending) are published as
+ * {@code reactor.netty.connection.provider.*{name=keycloak}} when {@code keycloak.http.metrics} is on.
+ * <p>
+ * No read or write timeout handlers sit on the connections: they would stay on pooled idle
+ * connections, closing them before {@code max-idle-time} and capping every operation's budget.
+ * An admin API call waits for its response as long as its operation's resilience timeout, set
+ * per request by the resilience filter; {@code response-timeout} bounds everything else, such as
+ * token fetches and health checks.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class KeycloakHttpConfig {
+
+    private final KeycloakHttpProperties http;
+    private final MeterRegistry meterRegistry;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider keycloakConnectionProvider() {
+        ConnectionPoolMeters meters = new ConnectionPoolMeters(meterRegistry);
+        return ConnectionProvider.builder("keycloak")
+                .maxConnections(http.maxConnections())
+                .pendingAcquireMaxCount(http.pendingAcquireMaxCount())
+                .pendingAcquireTimeout(http.pendingAcquireTimeout())
+                .maxIdleTime(http.maxIdleTime())
+                .maxLifeTime(http.maxLifeTime())
+                .evictInBackground(http.evictionInterval())
+                .metrics(http.metrics(), () -> meters)
+                .build();
+    }
+
+    @Bean
+    public ReactorClientHttpConnector keycloakHttpConnector(ConnectionProvider keycloakConnectionProvider) {
+        HttpClient client = HttpClient.create(keycloakConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) http.connectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, http.keepAlive())
+                .keepAlive(http.keepAlive())
+                .responseTimeout(http.responseTimeout())
+                .compress(http.compression());
+        if (http.h2c()) {
+            client = client.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+        return new ReactorClientHttpConnector(client);
+    }
+}
@@ -0,0 +1,28 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.http")
+public record KeycloakHttpProperties(
+        @DefaultValue("100") int maxConnections,
+        // requests allowed to wait for a pooled connection before failing fast
+        @DefaultValue("1000") int pendingAcquireMaxCount,
+        @DefaultValue("5s") Duration pendingAcquireTimeout,
+        @DefaultValue("30s") Duration maxIdleTime,
+        @DefaultValue("5m") Duration maxLifeTime,
+        @DefaultValue("30s") Duration evictionInterval,
+        @DefaultValue("true") boolean keepAlive,
+        @DefaultValue("2s") Duration connectTimeout,
+        // socket read timeout of the admin-client backend only
+        @DefaultValue("10s") Duration readTimeout,
+        // how long a request waits for response headers; admin API calls use their operation
+        // timeout (keycloak.resilience) instead, so this bounds token and health-check requests
+        @DefaultValue("10s") Duration responseTimeout,
+        @DefaultValue("true") boolean compression,
+        // cleartext HTTP/2 with HTTP/1.1 fallback
+        @DefaultValue("false") boolean h2c,
+        @DefaultValue("true") boolean metrics
+) {}
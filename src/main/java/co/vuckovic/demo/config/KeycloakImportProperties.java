@@ -0,0 +1,12 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("keycloak.import")
+public record KeycloakImportProperties(
+        // users sent to Keycloak's partialImport in one request (and one transaction)
+        @DefaultValue("500") int chunkSize,
+        // chunks being imported at the same time
+        @DefaultValue("2") int parallelism
+) {}
@@ -0,0 +1,16 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.jobs")
+public record KeycloakJobProperties(
+        // asynchronous writes running against Keycloak at the same time
+        @DefaultValue("4") int concurrency,
+        // queued jobs beyond this are rejected with 503
+        @DefaultValue("1000") int queueCapacity,
+        // how long a job's status stays queryable
+        @DefaultValue("15m") Duration retention
+) {}
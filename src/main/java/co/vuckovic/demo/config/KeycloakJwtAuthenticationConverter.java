@@ -0,0 +1,38 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the {@code roles} claim to {@code ROLE_*} authorities through {@link AuthoritySetCache},
+ * so tokens with the same roles share one authority set instead of rebuilding it per request.
+ * The claim is a JSON array, or a string of roles separated by spaces or commas.
+ */
+public class KeycloakJwtAuthenticationConverter implements Converter<Jwt, Mono<AbstractAuthenticationToken>> {
+
+    private static final String ROLES_CLAIM = "roles";
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s,]+");
+
+    private final AuthoritySetCache authoritySets;
+
+    public KeycloakJwtAuthenticationConverter(AuthoritySetCache authoritySets) {
+        this.authoritySets = authoritySets;
+    }
+
+    @Override
+    public Mono<AbstractAuthenticationToken> convert(Jwt jwt) {
+        // read the raw claim; getClaimAsStringList goes through the conversion service on every call
+        List<String> roles = switch (jwt.<Object>getClaim(ROLES_CLAIM)) {
+            case Collection<?> claim -> claim.stream().map(String::valueOf).toList();
+            case String claim -> SEPARATORS.splitAsStream(claim).filter(r -> !r.isEmpty()).toList();
+            case null, default -> List.of();
+        };
+        return Mono.just(new KeycloakAuthenticationToken(jwt, authoritySets.forRoles(roles)));
+    }
+}
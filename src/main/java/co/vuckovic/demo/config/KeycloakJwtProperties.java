@@ -0,0 +1,16 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.jwt")
+public record KeycloakJwtProperties(
+        // keep verified tokens until their exp so repeat requests skip signature checks
+        @DefaultValue("true") boolean cacheEnabled,
+        @DefaultValue("10000") long cacheMaxSize,
+        @DefaultValue("5m") Duration jwksRefreshInterval,
+        // lower bound between re-fetches triggered by an unknown kid
+        @DefaultValue("10s") Duration jwksMinRefreshInterval
+) {}
@@ -0,0 +1,21 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("keycloak.paging")
+public record KeycloakPagingProperties(
+        @DefaultValue("100") int defaultPageSize,
+        @DefaultValue("1000") int maxPageSize,
+        // pages kept in flight against Keycloak while streaming
+        @DefaultValue("4") int prefetchPages,
+        // the full user list is projected straight from Keycloak's JSON instead of being bound to objects
+        @DefaultValue("true") boolean passThrough
+) {
+    public int clamp(Integer requested) {
+        if (requested == null || requested < 1) {
+            return defaultPageSize;
+        }
+        return Math.min(requested, maxPageSize);
+    }
+}
@@ -2,6 +2,8 @@ package co.vuckovic.demo.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.List;
+
 
 @ConfigurationProperties("keycloak")
 public record KeycloakProperties(
@@ -12,5 +14,11 @@ public record KeycloakProperties(
         String masterRealm,
         String masterClientId,
         String adminUser,
-        String adminPassword
-) {}
\ No newline at end of file
+        String adminPassword,
+        // cluster nodes to spread admin and token traffic over; server-url alone means one node
+        List<String> serverUrls
+) {
+    public List<String> endpoints() {
+        return serverUrls == null || serverUrls.isEmpty() ? List.of(serverUrl) : serverUrls;
+    }
+}
@@ -0,0 +1,26 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Local replica of the realm's users, kept current from admin events. Requires
+ * {@code keycloak.admin-events}; without them it is only refreshed by full reloads.
+ */
+@ConfigurationProperties("keycloak.replica")
+public record KeycloakReplicaProperties(
+        @DefaultValue("false") boolean enabled,
+        // reads go to Keycloak while the replica is older than this
+        @DefaultValue("30s") Duration maxStaleness,
+        // safety net for changes no admin event reports
+        @DefaultValue("6h") Duration fullReloadInterval,
+        @DefaultValue("data/user-replica.snapshot") Path snapshotFile,
+        @DefaultValue("5m") Duration snapshotInterval,
+        // older snapshots are ignored: the admin events needed to catch up may have expired
+        @DefaultValue("1h") Duration maxSnapshotAge,
+        // changed users re-read from Keycloak at the same time
+        @DefaultValue("4") int fetchConcurrency
+) {}
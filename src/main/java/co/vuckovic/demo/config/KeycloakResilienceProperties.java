@@ -0,0 +1,49 @@
+package co.vuckovic.demo.config;
+
+import co.vuckovic.demo.service.KeycloakOperation;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+@ConfigurationProperties("keycloak.resilience")
+public record KeycloakResilienceProperties(
+        @DefaultValue("5s") Duration defaultTimeout,
+        // per-operation overrides, e.g. list-users: 10s
+        @DefaultValue Map<KeycloakOperation, Duration> timeouts,
+        @DefaultValue Retry retry,
+        @DefaultValue CircuitBreaker circuitBreaker,
+        @DefaultValue Bulkhead bulkhead
+) {
+    public Duration timeout(KeycloakOperation operation) {
+        return timeouts.getOrDefault(operation, defaultTimeout);
+    }
+
+    // only GET, PUT and DELETE are retried
+    public record Retry(
+            @DefaultValue("2") int maxRetries,
+            @DefaultValue("100ms") Duration minBackoff,
+            @DefaultValue("1s") Duration maxBackoff,
+            @DefaultValue("0.5") double jitter
+    ) {}
+
+    public record CircuitBreaker(
+            @DefaultValue("50") float failureRateThreshold,
+            @DefaultValue("3s") Duration slowCallDurationThreshold,
+            @DefaultValue("80") float slowCallRateThreshold,
+            @DefaultValue("50") int slidingWindowSize,
+            @DefaultValue("20") int minimumNumberOfCalls,
+            @DefaultValue("10s") Duration waitDurationInOpenState,
+            @DefaultValue("5") int permittedCallsInHalfOpenState
+    ) {}
+
+    public record Bulkhead(
+            @DefaultValue("50") int defaultMaxConcurrentCalls,
+            @DefaultValue Map<KeycloakOperation, Integer> maxConcurrentCalls
+    ) {
+        public int maxConcurrentCalls(KeycloakOperation operation) {
+            return maxConcurrentCalls.getOrDefault(operation, defaultMaxConcurrentCalls);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.roles")
+public record KeycloakRoleProperties(
+        // how long the local realm-role catalog is trusted before it is reloaded
+        @DefaultValue("5m") Duration catalogTtl,
+        // an unknown role name reloads the catalog at most this often before it is rejected
+        @DefaultValue("5s") Duration missReloadInterval,
+        @DefaultValue("true") boolean warmOnStartup,
+        // how listings with expand=roles find each user's roles
+        @DefaultValue("per-user") Enrichment enrichment,
+        // role member or user role lookups in flight while enriching a listing
+        @DefaultValue("8") int enrichmentConcurrency
+) {
+    public enum Enrichment {
+        /** Bulk when it needs fewer Keycloak calls and no group maps a realm role, per-user otherwise. */
+        AUTO,
+        /** One role-mapping lookup per user. */
+        PER_USER,
+        /** Every realm role's member list read once and joined locally. */
+        BULK
+    }
+}
@@ -0,0 +1,43 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * How traffic is spread over {@code keycloak.server-urls}; unused with a single endpoint.
+ */
+@ConfigurationProperties("keycloak.routing")
+public record KeycloakRoutingProperties(
+        @DefaultValue HealthCheck healthCheck,
+        @DefaultValue Ejection ejection,
+        @DefaultValue Hedging hedging
+) {
+    public record HealthCheck(
+            @DefaultValue("5s") Duration interval,
+            @DefaultValue("2s") Duration timeout,
+            // any 2xx counts as healthy
+            @DefaultValue("/realms/master") String path,
+            @DefaultValue("2") int unhealthyThreshold,
+            @DefaultValue("2") int healthyThreshold
+    ) {}
+
+    // passive: a node is skipped for a while after failing this many requests in a row
+    public record Ejection(
+            @DefaultValue("5") int consecutiveFailures,
+            @DefaultValue("30s") Duration duration,
+            @DefaultValue("50") int maxEjectedPercent
+    ) {}
+
+    // GETs still unanswered after factor x the operation's average latency go to a second node too
+    public record Hedging(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("3.0") double latencyFactor,
+            @DefaultValue("100ms") Duration minDelay,
+            // hedged requests as a share of all GETs
+            @DefaultValue("10") int maxPercent,
+            // hedges that can be saved up while Keycloak is fast and spent at once when it stalls
+            @DefaultValue("10") int maxBurst
+    ) {}
+}
@@ -0,0 +1,14 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("keycloak.token")
+public record KeycloakTokenProperties(
+        // renew this long before the token's expires_in runs out
+        @DefaultValue("30s") Duration expirySkew,
+        // use the refresh_token grant before falling back to the password grant
+        @DefaultValue("true") boolean refreshEnabled
+) {}
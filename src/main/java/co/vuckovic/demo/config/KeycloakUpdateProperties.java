@@ -0,0 +1,11 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("keycloak.update")
+public record KeycloakUpdateProperties(
+        // read and write back the whole user on every update, for setups (e.g. strict user
+        // profiles) that reject partial representations
+        @DefaultValue("false") boolean fullRepresentation
+) {}
@@ -6,8 +6,6 @@ import io.swagger.v3.oas.annotations.info.Contact;
 import io.swagger.v3.oas.annotations.info.Info;
 import io.swagger.v3.oas.annotations.security.*;
 import io.swagger.v3.oas.annotations.servers.Server;
-import org.springdoc.core.GroupedOpenApi;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @OpenAPIDefinition(
@@ -29,23 +27,8 @@ import org.springframework.context.annotation.Configuration;
         bearerFormat     = "JWT",
         description      = "Provide your JWT token here"
 )
+// groups are springdoc.group-configs in application.yml, so this compiles without springdoc
 @Configuration
 public class OpenApiConfig {
-
-    @Bean
-    public GroupedOpenApi adminApi() {
-        return GroupedOpenApi.builder()
-                .group("admin")
-                .pathsToMatch("/api/admin/**")
-                .build();
-    }
-
-    @Bean
-    public GroupedOpenApi publicApi() {
-        return GroupedOpenApi.builder()
-                .group("public")
-                .pathsToMatch("/api/users", "/api/users/**")
-                .build();
-    }
 }
 
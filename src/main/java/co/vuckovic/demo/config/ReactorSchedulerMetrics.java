@@ -0,0 +1,42 @@
+package co.vuckovic.demo.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.Scannable;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes queue depth, active tasks and task timings of Reactor's fixed-size schedulers
+ * (e.g. {@code parallel}, which runs timeouts, retry backoff and delays) as
+ * {@code reactor.scheduler.executor.*}. Schedulers created before this bean are not covered.
+ */
+@Component
+public class ReactorSchedulerMetrics implements DisposableBean {
+
+    private static final String DECORATOR = ReactorSchedulerMetrics.class.getName();
+
+    public ReactorSchedulerMetrics(MeterRegistry meterRegistry) {
+        AtomicInteger workers = new AtomicInteger();
+        Schedulers.addExecutorServiceDecorator(DECORATOR, (scheduler, executor) -> {
+            // e.g. parallel(4,"parallel") -> parallel
+            String name = Scannable.from(scheduler).scanOrDefault(Scannable.Attr.NAME, scheduler.toString())
+                    .split("\\(")[0];
+            // bounded-elastic workers come and go; per-worker meters would pile up
+            if (name.startsWith("boundedElastic")) {
+                return executor;
+            }
+            return ExecutorServiceMetrics.monitor(meterRegistry, executor, name + "-" + workers.incrementAndGet(),
+                    "reactor.scheduler", Tags.of("scheduler", name));
+        });
+    }
+
+    @Override
+    public void destroy() {
+        Schedulers.removeExecutorServiceDecorator(DECORATOR);
+    }
+}
@@ -0,0 +1,92 @@
+package co.vuckovic.demo.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Path-to-role table for the security filter chain, evaluated top to bottom; the first
+ * matching rule decides. Paths matching no rule only require authentication.
+ * <p>
+ * {@link #ADMIN_RULE} is always appended, so the admin API stays locked down when a profile
+ * replaces the list without it. Startup fails if an earlier rule opens any path under
+ * {@code /api/admin/**} to tokens without a role, such as one on {@code /api/admin/users/{id}/roles}.
+ */
+@ConfigurationProperties("security")
+public record SecurityRuleProperties(@DefaultValue List<Rule> rules) {
+
+    public static final Rule ADMIN_RULE =
+            new Rule(List.of("/api/admin/**"), List.of(), List.of("ADMIN", "manage-users"), false);
+
+    private static final List<String> ADMIN_PREFIX = List.of("api", "admin");
+
+    public SecurityRuleProperties {
+        List<Rule> all = new ArrayList<>(rules);
+        all.add(ADMIN_RULE);
+        for (Rule rule : all) {
+            AdminReach reach = rule.adminReach();
+            if (reach == AdminReach.NONE) {
+                continue;
+            }
+            if (rule.permitAll() || rule.roles().isEmpty()) {
+                throw new IllegalStateException("security.rules: " + rule.paths()
+                        + " leaves part of /api/admin/** open to tokens without a role");
+            }
+            // later rules can no longer decide anything under /api/admin
+            if (reach == AdminReach.ALL && rule.methods().isEmpty()) {
+                break;
+            }
+        }
+        rules = List.copyOf(all);
+    }
+
+    /**
+     * How much of {@code /api/admin/**} a path pattern matches: none of it, some paths, or all.
+     */
+    enum AdminReach {
+        NONE, PART, ALL;
+
+        static AdminReach of(String pattern) {
+            String[] segments = pattern.replaceFirst("^/+", "").split("/+");
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.equals("**") || segment.startsWith("{*")) {
+                    return ALL;
+                }
+                if (i == ADMIN_PREFIX.size()) {
+                    // past /api/admin: some, but not every, path below it
+                    return PART;
+                }
+                if (!matches(segment, ADMIN_PREFIX.get(i))) {
+                    return NONE;
+                }
+            }
+            return segments.length >= ADMIN_PREFIX.size() ? PART : NONE;
+        }
+
+        private static boolean matches(String segment, String literal) {
+            return PathPatternParser.defaultInstance.parse("/" + segment)
+                    .matches(PathContainer.parsePath("/" + literal));
+        }
+    }
+
+    public record Rule(
+            List<String> paths,
+            // empty means every method
+            @DefaultValue List<HttpMethod> methods,
+            // realm roles without the ROLE_ prefix; any one of them grants access
+            @DefaultValue List<String> roles,
+            @DefaultValue("false") boolean permitAll
+    ) {
+
+        AdminReach adminReach() {
+            return paths.stream().map(AdminReach::of).max(Comparator.naturalOrder()).orElse(AdminReach.NONE);
+        }
+    }
+}
@@ -1,32 +1,63 @@
 package co.vuckovic.demo.config;
 
+import co.vuckovic.demo.service.KeycloakCoalescingFilter;
+import co.vuckovic.demo.service.KeycloakLoadBalancer;
+import co.vuckovic.demo.service.KeycloakMetricsFilter;
+import co.vuckovic.demo.service.KeycloakResilienceFilter;
 import co.vuckovic.demo.service.KeycloakTokenProvider;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 @Configuration
 @RequiredArgsConstructor
 public class WebClientConfig {
 
-    private final KeycloakProperties props;
     private final KeycloakTokenProvider tokenProvider;
+    private final KeycloakResilienceFilter resilienceFilter;
+    private final KeycloakMetricsFilter metricsFilter;
+    private final KeycloakCoalescingFilter coalescingFilter;
+    private final KeycloakLoadBalancer loadBalancer;
 
     @Bean
-    public WebClient keycloakWebClient(WebClient.Builder builder) {
-        ExchangeFilterFunction authFilter = ExchangeFilterFunction.ofRequestProcessor(req ->
-                tokenProvider.getToken()
-                        .map(t -> ClientRequest.from(req)
-                                .headers(h -> h.setBearerAuth(t))
-                                .build())
-        );
+    public WebClient keycloakWebClient(WebClient.Builder builder, ReactorClientHttpConnector keycloakHttpConnector) {
+        // a 401 means the token was revoked or expired early: drop it and retry once with a fresh one
+        ExchangeFilterFunction authFilter = (req, next) -> tokenProvider.getToken()
+                .flatMap(token -> next.exchange(withBearer(req, token))
+                        .flatMap(resp -> {
+                            if (resp.statusCode() != HttpStatus.UNAUTHORIZED) {
+                                return Mono.just(resp);
+                            }
+                            tokenProvider.invalidate(token);
+                            return resp.releaseBody()
+                                    .then(tokenProvider.getToken())
+                                    .flatMap(fresh -> next.exchange(withBearer(req, fresh)));
+                        }));
 
         return builder
-                .baseUrl(props.serverUrl())
+                .clientConnector(keycloakHttpConnector)
+                .baseUrl(loadBalancer.baseUrl())
+                // identical concurrent GETs share one request before anything else sees them
+                .filter(coalescingFilter)
+                // one sample per call, spanning its retries and rejections
+                .filter(metricsFilter)
+                // outside the auth filter, so timeouts and retries also cover waiting for the token
+                .filter(resilienceFilter)
+                // inside the resilience filter, so every retry picks a node again
+                .filter(loadBalancer)
                 .filter(authFilter)
                 .build();
     }
-}
\ No newline at end of file
+
+    private static ClientRequest withBearer(ClientRequest req, String token) {
+        return ClientRequest.from(req)
+                .headers(h -> h.setBearerAuth(token))
+                .build();
+    }
+}
@@ -0,0 +1,36 @@
+package co.vuckovic.demo.controller;
+
+import co.vuckovic.demo.dto.RoleCatalogStatus;
+import co.vuckovic.demo.service.RoleCatalog;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+@Tag(name = "admin", description = "Admin-only user management operations")
+@RestController
+@RequestMapping("/api/admin/roles")
+@RequiredArgsConstructor
+public class RoleCatalogController {
+
+    private final RoleCatalog roleCatalog;
+
+    @Operation(
+            summary = "Reload the realm-role catalog",
+            description = "Re-reads all realm roles from Keycloak into the local catalog used for role assignment",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Catalog reloaded"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @PostMapping("/catalog/refresh")
+    public Mono<RoleCatalogStatus> refreshCatalog() {
+        return roleCatalog.refresh();
+    }
+}
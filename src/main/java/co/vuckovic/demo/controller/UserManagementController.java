@@ -1,22 +1,50 @@
 package co.vuckovic.demo.controller;
 
+import co.vuckovic.demo.dto.UserBatchOperation;
+import co.vuckovic.demo.dto.UserBatchResult;
 import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserEnableRequest;
+import co.vuckovic.demo.dto.UserExport;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserImportPolicy;
+import co.vuckovic.demo.dto.UserImportProgress;
+import co.vuckovic.demo.dto.UserJob;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
 import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSearchPage;
+import co.vuckovic.demo.dto.UserSearchQuery;
 import co.vuckovic.demo.dto.UserSummary;
 import co.vuckovic.demo.dto.UserUpdateRequest;
+import co.vuckovic.demo.service.UserBatchService;
+import co.vuckovic.demo.service.UserExportService;
+import co.vuckovic.demo.service.UserImportService;
+import co.vuckovic.demo.service.UserJobQueue;
 import co.vuckovic.demo.service.UserManagementService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 @Tag(name = "admin", description = "Admin-only user management operations")
 @RestController
@@ -24,35 +52,135 @@ import java.util.List;
 @RequiredArgsConstructor
 public class UserManagementController {
 
+    private static final String PREFER = "Prefer";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
+    private static final String RESPOND_ASYNC = "respond-async";
+
     private final UserManagementService userManagementService;
+    private final UserBatchService userBatchService;
+    private final UserImportService userImportService;
+    private final UserExportService userExportService;
+    private final UserJobQueue userJobQueue;
 
     @Operation(
             summary = "List all users",
             description = "Returns summaries for all users in the realm",
             security = @SecurityRequirement(name = "bearerAuth"),
             responses = {
-                    @ApiResponse(responseCode = "200", description = "List of users returned"),
+                    @ApiResponse(responseCode = "200", description = "List of users returned",
+                            content = @Content(array = @ArraySchema(schema = @Schema(implementation = UserSummary.class)))),
                     @ApiResponse(responseCode = "401", description = "Unauthorized")
             }
     )
     @GetMapping
-    public Flux<UserSummary> getAllUsers() {
-        return userManagementService.getAllUsers();
+    public ResponseEntity<Flux<DataBuffer>> getAllUsers() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(userManagementService.getAllUsersJson());
+    }
+
+    @Operation(
+            summary = "List one page of users",
+            description = "Returns up to `size` users starting at `cursor`; pass `nextCursor` back to get the following page",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Page of users returned"),
+                    @ApiResponse(responseCode = "400", description = "Invalid cursor"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @GetMapping(params = {"size", "!expand"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<UserPage> getUsersPage(
+            @Parameter(description = "Opaque cursor from the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, capped by keycloak.paging.max-page-size") @RequestParam Integer size) {
+        return userManagementService.getUsersPage(cursor, size);
+    }
+
+    @Operation(
+            summary = "Stream all users",
+            description = "Streams user summaries as NDJSON or server-sent events while pages arrive from Keycloak",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "User stream started"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @GetMapping(produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<UserSummary> streamUsers(
+            @Parameter(description = "Page size used against Keycloak") @RequestParam(required = false) Integer size) {
+        return userManagementService.streamUsers(size);
+    }
+
+    @Operation(
+            summary = "List all users with their roles",
+            description = "Streams every user with its effective realm roles. Roles are read per user or, in realms "
+                    + "with many more users than roles, from each role's member list once; see keycloak.roles.enrichment",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "User stream started",
+                            content = @Content(array = @ArraySchema(schema = @Schema(implementation = UserResponse.class)))),
+                    @ApiResponse(responseCode = "400", description = "Unsupported expand value"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @GetMapping(params = "expand",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<UserResponse> streamUsersWithRoles(
+            @Parameter(description = "Related data to include; only `roles` is supported") @RequestParam Set<String> expand,
+            @Parameter(description = "Page size used against Keycloak") @RequestParam(required = false) Integer size) {
+        if (!UserFacet.parse(expand).equals(Set.of(UserFacet.ROLES))) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Listings only support expand=roles"));
+        }
+        return userManagementService.streamUsersWithRoles(size);
+    }
+
+    @Operation(
+            summary = "Search users",
+            description = "Filters are passed to Keycloak, so only one page of matches crosses the wire; "
+                    + "`fields` limits what each result carries",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Page of matching users returned"),
+                    @ApiResponse(responseCode = "400", description = "Invalid cursor, field, role or filter combination"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @GetMapping("/search")
+    public Mono<UserSearchPage> searchUsers(
+            @Parameter(description = "Substring of username, email, first or last name") @RequestParam(required = false) String search,
+            @RequestParam(required = false) String username,
+            @RequestParam(required = false) String email,
+            @RequestParam(required = false) Boolean enabled,
+            @Parameter(description = "Match username and email exactly") @RequestParam(required = false) Boolean exact,
+            @Parameter(description = "Attribute query, e.g. `department:sales`") @RequestParam(required = false) String q,
+            @Parameter(description = "Members of this realm role; not combinable with other filters") @RequestParam(required = false) String role,
+            @Parameter(description = "Opaque cursor from the previous page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size, capped by keycloak.paging.max-page-size") @RequestParam(required = false) Integer size,
+            @Parameter(description = "Fields to return: id, username, email, enabled, attributes (default: id, username)")
+            @RequestParam(required = false) Set<String> fields) {
+        return userManagementService.searchUsers(
+                new UserSearchQuery(search, username, email, enabled, exact, q, role),
+                cursor, size, UserField.parse(fields));
     }
 
     @Operation(
             summary = "Get a user by ID",
-            description = "Fetch detailed information for one user",
+            description = "Fetch detailed information for one user; extra facets are fetched in parallel",
             security = @SecurityRequirement(name = "bearerAuth"),
             responses = {
                     @ApiResponse(responseCode = "200", description = "User found"),
                     @ApiResponse(responseCode = "404", description = "User not found"),
-                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+                    @ApiResponse(responseCode = "401", description = "Unauthorized"),
+                    @ApiResponse(responseCode = "504", description = "Keycloak did not return the user or its roles in time")
             }
     )
     @GetMapping("/{userId}")
-    public Mono<UserResponse> getUserById(@PathVariable String userId) {
-        return userManagementService.getUserById(userId);
+    public Mono<ResponseEntity<UserResponse>> getUserById(
+            @PathVariable String userId,
+            @Parameter(description = "Facets to include: roles, groups, attributes, sessions (default: roles)")
+            @RequestParam(required = false) Set<String> include) {
+        return userManagementService.getVersionedUser(userId, UserFacet.parse(include))
+                .map(u -> ResponseEntity.ok().eTag(u.etag()).body(u.value()));
     }
 
     @Operation(
@@ -73,34 +201,211 @@ public class UserManagementController {
 
     @Operation(
             summary = "Update an existing user",
-            description = "Modifies username, email, enabled flag or roles",
+            description = "Modifies username, email, enabled flag or roles. With `If-Match` the write only happens "
+                    + "if the user still has that ETag; with `Prefer: respond-async` it is queued and 202 returned",
             security = @SecurityRequirement(name = "bearerAuth"),
             responses = {
-                    @ApiResponse(responseCode = "200", description = "Update successful"),
+                    @ApiResponse(responseCode = "204", description = "Update successful"),
+                    @ApiResponse(responseCode = "202", description = "Update queued; poll the job in Location"),
                     @ApiResponse(responseCode = "400", description = "Invalid input"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized"),
-                    @ApiResponse(responseCode = "404", description = "User not found")
+                    @ApiResponse(responseCode = "404", description = "User not found"),
+                    @ApiResponse(responseCode = "409", description = "Username or email already taken"),
+                    @ApiResponse(responseCode = "412", description = "User changed since the given ETag")
             }
     )
     @PutMapping("/{userId}")
-    public void updateUser(@PathVariable String userId, @RequestBody UserUpdateRequest request) {
-        userManagementService.updateUser(userId, request);
+    public Mono<ResponseEntity<UserJob>> updateUser(
+            @PathVariable String userId,
+            @RequestBody UserUpdateRequest request,
+            @Parameter(description = "ETag from GET /{userId}") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @Parameter(description = "`respond-async` to queue the write") @RequestHeader(value = PREFER, required = false) String prefer) {
+        Mono<Void> update = userManagementService.updateUser(userId, request, ifMatch);
+        if (respondAsync(prefer)) {
+            return Mono.fromSupplier(() -> accepted(userJobQueue.submit("update", userId, update)));
+        }
+        return update.thenReturn(ResponseEntity.<UserJob>noContent().build());
+    }
+
+    @Operation(
+            summary = "Partially update a user",
+            description = "Sends only the given fields to Keycloak; attributes are merged key by key. "
+                    + "Supports `If-Match` and `Prefer: respond-async` like PUT",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "204", description = "Update successful"),
+                    @ApiResponse(responseCode = "202", description = "Update queued; poll the job in Location"),
+                    @ApiResponse(responseCode = "400", description = "Invalid input"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized"),
+                    @ApiResponse(responseCode = "404", description = "User not found"),
+                    @ApiResponse(responseCode = "409", description = "Username or email already taken"),
+                    @ApiResponse(responseCode = "412", description = "User changed since the given ETag")
+            }
+    )
+    @PatchMapping("/{userId}")
+    public Mono<ResponseEntity<UserJob>> patchUser(
+            @PathVariable String userId,
+            @RequestBody UserPatchRequest request,
+            @Parameter(description = "ETag from GET /{userId}") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @Parameter(description = "`respond-async` to queue the write") @RequestHeader(value = PREFER, required = false) String prefer) {
+        Mono<Void> patch = userManagementService.patchUser(userId, request, ifMatch);
+        if (respondAsync(prefer)) {
+            return Mono.fromSupplier(() -> accepted(userJobQueue.submit("patch", userId, patch)));
+        }
+        return patch.thenReturn(ResponseEntity.<UserJob>noContent().build());
+    }
+
+    @Operation(
+            summary = "Enable or disable users",
+            description = "Sends one minimal update per user and streams one NDJSON result per user as each completes",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Result stream started"),
+                    @ApiResponse(responseCode = "400", description = "No user IDs, or a blank one"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @PostMapping(value = "/enabled", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserBatchResult> setEnabled(@RequestBody UserEnableRequest request) {
+        return userBatchService.setEnabled(request.ids(), request.enabled());
     }
 
     @Operation(
             summary = "Delete a user",
-            description = "Removes a user by ID",
+            description = "Removes a user by ID, optionally only if it still has the `If-Match` ETag; "
+                    + "with `Prefer: respond-async` it is queued and 202 returned",
             security = @SecurityRequirement(name = "bearerAuth"),
             responses = {
                     @ApiResponse(responseCode = "204", description = "User deleted"),
+                    @ApiResponse(responseCode = "202", description = "Delete queued; poll the job in Location"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized"),
-                    @ApiResponse(responseCode = "404", description = "User not found")
+                    @ApiResponse(responseCode = "404", description = "User not found"),
+                    @ApiResponse(responseCode = "412", description = "User changed since the given ETag")
             }
     )
     @DeleteMapping("/{userId}")
-    @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void deleteUser(@PathVariable String userId) {
-        userManagementService.deleteUser(userId);
+    public Mono<ResponseEntity<UserJob>> deleteUser(
+            @PathVariable String userId,
+            @Parameter(description = "ETag from GET /{userId}") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @Parameter(description = "`respond-async` to queue the write") @RequestHeader(value = PREFER, required = false) String prefer) {
+        Mono<Void> delete = userManagementService.deleteUser(userId, ifMatch);
+        if (respondAsync(prefer)) {
+            return Mono.fromSupplier(() -> accepted(userJobQueue.submit("delete", userId, delete)));
+        }
+        return delete.thenReturn(ResponseEntity.<UserJob>noContent().build());
+    }
+
+    @Operation(
+            summary = "Get an asynchronous write job",
+            description = "Status of an update or delete accepted with 202; kept for keycloak.jobs.retention",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Job found"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized"),
+                    @ApiResponse(responseCode = "404", description = "Unknown or expired job")
+            }
+    )
+    @GetMapping("/jobs/{jobId}")
+    public Mono<UserJob> getJob(@PathVariable String jobId) {
+        return Mono.justOrEmpty(userJobQueue.get(jobId))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job: " + jobId)));
+    }
+
+    @Operation(
+            summary = "Run a batch of user operations",
+            description = "Accepts an NDJSON stream of create/update/delete operations and streams back one result per line "
+                    + "as each completes; a malformed line is reported as a failed result",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(content = @Content(
+                    mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                    schema = @Schema(implementation = UserBatchOperation.class))),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Result stream started"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @PostMapping(value = "/batch",
+            consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserBatchResult> batch(@RequestBody Flux<String> lines) {
+        return userBatchService.execute(lines);
+    }
+
+    @Operation(
+            summary = "Import users in bulk",
+            description = "Accepts CSV (header row with username, email, password, roles; roles separated by `;`) "
+                    + "or NDJSON user objects. Users are created through Keycloak's partial import in chunks of "
+                    + "`keycloak.import.chunk-size`, with one progress line streamed back per chunk",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Progress stream started"),
+                    @ApiResponse(responseCode = "400", description = "CSV header without a username column"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    @PostMapping(value = "/import", consumes = "text/csv", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserImportProgress> importCsv(
+            @RequestBody Flux<String> lines,
+            @Parameter(description = "Existing users are skipped, overwritten, or fail their chunk")
+            @RequestParam(defaultValue = "SKIP") UserImportPolicy ifExists) {
+        return userImportService.importCsv(lines, ifExists);
     }
 
-}
\ No newline at end of file
+    @Operation(hidden = true)
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserImportProgress> importNdjson(
+            @RequestBody Flux<String> lines,
+            @RequestParam(defaultValue = "SKIP") UserImportPolicy ifExists) {
+        return userImportService.importNdjson(lines, ifExists);
+    }
+
+    @Operation(
+            summary = "Export all users to a file",
+            description = "Starts writing every user with roles and attributes as gzip-compressed NDJSON under "
+                    + "`keycloak.export.directory`. Starting an interrupted or failed export again under its name resumes it",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "202", description = "Export started; poll its progress in Location"),
+                    @ApiResponse(responseCode = "400", description = "Invalid export name"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized"),
+                    @ApiResponse(responseCode = "409", description = "Another export is running, or this one already completed")
+            }
+    )
+    @PostMapping("/exports")
+    public Mono<ResponseEntity<UserExport>> startExport(
+            @Parameter(description = "Export name, default `users-<UTC timestamp>`") @RequestParam(required = false) String name) {
+        return userExportService.start(name)
+                .map(export -> ResponseEntity.accepted()
+                        .location(URI.create("/api/admin/users/exports/" + export.name()))
+                        .body(export));
+    }
+
+    @Operation(
+            summary = "Get export progress",
+            description = "Rows and bytes written, throughput, and the file of an export",
+            security = @SecurityRequirement(name = "bearerAuth"),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Export found"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized"),
+                    @ApiResponse(responseCode = "404", description = "Unknown export")
+            }
+    )
+    @GetMapping("/exports/{name}")
+    public Mono<UserExport> getExport(@PathVariable String name) {
+        return userExportService.status(name)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown export: " + name)));
+    }
+
+    private static boolean respondAsync(String prefer) {
+        return prefer != null && Arrays.stream(prefer.split("[,;]"))
+                .map(String::trim)
+                .anyMatch(RESPOND_ASYNC::equalsIgnoreCase);
+    }
+
+    private static ResponseEntity<UserJob> accepted(UserJob job) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/admin/users/jobs/" + job.id()))
+                .header(PREFERENCE_APPLIED, RESPOND_ASYNC)
+                .body(job);
+    }
+}
@@ -0,0 +1,14 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+@Schema(name = "RoleCatalogStatus", description = "State of the local realm-role catalog")
+public record RoleCatalogStatus(
+        @Schema(description = "Number of realm roles in the catalog", example = "2500")
+        int roles,
+
+        @Schema(description = "When the catalog was last loaded from Keycloak")
+        Instant loadedAt
+) {}
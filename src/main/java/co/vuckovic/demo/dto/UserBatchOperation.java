@@ -0,0 +1,42 @@
+package co.vuckovic.demo.dto;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "op")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = UserBatchOperation.Create.class, name = "create"),
+        @JsonSubTypes.Type(value = UserBatchOperation.Update.class, name = "update"),
+        @JsonSubTypes.Type(value = UserBatchOperation.Delete.class, name = "delete")
+})
+@Schema(name = "UserBatchOperation", description = "One line of a batch request, discriminated by `op`",
+        oneOf = {UserBatchOperation.Create.class, UserBatchOperation.Update.class, UserBatchOperation.Delete.class})
+public sealed interface UserBatchOperation {
+
+    String op();
+
+    @Schema(name = "UserBatchCreate", description = "{\"op\":\"create\",\"user\":{...}}")
+    record Create(UserCreateRequest user) implements UserBatchOperation {
+        @Override
+        public String op() {
+            return "create";
+        }
+    }
+
+    @Schema(name = "UserBatchUpdate", description = "{\"op\":\"update\",\"id\":\"...\",\"user\":{...}}")
+    record Update(String id, UserUpdateRequest user) implements UserBatchOperation {
+        @Override
+        public String op() {
+            return "update";
+        }
+    }
+
+    @Schema(name = "UserBatchDelete", description = "{\"op\":\"delete\",\"id\":\"...\"}")
+    record Delete(String id) implements UserBatchOperation {
+        @Override
+        public String op() {
+            return "delete";
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package co.vuckovic.demo.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(name = "UserBatchResult", description = "Outcome of one batch operation, emitted as soon as it completes")
+public record UserBatchResult(
+        @Schema(description = "Zero-based line number of the operation in the request", example = "41")
+        long index,
+
+        @Schema(description = "Operation type", example = "create")
+        String op,
+
+        @Schema(description = "Affected user ID", example = "715da428-8464-4d74-bb69-a4718bc05882")
+        String id,
+
+        @Schema(description = "Error message when the operation failed", example = "409 User exists with same username")
+        String error
+) {
+    public static UserBatchResult ok(long index, String op, String id) {
+        return new UserBatchResult(index, op, id, null);
+    }
+
+    public static UserBatchResult failed(long index, String op, String id, String error) {
+        return new UserBatchResult(index, op, id, error);
+    }
+}
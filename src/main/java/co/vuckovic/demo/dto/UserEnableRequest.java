@@ -0,0 +1,14 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(name = "UserEnableRequest", description = "Enable or disable several users at once")
+public record UserEnableRequest(
+        @Schema(description = "User IDs", example = "[\"715da428-8464-4d74-bb69-a4718bc05882\"]")
+        List<String> ids,
+
+        @Schema(description = "New enabled flag", example = "false")
+        boolean enabled
+) {}
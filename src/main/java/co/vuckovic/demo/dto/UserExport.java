@@ -0,0 +1,50 @@
+package co.vuckovic.demo.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(name = "UserExport", description = "Progress of a realm export to a gzip-compressed NDJSON file")
+public record UserExport(
+        @Schema(description = "Export name; starting an export under the same name again resumes it", example = "users-20261018-020000")
+        String name,
+
+        @Schema(description = "Export state", example = "RUNNING")
+        State state,
+
+        @Schema(description = "File on the server; ends in .part until the export completes",
+                example = "data/exports/users-20261018-020000.ndjson.gz.part")
+        String file,
+
+        @Schema(description = "Users written so far, including those from before a resume", example = "42000")
+        Long rows,
+
+        @Schema(description = "Users in the realm when the export started", example = "100000")
+        Long totalUsers,
+
+        @Schema(description = "Compressed bytes written", example = "3145728")
+        Long bytes,
+
+        @Schema(description = "Users written per second by this run", example = "2150.5")
+        Double rowsPerSecond,
+
+        @Schema(description = "Users already written when this run resumed the export", example = "40000")
+        Long resumedFrom,
+
+        Instant startedAt,
+
+        Instant finishedAt,
+
+        @Schema(description = "Error message when the export failed", example = "503 Service Unavailable")
+        String error
+) {
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        // stopped before completing, e.g. by a restart; resumes when started again
+        INTERRUPTED
+    }
+}
@@ -0,0 +1,36 @@
+package co.vuckovic.demo.dto;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Optional parts of a {@link UserResponse}, each fetched in parallel only when requested.
+ */
+public enum UserFacet {
+    ROLES,
+    GROUPS,
+    ATTRIBUTES,
+    SESSIONS;
+
+    public static final Set<UserFacet> DEFAULT = EnumSet.of(ROLES);
+
+    public static Set<UserFacet> parse(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return DEFAULT;
+        }
+        Set<UserFacet> facets = EnumSet.noneOf(UserFacet.class);
+        for (String name : names) {
+            try {
+                facets.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown include facet: " + name);
+            }
+        }
+        return facets;
+    }
+}
@@ -0,0 +1,37 @@
+package co.vuckovic.demo.dto;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Fields a search caller can ask for; everything else is left out of the response.
+ */
+public enum UserField {
+    ID,
+    USERNAME,
+    EMAIL,
+    ENABLED,
+    ATTRIBUTES;
+
+    public static final Set<UserField> DEFAULT = EnumSet.of(ID, USERNAME);
+
+    public static Set<UserField> parse(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return DEFAULT;
+        }
+        Set<UserField> fields = EnumSet.noneOf(UserField.class);
+        for (String name : names) {
+            try {
+                fields.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field: " + name);
+            }
+        }
+        return fields;
+    }
+}
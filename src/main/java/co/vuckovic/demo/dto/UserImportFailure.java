@@ -0,0 +1,15 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "UserImportFailure", description = "A row that was not imported")
+public record UserImportFailure(
+        @Schema(description = "One-based line number in the upload", example = "42")
+        long line,
+
+        @Schema(description = "Username on that line, if it could be read", example = "alice")
+        String username,
+
+        @Schema(description = "Why the row was not imported", example = "Unknown roles: [AUDITOR]")
+        String error
+) {}
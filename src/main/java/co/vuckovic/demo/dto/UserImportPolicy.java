@@ -0,0 +1,11 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "UserImportPolicy", description = "What Keycloak does with a user that already exists")
+public enum UserImportPolicy {
+    // the whole chunk is rejected
+    FAIL,
+    SKIP,
+    OVERWRITE
+}
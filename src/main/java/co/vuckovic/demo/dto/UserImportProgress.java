@@ -0,0 +1,41 @@
+package co.vuckovic.demo.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(name = "UserImportProgress", description = "Outcome of one imported chunk, emitted as soon as Keycloak answers")
+public record UserImportProgress(
+        @Schema(description = "Zero-based chunk number", example = "3")
+        long chunk,
+
+        @Schema(description = "First and last upload line covered by this chunk", example = "1501")
+        long firstLine,
+
+        @Schema(example = "2000")
+        long lastLine,
+
+        @Schema(description = "Users created", example = "497")
+        int added,
+
+        @Schema(description = "Existing users left untouched", example = "2")
+        int skipped,
+
+        @Schema(description = "Existing users replaced", example = "0")
+        int overwritten,
+
+        @Schema(description = "Rows not imported", example = "1")
+        int failed,
+
+        @Schema(description = "Failed rows; omitted when there are none")
+        List<UserImportFailure> failures,
+
+        @Schema(description = "Rows processed so far across all finished chunks", example = "2000")
+        long processed
+) {
+    public UserImportProgress withProcessed(long processed) {
+        return new UserImportProgress(chunk, firstLine, lastLine, added, skipped, overwritten, failed, failures, processed);
+    }
+}
@@ -0,0 +1,55 @@
+package co.vuckovic.demo.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(name = "UserJob", description = "State of a write accepted with `Prefer: respond-async`")
+public record UserJob(
+        @Schema(description = "Job ID", example = "0f8c2a4e-52b1-4f0e-9d0a-3f1c2b7e9a11")
+        String id,
+
+        @Schema(description = "Operation type", example = "update")
+        String op,
+
+        @Schema(description = "Affected user ID", example = "715da428-8464-4d74-bb69-a4718bc05882")
+        String userId,
+
+        @Schema(description = "Job state", example = "SUCCEEDED")
+        Status status,
+
+        @Schema(description = "HTTP status the synchronous call would have returned, once finished", example = "204")
+        Integer httpStatus,
+
+        @Schema(description = "Error message when the job failed", example = "User not found")
+        String error,
+
+        Instant submittedAt,
+
+        Instant completedAt
+) {
+    public enum Status {
+        PENDING,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    public static UserJob pending(String id, String op, String userId) {
+        return new UserJob(id, op, userId, Status.PENDING, null, null, Instant.now(), null);
+    }
+
+    public UserJob running() {
+        return new UserJob(id, op, userId, Status.RUNNING, null, null, submittedAt, null);
+    }
+
+    public UserJob succeeded(int httpStatus) {
+        return new UserJob(id, op, userId, Status.SUCCEEDED, httpStatus, null, submittedAt, Instant.now());
+    }
+
+    public UserJob failed(int httpStatus, String error) {
+        return new UserJob(id, op, userId, Status.FAILED, httpStatus, error, submittedAt, Instant.now());
+    }
+}
@@ -0,0 +1,14 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(name = "UserPage", description = "One page of user summaries")
+public record UserPage(
+        @Schema(description = "Users on this page")
+        List<UserSummary> items,
+
+        @Schema(description = "Cursor for the next page, absent on the last page", example = "100")
+        String nextCursor
+) {}
@@ -0,0 +1,43 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Map;
+
+@Schema(name = "UserPatchRequest", description = "Partial update; absent fields are left unchanged")
+public record UserPatchRequest(
+        @Schema(description = "New username", example = "alice2")
+        String username,
+
+        @Schema(description = "New email address", example = "alice2@example.com")
+        String email,
+
+        @Schema(description = "New first name", example = "Alice")
+        String firstName,
+
+        @Schema(description = "New last name", example = "Smith")
+        String lastName,
+
+        @Schema(description = "Enable or disable the user")
+        Boolean enabled,
+
+        @Schema(description = "Mark the email address as verified or not")
+        Boolean emailVerified,
+
+        @Schema(description = "Attributes to set; other attributes are kept and a null value removes that attribute",
+                example = "{\"department\":[\"sales\"]}")
+        Map<String, List<String>> attributes,
+
+        @Schema(description = "Complete new list of realm roles", example = "[\"USER\",\"ADMIN\"]")
+        List<String> roles
+) {
+    public static UserPatchRequest of(UserUpdateRequest update) {
+        return new UserPatchRequest(update.username(), update.email(), null, null, update.enabled(),
+                null, null, update.roles());
+    }
+
+    public static UserPatchRequest enabled(boolean enabled) {
+        return new UserPatchRequest(null, null, null, null, enabled, null, null, null);
+    }
+}
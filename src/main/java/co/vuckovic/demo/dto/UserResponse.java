@@ -1,9 +1,12 @@
 package co.vuckovic.demo.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 import java.util.List;
+import java.util.Map;
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @Schema(name = "UserResponse", description = "Detailed info about a user")
 public record UserResponse(
         @Schema(description = "User unique ID", example = "715da428-8464-4d74-bb69-a4718bc05882")
@@ -19,5 +22,18 @@ public record UserResponse(
         Boolean enabled,
 
         @Schema(description = "Assigned realm roles", example = "[\"USER\",\"EDITOR\"]")
-        List<String> roles
-) {}
\ No newline at end of file
+        List<String> roles,
+
+        @Schema(description = "Group paths, when include=groups", example = "[\"/staff/editors\"]")
+        List<String> groups,
+
+        @Schema(description = "User attributes, when include=attributes")
+        Map<String, List<String>> attributes,
+
+        @Schema(description = "Active sessions, when include=sessions")
+        List<UserSessionInfo> sessions,
+
+        @Schema(description = "Requested facets that failed or timed out and are missing from this response",
+                example = "[\"SESSIONS\"]")
+        List<UserFacet> incomplete
+) {}
@@ -0,0 +1,14 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(name = "UserSearchPage", description = "One page of search results, carrying only the requested fields")
+public record UserSearchPage(
+        @Schema(description = "Matching users")
+        List<UserResponse> items,
+
+        @Schema(description = "Cursor for the next page, absent on the last page", example = "100")
+        String nextCursor
+) {}
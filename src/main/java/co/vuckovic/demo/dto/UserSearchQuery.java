@@ -0,0 +1,19 @@
+package co.vuckovic.demo.dto;
+
+/**
+ * User filters passed through to Keycloak. {@code role} lists the members of one realm role
+ * and cannot be combined with the other filters, which Keycloak's role endpoint ignores.
+ */
+public record UserSearchQuery(
+        String search,
+        String username,
+        String email,
+        Boolean enabled,
+        Boolean exact,
+        String q,
+        String role
+) {
+    public boolean hasUserFilters() {
+        return search != null || username != null || email != null || enabled != null || q != null;
+    }
+}
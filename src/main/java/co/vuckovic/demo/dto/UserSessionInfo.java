@@ -0,0 +1,18 @@
+package co.vuckovic.demo.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "UserSessionInfo", description = "Active Keycloak session of a user")
+public record UserSessionInfo(
+        @Schema(description = "Session ID", example = "0b6e6c1e-3b55-4a0c-9d7e-1f6a2c9d8e4b")
+        String id,
+
+        @Schema(description = "Client IP address", example = "10.0.0.12")
+        String ipAddress,
+
+        @Schema(description = "Session start (epoch millis)", example = "1718000000000")
+        Long start,
+
+        @Schema(description = "Last access (epoch millis)", example = "1718000300000")
+        Long lastAccess
+) {}
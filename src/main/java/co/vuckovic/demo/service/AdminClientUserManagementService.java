@@ -0,0 +1,495 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakDetailProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import co.vuckovic.demo.config.KeycloakUpdateProperties;
+import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSearchPage;
+import co.vuckovic.demo.dto.UserSearchQuery;
+import co.vuckovic.demo.dto.UserSessionInfo;
+import co.vuckovic.demo.dto.UserSummary;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.keycloak.admin.client.CreatedResponseUtil;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.resource.UserResource;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link UserManagementService} on Keycloak's official, blocking admin client. Every operation
+ * is plain blocking code running on its own virtual thread and handed to the reactive
+ * controllers as a {@code Mono}, so no event-loop thread ever waits on Keycloak. Caching,
+ * facet timeouts, entity tags and role reconciliation behave as in
+ * {@link WebClientUserManagementService}; the {@code keycloakWebClient} filters (coalescing,
+ * call metrics, resilience) do not apply to this backend. Like the WebClient bulkhead, at most
+ * {@code keycloak.resilience.bulkhead.default-max-concurrent-calls} operations run at once and
+ * any further one fails fast with 503.
+ */
+@Slf4j
+@Service
+@Qualifier("userBackend")
+@ConditionalOnProperty(name = "keycloak.backend", havingValue = "admin-client")
+@RegisterReflectionForBinding({UserRep.class, RoleRep.class, UserPatchRep.class})
+public class AdminClientUserManagementService implements UserManagementService {
+
+    private static final TypeReference<List<RoleRepresentation>> ROLES_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<RoleRep>> ROLE_REPS_TYPE = new TypeReference<>() {};
+
+    private final Keycloak keycloak;
+    private final KeycloakProperties props;
+    private final KeycloakPagingProperties pagingProps;
+    private final KeycloakDetailProperties detailProps;
+    private final KeycloakUpdateProperties updateProps;
+    private final RoleCatalog roleCatalog;
+    private final UserRoleEnricher userRoleEnricher;
+    private final UserCache userCache;
+    private final ObjectMapper objectMapper;
+    // entity tags hash the representation as re-serialized here, without the admin client's nulls
+    private final ObjectMapper representationMapper;
+
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    // virtual threads are unbounded, so this is what keeps a burst from reaching Keycloak
+    private final Semaphore permits;
+    private final Scheduler scheduler = Schedulers.fromExecutorService(virtualThreads, "keycloak-admin-client");
+
+    public AdminClientUserManagementService(Keycloak keycloakAdminClient,
+                                            KeycloakProperties props,
+                                            KeycloakPagingProperties pagingProps,
+                                            KeycloakDetailProperties detailProps,
+                                            KeycloakUpdateProperties updateProps,
+                                            KeycloakResilienceProperties resilience,
+                                            RoleCatalog roleCatalog,
+                                            UserRoleEnricher userRoleEnricher,
+                                            UserCache userCache,
+                                            ObjectMapper objectMapper) {
+        this.keycloak = keycloakAdminClient;
+        this.props = props;
+        this.pagingProps = pagingProps;
+        this.detailProps = detailProps;
+        this.updateProps = updateProps;
+        this.permits = new Semaphore(resilience.bulkhead().defaultMaxConcurrentCalls());
+        this.roleCatalog = roleCatalog;
+        this.userRoleEnricher = userRoleEnricher;
+        this.userCache = userCache;
+        this.objectMapper = objectMapper;
+        this.representationMapper = objectMapper.copy().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.dispose();
+    }
+
+    @Override
+    public Flux<UserSummary> streamUsers(Integer pageSize) {
+        int size = pagingProps.clamp(pageSize);
+        return OffsetPages.read(blocking(() -> realm().users().count().longValue()), size, pagingProps.prefetchPages(),
+                        first -> blocking(() -> listUsers(first, size)), List::size)
+                .concatMapIterable(page -> page)
+                .map(u -> new UserSummary(u.id(), u.username()));
+    }
+
+    /**
+     * Runs on the shared WebClient, like the {@link RoleCatalog}: the bulk strategy walks role
+     * member pages, which the admin client would read one blocking call at a time.
+     */
+    @Override
+    public Flux<UserResponse> streamUsersWithRoles(Integer pageSize) {
+        return userRoleEnricher.streamUsers(pageSize);
+    }
+
+    /**
+     * Always maps objects; pass-through projection needs the raw response bytes, which the
+     * admin client does not expose.
+     */
+    @Override
+    public Flux<DataBuffer> getAllUsersJson() {
+        return JsonArrays.write(getAllUsers(), objectMapper.writerFor(UserSummary.class));
+    }
+
+    @Override
+    public Mono<UserPage> getUsersPage(String cursor, Integer pageSize) {
+        int first = OffsetCursor.parse(cursor);
+        int size = pagingProps.clamp(pageSize);
+        UserPage cached = userCache.getPage(first, size);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        long stamp = userCache.stamp();
+        return blocking(() -> listUsers(first, size + 1))
+                .map(users -> new UserPage(
+                        users.stream()
+                                .limit(size)
+                                .map(u -> new UserSummary(u.id(), u.username()))
+                                .toList(),
+                        users.size() > size ? String.valueOf(first + size) : null))
+                .doOnNext(page -> userCache.putPage(first, size, page, stamp));
+    }
+
+    private List<UserRep> listUsers(int first, int max) {
+        return toUserReps(realm().users().search((String) null, first, max, true));
+    }
+
+    /**
+     * The admin client has one method per combination of filters, so {@code search} stands
+     * alone and {@code q} only combines with {@code enabled}; other combinations fail with 400
+     * instead of silently dropping a filter.
+     */
+    @Override
+    public Mono<UserSearchPage> searchUsers(UserSearchQuery query, String cursor, Integer pageSize,
+                                            Set<UserField> fields) {
+        int first = OffsetCursor.parse(cursor);
+        int size = pagingProps.clamp(pageSize);
+        boolean brief = !fields.contains(UserField.ATTRIBUTES);
+        boolean byField = query.username() != null || query.email() != null || query.exact() != null;
+
+        Mono<List<UserRep>> users;
+        if (query.role() != null) {
+            if (query.hasUserFilters()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "role cannot be combined with other user filters"));
+            }
+            users = roleCatalog.resolve(List.of(query.role()))
+                    .then(blocking(() -> toUserReps(realm().roles().get(query.role()).getUserMembers(first, size + 1))));
+        } else if (query.q() != null) {
+            if (query.search() != null || byField) {
+                return Mono.error(unsupported("q"));
+            }
+            users = blocking(() -> toUserReps(realm().users()
+                    .searchByAttributes(first, size + 1, query.enabled(), brief, query.q())));
+        } else if (query.search() != null) {
+            if (byField || query.enabled() != null) {
+                return Mono.error(unsupported("search"));
+            }
+            users = blocking(() -> toUserReps(realm().users().search(query.search(), first, size + 1, brief)));
+        } else {
+            users = blocking(() -> toUserReps(realm().users().search(query.username(), null, null, query.email(),
+                    first, size + 1, query.enabled(), brief, query.exact())));
+        }
+        return users.map(found -> new UserSearchPage(
+                found.stream()
+                        .limit(size)
+                        .map(u -> u.project(fields))
+                        .toList(),
+                found.size() > size ? String.valueOf(first + size) : null));
+    }
+
+    private static ResponseStatusException unsupported(String filter) {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                filter + " cannot be combined with these filters when keycloak.backend=admin-client");
+    }
+
+    @Override
+    public Mono<Versioned<UserResponse>> getVersionedUser(String userId, Set<UserFacet> include) {
+        Versioned<UserResponse> cached = userCache.getDetail(userId, include);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        long stamp = userCache.stamp();
+        return blocking(() -> fetchUserById(userId, include))
+                .timeout(detailProps.timeout())
+                .onErrorMap(TimeoutException.class, e -> new ResponseStatusException(
+                        HttpStatus.GATEWAY_TIMEOUT, "Keycloak did not return the user in time", e))
+                .doOnNext(u -> userCache.putDetail(userId, include, u, stamp));
+    }
+
+    /**
+     * Facets run on virtual threads of their own while this one reads the user; see
+     * {@link WebClientUserManagementService#getVersionedUser} for how missing facets are reported.
+     */
+    private Versioned<UserResponse> fetchUserById(String userId, Set<UserFacet> include) {
+        UserResource user = realm().users().get(userId);
+        long deadline = System.nanoTime() + detailProps.facetTimeout().toNanos();
+
+        Future<List<String>> roles = facet(UserFacet.ROLES, include, () -> user.roles().realmLevel()
+                .listEffective().stream()
+                .map(RoleRepresentation::getName)
+                .toList());
+        Future<List<String>> groups = facet(UserFacet.GROUPS, include, () -> user.groups(null, null, null, true)
+                .stream()
+                .map(GroupRepresentation::getPath)
+                .toList());
+        Future<List<UserSessionInfo>> sessions = facet(UserFacet.SESSIONS, include, () -> user.getUserSessions()
+                .stream()
+                .map(s -> new UserSessionInfo(s.getId(), s.getIpAddress(), s.getStart(), s.getLastAccess()))
+                .toList());
+
+        Set<UserFacet> incomplete = EnumSet.noneOf(UserFacet.class);
+        UserRepresentation rep;
+        try {
+            rep = fetchRepresentation(userId);
+        } catch (RuntimeException e) {
+            for (Future<?> f : Arrays.asList(roles, groups, sessions)) {
+                if (f != null) {
+                    f.cancel(true);
+                }
+            }
+            throw e;
+        }
+        UserRep u = objectMapper.convertValue(rep.body(), UserRep.class);
+        return new Versioned<>(new UserResponse(
+                u.id(),
+                u.username(),
+                u.email(),
+                u.enabled(),
+                require(roles),
+                await(UserFacet.GROUPS, groups, deadline, incomplete),
+                include.contains(UserFacet.ATTRIBUTES) ? Objects.requireNonNullElse(u.attributes(), Map.of()) : null,
+                await(UserFacet.SESSIONS, sessions, deadline, incomplete),
+                incomplete.isEmpty() ? null : List.copyOf(new TreeSet<>(incomplete))),
+                rep.etag());
+    }
+
+    private <T> Future<T> facet(UserFacet facet, Set<UserFacet> include, Callable<T> fetch) {
+        return include.contains(facet) ? virtualThreads.submit(fetch) : null;
+    }
+
+    /**
+     * A critical facet: waits as long as the detail timeout allows and fails the lookup with it.
+     */
+    private static <T> T require(Future<T> future) {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading roles", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static <T> T await(UserFacet facet, Future<T> future, long deadline, Set<UserFacet> incomplete) {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                // the caller gave up (detail timeout or cancellation); nobody sees the result
+                Thread.currentThread().interrupt();
+            }
+            log.debug("Facet {} unavailable, returning partial user: {}", facet, e.toString());
+            future.cancel(true);
+            incomplete.add(facet);
+            return null;
+        }
+    }
+
+    private UserRepresentation fetchRepresentation(String userId) {
+        long stamp = userCache.stamp();
+        try {
+            byte[] json = representationMapper.writeValueAsBytes(realm().users().get(userId).toRepresentation());
+            UserRepresentation rep = UserRepresentation.parse(json, objectMapper);
+            userCache.putRepresentation(userId, rep, stamp);
+            return rep;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private UserRepresentation currentRepresentation(String userId, String ifMatch) {
+        if (ifMatch != null) {
+            UserRepresentation cached = userCache.getRepresentation(userId);
+            if (cached != null && cached.matches(ifMatch)) {
+                return cached;
+            }
+        }
+        UserRepresentation rep = fetchRepresentation(userId);
+        if (ifMatch != null && !rep.matches(ifMatch)) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User has been modified");
+        }
+        return rep;
+    }
+
+    @Override
+    public Mono<String> createUser(UserCreateRequest req) {
+        return blocking(() -> {
+                    var user = new org.keycloak.representations.idm.UserRepresentation();
+                    user.setUsername(req.username());
+                    user.setEmail(req.email());
+                    user.setEnabled(true);
+                    CredentialRepresentation password = new CredentialRepresentation();
+                    password.setType(CredentialRepresentation.PASSWORD);
+                    password.setValue(req.password());
+                    password.setTemporary(false);
+                    user.setCredentials(List.of(password));
+                    try (Response resp = realm().users().create(user)) {
+                        if (resp.getStatus() == HttpStatus.CONFLICT.value()) {
+                            throw new ResponseStatusException(HttpStatus.CONFLICT, resp.readEntity(String.class));
+                        }
+                        return CreatedResponseUtil.getCreatedId(resp);
+                    }
+                })
+                .doOnNext(id -> userCache.invalidatePages());
+    }
+
+    /**
+     * Same request shape as {@link WebClientUserManagementService#patchUser}, sent through the
+     * admin client's typed representation.
+     */
+    @Override
+    public Mono<Void> patchUser(String userId, UserPatchRequest patch, String ifMatch) {
+        boolean full = updateProps.fullRepresentation();
+        return blocking(() -> {
+                    Object body;
+                    if (full || patch.attributes() != null || ifMatch != null) {
+                        UserRepresentation rep = currentRepresentation(userId, ifMatch);
+                        body = full ? rep.merged(patch) : rep.minimalPatch(patch);
+                    } else {
+                        body = UserPatchRep.of(patch, null);
+                    }
+                    if (!(body instanceof UserPatchRep minimal && minimal.isEmpty())) {
+                        realm().users().get(userId).update(objectMapper.convertValue(body,
+                                org.keycloak.representations.idm.UserRepresentation.class));
+                    }
+                    if (patch.roles() != null) {
+                        updateUserRoles(userId, patch.roles());
+                    }
+                    return true;
+                })
+                .then()
+                // also on failure: a role update may have been applied partially
+                .doFinally(s -> {
+                    userCache.invalidateUser(userId);
+                    // a rename can move the user to another page
+                    if (patch.username() != null) {
+                        userCache.invalidatePages();
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteUser(String userId, String ifMatch) {
+        return blocking(() -> {
+                    if (ifMatch != null) {
+                        currentRepresentation(userId, ifMatch);
+                    }
+                    realm().users().get(userId).remove();
+                    return true;
+                })
+                .then()
+                .doFinally(s -> {
+                    userCache.invalidateUser(userId);
+                    userCache.invalidatePages();
+                });
+    }
+
+    /**
+     * Reconciles direct realm roles like the WebClient backend, adding before removing so the
+     * user never passes through an empty role set. Blocking on the catalog is fine here: this
+     * runs on a virtual thread.
+     */
+    private void updateUserRoles(String userId, List<String> newRoles) {
+        var mappings = realm().users().get(userId).roles().realmLevel();
+        List<RoleRep> desired = roleCatalog.resolve(newRoles).block();
+        List<RoleRep> current = objectMapper.convertValue(mappings.listAll(), ROLE_REPS_TYPE);
+        RoleDiff diff = RoleDiff.between(current, desired);
+        if (!diff.toAdd().isEmpty()) {
+            mappings.add(toRoleRepresentations(diff.toAdd()));
+        }
+        if (!diff.toRemove().isEmpty()) {
+            mappings.remove(toRoleRepresentations(diff.toRemove()));
+        }
+    }
+
+    private List<RoleRepresentation> toRoleRepresentations(List<RoleRep> roles) {
+        return objectMapper.convertValue(roles, ROLES_TYPE);
+    }
+
+    private List<UserRep> toUserReps(Collection<org.keycloak.representations.idm.UserRepresentation> users) {
+        List<UserRep> reps = new ArrayList<>(users.size());
+        for (var u : users) {
+            reps.add(new UserRep(u.getId(), u.getUsername(), u.getEmail(), u.isEnabled(), u.getAttributes()));
+        }
+        return reps;
+    }
+
+    private RealmResource realm() {
+        return keycloak.realm(props.realm());
+    }
+
+    /**
+     * Runs {@code call} on a fresh virtual thread if a permit is free, translating the admin
+     * client's exceptions the way the WebClient backend translates error responses.
+     */
+    private <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(() -> {
+                    // taken on the virtual thread, so a cancelled caller cannot free it while the call still runs
+                    if (!permits.tryAcquire()) {
+                        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent Keycloak calls");
+                    }
+                    try {
+                        return call.call();
+                    } finally {
+                        permits.release();
+                    }
+                })
+                .subscribeOn(scheduler)
+                .onErrorMap(WebApplicationException.class, AdminClientUserManagementService::toStatus)
+                .onErrorMap(ProcessingException.class, e -> new ResponseStatusException(
+                        HttpStatus.SERVICE_UNAVAILABLE, "Keycloak unavailable", e));
+    }
+
+    private static Throwable toStatus(WebApplicationException e) {
+        int status = e.getResponse().getStatus();
+        if (status == HttpStatus.NOT_FOUND.value()) {
+            return new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found", e);
+        }
+        if (status == HttpStatus.CONFLICT.value()) {
+            return new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+        }
+        return e;
+    }
+}
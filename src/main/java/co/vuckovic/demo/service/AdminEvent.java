@@ -0,0 +1,42 @@
+package co.vuckovic.demo.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.Optional;
+
+/**
+ * Keycloak admin event, republished as a Spring application event by {@link AdminEventPoller}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record AdminEvent(
+        long time,
+        String operationType,
+        String resourceType,
+        String resourcePath
+) {
+    /**
+     * The user this event is about, for paths such as {@code users/{id}} or
+     * {@code users/{id}/role-mappings/realm}.
+     */
+    public Optional<String> userId() {
+        if (resourcePath == null || !resourcePath.startsWith("users/")) {
+            return Optional.empty();
+        }
+        int end = resourcePath.indexOf('/', "users/".length());
+        return Optional.of(end < 0
+                ? resourcePath.substring("users/".length())
+                : resourcePath.substring("users/".length(), end));
+    }
+
+    public boolean isRealmRoleChange() {
+        return "REALM_ROLE".equals(resourceType);
+    }
+
+    /**
+     * A change to a group itself, such as its role mappings or its place in the hierarchy,
+     * which can change the roles of every member. Membership changes are about a user instead.
+     */
+    public boolean isGroupChange() {
+        return resourcePath != null && resourcePath.startsWith("groups/");
+    }
+}
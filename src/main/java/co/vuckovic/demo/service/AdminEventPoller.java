@@ -0,0 +1,189 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakAdminEventProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Polls the realm's admin-events endpoint and republishes each new event as an
+ * {@link AdminEvent} application event, so caches can drop entries changed outside this service.
+ * Each successful poll ends with an {@link AdminEventsPolled}.
+ * <p>
+ * Event times come from Keycloak's clock, so the watermark starts {@code clock-skew} before this
+ * instance's clock and is then moved back to the newest event Keycloak already holds, if older.
+ */
+@Slf4j
+@Component
+@RegisterReflectionForBinding(AdminEvent.class)
+public class AdminEventPoller {
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakAdminEventProperties eventProps;
+    private final ApplicationEventPublisher publisher;
+
+    private final Disposable.Swap polling = Disposables.swap();
+
+    // newest event time seen so far, plus the events at exactly that millisecond
+    private volatile long watermark;
+    private volatile Set<AdminEvent> atWatermark = Set.of();
+    private volatile boolean failing;
+
+    public AdminEventPoller(WebClient keycloakWebClient,
+                            KeycloakProperties props,
+                            KeycloakAdminEventProperties eventProps,
+                            ApplicationEventPublisher publisher) {
+        this.keycloakWebClient = keycloakWebClient;
+        this.props = props;
+        this.eventProps = eventProps;
+        this.publisher = publisher;
+        this.watermark = Instant.now().minus(eventProps.clockSkew()).toEpochMilli();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (!eventProps.enabled()) {
+            return;
+        }
+        polling.update(seed()
+                .thenMany(Flux.interval(eventProps.pollInterval()))
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono.defer(() -> {
+                            Instant polledAt = Instant.now();
+                            return poll()
+                                    .doOnNext(publisher::publishEvent)
+                                    .then(Mono.fromRunnable(() -> publisher.publishEvent(
+                                            new AdminEventsPolled(watermark, polledAt))));
+                        })
+                        .onErrorResume(e -> {
+                            if (!failing) {
+                                log.warn("Admin event polling failed, caches fall back to TTL expiry: {}", e.toString());
+                                failing = true;
+                            }
+                            return Mono.empty();
+                        }))
+                .subscribe());
+    }
+
+    /**
+     * Moves the watermark back to the newest event Keycloak holds, so one written shortly
+     * before startup by a Keycloak clock behind this instance's is not skipped.
+     */
+    Mono<Void> seed() {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/admin-events")
+                        .queryParam("first", 0)
+                        .queryParam("max", 1)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ADMIN_EVENTS)
+                .retrieve()
+                .bodyToFlux(AdminEvent.class)
+                .next()
+                .doOnNext(newest -> {
+                    if (newest.time() < watermark) {
+                        watermark = newest.time();
+                        atWatermark = Set.of(newest);
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Could not read the newest admin event, polling from {} ms before startup: {}",
+                            eventProps.clockSkew().toMillis(), e.toString());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Moves the watermark back, so the next poll re-delivers everything after {@code time},
+     * e.g. the events missed while a persisted replica was offline. Later times are ignored.
+     */
+    public void resumeFrom(long time) {
+        if (time < watermark) {
+            watermark = time;
+            atWatermark = Set.of();
+        }
+    }
+
+    /**
+     * Keycloak time of the newest event seen so far, in epoch millis.
+     */
+    long watermark() {
+        return watermark;
+    }
+
+    @PreDestroy
+    void stop() {
+        polling.dispose();
+    }
+
+    /**
+     * Emits events newer than the watermark, oldest first, and advances the watermark.
+     */
+    Flux<AdminEvent> poll() {
+        long since = watermark;
+        return Flux.<Integer, Integer>generate(() -> 0, (first, sink) -> {
+                    sink.next(first);
+                    return first + eventProps.pageSize();
+                })
+                // Keycloak returns newest first, so stop at the first page that reaches back past the watermark
+                .concatMap(first -> fetchPage(since, first))
+                .takeUntil(page -> page.size() < eventProps.pageSize()
+                        || page.get(page.size() - 1).time() < since)
+                .concatMapIterable(page -> page)
+                .filter(e -> e.time() > since || e.time() == since && !atWatermark.contains(e))
+                .collectList()
+                .flatMapMany(events -> {
+                    advance(events);
+                    failing = false;
+                    return Flux.fromIterable(events)
+                            .sort(Comparator.comparingLong(AdminEvent::time));
+                });
+    }
+
+    private Mono<List<AdminEvent>> fetchPage(long since, int first) {
+        String dateFrom = LocalDate.ofInstant(Instant.ofEpochMilli(since), ZoneOffset.UTC).toString();
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/admin-events")
+                        .queryParam("dateFrom", dateFrom)
+                        .queryParam("first", first)
+                        .queryParam("max", eventProps.pageSize())
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ADMIN_EVENTS)
+                .retrieve()
+                .bodyToFlux(AdminEvent.class)
+                .collectList();
+    }
+
+    private void advance(List<AdminEvent> events) {
+        long newest = events.stream().mapToLong(AdminEvent::time).max().orElse(watermark);
+        if (newest > watermark) {
+            Set<AdminEvent> same = new HashSet<>();
+            events.stream().filter(e -> e.time() == newest).forEach(same::add);
+            atWatermark = same;
+            watermark = newest;
+        } else if (newest == watermark && !events.isEmpty()) {
+            Set<AdminEvent> same = new HashSet<>(atWatermark);
+            events.stream().filter(e -> e.time() == newest).forEach(same::add);
+            atWatermark = same;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package co.vuckovic.demo.service;
+
+import java.time.Instant;
+
+/**
+ * Published by {@link AdminEventPoller} after every successful poll, once all of its
+ * {@link AdminEvent}s have been published.
+ *
+ * @param watermark Keycloak time of the newest event seen so far, in epoch millis
+ * @param polledAt  when the poll started; no change before this is still unreported
+ */
+public record AdminEventsPolled(long watermark, Instant polledAt) {}
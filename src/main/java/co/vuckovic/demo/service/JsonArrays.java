@@ -0,0 +1,42 @@
+package co.vuckovic.demo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Streams a JSON array from already serialized elements, so a response body can be written
+ * without collecting the elements first.
+ */
+final class JsonArrays {
+
+    private JsonArrays() {
+    }
+
+    static <T> Flux<DataBuffer> write(Flux<T> values, ObjectWriter writer) {
+        return of(values.map(value -> {
+            try {
+                return writer.writeValueAsBytes(value);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    static Flux<DataBuffer> of(Flux<byte[]> elements) {
+        DataBufferFactory buffers = DefaultDataBufferFactory.sharedInstance;
+        return Flux.concat(
+                Mono.fromSupplier(() -> buffers.wrap(new byte[]{'['})),
+                elements.index().concatMapIterable(e -> e.getT1() == 0
+                        ? List.of(buffers.wrap(e.getT2()))
+                        : List.of(buffers.wrap(new byte[]{','}), buffers.wrap(e.getT2()))),
+                Mono.fromSupplier(() -> buffers.wrap(new byte[]{']'})));
+    }
+}
@@ -0,0 +1,166 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakCoalescingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.context.Context;
+
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collapses concurrent identical GETs into one upstream request. A GET whose URI matches one
+ * sent less than {@code keycloak.coalescing.window} ago waits for that request and gets its
+ * own copy of the same response, status and headers included. Nothing is kept once the
+ * shared request finishes, and a completed write forgets the in-flight GETs it may have made
+ * stale, so a caller never joins a read that was sent before a write it may already have
+ * seen. A write to one user (its representation, credentials or role mappings) forgets only
+ * that user's reads; any other write, e.g. to a role, group or a partial import, forgets all.
+ * <p>
+ * Only {@link #COALESCED} single-resource reads are shared: their bodies are small enough to
+ * buffer once for every caller, while listings stream straight through.
+ */
+@Component
+public class KeycloakCoalescingFilter implements ExchangeFilterFunction {
+
+    static final Set<KeycloakOperation> COALESCED = EnumSet.of(
+            KeycloakOperation.GET_USER, KeycloakOperation.GET_ROLE_MAPPINGS, KeycloakOperation.GET_USER_ROLES);
+
+    private static final String ADMIN_REALMS = "/admin/realms/";
+
+    private final KeycloakCoalescingProperties coalescing;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<URI, Flight> inFlight = new ConcurrentHashMap<>();
+
+    public KeycloakCoalescingFilter(KeycloakCoalescingProperties coalescing, MeterRegistry meterRegistry) {
+        this.coalescing = coalescing;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("keycloak.admin.coalescing.in.flight", inFlight, ConcurrentHashMap::size)
+                .description("Distinct GETs currently open for coalescing")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (request.method() != HttpMethod.GET) {
+            String user = userPath(request.url());
+            return next.exchange(request).doFinally(s -> forget(user));
+        }
+        if (!coalescing.enabled() || !COALESCED.contains(KeycloakResilienceFilter.operationOf(request))) {
+            return next.exchange(request);
+        }
+        return Mono.deferContextual(ctx -> {
+            long now = System.nanoTime();
+            Flight created = new Flight(Sinks.one(), now);
+            Flight flight = inFlight.compute(request.url(), (uri, running) ->
+                    running != null && now - running.sentAt() < coalescing.window().toNanos() ? running : created);
+            if (flight != created) {
+                coalesced(request).increment();
+                return flight.response().asMono().map(SharedResponse::copy);
+            }
+            // detached, so a caller that gives up does not cancel the request for the others
+            next.exchange(request)
+                    .flatMap(SharedResponse::read)
+                    .subscribe(
+                            value -> {
+                                inFlight.remove(request.url(), created);
+                                created.response().tryEmitValue(value);
+                            },
+                            error -> {
+                                inFlight.remove(request.url(), created);
+                                created.response().tryEmitError(error);
+                            },
+                            null,
+                            Context.of(ctx));
+            return created.response().asMono().map(SharedResponse::copy);
+        });
+    }
+
+    private void forget(String userPath) {
+        if (userPath == null) {
+            inFlight.clear();
+            return;
+        }
+        inFlight.keySet().removeIf(uri -> {
+            String path = uri.getRawPath();
+            return path.startsWith(userPath)
+                    && (path.length() == userPath.length() || path.charAt(userPath.length()) == '/');
+        });
+    }
+
+    /** {@code .../admin/realms/{realm}/users/{id}} for a request on one user or below it, else null. */
+    static String userPath(URI url) {
+        String path = url.getRawPath();
+        int admin = path.indexOf(ADMIN_REALMS);
+        if (admin < 0) {
+            return null;
+        }
+        // {realm}, users, {id}, ...
+        String[] segments = path.substring(admin + ADMIN_REALMS.length()).split("/", 4);
+        if (segments.length < 3 || !segments[1].equals("users") || segments[0].isEmpty() || segments[2].isEmpty()) {
+            return null;
+        }
+        return path.substring(0, admin + ADMIN_REALMS.length())
+                + segments[0] + "/users/" + segments[2];
+    }
+
+    private Counter coalesced(ClientRequest request) {
+        return Counter.builder("keycloak.admin.coalesced")
+                .description("GETs answered by an identical request already in flight")
+                .tag("operation", KeycloakResilienceFilter.operationOf(request).name())
+                .register(meterRegistry);
+    }
+
+    private record Flight(Sinks.One<SharedResponse> response, long sentAt) {}
+
+    private record SharedResponse(HttpStatusCode status, HttpHeaders headers, byte[] body,
+                                  ExchangeStrategies strategies, HttpRequest request) {
+
+        static Mono<SharedResponse> read(ClientResponse response) {
+            // joined as raw buffers, so the codecs' in-memory limit does not apply
+            return DataBufferUtils.join(response.body(BodyExtractors.toDataBuffers()))
+                    .map(SharedResponse::bytes)
+                    .defaultIfEmpty(new byte[0])
+                    .map(body -> new SharedResponse(response.statusCode(), response.headers().asHttpHeaders(),
+                            body, response.strategies(), response.request()));
+        }
+
+        private static byte[] bytes(DataBuffer buffer) {
+            try {
+                byte[] bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                return bytes;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        ClientResponse copy() {
+            return ClientResponse.create(status, strategies)
+                    .headers(h -> h.addAll(headers))
+                    .request(request)
+                    .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body)))
+                    .build();
+        }
+    }
+}
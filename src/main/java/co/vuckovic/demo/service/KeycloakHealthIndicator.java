@@ -0,0 +1,35 @@
+package co.vuckovic.demo.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the Keycloak circuit breaker and node states as details of the {@code keycloak} health
+ * component. It stays UP while the breaker is open: an admin API outage must not take the
+ * instance out of the load balancer, since most traffic never calls Keycloak's admin API, and
+ * admin calls already fail fast with 503.
+ */
+@Component
+@RequiredArgsConstructor
+public class KeycloakHealthIndicator implements HealthIndicator {
+
+    private final KeycloakResilienceFilter resilienceFilter;
+    private final KeycloakLoadBalancer loadBalancer;
+
+    @Override
+    public Health health() {
+        CircuitBreaker breaker = resilienceFilter.circuitBreaker();
+        CircuitBreaker.State state = breaker.getState();
+        CircuitBreaker.Metrics metrics = breaker.getMetrics();
+        return Health.up()
+                .withDetail("circuitBreaker", state)
+                .withDetail("failureRate", metrics.getFailureRate())
+                .withDetail("slowCallRate", metrics.getSlowCallRate())
+                .withDetail("notPermittedCalls", metrics.getNumberOfNotPermittedCalls())
+                .withDetail("nodes", loadBalancer.status())
+                .build();
+    }
+}
@@ -0,0 +1,346 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoutingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads Keycloak traffic over {@code keycloak.server-urls}. Each request goes to the better
+ * of two randomly picked nodes, scored by outstanding requests times recent latency, so a slow
+ * node gets less work without being starved of the samples that show it recovered. Nodes that
+ * fail active health checks, or fail several requests in a row, are skipped while any other
+ * node is left. A GET still unanswered after a few times its operation's usual latency is sent
+ * to a second node as well, within a budget, and the first response wins. The budget is a
+ * token bucket: each GET earns {@code max-percent} of a hedge, and at most {@code max-burst}
+ * hedges are saved up, so a stall after a long healthy spell cannot double the load.
+ * <p>
+ * With a single endpoint requests pass through untouched.
+ */
+@Slf4j
+@Component
+public class KeycloakLoadBalancer implements ExchangeFilterFunction {
+
+    private final KeycloakRoutingProperties routing;
+    private final List<Node> nodes;
+    // URL the WebClients are built with, replaced by the chosen node's
+    private final String baseUrl;
+    private final WebClient healthClient;
+    private final Map<KeycloakOperation, Ewma> operationLatency = new EnumMap<>(KeycloakOperation.class);
+    private final HedgeBudget hedgeBudget;
+    private final Counter hedges;
+    private final Disposable.Composite healthChecks = Disposables.composite();
+
+    public KeycloakLoadBalancer(KeycloakProperties props,
+                                KeycloakRoutingProperties routing,
+                                WebClient.Builder webClientBuilder,
+                                ClientHttpConnector keycloakHttpConnector,
+                                MeterRegistry meterRegistry) {
+        this.routing = routing;
+        this.nodes = props.endpoints().stream()
+                .map(url -> new Node(stripTrailingSlash(url), meterRegistry))
+                .toList();
+        this.baseUrl = nodes.get(0).url;
+        this.healthClient = webClientBuilder
+                .clientConnector(keycloakHttpConnector)
+                .build();
+        for (KeycloakOperation operation : KeycloakOperation.values()) {
+            operationLatency.put(operation, new Ewma());
+        }
+        // a single node is passed through without routing
+        this.hedgeBudget = nodes.size() == 1
+                ? null
+                : new HedgeBudget(routing.hedging().maxPercent(), routing.hedging().maxBurst());
+        this.hedges = Counter.builder("keycloak.routing.hedges")
+                .description("GETs also sent to a second Keycloak node")
+                .register(meterRegistry);
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (nodes.size() == 1) {
+            return next.exchange(request);
+        }
+        KeycloakOperation operation = KeycloakResilienceFilter.operationOf(request);
+        return Mono.defer(() -> {
+            Node primary = choose(null, true);
+            Mono<ClientResponse> first = send(request, primary, operation, next);
+            if (request.method() != HttpMethod.GET || !routing.hedging().enabled()) {
+                return first;
+            }
+            hedgeBudget.deposit();
+            Mono<ClientResponse> hedge = Mono.delay(hedgeDelay(operation))
+                    .flatMap(tick -> {
+                        Node second = choose(primary, false);
+                        if (second == null || !hedgeBudget.tryWithdraw()) {
+                            return Mono.empty();
+                        }
+                        hedges.increment();
+                        return send(request, second, operation, next);
+                    });
+            // the loser is cancelled, which releases its connection
+            return Mono.firstWithValue(first, hedge)
+                    .onErrorMap(NoSuchElementException.class, KeycloakLoadBalancer::firstFailure);
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (nodes.size() == 1) {
+            return;
+        }
+        KeycloakRoutingProperties.HealthCheck check = routing.healthCheck();
+        for (Node node : nodes) {
+            healthChecks.add(Flux.interval(Duration.ZERO, check.interval())
+                    .onBackpressureDrop()
+                    .concatMap(tick -> healthClient.get()
+                            .uri(URI.create(node.url + check.path()))
+                            .exchangeToMono(resp -> resp.releaseBody().thenReturn(resp.statusCode().is2xxSuccessful()))
+                            .timeout(check.timeout())
+                            .onErrorReturn(false))
+                    .subscribe(up -> node.healthChecked(up, check)));
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        healthChecks.dispose();
+    }
+
+    /**
+     * State of every node for the health endpoint.
+     */
+    public Map<String, Map<String, Object>> status() {
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Object>> status = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            status.put(node.url, Map.of(
+                    "healthy", node.healthy,
+                    "ejected", now < node.ejectedUntil,
+                    "outstanding", node.outstanding.get(),
+                    "latencyMs", Math.round(node.latency.get())));
+        }
+        return status;
+    }
+
+    /**
+     * Power of two choices among the available nodes other than {@code excluded}. When none is
+     * available, {@code fallback} picks among all of them rather than failing the call outright.
+     */
+    Node choose(Node excluded, boolean fallback) {
+        long now = System.currentTimeMillis();
+        List<Node> candidates = nodes.stream()
+                .filter(n -> n != excluded && n.isAvailable(now))
+                .toList();
+        if (candidates.isEmpty() && fallback) {
+            candidates = nodes.stream()
+                    .filter(n -> n != excluded)
+                    .toList();
+        }
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(candidates.size());
+        int j = random.nextInt(candidates.size() - 1);
+        Node a = candidates.get(i);
+        Node b = candidates.get(j < i ? j : j + 1);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    private Mono<ClientResponse> send(ClientRequest request, Node node, KeycloakOperation operation,
+                                      ExchangeFunction next) {
+        return Mono.defer(() -> {
+            node.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            ClientRequest routed = ClientRequest.from(request)
+                    .url(node.resolve(request.url(), baseUrl))
+                    .build();
+            return next.exchange(routed)
+                    .doOnNext(resp -> completed(node, operation, start, !resp.statusCode().is5xxServerError()))
+                    .doOnError(e -> completed(node, operation, start, false))
+                    // timed out, or lost a hedge: at least this slow
+                    .doOnCancel(() -> node.latency.add(elapsedMillis(start)))
+                    .doFinally(signal -> node.outstanding.decrementAndGet());
+        });
+    }
+
+    private void completed(Node node, KeycloakOperation operation, long start, boolean ok) {
+        double millis = elapsedMillis(start);
+        node.latency.add(millis);
+        if (ok) {
+            operationLatency.get(operation).add(millis);
+            node.consecutiveFailures.set(0);
+        } else if (node.consecutiveFailures.incrementAndGet() >= routing.ejection().consecutiveFailures()) {
+            eject(node);
+        }
+    }
+
+    private synchronized void eject(Node node) {
+        long now = System.currentTimeMillis();
+        long ejected = nodes.stream().filter(n -> now < n.ejectedUntil).count();
+        int maxEjected = Math.min(nodes.size() - 1,
+                Math.max(1, nodes.size() * routing.ejection().maxEjectedPercent() / 100));
+        if (now < node.ejectedUntil || ejected >= maxEjected) {
+            return;
+        }
+        node.ejectedUntil = now + routing.ejection().duration().toMillis();
+        node.consecutiveFailures.set(0);
+        node.ejections.increment();
+        log.warn("Ejecting Keycloak node {} for {} after {} consecutive failures",
+                node.url, routing.ejection().duration(), routing.ejection().consecutiveFailures());
+    }
+
+    private Duration hedgeDelay(KeycloakOperation operation) {
+        KeycloakRoutingProperties.Hedging hedging = routing.hedging();
+        long millis = Math.round(operationLatency.get(operation).get() * hedging.latencyFactor());
+        return millis > hedging.minDelay().toMillis() ? Duration.ofMillis(millis) : hedging.minDelay();
+    }
+
+    private static Throwable firstFailure(NoSuchElementException e) {
+        // both attempts failed, or the hedge never started: report the first real error
+        List<Throwable> failures = Exceptions.unwrapMultiple(e.getCause());
+        return failures.isEmpty() || failures.get(0) == null ? e : failures.get(0);
+    }
+
+    private static double elapsedMillis(long start) {
+        return (System.nanoTime() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    static final class Node {
+
+        final String url;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        final Ewma latency = new Ewma();
+        final Counter ejections;
+        volatile boolean healthy = true;
+        volatile long ejectedUntil;
+        // only touched by this node's health check loop
+        private int healthCheckStreak;
+
+        Node(String url, MeterRegistry meterRegistry) {
+            this.url = url;
+            this.ejections = Counter.builder("keycloak.routing.ejections")
+                    .description("Times a Keycloak node was skipped after consecutive failures")
+                    .tag("node", url)
+                    .register(meterRegistry);
+            Gauge.builder("keycloak.routing.outstanding", outstanding, AtomicInteger::get)
+                    .description("Requests in flight to a Keycloak node")
+                    .tag("node", url)
+                    .register(meterRegistry);
+            Gauge.builder("keycloak.routing.available", this,
+                            n -> n.isAvailable(System.currentTimeMillis()) ? 1 : 0)
+                    .description("Whether a Keycloak node receives traffic")
+                    .tag("node", url)
+                    .register(meterRegistry);
+        }
+
+        boolean isAvailable(long now) {
+            return healthy && now >= ejectedUntil;
+        }
+
+        double score() {
+            return (outstanding.get() + 1) * Math.max(latency.get(), 1.0) * (1 + consecutiveFailures.get());
+        }
+
+        URI resolve(URI requestUrl, String baseUrl) {
+            String url = requestUrl.toString();
+            return url.startsWith(baseUrl) ? URI.create(this.url + url.substring(baseUrl.length())) : requestUrl;
+        }
+
+        void healthChecked(boolean up, KeycloakRoutingProperties.HealthCheck check) {
+            if (up == healthy) {
+                healthCheckStreak = 0;
+                return;
+            }
+            if (++healthCheckStreak >= (up ? check.healthyThreshold() : check.unhealthyThreshold())) {
+                healthy = up;
+                healthCheckStreak = 0;
+                if (up) {
+                    log.info("Keycloak node {} is healthy again", url);
+                } else {
+                    log.warn("Keycloak node {} failed {} health checks, routing around it", url, check.unhealthyThreshold());
+                }
+            }
+        }
+    }
+
+    // token bucket of hedges in hundredths: every GET adds percent, a hedge takes 100, up to 100 x burst
+    static final class HedgeBudget {
+
+        private final int percent;
+        private final long cap;
+        private long tokens;
+
+        HedgeBudget(int percent, int burst) {
+            this.percent = percent;
+            this.cap = 100L * burst;
+        }
+
+        synchronized void deposit() {
+            tokens = Math.min(cap, tokens + percent);
+        }
+
+        synchronized boolean tryWithdraw() {
+            if (tokens < 100) {
+                return false;
+            }
+            tokens -= 100;
+            return true;
+        }
+    }
+
+    // exponentially weighted moving average of latency in milliseconds
+    static final class Ewma {
+
+        private static final double ALPHA = 0.3;
+
+        private volatile double value;
+
+        synchronized void add(double sample) {
+            value = value == 0 ? sample : value + ALPHA * (sample - value);
+        }
+
+        double get() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package co.vuckovic.demo.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Times every admin API call as {@code keycloak.admin.calls{operation,status,outcome}}. This
+ * filter sits outside {@link KeycloakResilienceFilter}, so a call is one sample from its first
+ * attempt to its final response headers: retried attempts, backoff, waiting for the admin
+ * token and resilience rejections all fall inside it, and only the last status is tagged.
+ * GETs answered by {@link KeycloakCoalescingFilter} never get here.
+ */
+@Component
+@RequiredArgsConstructor
+public class KeycloakMetricsFilter implements ExchangeFilterFunction {
+
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        KeycloakOperation operation = KeycloakResilienceFilter.operationOf(request);
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return next.exchange(request)
+                    .doOnNext(resp -> sample.stop(timer(operation, String.valueOf(resp.statusCode().value()),
+                            Outcome.forStatus(resp.statusCode().value()).name())))
+                    .doOnError(e -> sample.stop(timer(operation, statusOf(e), outcomeOf(e))))
+                    // e.g. a facet dropped by its timeout, or a zip partner failing first
+                    .doOnCancel(() -> sample.stop(timer(operation, "CANCELLED", Outcome.UNKNOWN.name())));
+        });
+    }
+
+    private Timer timer(KeycloakOperation operation, String status, String outcome) {
+        return Timer.builder("keycloak.admin.calls")
+                .description("Keycloak admin API calls, each spanning all of its attempts")
+                .tag("operation", operation.name())
+                .tag("status", status)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static String statusOf(Throwable e) {
+        if (e instanceof WebClientResponseException w) {
+            return String.valueOf(w.getStatusCode().value());
+        }
+        if (e instanceof ResponseStatusException r) {
+            return String.valueOf(r.getStatusCode().value());
+        }
+        if (e instanceof TimeoutException) {
+            return "TIMEOUT";
+        }
+        return e instanceof WebClientRequestException ? "IO_ERROR" : "CLIENT_ERROR";
+    }
+
+    private static String outcomeOf(Throwable e) {
+        if (e instanceof WebClientResponseException w) {
+            return Outcome.forStatus(w.getStatusCode().value()).name();
+        }
+        if (e instanceof ResponseStatusException r) {
+            return Outcome.forStatus(r.getStatusCode().value()).name();
+        }
+        return Outcome.UNKNOWN.name();
+    }
+}
@@ -0,0 +1,31 @@
+package co.vuckovic.demo.service;
+
+/**
+ * Admin API operation a Keycloak request belongs to. Set on each request as the
+ * {@link #ATTRIBUTE} attribute; timeouts, bulkheads and metrics are keyed by it.
+ */
+public enum KeycloakOperation {
+    LIST_USERS,
+    SEARCH_USERS,
+    COUNT_USERS,
+    LIST_ROLE_USERS,
+    LIST_GROUPS,
+    LIST_GROUP_MEMBERS,
+    GET_USER,
+    GET_USER_ROLES,
+    GET_USER_GROUPS,
+    GET_USER_SESSIONS,
+    CREATE_USER,
+    PARTIAL_IMPORT,
+    UPDATE_USER,
+    DELETE_USER,
+    GET_ROLE_MAPPINGS,
+    ADD_ROLE_MAPPINGS,
+    REMOVE_ROLE_MAPPINGS,
+    LIST_ROLES,
+    GET_ROLE_COMPOSITES,
+    LIST_ADMIN_EVENTS,
+    OTHER;
+
+    public static final String ATTRIBUTE = KeycloakOperation.class.getName();
+}
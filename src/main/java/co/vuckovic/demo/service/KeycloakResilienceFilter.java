@@ -0,0 +1,196 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientRequest;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Timeout, retry, circuit breaker and bulkhead around every admin API call. Each attempt,
+ * response body included, is bounded by the operation's timeout and counted by one breaker for
+ * the whole Keycloak backend; idempotent methods get jittered retries on 5xx, I/O errors and
+ * timeouts before the body is read; the bulkhead caps concurrent calls per
+ * {@link KeycloakOperation} until their bodies are read. An open breaker or a full bulkhead
+ * fails fast with 503 instead of queueing.
+ */
+@Component
+public class KeycloakResilienceFilter implements ExchangeFilterFunction {
+
+    private static final Set<HttpMethod> IDEMPOTENT = Set.of(HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE);
+
+    private final KeycloakResilienceProperties resilience;
+    private final CircuitBreaker circuitBreaker;
+    private final BulkheadRegistry bulkheads;
+    private final MeterRegistry meterRegistry;
+
+    public KeycloakResilienceFilter(KeycloakResilienceProperties resilience, MeterRegistry meterRegistry) {
+        this.resilience = resilience;
+        this.meterRegistry = meterRegistry;
+
+        KeycloakResilienceProperties.CircuitBreaker cb = resilience.circuitBreaker();
+        CircuitBreakerRegistry breakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(cb.failureRateThreshold())
+                .slowCallDurationThreshold(cb.slowCallDurationThreshold())
+                .slowCallRateThreshold(cb.slowCallRateThreshold())
+                .slidingWindowSize(cb.slidingWindowSize())
+                .minimumNumberOfCalls(cb.minimumNumberOfCalls())
+                .waitDurationInOpenState(cb.waitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(cb.permittedCallsInHalfOpenState())
+                .recordException(KeycloakResilienceFilter::isBackendFailure)
+                .build());
+        this.circuitBreaker = breakers.circuitBreaker("keycloak");
+        // reactive callers must never block waiting for a permit
+        this.bulkheads = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(breakers).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheads).bindTo(meterRegistry);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        KeycloakOperation operation = operationOf(request);
+        Duration timeout = resilience.timeout(operation);
+        // replaces the connector's response-timeout, which would cut off e.g. a slow partialImport
+        ClientRequest timed = ClientRequest.from(request)
+                .httpRequest(r -> {
+                    if (r.getNativeRequest() instanceof HttpClientRequest nettyRequest) {
+                        nettyRequest.responseTimeout(timeout);
+                    }
+                })
+                .build();
+
+        Mono<ClientResponse> attempt = Mono.defer(() -> {
+                    long deadline = System.nanoTime() + timeout.toNanos();
+                    return next.exchange(timed)
+                            .flatMap(KeycloakResilienceFilter::failOnServerError)
+                            .timeout(timeout)
+                            // the exchange completes with the headers; the body must arrive by the same deadline
+                            .map(response -> response.mutate()
+                                    .body(body -> within(body, deadline, operation))
+                                    .build());
+                })
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+
+        if (IDEMPOTENT.contains(request.method())) {
+            KeycloakResilienceProperties.Retry retry = resilience.retry();
+            attempt = attempt.retryWhen(Retry.backoff(retry.maxRetries(), retry.minBackoff())
+                    .maxBackoff(retry.maxBackoff())
+                    .jitter(retry.jitter())
+                    .filter(KeycloakResilienceFilter::isBackendFailure)
+                    .doBeforeRetry(s -> counter("keycloak.admin.retries", operation, null).increment())
+                    .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+        }
+
+        return holdingPermit(attempt, bulkhead(operation))
+                .onErrorMap(CallNotPermittedException.class, e -> {
+                    counter("keycloak.admin.rejected", operation, "circuit_open").increment();
+                    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Keycloak is unavailable", e);
+                })
+                .onErrorMap(BulkheadFullException.class, e -> {
+                    counter("keycloak.admin.rejected", operation, "bulkhead_full").increment();
+                    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent Keycloak calls", e);
+                });
+    }
+
+    /**
+     * Takes a bulkhead permit for the whole call and gives it back once the response body has
+     * been read, failed or been cancelled, rather than when the headers arrive.
+     */
+    private static Mono<ClientResponse> holdingPermit(Mono<ClientResponse> call, Bulkhead bulkhead) {
+        return Mono.defer(() -> {
+            if (!bulkhead.tryAcquirePermission()) {
+                return Mono.error(BulkheadFullException.createBulkheadFullException(bulkhead));
+            }
+            AtomicBoolean held = new AtomicBoolean(true);
+            Runnable release = () -> {
+                if (held.compareAndSet(true, false)) {
+                    bulkhead.onComplete();
+                }
+            };
+            return call
+                    .map(response -> response.mutate()
+                            .body(body -> body.doFinally(s -> release.run()))
+                            .build())
+                    .doOnError(e -> release.run())
+                    .doOnCancel(release);
+        });
+    }
+
+    private static Flux<DataBuffer> within(Flux<DataBuffer> body, long deadline, KeycloakOperation operation) {
+        AtomicBoolean complete = new AtomicBoolean();
+        return body.doOnComplete(() -> complete.set(true))
+                .take(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))
+                .concatWith(Mono.defer(() -> complete.get()
+                        ? Mono.empty()
+                        : Mono.error(new TimeoutException("Keycloak " + operation + " response body not read in time"))));
+    }
+
+    CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    static KeycloakOperation operationOf(ClientRequest request) {
+        return request.attribute(KeycloakOperation.ATTRIBUTE)
+                .map(KeycloakOperation.class::cast)
+                .orElse(KeycloakOperation.OTHER);
+    }
+
+    private Bulkhead bulkhead(KeycloakOperation operation) {
+        return bulkheads.bulkhead(operation.name(), () -> BulkheadConfig.custom()
+                .maxConcurrentCalls(resilience.bulkhead().maxConcurrentCalls(operation))
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+    }
+
+    private Counter counter(String name, KeycloakOperation operation, String reason) {
+        Counter.Builder builder = Counter.builder(name).tag("operation", operation.name());
+        if (reason != null) {
+            builder.tag("reason", reason);
+        }
+        return builder.register(meterRegistry);
+    }
+
+    private static Mono<ClientResponse> failOnServerError(ClientResponse response) {
+        return response.statusCode().is5xxServerError()
+                ? response.createException().flatMap(Mono::error)
+                : Mono.just(response);
+    }
+
+    private static boolean isBackendFailure(Throwable e) {
+        return e instanceof WebClientResponseException w && w.getStatusCode().is5xxServerError()
+                || e instanceof WebClientRequestException
+                || e instanceof TimeoutException;
+    }
+}
@@ -1,57 +1,210 @@
 package co.vuckovic.demo.service;
 
 import co.vuckovic.demo.config.KeycloakProperties;
-import lombok.RequiredArgsConstructor;
+import co.vuckovic.demo.config.KeycloakTokenProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Keeps the master-realm admin token fresh. Renewal is scheduled from the token's
+ * {@code expires_in} minus a configurable skew and runs in the background while callers
+ * keep using the still-valid token; only one renewal is ever in flight.
+ */
+@Slf4j
 @Component
-@RequiredArgsConstructor
+@RegisterReflectionForBinding(KeycloakTokenProvider.TokenResponse.class)
 public class KeycloakTokenProvider {
 
+    // never hand out a token this close to its hard expiry
+    private static final Duration USABLE_MARGIN = Duration.ofSeconds(5);
+
     private final KeycloakProperties props;
-    private final WebClient.Builder webClientBuilder;
+    private final KeycloakTokenProperties tokenProps;
+    private final WebClient tokenClient;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicReference<AdminToken> current = new AtomicReference<>();
+    private final SingleFlight<AdminToken> renewal = new SingleFlight<>();
+    private final Disposable.Swap scheduledRenewal = Disposables.swap();
 
-    // cached for 5 minutes
-    private volatile Mono<String> cachedToken;
+    public KeycloakTokenProvider(KeycloakProperties props,
+                                 KeycloakTokenProperties tokenProps,
+                                 WebClient.Builder webClientBuilder,
+                                 ClientHttpConnector keycloakHttpConnector,
+                                 KeycloakLoadBalancer loadBalancer,
+                                 MeterRegistry meterRegistry) {
+        this.props = props;
+        this.tokenProps = tokenProps;
+        this.tokenClient = webClientBuilder
+                .clientConnector(keycloakHttpConnector)
+                .baseUrl(loadBalancer.baseUrl())
+                .filter(loadBalancer)
+                .build();
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("keycloak.token.age", current, ref -> ref.get() == null
+                        ? Double.NaN
+                        : Duration.between(ref.get().issuedAt(), Instant.now()).toMillis() / 1000.0)
+                .description("Age of the cached admin token")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
 
     public Mono<String> getToken() {
-        if (cachedToken == null) {
-            synchronized (this) {
-                if (cachedToken == null) {
-                    cachedToken = fetchNewToken()
-                            .cache(Duration.ofMinutes(5));
-                }
+        AdminToken token = current.get();
+        Instant now = Instant.now();
+        if (token != null && token.isUsableAt(now)) {
+            if (!now.isBefore(token.renewAt())) {
+                renewInBackground();
             }
+            return Mono.just(token.accessToken());
+        }
+        return renew().map(AdminToken::accessToken);
+    }
+
+    /**
+     * Drops the cached token if it is still the given one, e.g. after the admin API
+     * rejected it with 401. The next {@link #getToken()} call fetches a new token.
+     */
+    public void invalidate(String accessToken) {
+        AdminToken token = current.get();
+        if (token != null && token.accessToken().equals(accessToken)) {
+            current.compareAndSet(token, null);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduledRenewal.dispose();
+    }
+
+    private void renewInBackground() {
+        renew().subscribe(
+                t -> {},
+                e -> log.warn("Background admin token renewal failed: {}", e.toString()));
+    }
+
+    private Mono<AdminToken> renew() {
+        return renewal.run(() -> fetchNewToken().doOnNext(this::store));
+    }
+
+    private void store(AdminToken token) {
+        current.set(token);
+        Duration delay = Duration.between(Instant.now(), token.renewAt());
+        if (delay.isNegative()) {
+            delay = Duration.ZERO;
         }
-        return cachedToken;
+        scheduledRenewal.update(Mono.delay(delay)
+                .subscribe(t -> renewInBackground()));
     }
 
-    private Mono<String> fetchNewToken() {
-        return webClientBuilder
-                .baseUrl(props.serverUrl())
-                .build()
-                .post()
+    private Mono<AdminToken> fetchNewToken() {
+        AdminToken token = current.get();
+        if (tokenProps.refreshEnabled() && token != null && token.canRefreshAt(Instant.now())) {
+            return timed("refresh_token", requestToken(BodyInserters
+                    .fromFormData("grant_type", "refresh_token")
+                    .with("client_id", props.masterClientId())
+                    .with("refresh_token", token.refreshToken())))
+                    .onErrorResume(e -> {
+                        log.debug("Refresh token grant failed, falling back to password grant: {}", e.toString());
+                        return passwordGrant();
+                    });
+        }
+        return passwordGrant();
+    }
+
+    private Mono<AdminToken> passwordGrant() {
+        return timed("password", requestToken(BodyInserters
+                .fromFormData("grant_type", "password")
+                .with("client_id", props.masterClientId())
+                .with("username", props.adminUser())
+                .with("password", props.adminPassword())));
+    }
+
+    private Mono<AdminToken> requestToken(BodyInserters.FormInserter<String> form) {
+        return tokenClient.post()
                 .uri("/realms/{master}/protocol/openid-connect/token", props.masterRealm())
                 .contentType(MediaType.APPLICATION_FORM_URLENCODED)
-                .body(BodyInserters.fromFormData("grant_type", "password")
-                        .with("client_id", props.masterClientId())
-                        .with("username", props.adminUser())
-                        .with("password", props.adminPassword())
-                )
+                .body(form)
                 .retrieve()
                 .bodyToMono(TokenResponse.class)
-                .map(TokenResponse::access_token);
+                .map(this::toAdminToken);
+    }
+
+    private Mono<AdminToken> timed(String grant, Mono<AdminToken> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return call
+                    .doOnSuccess(t -> sample.stop(renewalTimer(grant, "success")))
+                    .doOnError(e -> sample.stop(renewalTimer(grant, "error")));
+        });
+    }
+
+    private Timer renewalTimer(String grant, String outcome) {
+        return Timer.builder("keycloak.token.renewal")
+                .description("Admin token fetches and refreshes against Keycloak")
+                .tag("grant", grant)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private AdminToken toAdminToken(TokenResponse resp) {
+        Instant now = Instant.now();
+        Duration lifetime = Duration.ofSeconds(resp.expires_in());
+        Duration renewIn = lifetime.compareTo(tokenProps.expirySkew().multipliedBy(2)) > 0
+                ? lifetime.minus(tokenProps.expirySkew())
+                : lifetime.dividedBy(2);
+        Instant refreshExpiresAt = resp.refresh_token() == null
+                ? now
+                // refresh_expires_in of 0 means the refresh token lives as long as the session
+                : resp.refresh_expires_in() > 0 ? now.plusSeconds(resp.refresh_expires_in()) : now.plus(lifetime);
+        return new AdminToken(
+                resp.access_token(),
+                resp.refresh_token(),
+                now,
+                now.plus(lifetime),
+                now.plus(renewIn),
+                refreshExpiresAt);
+    }
+
+    private record AdminToken(
+            String accessToken,
+            String refreshToken,
+            Instant issuedAt,
+            Instant expiresAt,
+            Instant renewAt,
+            Instant refreshExpiresAt
+    ) {
+        boolean isUsableAt(Instant now) {
+            return now.isBefore(expiresAt.minus(USABLE_MARGIN));
+        }
+
+        boolean canRefreshAt(Instant now) {
+            return refreshToken != null && now.isBefore(refreshExpiresAt.minus(USABLE_MARGIN));
+        }
     }
 
-    private static record TokenResponse(
+    static record TokenResponse(
             String access_token,
             String token_type,
-            long expires_in
+            long expires_in,
+            String refresh_token,
+            long refresh_expires_in
     ) {}
 }
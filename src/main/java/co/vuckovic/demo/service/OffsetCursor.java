@@ -0,0 +1,28 @@
+package co.vuckovic.demo.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Page cursors are the offset of the next page's first user, as Keycloak's {@code first}.
+ */
+final class OffsetCursor {
+
+    private OffsetCursor() {
+    }
+
+    static int parse(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        try {
+            int first = Integer.parseInt(cursor);
+            if (first < 0) {
+                throw new NumberFormatException(cursor);
+            }
+            return first;
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor);
+        }
+    }
+}
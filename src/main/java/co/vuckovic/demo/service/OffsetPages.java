@@ -0,0 +1,35 @@
+package co.vuckovic.demo.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reads a listing page by page from offset 0 until a short page. The listing is counted first
+ * so that only pages the count covers are prefetched; past those, pages are read one at a time,
+ * which picks up rows added meanwhile without prefetching requests beyond the end.
+ */
+final class OffsetPages {
+
+    private OffsetPages() {
+    }
+
+    static <P> Flux<P> read(Mono<Long> count, int size, int prefetch,
+                            IntFunction<Mono<P>> fetch, ToIntFunction<P> length) {
+        return count.flatMapMany(total -> {
+            int counted = (int) Math.min(Integer.MAX_VALUE / size, (total + size - 1) / size);
+            Flux<P> prefetched = Flux.range(0, counted)
+                    .flatMapSequential(page -> fetch.apply(page * size), prefetch, 1);
+            Flux<P> rest = Flux.<Integer, Integer>generate(() -> counted * size, (first, sink) -> {
+                        sink.next(first);
+                        return first + size;
+                    })
+                    .concatMap(fetch::apply);
+            // rest is only subscribed once every counted page came back full
+            return Flux.concat(prefetched, rest)
+                    .takeUntil(page -> length.applyAsInt(page) < size);
+        });
+    }
+}
@@ -0,0 +1,228 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSearchPage;
+import co.vuckovic.demo.dto.UserSearchQuery;
+import co.vuckovic.demo.dto.UserSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Serves list, search and get from the {@link UserReplica} while it is fresh, and everything
+ * else from the configured backend. Writes go to the backend and then re-read the user into
+ * the replica, so this service always sees its own changes.
+ * <p>
+ * Not served locally: attribute queries ({@code q}), the groups and sessions facets, and any
+ * read while the replica is older than {@code keycloak.replica.max-staleness}. Users read from
+ * the replica carry an entity tag only when the backend has one cached.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "keycloak.replica.enabled", havingValue = "true")
+public class ReplicatedUserManagementService implements UserManagementService {
+
+    private static final Set<UserFacet> REPLICATED_FACETS = EnumSet.of(UserFacet.ROLES, UserFacet.ATTRIBUTES);
+
+    private final UserManagementService backend;
+    private final UserReplica replica;
+    private final KeycloakPagingProperties pagingProps;
+    private final UserCache userCache;
+    private final ObjectMapper objectMapper;
+    private final Counter replicaReads;
+    private final Counter keycloakReads;
+
+    public ReplicatedUserManagementService(@Qualifier("userBackend") UserManagementService backend,
+                                           UserReplica replica,
+                                           KeycloakPagingProperties pagingProps,
+                                           UserCache userCache,
+                                           ObjectMapper objectMapper,
+                                           MeterRegistry meterRegistry) {
+        this.backend = backend;
+        this.replica = replica;
+        this.pagingProps = pagingProps;
+        this.userCache = userCache;
+        this.objectMapper = objectMapper;
+        this.replicaReads = reads(meterRegistry, "replica");
+        this.keycloakReads = reads(meterRegistry, "keycloak");
+    }
+
+    private static Counter reads(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("keycloak.replica.reads")
+                .description("User reads by where they were served from")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+    private boolean serveLocally(boolean supported) {
+        boolean local = supported && replica.isFresh();
+        (local ? replicaReads : keycloakReads).increment();
+        return local;
+    }
+
+    /**
+     * Pages through the replica by username, each page read under its own lock.
+     */
+    @Override
+    public Flux<UserSummary> streamUsers(Integer pageSize) {
+        if (!serveLocally(true)) {
+            return backend.streamUsers(pageSize);
+        }
+        int size = pagingProps.clamp(pageSize);
+        return Flux.<List<UserDirectory.User>, String>generate(() -> "", (after, sink) -> {
+                    List<UserDirectory.User> page = replica.read(d -> d.pageAfter(after, size));
+                    sink.next(page);
+                    if (page.size() < size) {
+                        sink.complete();
+                        return after;
+                    }
+                    return page.get(page.size() - 1).username();
+                })
+                .concatMapIterable(page -> page)
+                .map(u -> new UserSummary(u.id(), u.username()));
+    }
+
+    /**
+     * Roles come from the replica's own role graph, so a local listing makes no Keycloak calls.
+     */
+    @Override
+    public Flux<UserResponse> streamUsersWithRoles(Integer pageSize) {
+        if (!serveLocally(true)) {
+            return backend.streamUsersWithRoles(pageSize);
+        }
+        int size = pagingProps.clamp(pageSize);
+        return Flux.<List<UserResponse>, String>generate(() -> "", (after, sink) -> {
+                    List<UserResponse> page = replica.read(d -> d.pageAfter(after, size).stream()
+                            .map(u -> new UserResponse(u.id(), u.username(), u.email(), u.enabled(),
+                                    d.effectiveRoles(u.id()).stream().sorted().toList(), null, null, null, null))
+                            .toList());
+                    sink.next(page);
+                    if (page.size() < size) {
+                        sink.complete();
+                        return after;
+                    }
+                    return page.get(page.size() - 1).username();
+                })
+                .concatMapIterable(page -> page);
+    }
+
+    @Override
+    public Flux<DataBuffer> getAllUsersJson() {
+        return replica.isFresh()
+                ? JsonArrays.write(getAllUsers(), objectMapper.writerFor(UserSummary.class))
+                : backend.getAllUsersJson();
+    }
+
+    @Override
+    public Mono<UserPage> getUsersPage(String cursor, Integer pageSize) {
+        if (!serveLocally(true)) {
+            return backend.getUsersPage(cursor, pageSize);
+        }
+        int first = OffsetCursor.parse(cursor);
+        int size = pagingProps.clamp(pageSize);
+        return Mono.fromSupplier(() -> {
+            List<UserDirectory.User> users = replica.read(d -> d.page(first, size + 1));
+            return new UserPage(
+                    users.stream()
+                            .limit(size)
+                            .map(u -> new UserSummary(u.id(), u.username()))
+                            .toList(),
+                    users.size() > size ? String.valueOf(first + size) : null);
+        });
+    }
+
+    /**
+     * Invalid combinations and roles the replica does not know yet go to the backend, which
+     * rejects or resolves them the usual way.
+     */
+    @Override
+    public Mono<UserSearchPage> searchUsers(UserSearchQuery query, String cursor, Integer pageSize,
+                                            Set<UserField> fields) {
+        boolean supported = query.q() == null
+                && (query.role() == null || !query.hasUserFilters() && replica.read(d -> d != null && d.hasRole(query.role())));
+        if (!serveLocally(supported)) {
+            return backend.searchUsers(query, cursor, pageSize, fields);
+        }
+        int first = OffsetCursor.parse(cursor);
+        int size = pagingProps.clamp(pageSize);
+        return Mono.fromSupplier(() -> {
+            List<UserDirectory.User> found = replica.read(d -> d.search(query, first, size + 1));
+            return new UserSearchPage(
+                    found.stream()
+                            .limit(size)
+                            .map(u -> new UserRep(u.id(), u.username(), u.email(), u.enabled(), u.attributes())
+                                    .project(fields))
+                            .toList(),
+                    found.size() > size ? String.valueOf(first + size) : null);
+        });
+    }
+
+    @Override
+    public Mono<Versioned<UserResponse>> getVersionedUser(String userId, Set<UserFacet> include) {
+        if (!serveLocally(REPLICATED_FACETS.containsAll(include))) {
+            return backend.getVersionedUser(userId, include);
+        }
+        return Mono.fromSupplier(() -> replica.read(d -> {
+                    UserDirectory.User u = d.get(userId);
+                    return u == null ? null : new UserResponse(
+                            u.id(),
+                            u.username(),
+                            u.email(),
+                            u.enabled(),
+                            include.contains(UserFacet.ROLES) ? d.effectiveRoles(userId) : null,
+                            null,
+                            include.contains(UserFacet.ATTRIBUTES) ? Objects.requireNonNullElse(u.attributes(), Map.of()) : null,
+                            null,
+                            null);
+                }))
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found")))
+                .map(user -> {
+                    UserRepresentation cached = userCache.getRepresentation(userId);
+                    return new Versioned<>(user, cached == null ? null : cached.etag());
+                });
+    }
+
+    @Override
+    public Mono<String> createUser(UserCreateRequest req) {
+        return backend.createUser(req)
+                .flatMap(id -> replica.refresh(id).thenReturn(id));
+    }
+
+    @Override
+    public Mono<Void> patchUser(String userId, UserPatchRequest patch, String ifMatch) {
+        return thenRefresh(userId, backend.patchUser(userId, patch, ifMatch));
+    }
+
+    @Override
+    public Mono<Void> deleteUser(String userId, String ifMatch) {
+        return thenRefresh(userId, backend.deleteUser(userId, ifMatch));
+    }
+
+    // also after a failed write, which may have been applied in part
+    private Mono<Void> thenRefresh(String userId, Mono<Void> write) {
+        return write
+                .onErrorResume(e -> replica.refresh(userId).then(Mono.error(e)))
+                .then(replica.refresh(userId));
+    }
+}
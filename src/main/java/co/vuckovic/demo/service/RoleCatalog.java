@@ -0,0 +1,187 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.dto.RoleCatalogStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Local copy of the realm's roles keyed by name, so role assignments resolve names without
+ * downloading the whole role list. Reloaded after {@code keycloak.roles.catalog-ttl} or on
+ * explicit invalidation. Unknown names trigger at most one reload before they are rejected.
+ */
+@Slf4j
+@Component
+@RegisterReflectionForBinding(RoleRep.class)
+public class RoleCatalog {
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakRoleProperties roleProps;
+    private final KeycloakPagingProperties pagingProps;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final SingleFlight<Snapshot> loading = new SingleFlight<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer resolveTimer;
+    private final MeterRegistry meterRegistry;
+
+    public RoleCatalog(WebClient keycloakWebClient,
+                       KeycloakProperties props,
+                       KeycloakRoleProperties roleProps,
+                       KeycloakPagingProperties pagingProps,
+                       MeterRegistry meterRegistry) {
+        this.keycloakWebClient = keycloakWebClient;
+        this.props = props;
+        this.roleProps = roleProps;
+        this.pagingProps = pagingProps;
+        this.hits = Counter.builder("keycloak.roles.catalog.lookups")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("keycloak.roles.catalog.lookups")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.resolveTimer = Timer.builder("keycloak.roles.resolve")
+                .description("Role name resolution, including catalog loads on a miss")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("keycloak.roles.catalog.size", snapshot, s -> s.get() == null ? 0 : s.get().byName().size())
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void warmUp() {
+        if (roleProps.warmOnStartup()) {
+            refresh().subscribe(
+                    s -> log.info("Role catalog warmed with {} realm roles", s.roles()),
+                    e -> log.warn("Role catalog warm-up failed, will load on first use: {}", e.toString()));
+        }
+    }
+
+    /**
+     * Resolves role names to their representations in request order. A name the catalog does
+     * not know may have been created since it was loaded, so the catalog is reloaded once
+     * (shared with concurrent callers, and at most every {@code keycloak.roles.miss-reload-interval})
+     * before the request fails with 400.
+     */
+    public Mono<List<RoleRep>> resolve(Collection<String> names) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return doResolve(names).doFinally(s -> sample.stop(resolveTimer));
+        });
+    }
+
+    private Mono<List<RoleRep>> doResolve(Collection<String> names) {
+        return current()
+                .flatMap(s -> s.unknown(names).isEmpty()
+                        || s.loadedAt().plus(roleProps.missReloadInterval()).isAfter(Instant.now())
+                        ? Mono.just(s)
+                        : loading.run(this::load))
+                .map(s -> {
+                    Set<String> unknown = s.unknown(names);
+                    if (!unknown.isEmpty()) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown realm roles: " + unknown);
+                    }
+                    return names.stream().map(s.byName()::get).toList();
+                });
+    }
+
+    /**
+     * Every realm role, from the catalog.
+     */
+    Mono<Collection<RoleRep>> roles() {
+        return current().map(s -> s.byName().values());
+    }
+
+    public Mono<RoleCatalogStatus> refresh() {
+        return loading.run(this::load).map(Snapshot::status);
+    }
+
+    public void invalidate() {
+        snapshot.set(null);
+    }
+
+    @EventListener
+    void onAdminEvent(AdminEvent event) {
+        if (event.isRealmRoleChange()) {
+            invalidate();
+        }
+    }
+
+    private Mono<Snapshot> current() {
+        Snapshot s = snapshot.get();
+        if (s != null && s.loadedAt().plus(roleProps.catalogTtl()).isAfter(Instant.now())) {
+            hits.increment();
+            return Mono.just(s);
+        }
+        misses.increment();
+        return loading.run(this::load);
+    }
+
+    private Mono<Snapshot> load() {
+        int size = pagingProps.maxPageSize();
+        return Flux.<Integer, Integer>generate(() -> 0, (first, sink) -> {
+                    sink.next(first);
+                    return first + size;
+                })
+                .concatMap(first -> fetchRolePage(first, size))
+                .takeUntil(page -> page.size() < size)
+                .concatMapIterable(page -> page)
+                .collectMap(RoleRep::name, Function.identity())
+                .map(byName -> new Snapshot(Map.copyOf(byName), Instant.now()))
+                .doOnNext(snapshot::set);
+    }
+
+    private Mono<List<RoleRep>> fetchRolePage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/roles")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ROLES)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .collectList();
+    }
+
+    private record Snapshot(Map<String, RoleRep> byName, Instant loadedAt) {
+        Set<String> unknown(Collection<String> names) {
+            Set<String> unknown = new TreeSet<>();
+            for (String name : names) {
+                if (!byName.containsKey(name)) {
+                    unknown.add(name);
+                }
+            }
+            return unknown;
+        }
+
+        RoleCatalogStatus status() {
+            return new RoleCatalogStatus(byName.size(), loadedAt);
+        }
+    }
+}
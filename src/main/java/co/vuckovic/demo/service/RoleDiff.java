@@ -0,0 +1,23 @@
+package co.vuckovic.demo.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Minimal change that turns a user's current direct realm roles into the desired set.
+ */
+record RoleDiff(List<RoleRep> toAdd, List<RoleRep> toRemove) {
+
+    static RoleDiff between(List<RoleRep> current, List<RoleRep> desired) {
+        Set<String> currentNames = current.stream().map(RoleRep::name).collect(Collectors.toSet());
+        Set<String> desiredNames = desired.stream().map(RoleRep::name).collect(Collectors.toSet());
+        return new RoleDiff(
+                desired.stream().filter(r -> !currentNames.contains(r.name())).distinct().toList(),
+                current.stream().filter(r -> !desiredNames.contains(r.name())).toList());
+    }
+
+    boolean isEmpty() {
+        return toAdd.isEmpty() && toRemove.isEmpty();
+    }
+}
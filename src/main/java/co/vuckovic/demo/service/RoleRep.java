@@ -0,0 +1,13 @@
+package co.vuckovic.demo.service;
+
+/**
+ * Realm role as returned by the Keycloak admin API and accepted by its role-mapping endpoints.
+ */
+record RoleRep(
+        String id,
+        String name,
+        String description,
+        Boolean composite,
+        Boolean clientRole,
+        String containerId
+) {}
@@ -0,0 +1,41 @@
+package co.vuckovic.demo.service;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Lets at most one call run at a time: callers arriving while it is in flight share its
+ * outcome. Neither the result nor an error is remembered once the call has finished.
+ */
+public final class SingleFlight<T> {
+
+    private final AtomicReference<Mono<T>> inFlight = new AtomicReference<>();
+
+    public Mono<T> run(Supplier<Mono<T>> call) {
+        while (true) {
+            Mono<T> running = inFlight.get();
+            if (running != null) {
+                return running;
+            }
+            Sinks.One<T> sink = Sinks.one();
+            Mono<T> candidate = sink.asMono();
+            if (inFlight.compareAndSet(null, candidate)) {
+                Mono.defer(call)
+                        .switchIfEmpty(Mono.error(() -> new IllegalStateException("Single-flight call completed empty")))
+                        .subscribe(
+                                value -> {
+                                    inFlight.compareAndSet(candidate, null);
+                                    sink.tryEmitValue(value);
+                                },
+                                error -> {
+                                    inFlight.compareAndSet(candidate, null);
+                                    sink.tryEmitError(error);
+                                });
+                return candidate;
+            }
+        }
+    }
+}
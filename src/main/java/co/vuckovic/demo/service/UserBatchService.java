@@ -0,0 +1,118 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakBatchProperties;
+import co.vuckovic.demo.dto.UserBatchOperation;
+import co.vuckovic.demo.dto.UserBatchResult;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Runs streamed create/update/delete operations against {@link UserManagementService} with
+ * bounded concurrency and an optional start rate, reporting each result as it completes.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserBatchService {
+
+    private final UserManagementService userManagementService;
+    private final KeycloakBatchProperties batchProps;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * One {@link UserBatchOperation} JSON object per line. A line that does not parse fails on
+     * its own, reported under its zero-based line number, and the rest of the stream goes on.
+     */
+    public Flux<UserBatchResult> execute(Flux<String> lines) {
+        return paced(lines.index().filter(t -> !t.getT2().isBlank()))
+                .flatMap(t -> run(t.getT1(), t.getT2()), batchProps.concurrency());
+    }
+
+    /**
+     * Flips the enabled flag of each user with one minimal PUT, at the batch concurrency and rate.
+     */
+    public Flux<UserBatchResult> setEnabled(List<String> ids, boolean enabled) {
+        if (ids == null || ids.isEmpty()) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids must name at least one user"));
+        }
+        if (ids.stream().anyMatch(id -> id == null || id.isBlank())) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids must not contain blank entries"));
+        }
+        String op = enabled ? "enable" : "disable";
+        return paced(Flux.fromIterable(ids).index())
+                .flatMap(t -> Mono.defer(() -> userManagementService.patchUser(t.getT2(), UserPatchRequest.enabled(enabled), null))
+                        .thenReturn(UserBatchResult.ok(t.getT1(), op, t.getT2()))
+                        .onErrorResume(e -> Mono.just(UserBatchResult.failed(t.getT1(), op, t.getT2(), describe(e)))),
+                        batchProps.concurrency());
+    }
+
+    /** Spaces out operation starts to {@code batch.rate-limit} per second, when set. */
+    private <T> Flux<T> paced(Flux<T> operations) {
+        if (batchProps.rateLimit() <= 0) {
+            return operations;
+        }
+        return operations.delayElements(Duration.ofNanos(1_000_000_000L / batchProps.rateLimit()));
+    }
+
+    private Mono<UserBatchResult> run(long index, String line) {
+        UserBatchOperation operation;
+        try {
+            operation = objectMapper.readValue(line, UserBatchOperation.class);
+        } catch (JsonProcessingException e) {
+            return Mono.just(UserBatchResult.failed(index, null, null, "400 Malformed operation: " + e.getOriginalMessage()));
+        }
+        if (operation == null) {
+            // a literal null line
+            return Mono.just(UserBatchResult.failed(index, null, null, "400 Malformed operation: expected an object"));
+        }
+        return run(index, operation);
+    }
+
+    private Mono<UserBatchResult> run(long index, UserBatchOperation operation) {
+        // defer so a failure while building the call is reported like any other per-item error
+        return Mono.defer(() -> dispatch(index, operation))
+                .onErrorResume(e -> Mono.just(UserBatchResult.failed(index,
+                        operation == null ? null : operation.op(), idOf(operation), describe(e))));
+    }
+
+    private Mono<UserBatchResult> dispatch(long index, UserBatchOperation operation) {
+        return switch (operation) {
+            case UserBatchOperation.Create c -> userManagementService.createUser(c.user())
+                    .map(id -> UserBatchResult.ok(index, c.op(), id))
+                    .defaultIfEmpty(UserBatchResult.ok(index, c.op(), null));
+            case UserBatchOperation.Update u -> userManagementService.updateUser(u.id(), u.user())
+                    .thenReturn(UserBatchResult.ok(index, u.op(), u.id()));
+            case UserBatchOperation.Delete d -> userManagementService.deleteUser(d.id())
+                    .thenReturn(UserBatchResult.ok(index, d.op(), d.id()));
+        };
+    }
+
+    private static String idOf(UserBatchOperation operation) {
+        return switch (operation) {
+            case null -> null;
+            case UserBatchOperation.Create c -> null;
+            case UserBatchOperation.Update u -> u.id();
+            case UserBatchOperation.Delete d -> d.id();
+        };
+    }
+
+    static String describe(Throwable e) {
+        if (e instanceof ResponseStatusException r) {
+            return r.getStatusCode().value() + " " + r.getReason();
+        }
+        if (e instanceof WebClientResponseException w) {
+            return w.getStatusCode().value() + " " + w.getResponseBodyAsString();
+        }
+        return String.valueOf(e.getMessage());
+    }
+}
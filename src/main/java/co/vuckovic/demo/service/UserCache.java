@@ -0,0 +1,197 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded read-through cache for user details, raw user representations and list pages. Entries expire after
+ * {@code keycloak.cache.ttl} and are dropped on this service's own writes and on
+ * Keycloak admin events, so changes made elsewhere show up without waiting for the TTL.
+ * <p>
+ * Readers take a {@link #stamp()} before reading Keycloak and pass it to the put. A put is dropped
+ * when the entry was invalidated after that stamp, so a read that raced a write cannot cache the
+ * state from before the write. Pages hold only IDs and usernames and are dropped when users are
+ * created, deleted or renamed, not on other changes to a user.
+ * <p>
+ * Details are keyed by user, each holding the facet combinations read for that user, so a write
+ * drops everything about the user with one lookup rather than a scan of the cache.
+ */
+@Slf4j
+@Component
+public class UserCache {
+
+    private final boolean enabled;
+    private final Cache<String, Map<Set<UserFacet>, Versioned<UserResponse>>> details;
+    private final Cache<PageKey, UserPage> pages;
+    private final Cache<String, UserRepresentation> representations;
+
+    private final AtomicLong clock = new AtomicLong();
+    // when each user was last invalidated; users no longer tracked were invalidated at or before the floor
+    private final Cache<String, Long> invalidated;
+    private final AtomicLong floor = new AtomicLong();
+    private final AtomicLong pagesInvalidated = new AtomicLong();
+
+    public UserCache(KeycloakCacheProperties cacheProps, MeterRegistry meterRegistry) {
+        this.enabled = cacheProps.enabled();
+        this.details = Caffeine.newBuilder()
+                .maximumSize(cacheProps.maxUsers())
+                .expireAfterWrite(cacheProps.ttl())
+                .recordStats()
+                .build();
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(cacheProps.maxPages())
+                .expireAfterWrite(cacheProps.ttl())
+                .recordStats()
+                .build();
+        this.representations = Caffeine.newBuilder()
+                .maximumSize(cacheProps.maxUsers())
+                .expireAfterWrite(cacheProps.ttl())
+                .recordStats()
+                .build();
+        this.invalidated = Caffeine.newBuilder()
+                .maximumSize(cacheProps.maxUsers())
+                .expireAfterWrite(cacheProps.ttl())
+                .<String, Long>removalListener((userId, at, cause) -> {
+                    if (cause.wasEvicted() && at != null) {
+                        floor.accumulateAndGet(at, Math::max);
+                    }
+                })
+                .executor(Runnable::run)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, details, "keycloak.users.detail");
+        CaffeineCacheMetrics.monitor(meterRegistry, pages, "keycloak.users.pages");
+        CaffeineCacheMetrics.monitor(meterRegistry, representations, "keycloak.users.representations");
+    }
+
+    /**
+     * Taken before a read whose result will be cached.
+     */
+    public long stamp() {
+        return clock.get();
+    }
+
+    public Versioned<UserResponse> getDetail(String userId, Set<UserFacet> include) {
+        if (!cacheable(include)) {
+            return null;
+        }
+        Map<Set<UserFacet>, Versioned<UserResponse>> variants = details.getIfPresent(userId);
+        return variants == null ? null : variants.get(include);
+    }
+
+    public void putDetail(String userId, Set<UserFacet> include, Versioned<UserResponse> user, long stamp) {
+        // partial responses and live session data are never cached
+        if (cacheable(include) && user.value().incomplete() == null && isCurrent(userId, stamp)) {
+            details.asMap().compute(userId, (id, variants) -> with(variants, include, user));
+            // an invalidation between the check and the put drops the user again
+            if (!isCurrent(userId, stamp)) {
+                details.invalidate(userId);
+            }
+        }
+    }
+
+    public UserPage getPage(int first, int size) {
+        return enabled ? pages.getIfPresent(new PageKey(first, size)) : null;
+    }
+
+    public void putPage(int first, int size, UserPage page, long stamp) {
+        if (enabled) {
+            putIfCurrent(pages, new PageKey(first, size), page,
+                    () -> floor.get() <= stamp && pagesInvalidated.get() <= stamp);
+        }
+    }
+
+    UserRepresentation getRepresentation(String userId) {
+        return enabled ? representations.getIfPresent(userId) : null;
+    }
+
+    void putRepresentation(String userId, UserRepresentation representation, long stamp) {
+        if (enabled) {
+            putIfCurrent(representations, userId, representation, () -> isCurrent(userId, stamp));
+        }
+    }
+
+    /**
+     * Drops what is cached about one user. Pages are kept: they only change when users are
+     * created, deleted or renamed, see {@link #invalidatePages()}.
+     */
+    public void invalidateUser(String userId) {
+        invalidated.put(userId, clock.incrementAndGet());
+        details.invalidate(userId);
+        representations.invalidate(userId);
+    }
+
+    public void invalidatePages() {
+        pagesInvalidated.set(clock.incrementAndGet());
+        pages.invalidateAll();
+    }
+
+    public void invalidateAll() {
+        floor.accumulateAndGet(clock.incrementAndGet(), Math::max);
+        details.invalidateAll();
+        representations.invalidateAll();
+        pages.invalidateAll();
+    }
+
+    @EventListener
+    void onAdminEvent(AdminEvent event) {
+        event.userId().ifPresentOrElse(userId -> {
+            invalidateUser(userId);
+            // the user resource itself, not role mappings, groups or credentials below it
+            if (event.resourcePath().equals("users/" + userId)) {
+                invalidatePages();
+            }
+        }, () -> {
+            // role or group definitions changed: any cached user may now resolve differently
+            log.debug("Dropping user cache after {} {}", event.operationType(), event.resourcePath());
+            invalidateAll();
+        });
+    }
+
+    private boolean isCurrent(String userId, long stamp) {
+        Long at = invalidated.getIfPresent(userId);
+        return floor.get() <= stamp && (at == null || at <= stamp);
+    }
+
+    /**
+     * Checks again after the put, since an invalidation may land between the check and the put.
+     */
+    private static <K, V> void putIfCurrent(Cache<K, V> cache, K key, V value, BooleanSupplier current) {
+        if (current.getAsBoolean()) {
+            cache.put(key, value);
+            if (!current.getAsBoolean()) {
+                cache.asMap().remove(key, value);
+            }
+        }
+    }
+
+    private boolean cacheable(Set<UserFacet> include) {
+        return enabled && !include.contains(UserFacet.SESSIONS);
+    }
+
+    /**
+     * A copy of one user's facet variants with {@code include} set, never mutated once cached.
+     */
+    private static Map<Set<UserFacet>, Versioned<UserResponse>> with(Map<Set<UserFacet>, Versioned<UserResponse>> variants,
+                                                                     Set<UserFacet> include, Versioned<UserResponse> user) {
+        Map<Set<UserFacet>, Versioned<UserResponse>> copy = variants == null ? new HashMap<>() : new HashMap<>(variants);
+        copy.put(Set.copyOf(include), user);
+        return Map.copyOf(copy);
+    }
+
+    private record PageKey(int first, int size) {}
+}
@@ -0,0 +1,660 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserSearchQuery;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * The users of one realm in column form: each user is a slot index into parallel arrays,
+ * enabled flags are a bit set and realm roles are short indexes into one shared role table.
+ * Attribute names and values are interned. Secondary indexes cover usernames (exact and
+ * prefix), email and name prefixes, and direct realm role members. Roles a user holds through
+ * groups are kept apart from direct ones: they count for {@link #effectiveRoles} only, as in
+ * Keycloak, where a role's member list does not include group members.
+ * <p>
+ * Searches follow Keycloak's semantics and order, by username, so cursors stay
+ * interchangeable with the ones Keycloak-backed pages return. Not thread-safe.
+ */
+final class UserDirectory {
+
+    private static final int MAGIC = 0x4b435552;
+    private static final int VERSION = 2;
+    private static final short[] NO_ROLES = new short[0];
+
+    private final String[] roleNames;
+    private final Map<String, Short> roleIndex = new HashMap<>();
+    // per role: itself and every role it grants, transitively
+    private final short[][] grantedRoles;
+    private final BitSet[] roleMembers;
+
+    private String[] ids = new String[64];
+    private String[] usernames = new String[64];
+    private String[] emails = new String[64];
+    private String[] firstNames = new String[64];
+    private String[] lastNames = new String[64];
+    private Map<String, List<String>>[] attributes = newAttributeColumn(64);
+    private short[][] roles = new short[64][];
+    private short[][] inheritedRoles = new short[64][];
+    private final BitSet enabled = new BitSet();
+    private final BitSet used = new BitSet();
+    // no free slot below this one
+    private int freeFrom;
+    private int size;
+
+    private final Map<String, Integer> byId = new HashMap<>();
+    // lower-case username -> slot; usernames are unique within a realm
+    private final TreeMap<String, Integer> byUsername = new TreeMap<>();
+    // lower-case value + '\0' + id -> slot, since emails and names may repeat
+    private final TreeMap<String, Integer> byEmail = new TreeMap<>();
+    private final TreeMap<String, Integer> byName = new TreeMap<>();
+    private final Map<String, String> interned = new HashMap<>();
+
+    /**
+     * @param composites realm role name to the realm roles it directly contains
+     */
+    UserDirectory(Collection<String> realmRoles, Map<String, List<String>> composites) {
+        this.roleNames = realmRoles.toArray(String[]::new);
+        for (short i = 0; i < roleNames.length; i++) {
+            roleIndex.put(roleNames[i], i);
+        }
+        this.grantedRoles = new short[roleNames.length][];
+        this.roleMembers = new BitSet[roleNames.length];
+        for (int i = 0; i < roleNames.length; i++) {
+            BitSet granted = new BitSet();
+            grant(i, composites, granted);
+            grantedRoles[i] = toShorts(granted);
+            roleMembers[i] = new BitSet();
+        }
+    }
+
+    private void grant(int role, Map<String, List<String>> composites, BitSet granted) {
+        if (granted.get(role)) {
+            return;
+        }
+        granted.set(role);
+        for (String child : composites.getOrDefault(roleNames[role], List.of())) {
+            Short index = roleIndex.get(child);
+            if (index != null) {
+                grant(index, composites, granted);
+            }
+        }
+    }
+
+    /**
+     * A user with its direct realm roles, and the realm roles it holds otherwise, such as
+     * through groups. The two may overlap.
+     */
+    record User(
+            String id,
+            String username,
+            String email,
+            String firstName,
+            String lastName,
+            boolean enabled,
+            Map<String, List<String>> attributes,
+            List<String> roles,
+            List<String> inheritedRoles
+    ) {}
+
+    int size() {
+        return size;
+    }
+
+    List<String> roleNames() {
+        return List.of(roleNames);
+    }
+
+    boolean hasRole(String role) {
+        return roleIndex.containsKey(role);
+    }
+
+    /**
+     * Adds the user or replaces the stored one with the same ID. Unknown roles are dropped.
+     */
+    void put(User user) {
+        Integer existing = byId.get(user.id());
+        int slot;
+        if (existing != null) {
+            slot = existing;
+            unindex(slot);
+        } else {
+            slot = used.nextClearBit(freeFrom);
+            ensureCapacity(slot + 1);
+            used.set(slot);
+            freeFrom = slot + 1;
+            size++;
+        }
+        ids[slot] = user.id();
+        usernames[slot] = user.username();
+        emails[slot] = user.email();
+        firstNames[slot] = user.firstName();
+        lastNames[slot] = user.lastName();
+        attributes[slot] = intern(user.attributes());
+        enabled.set(slot, user.enabled());
+        roles[slot] = toShorts(user.roles());
+        inheritedRoles[slot] = toShorts(user.inheritedRoles());
+        index(slot);
+    }
+
+    boolean remove(String id) {
+        Integer slot = byId.get(id);
+        if (slot == null) {
+            return false;
+        }
+        unindex(slot);
+        ids[slot] = usernames[slot] = emails[slot] = firstNames[slot] = lastNames[slot] = null;
+        attributes[slot] = null;
+        roles[slot] = null;
+        inheritedRoles[slot] = null;
+        enabled.clear(slot);
+        used.clear(slot);
+        freeFrom = Math.min(freeFrom, slot);
+        size--;
+        return true;
+    }
+
+    User get(String id) {
+        Integer slot = byId.get(id);
+        return slot == null ? null : user(slot);
+    }
+
+    /**
+     * Effective realm roles of the user, direct and inherited ones with composites expanded,
+     * in role table order.
+     */
+    List<String> effectiveRoles(String id) {
+        Integer slot = byId.get(id);
+        if (slot == null) {
+            return null;
+        }
+        BitSet effective = new BitSet(roleNames.length);
+        for (short[] held : new short[][]{roles[slot], inheritedRoles[slot]}) {
+            for (short role : held) {
+                for (short granted : grantedRoles[role]) {
+                    effective.set(granted);
+                }
+            }
+        }
+        return effective.stream().mapToObj(i -> roleNames[i]).toList();
+    }
+
+    /**
+     * Users {@code first} to {@code first + max} in username order.
+     */
+    List<User> page(int first, int max) {
+        return search(null, first, max);
+    }
+
+    /**
+     * Up to {@code max} users following {@code username} in username order; {@code ""} starts
+     * at the beginning. Unlike {@link #page}, the cost does not grow with the position.
+     */
+    List<User> pageAfter(String username, int max) {
+        List<User> found = new ArrayList<>(Math.min(max, 1024));
+        for (int slot : byUsername.tailMap(lower(username), false).values()) {
+            found.add(user(slot));
+            if (found.size() == max) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * One page of Keycloak's user search. {@code q} is not supported.
+     */
+    List<User> search(UserSearchQuery query, int first, int max) {
+        BitSet candidates = query == null ? null : candidates(query);
+        IntPredicate matches = query == null ? slot -> true : predicate(query);
+        List<User> found = new ArrayList<>(Math.min(max, 1024));
+        int skip = first;
+        if (candidates == null) {
+            for (int slot : byUsername.values()) {
+                if (matches.test(slot) && skip-- <= 0) {
+                    found.add(user(slot));
+                    if (found.size() == max) {
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+        candidates.stream()
+                .filter(matches)
+                .boxed()
+                .sorted(Comparator.comparing(slot -> usernames[slot], Comparator.nullsLast(Comparator.naturalOrder())))
+                .skip(first)
+                .limit(max)
+                .forEach(slot -> found.add(user(slot)));
+        return found;
+    }
+
+    /**
+     * Slots that can match, from the indexes, or {@code null} when no index applies.
+     */
+    private BitSet candidates(UserSearchQuery query) {
+        BitSet result = null;
+        if (query.role() != null) {
+            Short role = roleIndex.get(query.role());
+            result = role == null ? new BitSet() : (BitSet) roleMembers[role].clone();
+        }
+        boolean exact = Boolean.TRUE.equals(query.exact());
+        if (exact && query.username() != null) {
+            result = and(result, slots(byUsername, lower(query.username()), false));
+        }
+        if (exact && query.email() != null) {
+            result = and(result, slots(byEmail, lower(query.email()) + '\0', true));
+        }
+        if (query.search() != null) {
+            for (String term : terms(query.search())) {
+                if (isQuoted(term)) {
+                    String value = term.substring(1, term.length() - 1);
+                    BitSet any = slots(byUsername, value, false);
+                    any.or(slots(byEmail, value + '\0', true));
+                    any.or(slots(byName, value + '\0', true));
+                    result = and(result, any);
+                } else if (!term.startsWith("*")) {
+                    int wildcard = term.indexOf('*');
+                    String prefix = wildcard < 0 ? term : term.substring(0, wildcard);
+                    BitSet any = slots(byUsername, prefix, true);
+                    any.or(slots(byEmail, prefix, true));
+                    any.or(slots(byName, prefix, true));
+                    result = and(result, any);
+                }
+            }
+        }
+        return result;
+    }
+
+    private IntPredicate predicate(UserSearchQuery query) {
+        IntPredicate p = slot -> true;
+        boolean exact = Boolean.TRUE.equals(query.exact());
+        if (query.username() != null) {
+            String username = lower(query.username());
+            p = p.and(slot -> exact ? username.equals(lower(usernames[slot])) : contains(usernames[slot], username));
+        }
+        if (query.email() != null) {
+            String email = lower(query.email());
+            p = p.and(slot -> exact ? email.equals(lower(emails[slot])) : contains(emails[slot], email));
+        }
+        if (query.enabled() != null) {
+            boolean wanted = query.enabled();
+            p = p.and(slot -> enabled.get(slot) == wanted);
+        }
+        if (query.role() != null) {
+            Short role = roleIndex.get(query.role());
+            p = p.and(slot -> role != null && roleMembers[role].get(slot));
+        }
+        if (query.search() != null) {
+            for (String term : terms(query.search())) {
+                p = p.and(slot -> matchesTerm(slot, term));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Keycloak's rules for one search term: {@code "foo"} is exact, otherwise {@code *} is a
+     * wildcard and the term is a prefix, over username, email, first and last name.
+     */
+    private boolean matchesTerm(int slot, String term) {
+        String[] fields = {usernames[slot], emails[slot], firstNames[slot], lastNames[slot]};
+        for (String field : fields) {
+            if (field == null) {
+                continue;
+            }
+            String value = lower(field);
+            if (isQuoted(term) ? value.equals(term.substring(1, term.length() - 1)) : like(value, term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean like(String value, String pattern) {
+        String[] parts = pattern.split("\\*", -1);
+        if (!value.startsWith(parts[0])) {
+            return false;
+        }
+        int from = parts[0].length();
+        for (int i = 1; i < parts.length; i++) {
+            int at = value.indexOf(parts[i], from);
+            if (at < 0) {
+                return false;
+            }
+            from = at + parts[i].length();
+        }
+        return true;
+    }
+
+    private static List<String> terms(String search) {
+        String trimmed = lower(search).trim();
+        return trimmed.isEmpty() ? List.of() : List.of(trimmed.split("\\s+"));
+    }
+
+    private static boolean isQuoted(String term) {
+        return term.length() >= 2 && term.startsWith("\"") && term.endsWith("\"");
+    }
+
+    private static BitSet slots(TreeMap<String, Integer> index, String key, boolean prefix) {
+        BitSet slots = new BitSet();
+        if (!prefix) {
+            Integer slot = index.get(key);
+            if (slot != null) {
+                slots.set(slot);
+            }
+            return slots;
+        }
+        NavigableMap<String, Integer> range = key.isEmpty()
+                ? index
+                : index.subMap(key, true, key.substring(0, key.length() - 1) + (char) (key.charAt(key.length() - 1) + 1), false);
+        range.values().forEach(slots::set);
+        return slots;
+    }
+
+    private static BitSet and(BitSet a, BitSet b) {
+        if (a == null) {
+            return b;
+        }
+        a.and(b);
+        return a;
+    }
+
+    private static boolean contains(String value, String part) {
+        return value != null && lower(value).contains(part);
+    }
+
+    private static String lower(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    private User user(int slot) {
+        return new User(ids[slot], usernames[slot], emails[slot], firstNames[slot], lastNames[slot],
+                enabled.get(slot), attributes[slot], names(roles[slot]), names(inheritedRoles[slot]));
+    }
+
+    private List<String> names(short[] indexes) {
+        List<String> names = new ArrayList<>(indexes.length);
+        for (short role : indexes) {
+            names.add(roleNames[role]);
+        }
+        return names;
+    }
+
+    /**
+     * Role table indexes of the known roles among {@code names}; unknown ones are dropped.
+     */
+    private short[] toShorts(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return NO_ROLES;
+        }
+        BitSet indexes = new BitSet();
+        for (String role : names) {
+            Short index = roleIndex.get(role);
+            if (index != null) {
+                indexes.set(index);
+            }
+        }
+        return toShorts(indexes);
+    }
+
+    private void index(int slot) {
+        byId.put(ids[slot], slot);
+        if (usernames[slot] != null) {
+            byUsername.put(lower(usernames[slot]), slot);
+        }
+        if (emails[slot] != null) {
+            byEmail.put(lower(emails[slot]) + '\0' + ids[slot], slot);
+        }
+        if (firstNames[slot] != null) {
+            byName.put(lower(firstNames[slot]) + '\0' + ids[slot], slot);
+        }
+        if (lastNames[slot] != null) {
+            byName.put(lower(lastNames[slot]) + '\0' + ids[slot], slot);
+        }
+        for (short role : roles[slot]) {
+            roleMembers[role].set(slot);
+        }
+    }
+
+    private void unindex(int slot) {
+        byId.remove(ids[slot]);
+        if (usernames[slot] != null) {
+            byUsername.remove(lower(usernames[slot]), slot);
+        }
+        if (emails[slot] != null) {
+            byEmail.remove(lower(emails[slot]) + '\0' + ids[slot]);
+        }
+        if (firstNames[slot] != null) {
+            byName.remove(lower(firstNames[slot]) + '\0' + ids[slot]);
+        }
+        if (lastNames[slot] != null) {
+            byName.remove(lower(lastNames[slot]) + '\0' + ids[slot]);
+        }
+        for (short role : roles[slot]) {
+            roleMembers[role].clear(slot);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int grown = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, grown);
+        usernames = Arrays.copyOf(usernames, grown);
+        emails = Arrays.copyOf(emails, grown);
+        firstNames = Arrays.copyOf(firstNames, grown);
+        lastNames = Arrays.copyOf(lastNames, grown);
+        attributes = Arrays.copyOf(attributes, grown);
+        roles = Arrays.copyOf(roles, grown);
+        inheritedRoles = Arrays.copyOf(inheritedRoles, grown);
+    }
+
+    private Map<String, List<String>> intern(Map<String, List<String>> attrs) {
+        if (attrs == null || attrs.isEmpty()) {
+            return null;
+        }
+        Map<String, List<String>> copy = new LinkedHashMap<>(attrs.size());
+        attrs.forEach((name, values) -> copy.put(intern(name),
+                values == null ? List.of() : values.stream().map(this::intern).toList()));
+        return copy;
+    }
+
+    private String intern(String value) {
+        return value == null ? null : interned.computeIfAbsent(value, v -> v);
+    }
+
+    private static short[] toShorts(BitSet bits) {
+        if (bits.isEmpty()) {
+            return NO_ROLES;
+        }
+        short[] values = new short[bits.cardinality()];
+        int i = 0;
+        for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+            values[i++] = (short) bit;
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<String>>[] newAttributeColumn(int length) {
+        return (Map<String, List<String>>[]) new Map[length];
+    }
+
+    /**
+     * A directory read back from disk, and what it was in sync with when written.
+     *
+     * @param watermark admin-event watermark the directory had caught up to
+     */
+    record Snapshot(UserDirectory directory, String realm, long watermark, Instant syncedAt) {}
+
+    /**
+     * Writes the directory to a temporary file next to {@code file} and moves it into place,
+     * so a crash never leaves a half-written snapshot behind.
+     */
+    void writeTo(Path file, String realm, long watermark, Instant syncedAt) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, realm);
+            out.writeLong(watermark);
+            out.writeLong(syncedAt.toEpochMilli());
+            out.writeInt(roleNames.length);
+            for (int i = 0; i < roleNames.length; i++) {
+                writeString(out, roleNames[i]);
+                writeShorts(out, grantedRoles[i]);
+            }
+            out.writeInt(size);
+            for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+                writeString(out, ids[slot]);
+                writeString(out, usernames[slot]);
+                writeString(out, emails[slot]);
+                writeString(out, firstNames[slot]);
+                writeString(out, lastNames[slot]);
+                out.writeBoolean(enabled.get(slot));
+                writeShorts(out, roles[slot]);
+                writeShorts(out, inheritedRoles[slot]);
+                Map<String, List<String>> attrs = attributes[slot];
+                out.writeInt(attrs == null ? 0 : attrs.size());
+                if (attrs != null) {
+                    for (Map.Entry<String, List<String>> attr : attrs.entrySet()) {
+                        writeString(out, attr.getKey());
+                        out.writeInt(attr.getValue().size());
+                        for (String value : attr.getValue()) {
+                            writeString(out, value);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps the snapshot file and rebuilds the directory and its indexes from it.
+     */
+    static Snapshot readFrom(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a user directory snapshot: " + file);
+            }
+            String realm = readString(in);
+            long watermark = in.getLong();
+            Instant syncedAt = Instant.ofEpochMilli(in.getLong());
+
+            int roleCount = in.getInt();
+            List<String> roleNames = new ArrayList<>(roleCount);
+            List<short[]> granted = new ArrayList<>(roleCount);
+            for (int i = 0; i < roleCount; i++) {
+                roleNames.add(readString(in));
+                granted.add(readShorts(in));
+            }
+            Map<String, List<String>> composites = new HashMap<>();
+            for (int i = 0; i < roleCount; i++) {
+                List<String> children = new ArrayList<>();
+                for (short child : granted.get(i)) {
+                    children.add(roleNames.get(child));
+                }
+                composites.put(roleNames.get(i), children);
+            }
+            UserDirectory directory = new UserDirectory(roleNames, composites);
+
+            int users = in.getInt();
+            directory.ensureCapacity(users);
+            for (int i = 0; i < users; i++) {
+                String id = readString(in);
+                String username = readString(in);
+                String email = readString(in);
+                String firstName = readString(in);
+                String lastName = readString(in);
+                boolean enabled = in.get() != 0;
+                short[] roles = readShorts(in);
+                short[] inherited = readShorts(in);
+                int attrCount = in.getInt();
+                Map<String, List<String>> attrs = attrCount == 0 ? null : new LinkedHashMap<>(attrCount);
+                for (int a = 0; a < attrCount; a++) {
+                    String name = readString(in);
+                    int valueCount = in.getInt();
+                    List<String> values = new ArrayList<>(valueCount);
+                    for (int v = 0; v < valueCount; v++) {
+                        values.add(readString(in));
+                    }
+                    attrs.put(name, values);
+                }
+                directory.put(new User(id, username, email, firstName, lastName, enabled, attrs,
+                        directory.names(roles), directory.names(inherited)));
+            }
+            return new Snapshot(directory, realm, watermark, syncedAt);
+        } catch (RuntimeException e) {
+            // truncated or corrupt file
+            throw new IOException("Unreadable user directory snapshot: " + file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeShorts(DataOutputStream out, short[] values) throws IOException {
+        out.writeShort(values.length);
+        for (short value : values) {
+            out.writeShort(value);
+        }
+    }
+
+    private static short[] readShorts(ByteBuffer in) {
+        short[] values = new short[in.getShort()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.getShort();
+        }
+        return values;
+    }
+}
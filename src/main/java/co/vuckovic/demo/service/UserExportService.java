@@ -0,0 +1,414 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakExportProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.dto.UserExport;
+import co.vuckovic.demo.dto.UserResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes every user of the realm, with attributes and effective realm roles, to
+ * {@code <name>.ndjson.gz} under {@code keycloak.export.directory}. Pages of
+ * {@code page-size} users are read with {@code prefetch-pages} in flight, and the roles of each
+ * page's users are looked up {@code concurrency} at a time. Every finished page is compressed
+ * into its own gzip member and appended through an {@link AsynchronousFileChannel}; gzip readers
+ * treat concatenated members as one stream. Heap use depends on the page size, not the realm.
+ * <p>
+ * After each page the file is forced to disk and a checkpoint records the next offset and the
+ * file length. Starting an export again under the name of an interrupted or failed one cuts the
+ * file back to that length and continues at that offset. Users created or deleted in between
+ * shift the offsets, so a resumed export can miss or repeat a few of them. Until it completes
+ * the file is named {@code .part}. One export runs at a time.
+ */
+@Slf4j
+@Service
+@RegisterReflectionForBinding({UserRep.class, UserExportService.Checkpoint.class})
+public class UserExportService {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,99}");
+    private static final DateTimeFormatter DEFAULT_NAME = DateTimeFormatter.ofPattern("'users-'yyyyMMdd-HHmmss")
+            .withZone(ZoneOffset.UTC);
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakExportProperties exportProps;
+    private final UserRoleEnricher userRoleEnricher;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter rowWriter;
+
+    // runs since startup by name; older exports are described from their files
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+    private final AtomicReference<Run> active = new AtomicReference<>();
+    private final Counter rowsWritten;
+    private final Counter bytesWritten;
+
+    public UserExportService(WebClient keycloakWebClient,
+                             KeycloakProperties props,
+                             KeycloakExportProperties exportProps,
+                             UserRoleEnricher userRoleEnricher,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry) {
+        this.keycloakWebClient = keycloakWebClient;
+        this.props = props;
+        this.exportProps = exportProps;
+        this.userRoleEnricher = userRoleEnricher;
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writerFor(UserResponse.class);
+        this.rowsWritten = Counter.builder("keycloak.export.rows")
+                .description("Users written to export files")
+                .register(meterRegistry);
+        this.bytesWritten = Counter.builder("keycloak.export.bytes")
+                .description("Compressed bytes written to export files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("keycloak.export.rows.per.second", active, a -> a.get() == null ? 0 : a.get().rowsPerSecond())
+                .description("Users written per second by the running export")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts an export in the background, resuming it when a checkpoint for {@code name} exists.
+     * Fails with 409 while another export runs or when {@code name} has already completed.
+     */
+    public Mono<UserExport> start(String name) {
+        String exportName = name == null || name.isBlank() ? DEFAULT_NAME.format(Instant.now()) : name;
+        if (!NAME.matcher(exportName).matches()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Export names are letters, digits, '.', '_' and '-', at most 100 characters"));
+        }
+        // checks the file system under the lock, so not on the caller's event loop
+        return Mono.fromCallable(() -> begin(exportName))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private synchronized UserExport begin(String exportName) {
+        Run running = active.get();
+        if (running != null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Export " + running.name + " is still running");
+        }
+        if (Files.exists(file(exportName))) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Export " + exportName + " already exists");
+        }
+        Run run = new Run(exportName, part(exportName));
+        runs.put(exportName, run);
+        active.set(run);
+        run.disposable = export(run)
+                .doFinally(s -> active.compareAndSet(run, null))
+                .subscribe(
+                        v -> {},
+                        e -> {
+                            log.warn("Export {} failed after {} users, start it again to resume: {}",
+                                    exportName, run.rows, e.toString());
+                            run.finish(UserExport.State.FAILED, e.getMessage());
+                        },
+                        () -> {
+                            log.info("Export {} wrote {} users ({} bytes) at {} users/s",
+                                    exportName, run.rows, run.position, Math.round(run.rowsPerSecond()));
+                            run.finish(UserExport.State.COMPLETED, null);
+                        });
+        return run.status(file(exportName));
+    }
+
+    /**
+     * The export's progress, or empty when there is no export of that name.
+     */
+    public Mono<UserExport> status(String name) {
+        if (!NAME.matcher(name).matches()) {
+            return Mono.empty();
+        }
+        Run run = runs.get(name);
+        if (run != null) {
+            return Mono.just(run.status(file(name)));
+        }
+        return Mono.fromCallable(() -> statusFromDisk(name))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        Run run = active.get();
+        if (run != null) {
+            log.info("Interrupting export {} after {} users; start it again to resume", run.name, run.rows);
+            run.disposable.dispose();
+            run.finish(UserExport.State.INTERRUPTED, null);
+        }
+    }
+
+    private Mono<Void> export(Run run) {
+        Path checkpointFile = checkpoint(run.name);
+        return Mono.usingWhen(
+                        Mono.fromCallable(() -> {
+                            Files.createDirectories(exportProps.directory());
+                            return AsynchronousFileChannel.open(run.part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        }).subscribeOn(Schedulers.boundedElastic()),
+                        // the count is part of the run, so disposing it on shutdown cancels both
+                        channel -> Mono.when(
+                                count(run),
+                                Mono.fromCallable(() -> resume(run, channel, checkpointFile))
+                                        .subscribeOn(Schedulers.boundedElastic())
+                                        .flatMapMany(this::pages)
+                                        .concatMap(page -> append(run, channel, page, checkpointFile))
+                                        .then()),
+                        channel -> close(channel),
+                        (channel, e) -> close(channel),
+                        channel -> close(channel))
+                .then(Mono.fromCallable(() -> {
+                    Files.move(run.part, file(run.name), StandardCopyOption.ATOMIC_MOVE);
+                    Files.deleteIfExists(checkpointFile);
+                    return true;
+                }).subscribeOn(Schedulers.boundedElastic()))
+                .then();
+    }
+
+    // only for progress reporting, so a failed count does not fail the export
+    private Mono<Void> count(Run run) {
+        return userRoleEnricher.countUsers()
+                .doOnNext(total -> run.total = total)
+                .onErrorResume(e -> {
+                    log.debug("Export {} could not count users: {}", run.name, e.toString());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Cuts the file back to the last checkpoint, or to nothing without one, and returns the
+     * offset of the first user still to write.
+     */
+    private int resume(Run run, AsynchronousFileChannel channel, Path checkpointFile) throws IOException {
+        Checkpoint from = Files.exists(checkpointFile)
+                ? objectMapper.readValue(checkpointFile.toFile(), Checkpoint.class)
+                : new Checkpoint(0, 0, 0);
+        channel.truncate(from.position());
+        run.resumed(from);
+        if (from.rows() > 0) {
+            log.info("Resuming export {} at user {} ({} bytes written)", run.name, from.nextUser(), from.position());
+        }
+        return from.nextUser();
+    }
+
+    private Flux<Page> pages(int from) {
+        int size = exportProps.pageSize();
+        return Flux.<Integer, Integer>generate(() -> from, (first, sink) -> {
+                    sink.next(first);
+                    return first + size;
+                })
+                .flatMapSequential(first -> fetchUserPage(first, size)
+                        .flatMap(users -> enrich(users).map(rows -> new Page(first + users.size(), users.size(), rows, null)))
+                        // passed on in order, so the pages before a failed one are still written
+                        .onErrorResume(e -> Mono.just(new Page(first, 0, List.of(), e))),
+                        exportProps.prefetchPages(), 1)
+                .takeUntil(page -> page.error() != null || page.read() < size);
+    }
+
+    private Mono<List<UserResponse>> enrich(List<UserRep> users) {
+        return Flux.fromIterable(users)
+                .flatMapSequential(u -> userRoleEnricher.effectiveRoles(u.id())
+                        .map(roles -> new UserResponse(u.id(), u.username(), u.email(), u.enabled(), roles, null,
+                                Objects.requireNonNullElse(u.attributes(), Map.of()), null, null))
+                        // deleted since the page was read
+                        .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty()),
+                        exportProps.concurrency())
+                .collectList();
+    }
+
+    /**
+     * Writes the page as one gzip member at the end of the file, then forces it to disk before
+     * the checkpoint moves past it.
+     */
+    private Mono<Void> append(Run run, AsynchronousFileChannel channel, Page page, Path checkpointFile) {
+        if (page.error() != null) {
+            return Mono.error(page.error());
+        }
+        if (page.rows().isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> compress(page.rows()))
+                .subscribeOn(Schedulers.parallel())
+                .flatMap(bytes -> write(channel, ByteBuffer.wrap(bytes), run.position)
+                        .then(Mono.fromCallable(() -> {
+                            channel.force(false);
+                            Checkpoint checkpoint = new Checkpoint(page.nextUser(), run.position + bytes.length,
+                                    run.rows + page.rows().size());
+                            Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+                            objectMapper.writeValue(tmp.toFile(), checkpoint);
+                            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                            return checkpoint;
+                        }).subscribeOn(Schedulers.boundedElastic())))
+                .doOnNext(checkpoint -> {
+                    rowsWritten.increment(checkpoint.rows() - run.rows);
+                    bytesWritten.increment(checkpoint.position() - run.position);
+                    run.rows = checkpoint.rows();
+                    run.position = checkpoint.position();
+                })
+                .then();
+    }
+
+    private byte[] compress(List<UserResponse> rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rows.size() * 128);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            for (UserResponse row : rows) {
+                gzip.write(rowWriter.writeValueAsBytes(row));
+                gzip.write('\n');
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static Mono<Void> write(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        return Mono.<Integer>create(sink -> channel.write(buffer, position, null, new CompletionHandler<>() {
+                    @Override
+                    public void completed(Integer written, Object attachment) {
+                        sink.success(written);
+                    }
+
+                    @Override
+                    public void failed(Throwable e, Object attachment) {
+                        sink.error(e);
+                    }
+                }))
+                // a write may stop short; carry on from where it did
+                .flatMap(written -> buffer.hasRemaining() ? write(channel, buffer, position + written) : Mono.empty());
+    }
+
+    private static Mono<Void> close(AsynchronousFileChannel channel) {
+        return Mono.fromRunnable(() -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Closing export file failed: {}", e.toString());
+            }
+        });
+    }
+
+    private UserExport statusFromDisk(String name) throws IOException {
+        Path file = file(name);
+        if (Files.exists(file)) {
+            return new UserExport(name, UserExport.State.COMPLETED, file.toString(), null, null, Files.size(file),
+                    null, null, null, Files.getLastModifiedTime(file).toInstant(), null);
+        }
+        Path checkpointFile = checkpoint(name);
+        if (Files.exists(checkpointFile)) {
+            Checkpoint checkpoint = objectMapper.readValue(checkpointFile.toFile(), Checkpoint.class);
+            return new UserExport(name, UserExport.State.INTERRUPTED, part(name).toString(), checkpoint.rows(), null,
+                    checkpoint.position(), null, null, null, null, null);
+        }
+        return null;
+    }
+
+    private Mono<List<UserRep>> fetchUserPage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", false)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    private Path file(String name) {
+        return exportProps.directory().resolve(name + ".ndjson.gz");
+    }
+
+    private Path part(String name) {
+        return exportProps.directory().resolve(name + ".ndjson.gz.part");
+    }
+
+    private Path checkpoint(String name) {
+        return exportProps.directory().resolve(name + ".ndjson.gz.checkpoint");
+    }
+
+    /**
+     * Where an export stands once everything before {@code position} is on disk.
+     */
+    record Checkpoint(int nextUser, long position, long rows) {}
+
+    // nextUser is the offset after this page; read counts users before any were skipped
+    private record Page(int nextUser, int read, List<UserResponse> rows, Throwable error) {}
+
+    private static final class Run {
+
+        final String name;
+        final Path part;
+        final Instant startedAt = Instant.now();
+        volatile long rows;
+        volatile long position;
+        volatile long resumedFrom;
+        volatile Long total;
+        volatile UserExport.State state = UserExport.State.RUNNING;
+        volatile String error;
+        volatile Instant finishedAt;
+        volatile Disposable disposable;
+
+        Run(String name, Path part) {
+            this.name = name;
+            this.part = part;
+        }
+
+        void resumed(Checkpoint from) {
+            rows = from.rows();
+            position = from.position();
+            resumedFrom = from.rows();
+        }
+
+        synchronized void finish(UserExport.State finalState, String message) {
+            if (state == UserExport.State.RUNNING) {
+                state = finalState;
+                error = message;
+                finishedAt = Instant.now();
+            }
+        }
+
+        double rowsPerSecond() {
+            Instant end = finishedAt == null ? Instant.now() : finishedAt;
+            double seconds = Duration.between(startedAt, end).toMillis() / 1000.0;
+            return seconds <= 0 ? 0 : (rows - resumedFrom) / seconds;
+        }
+
+        UserExport status(Path file) {
+            return new UserExport(name, state, (state == UserExport.State.COMPLETED ? file : part).toString(),
+                    rows, total, position, Math.round(rowsPerSecond() * 10) / 10.0,
+                    resumedFrom > 0 ? resumedFrom : null, startedAt, finishedAt, error);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakImportProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserImportFailure;
+import co.vuckovic.demo.dto.UserImportPolicy;
+import co.vuckovic.demo.dto.UserImportProgress;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk user provisioning through Keycloak's realm {@code partialImport}. Rows are read while the
+ * upload streams in and checked locally (username present, realm roles known to the catalog).
+ * Each chunk of {@code keycloak.import.chunk-size} users then goes to Keycloak as one request,
+ * with credentials and realm roles in the same payload. That replaces a create call, a
+ * {@code Location} lookup and role calls per user. Up to {@code parallelism} chunks are in
+ * flight, and one progress line is emitted per chunk as it finishes.
+ */
+@Service
+@RegisterReflectionForBinding(UserImportService.PartialImportResult.class)
+@RequiredArgsConstructor
+public class UserImportService {
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakImportProperties importProps;
+    private final RoleCatalog roleCatalog;
+    private final UserCache userCache;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * One {@link UserCreateRequest} JSON object per line.
+     */
+    public Flux<UserImportProgress> importNdjson(Flux<String> lines, UserImportPolicy policy) {
+        return importRows(lines.index()
+                .filter(t -> !t.getT2().isBlank())
+                .map(t -> parseJson(t.getT1() + 1, t.getT2())), policy);
+    }
+
+    /**
+     * A header line naming the columns ({@code username} required; {@code email},
+     * {@code password} and {@code roles} optional), then one user per line. Roles are separated
+     * by {@code ;}. Fields may be double-quoted but not span lines.
+     */
+    public Flux<UserImportProgress> importCsv(Flux<String> lines, UserImportPolicy policy) {
+        return importRows(lines.index().switchOnFirst((first, all) -> {
+            if (!first.hasValue()) {
+                return all.thenMany(Flux.empty());
+            }
+            Map<String, Integer> columns = columns(first.get().getT2());
+            return all.skip(1)
+                    .filter(t -> !t.getT2().isBlank())
+                    .map(t -> parseCsv(t.getT1() + 1, t.getT2(), columns));
+        }), policy);
+    }
+
+    private Flux<UserImportProgress> importRows(Flux<Row> rows, UserImportPolicy policy) {
+        AtomicLong processed = new AtomicLong();
+        return rows.buffer(importProps.chunkSize())
+                .index()
+                .flatMap(t -> importChunk(t.getT1(), t.getT2(), policy), importProps.parallelism())
+                // after flatMap, so the running total only grows from line to line
+                .map(p -> p.withProcessed(processed.addAndGet(p.added() + p.skipped() + p.overwritten() + p.failed())));
+    }
+
+    private Mono<UserImportProgress> importChunk(long chunk, List<Row> rows, UserImportPolicy policy) {
+        return Flux.fromIterable(rows)
+                .concatMap(this::validate)
+                .collectList()
+                .flatMap(checked -> {
+                    List<Row> valid = checked.stream().filter(r -> r.error() == null).toList();
+                    List<UserImportFailure> failures = new ArrayList<>(checked.stream()
+                            .filter(r -> r.error() != null)
+                            .map(Row::failure)
+                            .toList());
+                    if (valid.isEmpty()) {
+                        return Mono.just(progress(chunk, rows, PartialImportResult.NONE, failures));
+                    }
+                    return keycloakWebClient.post()
+                            .uri("/admin/realms/{realm}/partialImport", props.realm())
+                            .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.PARTIAL_IMPORT)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(Map.of(
+                                    "ifResourceExists", policy.name(),
+                                    "users", valid.stream().map(Row::user).map(UserImportService::toRepresentation).toList()))
+                            .retrieve()
+                            .bodyToMono(PartialImportResult.class)
+                            .map(result -> progress(chunk, rows, result, failures))
+                            // partialImport is all or nothing: the whole chunk failed
+                            .onErrorResume(e -> {
+                                String error = UserBatchService.describe(e);
+                                valid.forEach(r -> failures.add(new UserImportFailure(r.line(), r.user().username(), error)));
+                                return Mono.just(progress(chunk, rows, PartialImportResult.NONE, failures));
+                            })
+                            .doFinally(s -> userCache.invalidateAll());
+                });
+    }
+
+    private Mono<Row> validate(Row row) {
+        if (row.error() != null) {
+            return Mono.just(row);
+        }
+        UserCreateRequest user = row.user();
+        if (user.username() == null || user.username().isBlank()) {
+            return Mono.just(row.failed("username is required"));
+        }
+        if (user.roles() == null || user.roles().isEmpty()) {
+            return Mono.just(row);
+        }
+        // unknown roles would make Keycloak reject the whole chunk
+        return roleCatalog.resolve(user.roles())
+                .thenReturn(row)
+                .onErrorResume(ResponseStatusException.class, e -> Mono.just(row.failed(e.getReason())));
+    }
+
+    private UserImportProgress progress(long chunk, List<Row> rows, PartialImportResult result,
+                                        List<UserImportFailure> failures) {
+        count("added", result.added());
+        count("skipped", result.skipped());
+        count("overwritten", result.overwritten());
+        count("failed", failures.size());
+        return new UserImportProgress(
+                chunk,
+                rows.get(0).line(),
+                rows.get(rows.size() - 1).line(),
+                result.added(),
+                result.skipped(),
+                result.overwritten(),
+                failures.size(),
+                failures.isEmpty() ? null : List.copyOf(failures),
+                0);
+    }
+
+    private void count(String result, int n) {
+        if (n > 0) {
+            meterRegistry.counter("keycloak.users.imported", "result", result).increment(n);
+        }
+    }
+
+    private static Map<String, Object> toRepresentation(UserCreateRequest user) {
+        Map<String, Object> rep = new LinkedHashMap<>();
+        rep.put("username", user.username());
+        if (user.email() != null) {
+            rep.put("email", user.email());
+        }
+        rep.put("enabled", true);
+        if (user.password() != null) {
+            rep.put("credentials", List.of(Map.of(
+                    "type", "password",
+                    "value", user.password(),
+                    "temporary", false)));
+        }
+        if (user.roles() != null && !user.roles().isEmpty()) {
+            rep.put("realmRoles", user.roles());
+        }
+        return rep;
+    }
+
+    private Row parseJson(long line, String json) {
+        try {
+            UserCreateRequest user = objectMapper.readValue(json, UserCreateRequest.class);
+            // a JSON null line parses to null rather than failing
+            return user == null
+                    ? new Row(line, null, "Malformed line: expected an object")
+                    : new Row(line, user, null);
+        } catch (JsonProcessingException e) {
+            return new Row(line, null, "Malformed line: " + e.getOriginalMessage());
+        }
+    }
+
+    static Map<String, Integer> columns(String header) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = splitCsv(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey("username")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "CSV header must name a username column");
+        }
+        return columns;
+    }
+
+    private static Row parseCsv(long line, String text, Map<String, Integer> columns) {
+        List<String> cells = splitCsv(text);
+        String roles = cell(cells, columns, "roles");
+        return new Row(line, new UserCreateRequest(
+                cell(cells, columns, "username"),
+                cell(cells, columns, "email"),
+                cell(cells, columns, "password"),
+                roles == null ? List.of() : Arrays.stream(roles.split(";"))
+                        .map(String::trim)
+                        .filter(r -> !r.isEmpty())
+                        .toList()), null);
+    }
+
+    private static String cell(List<String> cells, Map<String, Integer> columns, String name) {
+        Integer i = columns.get(name);
+        if (i == null || i >= cells.size() || cells.get(i).isEmpty()) {
+            return null;
+        }
+        return cells.get(i);
+    }
+
+    // RFC 4180 fields on a single line: quoted fields may contain commas and "" for a quote
+    static List<String> splitCsv(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString().trim());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString().trim());
+        return cells;
+    }
+
+    private record Row(long line, UserCreateRequest user, String error) {
+
+        Row failed(String error) {
+            return new Row(line, user, error);
+        }
+
+        UserImportFailure failure() {
+            return new UserImportFailure(line, user == null ? null : user.username(), error);
+        }
+    }
+
+    record PartialImportResult(int added, int skipped, int overwritten) {
+        static final PartialImportResult NONE = new PartialImportResult(0, 0, 0);
+    }
+}
@@ -0,0 +1,100 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakJobProperties;
+import co.vuckovic.demo.dto.UserJob;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-process queue for writes accepted with {@code 202 Accepted}. Jobs run with bounded
+ * concurrency and their status stays queryable for {@code keycloak.jobs.retention}. Jobs
+ * are not persisted: queued work is lost on restart.
+ */
+@Slf4j
+@Component
+public class UserJobQueue {
+
+    private final Cache<String, UserJob> jobs;
+    private final Sinks.Many<Job> queue;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Disposable worker;
+
+    public UserJobQueue(KeycloakJobProperties jobProps, MeterRegistry meterRegistry) {
+        this.jobs = Caffeine.newBuilder()
+                .expireAfterWrite(jobProps.retention())
+                .build();
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(Queues.<Job>get(jobProps.queueCapacity()).get());
+        this.worker = queue.asFlux()
+                .flatMap(this::run, jobProps.concurrency())
+                .subscribe();
+        Gauge.builder("keycloak.users.jobs.pending", pending, AtomicInteger::get)
+                .description("Asynchronous user writes waiting or running")
+                .register(meterRegistry);
+    }
+
+    public UserJob submit(String op, String userId, Mono<Void> work) {
+        UserJob job = UserJob.pending(UUID.randomUUID().toString(), op, userId);
+        jobs.put(job.id(), job);
+        // the sink is shared by request threads, so retry instead of failing on concurrent emission
+        Sinks.EmitResult result;
+        synchronized (queue) {
+            result = queue.tryEmitNext(new Job(job.id(), work));
+        }
+        if (result.isFailure()) {
+            jobs.invalidate(job.id());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Job queue is full");
+        }
+        pending.incrementAndGet();
+        return job;
+    }
+
+    public Optional<UserJob> get(String jobId) {
+        return Optional.ofNullable(jobs.getIfPresent(jobId));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        worker.dispose();
+    }
+
+    private Mono<Void> run(Job job) {
+        return Mono.defer(() -> {
+                    update(job.id(), UserJob::running);
+                    return job.work();
+                })
+                .then(Mono.fromRunnable(() -> update(job.id(), j -> j.succeeded(HttpStatus.NO_CONTENT.value()))))
+                .onErrorResume(e -> {
+                    log.debug("Job {} failed: {}", job.id(), e.toString());
+                    int status = e instanceof ResponseStatusException r
+                            ? r.getStatusCode().value()
+                            : HttpStatus.INTERNAL_SERVER_ERROR.value();
+                    String reason = e instanceof ResponseStatusException r ? r.getReason() : e.getMessage();
+                    update(job.id(), j -> j.failed(status, reason));
+                    return Mono.empty();
+                })
+                .doFinally(s -> pending.decrementAndGet())
+                .then();
+    }
+
+    private void update(String jobId, UnaryOperator<UserJob> change) {
+        jobs.asMap().computeIfPresent(jobId, (id, job) -> change.apply(job));
+    }
+
+    private record Job(String id, Mono<Void> work) {}
+}
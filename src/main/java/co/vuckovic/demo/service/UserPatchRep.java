@@ -0,0 +1,32 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserPatchRequest;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal user representation for Keycloak's {@code PUT /users/{id}}, which only applies the
+ * fields present in the body. {@code attributes}, when sent, replaces all attributes.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record UserPatchRep(
+        String username,
+        String email,
+        String firstName,
+        String lastName,
+        Boolean enabled,
+        Boolean emailVerified,
+        Map<String, List<String>> attributes
+) {
+    static UserPatchRep of(UserPatchRequest patch, Map<String, List<String>> attributes) {
+        return new UserPatchRep(patch.username(), patch.email(), patch.firstName(), patch.lastName(),
+                patch.enabled(), patch.emailVerified(), attributes);
+    }
+
+    boolean isEmpty() {
+        return username == null && email == null && firstName == null && lastName == null
+                && enabled == null && emailVerified == null && attributes == null;
+    }
+}
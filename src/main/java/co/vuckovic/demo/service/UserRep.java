@@ -0,0 +1,36 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The parts of Keycloak's user representation this service reads.
+ */
+record UserRep(
+        String id,
+        String username,
+        String email,
+        Boolean enabled,
+        Map<String, List<String>> attributes
+) {
+    /**
+     * Search result with only the requested {@code fields} set.
+     */
+    UserResponse project(Set<UserField> fields) {
+        return new UserResponse(
+                fields.contains(UserField.ID) ? id : null,
+                fields.contains(UserField.USERNAME) ? username : null,
+                fields.contains(UserField.EMAIL) ? email : null,
+                fields.contains(UserField.ENABLED) ? enabled : null,
+                null,
+                null,
+                fields.contains(UserField.ATTRIBUTES) ? Objects.requireNonNullElse(attributes, Map.of()) : null,
+                null,
+                null);
+    }
+}
@@ -0,0 +1,542 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakAdminEventProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakReplicaProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Keeps a {@link UserDirectory} of the whole realm in sync with Keycloak. It starts from the
+ * snapshot file when that is recent enough, else from a full load: paged user reads, the
+ * members of every realm role, and the members of every group mapping realm roles, with the
+ * roles of its parent groups. Afterwards each {@link AdminEvent} about a user marks it for
+ * re-reading along with its effective roles, and the {@link AdminEventsPolled} that follows
+ * re-reads the marked users; only then does the replica count as synced up to that poll.
+ * Role definition, group and partial import changes trigger a full reload, and one runs
+ * every {@code full-reload-interval} regardless.
+ * <p>
+ * All of this runs one step at a time on a single queue; reads take a shared lock.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "keycloak.replica.enabled", havingValue = "true")
+@RegisterReflectionForBinding({UserRep.class, RoleRep.class, UserReplica.ReplicaUserRep.class,
+        UserReplica.ReplicaGroupRep.class})
+public class UserReplica {
+
+    // events that can change users or roles without naming a user
+    private static final Set<String> RELOAD_RESOURCE_TYPES = Set.of("REALM_ROLE", "PARTIAL_IMPORT", "USER_FEDERATION_PROVIDER");
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakReplicaProperties replicaProps;
+    private final KeycloakPagingProperties pagingProps;
+    private final KeycloakAdminEventProperties eventProps;
+    private final AdminEventPoller adminEventPoller;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile UserDirectory directory;
+    private volatile Instant syncedAt = Instant.EPOCH;
+    private volatile long watermark;
+    private volatile boolean loading;
+    private volatile boolean reloadRequested;
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    // bumped on every change, so unchanged replicas are not written again
+    private final AtomicLong changes = new AtomicLong();
+    private long savedChanges = -1;
+
+    private final Sinks.Many<Mono<Void>> steps = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable.Composite running = Disposables.composite();
+
+    public UserReplica(WebClient keycloakWebClient,
+                       KeycloakProperties props,
+                       KeycloakReplicaProperties replicaProps,
+                       KeycloakPagingProperties pagingProps,
+                       KeycloakAdminEventProperties eventProps,
+                       AdminEventPoller adminEventPoller,
+                       MeterRegistry meterRegistry) {
+        this.keycloakWebClient = keycloakWebClient;
+        this.props = props;
+        this.replicaProps = replicaProps;
+        this.pagingProps = pagingProps;
+        this.eventProps = eventProps;
+        this.adminEventPoller = adminEventPoller;
+        Gauge.builder("keycloak.replica.users", this, r -> r.directory == null ? Double.NaN : r.directory.size())
+                .description("Users in the local replica")
+                .register(meterRegistry);
+        Gauge.builder("keycloak.replica.staleness", this,
+                        r -> Duration.between(r.syncedAt, Instant.now()).toMillis() / 1000.0)
+                .description("Time since the replica was last known to match Keycloak")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        running.add(steps.asFlux()
+                .concatMap(step -> step.onErrorResume(e -> {
+                    log.warn("User replica sync step failed: {}", e.toString());
+                    return Mono.empty();
+                }))
+                .subscribe());
+        if (!restoreSnapshot() || !eventProps.enabled()) {
+            submit(fullLoad());
+        }
+        running.add(Flux.interval(replicaProps.fullReloadInterval())
+                .subscribe(t -> submit(fullLoad())));
+        running.add(Flux.interval(replicaProps.snapshotInterval())
+                .subscribe(t -> submit(Mono.fromRunnable(this::saveSnapshot)
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then())));
+    }
+
+    @PreDestroy
+    void stop() {
+        running.dispose();
+        saveSnapshot();
+    }
+
+    /**
+     * Whether reads may be served locally: loaded and synced within {@code max-staleness}.
+     */
+    public boolean isFresh() {
+        return directory != null
+                && Duration.between(syncedAt, Instant.now()).compareTo(replicaProps.maxStaleness()) <= 0;
+    }
+
+    <T> T read(Function<UserDirectory, T> query) {
+        lock.readLock().lock();
+        try {
+            return query.apply(directory);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Re-reads one user after this service changed it, so the replica reflects its own writes.
+     * Never fails: when the read does not work out the user is re-read with the next poll and
+     * the replica counts as stale until then.
+     */
+    Mono<Void> refresh(String userId) {
+        return fetchUser(userId)
+                .doOnNext(user -> {
+                    apply(userId, user);
+                    if (loading) {
+                        // the directory being loaded may predate this change
+                        dirty.add(userId);
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.debug("Replica refresh of user {} failed: {}", userId, e.toString());
+                    dirty.add(userId);
+                    syncedAt = Instant.EPOCH;
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    @EventListener
+    void onAdminEvent(AdminEvent event) {
+        event.userId().ifPresentOrElse(dirty::add, () -> {
+            if (RELOAD_RESOURCE_TYPES.contains(event.resourceType()) || event.isGroupChange()) {
+                reloadRequested = true;
+            }
+        });
+    }
+
+    @EventListener
+    void onAdminEventsPolled(AdminEventsPolled polled) {
+        submit(Mono.defer(() -> reloadRequested ? fullLoad() : Mono.empty())
+                .then(catchUp(polled)));
+    }
+
+    private void submit(Mono<Void> step) {
+        // emitted from event, timer and shutdown threads
+        synchronized (steps) {
+            steps.tryEmitNext(step);
+        }
+    }
+
+    /**
+     * Re-reads every user marked since the last catch-up. The replica only counts as synced
+     * up to {@code polled} when all of them were read.
+     */
+    private Mono<Void> catchUp(AdminEventsPolled polled) {
+        return Mono.defer(() -> {
+            if (directory == null) {
+                return Mono.empty();
+            }
+            List<String> userIds = new ArrayList<>(dirty);
+            dirty.removeAll(userIds);
+            Set<String> failed = ConcurrentHashMap.newKeySet();
+            return Flux.fromIterable(userIds)
+                    .flatMap(id -> fetchUser(id)
+                            .doOnNext(user -> apply(id, user))
+                            .onErrorResume(e -> {
+                                log.debug("Replica catch-up of user {} failed: {}", id, e.toString());
+                                failed.add(id);
+                                return Mono.empty();
+                            }), replicaProps.fetchConcurrency())
+                    .then(Mono.fromRunnable(() -> {
+                        if (failed.isEmpty()) {
+                            synced(polled.polledAt(), polled.watermark());
+                        } else {
+                            dirty.addAll(failed);
+                        }
+                    }));
+        });
+    }
+
+    private void apply(String userId, Optional<UserDirectory.User> user) {
+        if (directory == null) {
+            // not loaded yet; the first load reads the user anyway
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (user.isPresent()) {
+                directory.put(user.get());
+            } else {
+                directory.remove(userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changes.incrementAndGet();
+    }
+
+    private void synced(Instant at, long eventWatermark) {
+        if (at.isAfter(syncedAt)) {
+            syncedAt = at;
+        }
+        watermark = Math.max(watermark, eventWatermark);
+    }
+
+    /**
+     * Builds a new directory from scratch and swaps it in. Events arriving meanwhile stay
+     * marked and are re-read against the new directory by the next catch-up.
+     */
+    private Mono<Void> fullLoad() {
+        return Mono.defer(() -> {
+            Instant start = Instant.now();
+            long startWatermark = adminEventPoller.watermark();
+            loading = true;
+            reloadRequested = false;
+            return loadDirectory()
+                    .doOnNext(loaded -> {
+                        lock.writeLock().lock();
+                        try {
+                            directory = loaded;
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                        changes.incrementAndGet();
+                        synced(start, startWatermark);
+                        log.info("User replica loaded {} users in {} ms", loaded.size(),
+                                Duration.between(start, Instant.now()).toMillis());
+                    })
+                    .doFinally(s -> loading = false)
+                    .then();
+        });
+    }
+
+    private Mono<UserDirectory> loadDirectory() {
+        Mono<UserDirectory> roles = fetchAll(this::fetchRolePage)
+                .flatMap(role -> Boolean.TRUE.equals(role.composite())
+                        ? fetchComposites(role.name()).map(children -> Map.entry(role.name(), children))
+                        : Mono.just(Map.entry(role.name(), List.<String>of())), replicaProps.fetchConcurrency())
+                .collectList()
+                .map(entries -> {
+                    List<String> names = new ArrayList<>();
+                    Map<String, List<String>> composites = new HashMap<>();
+                    entries.forEach(e -> {
+                        names.add(e.getKey());
+                        composites.put(e.getKey(), e.getValue());
+                    });
+                    return new UserDirectory(names, composites);
+                });
+        return roles.flatMap(loaded -> {
+            Map<String, List<String>> directRoles = new ConcurrentHashMap<>();
+            Mono<Void> members = Flux.fromIterable(loaded.roleNames())
+                    .flatMap(role -> fetchAll((first, max) -> fetchRoleMemberPage(role, first, max))
+                            .doOnNext(member -> directRoles
+                                    .computeIfAbsent(member.id(), id -> new ArrayList<>())
+                                    .add(role)), replicaProps.fetchConcurrency())
+                    .then();
+            Map<String, Set<String>> groupRoles = new ConcurrentHashMap<>();
+            Mono<Void> groupMembers = groupsWithRoles(fetchAll(this::fetchGroupPage), List.of())
+                    .flatMap(group -> fetchAll((first, max) -> fetchGroupMemberPage(group.getKey(), first, max))
+                            .doOnNext(member -> groupRoles
+                                    .computeIfAbsent(member.id(), id -> ConcurrentHashMap.newKeySet())
+                                    .addAll(group.getValue())), replicaProps.fetchConcurrency())
+                    .then();
+            Mono<List<ReplicaUserRep>> users = fetchAll(this::fetchUserPage).collectList();
+            return members.then(groupMembers).then(users).map(all -> {
+                for (ReplicaUserRep u : all) {
+                    loaded.put(u.toUser(directRoles.getOrDefault(u.id(), List.of()),
+                            List.copyOf(groupRoles.getOrDefault(u.id(), Set.of()))));
+                }
+                return loaded;
+            });
+        });
+    }
+
+    /**
+     * Each group at or below {@code groups} that maps realm roles itself or through a parent,
+     * with those roles.
+     */
+    private Flux<Map.Entry<String, List<String>>> groupsWithRoles(Flux<ReplicaGroupRep> groups, List<String> parentRoles) {
+        return groups.concatMap(group -> {
+            List<String> roles = new ArrayList<>(parentRoles);
+            if (group.realmRoles() != null) {
+                roles.addAll(group.realmRoles());
+            }
+            // older Keycloak versions nest the whole tree, newer ones only report the count
+            Flux<ReplicaGroupRep> children = group.subGroups() != null && !group.subGroups().isEmpty()
+                    ? Flux.fromIterable(group.subGroups())
+                    : group.subGroupCount() != null && group.subGroupCount() > 0
+                    ? fetchAll((first, max) -> fetchChildGroupPage(group.id(), first, max))
+                    : Flux.empty();
+            return (roles.isEmpty() ? Flux.<Map.Entry<String, List<String>>>empty() : Flux.just(Map.entry(group.id(), roles)))
+                    .concatWith(groupsWithRoles(children, roles));
+        });
+    }
+
+    private <T> Flux<T> fetchAll(PageFetcher<T> fetcher) {
+        int size = pagingProps.maxPageSize();
+        return Flux.<Integer, Integer>generate(() -> 0, (first, sink) -> {
+                    sink.next(first);
+                    return first + size;
+                })
+                .concatMap(first -> fetcher.fetch(first, size))
+                .takeUntil(page -> page.size() < size)
+                .concatMapIterable(page -> page);
+    }
+
+    @FunctionalInterface
+    private interface PageFetcher<T> {
+        Mono<List<T>> fetch(int first, int max);
+    }
+
+    private Mono<List<RoleRep>> fetchRolePage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/roles")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ROLES)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .collectList();
+    }
+
+    private Mono<List<String>> fetchComposites(String role) {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/roles/{role}/composites/realm", props.realm(), role)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_ROLE_COMPOSITES)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .map(RoleRep::name)
+                .collectList();
+    }
+
+    private Mono<List<UserRep>> fetchRoleMemberPage(String role, int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/roles/{role}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm(), role))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ROLE_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    private Mono<List<ReplicaGroupRep>> fetchGroupPage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/groups")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", false)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_GROUPS)
+                .retrieve()
+                .bodyToFlux(ReplicaGroupRep.class)
+                .collectList();
+    }
+
+    private Mono<List<ReplicaGroupRep>> fetchChildGroupPage(String groupId, int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/groups/{id}/children")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", false)
+                        .build(props.realm(), groupId))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_GROUPS)
+                .retrieve()
+                .bodyToFlux(ReplicaGroupRep.class)
+                .collectList();
+    }
+
+    private Mono<List<UserRep>> fetchGroupMemberPage(String groupId, int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/groups/{id}/members")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm(), groupId))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_GROUP_MEMBERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    private Mono<List<ReplicaUserRep>> fetchUserPage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", false)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_USERS)
+                .retrieve()
+                .bodyToFlux(ReplicaUserRep.class)
+                .collectList();
+    }
+
+    /**
+     * The user with its direct and effective realm roles, or empty when Keycloak no longer
+     * has it. The effective ones include roles granted through groups.
+     */
+    private Mono<Optional<UserDirectory.User>> fetchUser(String userId) {
+        Mono<ReplicaUserRep> user = keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER)
+                .retrieve()
+                .bodyToMono(ReplicaUserRep.class);
+        Mono<List<String>> roles = keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_ROLE_MAPPINGS)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .map(RoleRep::name)
+                .collectList();
+        Mono<List<String>> effective = keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm/composite", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER_ROLES)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .map(RoleRep::name)
+                .collectList();
+        return Mono.zip(user, roles, effective)
+                .map(t -> Optional.of(t.getT1().toUser(t.getT2(), t.getT3())))
+                .onErrorResume(WebClientResponseException.class, e -> e.getStatusCode() == HttpStatus.NOT_FOUND
+                        ? Mono.just(Optional.empty())
+                        : Mono.error(e));
+    }
+
+    private boolean restoreSnapshot() {
+        if (!Files.exists(replicaProps.snapshotFile())) {
+            return false;
+        }
+        try {
+            UserDirectory.Snapshot snapshot = UserDirectory.readFrom(replicaProps.snapshotFile());
+            Duration age = Duration.between(snapshot.syncedAt(), Instant.now());
+            if (!props.realm().equals(snapshot.realm()) || age.compareTo(replicaProps.maxSnapshotAge()) > 0) {
+                log.info("Ignoring user replica snapshot of realm {} synced {} ago", snapshot.realm(), age);
+                return false;
+            }
+            directory = snapshot.directory();
+            syncedAt = snapshot.syncedAt();
+            watermark = snapshot.watermark();
+            savedChanges = changes.get();
+            // re-deliver whatever changed while this instance was down
+            adminEventPoller.resumeFrom(snapshot.watermark());
+            log.info("User replica restored {} users from {}", directory.size(), replicaProps.snapshotFile());
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not read user replica snapshot: {}", e.toString());
+            return false;
+        }
+    }
+
+    private synchronized void saveSnapshot() {
+        long current = changes.get();
+        if (directory == null || current == savedChanges) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            directory.writeTo(replicaProps.snapshotFile(), props.realm(), watermark, syncedAt);
+            savedChanges = current;
+        } catch (IOException e) {
+            log.warn("Could not write user replica snapshot: {}", e.toString());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The fields of Keycloak's full user representation the replica keeps.
+     */
+    record ReplicaUserRep(
+            String id,
+            String username,
+            String email,
+            String firstName,
+            String lastName,
+            Boolean enabled,
+            Map<String, List<String>> attributes
+    ) {
+        UserDirectory.User toUser(List<String> roles, List<String> inheritedRoles) {
+            return new UserDirectory.User(id, username, email, firstName, lastName,
+                    Boolean.TRUE.equals(enabled), attributes, roles, inheritedRoles);
+        }
+    }
+
+    /**
+     * The fields of Keycloak's full group representation the replica reads.
+     */
+    record ReplicaGroupRep(
+            String id,
+            List<String> realmRoles,
+            List<ReplicaGroupRep> subGroups,
+            Long subGroupCount
+    ) {}
+}
@@ -0,0 +1,91 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserPatchRequest;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.ETag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A user exactly as Keycloak returned it, with an entity tag derived from the response bytes.
+ * Keycloak has no version field, so the hash of its representation stands in for one.
+ */
+record UserRepresentation(Map<String, Object> body, String etag) {
+
+    private static final TypeReference<LinkedHashMap<String, Object>> BODY_TYPE = new TypeReference<>() {};
+
+    static UserRepresentation parse(byte[] json, ObjectMapper objectMapper) {
+        try {
+            return new UserRepresentation(objectMapper.readValue(json, BODY_TYPE), hash(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * If-Match semantics: strong comparison against any listed tag, or {@code *}.
+     */
+    boolean matches(String ifMatch) {
+        ETag current = new ETag(etag, false);
+        return ETag.parse(ifMatch).stream()
+                .anyMatch(tag -> tag.isWildcard() || tag.compare(current, true));
+    }
+
+    /**
+     * The patch as a minimal body, with attribute changes merged into the current attributes.
+     */
+    UserPatchRep minimalPatch(UserPatchRequest patch) {
+        return UserPatchRep.of(patch, patch.attributes() == null ? null : mergedAttributes(patch.attributes()));
+    }
+
+    /**
+     * The whole current representation with the patch applied.
+     */
+    Map<String, Object> merged(UserPatchRequest patch) {
+        Map<String, Object> merged = new LinkedHashMap<>(body);
+        if (patch.username() != null) merged.put("username", patch.username());
+        if (patch.email() != null) merged.put("email", patch.email());
+        if (patch.firstName() != null) merged.put("firstName", patch.firstName());
+        if (patch.lastName() != null) merged.put("lastName", patch.lastName());
+        if (patch.enabled() != null) merged.put("enabled", patch.enabled());
+        if (patch.emailVerified() != null) merged.put("emailVerified", patch.emailVerified());
+        if (patch.attributes() != null) merged.put("attributes", mergedAttributes(patch.attributes()));
+
+        merged.putIfAbsent("emailVerified", true); // optional but sometimes required
+        merged.putIfAbsent("attributes", new HashMap<>()); // required in some setups
+        return merged;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, List<String>> mergedAttributes(Map<String, List<String>> changes) {
+        Map<String, List<String>> current = (Map<String, List<String>>) body.get("attributes");
+        Map<String, List<String>> merged = current == null ? new LinkedHashMap<>() : new LinkedHashMap<>(current);
+        changes.forEach((name, values) -> {
+            if (values == null) {
+                merged.remove(name);
+            } else {
+                merged.put(name, values);
+            }
+        });
+        return merged;
+    }
+
+    private static String hash(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            return HexFormat.of().formatHex(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties.Enrichment;
+import co.vuckovic.demo.dto.UserResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Streams users with their effective realm roles without one Keycloak call per user where
+ * that can be avoided. {@code per-user} reads each user's role mappings; {@code bulk} reads the
+ * member list of every realm role once, plus the children of composite roles, and joins them
+ * with the user pages in memory, so its cost follows the number of roles rather than users.
+ * {@code auto} counts the realm's users and takes whichever needs fewer calls.
+ * <p>
+ * Bulk expands direct role mappings through composites but does not see roles granted through
+ * groups, so {@code auto} only picks it after checking that no group maps a realm role.
+ */
+@Slf4j
+@Component
+@RegisterReflectionForBinding({UserRep.class, RoleRep.class})
+public class UserRoleEnricher {
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakRoleProperties roleProps;
+    private final KeycloakPagingProperties pagingProps;
+    private final RoleCatalog roleCatalog;
+    private final Map<Enrichment, Counter> listings = new EnumMap<>(Enrichment.class);
+
+    public UserRoleEnricher(WebClient keycloakWebClient,
+                            KeycloakProperties props,
+                            KeycloakRoleProperties roleProps,
+                            KeycloakPagingProperties pagingProps,
+                            RoleCatalog roleCatalog,
+                            MeterRegistry meterRegistry) {
+        this.keycloakWebClient = keycloakWebClient;
+        this.props = props;
+        this.roleProps = roleProps;
+        this.pagingProps = pagingProps;
+        this.roleCatalog = roleCatalog;
+        for (Enrichment strategy : List.of(Enrichment.PER_USER, Enrichment.BULK)) {
+            listings.put(strategy, Counter.builder("keycloak.roles.enrichment")
+                    .description("User listings enriched with roles, by strategy")
+                    .tag("strategy", strategy.name().toLowerCase(Locale.ROOT).replace('_', '-'))
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Every user in the realm with its effective realm roles, sorted by name, read
+     * {@code pageSize} users at a time.
+     */
+    public Flux<UserResponse> streamUsers(Integer pageSize) {
+        int size = pagingProps.clamp(pageSize);
+        return strategy().flatMapMany(strategy -> {
+            listings.get(strategy).increment();
+            return strategy == Enrichment.BULK ? bulk(size) : perUser(size);
+        });
+    }
+
+    private Mono<Enrichment> strategy() {
+        if (roleProps.enrichment() != Enrichment.AUTO) {
+            return Mono.just(roleProps.enrichment());
+        }
+        return Mono.zip(countUsers(), roleCatalog.roles())
+                .flatMap(t -> {
+                    Enrichment chosen = choose(t.getT1(), t.getT2(), pagingProps.maxPageSize());
+                    if (chosen == Enrichment.PER_USER) {
+                        return Mono.just(chosen);
+                    }
+                    // bulk would drop whatever a group grants
+                    return anyGroupMapped(t.getT2())
+                            .map(grouped -> grouped ? Enrichment.PER_USER : Enrichment.BULK);
+                })
+                .doOnNext(chosen -> log.debug("Enriching users with roles {}", chosen));
+    }
+
+    /**
+     * Whether any group in the realm has one of these roles mapped, stopping at the first one.
+     */
+    private Mono<Boolean> anyGroupMapped(Collection<RoleRep> roles) {
+        return Flux.fromIterable(roles)
+                .flatMap(r -> hasGroups(r.name()), roleProps.enrichmentConcurrency())
+                .any(Boolean::booleanValue);
+    }
+
+    /**
+     * Per-user takes one call per user. Bulk takes one per composite role and at least one
+     * member page per role; the default role alone holds every user, which adds one member page
+     * per {@code memberPageSize} users. The user pages themselves are read either way.
+     */
+    static Enrichment choose(long users, Collection<RoleRep> roles, int memberPageSize) {
+        long composites = roles.stream().filter(r -> Boolean.TRUE.equals(r.composite())).count();
+        long bulkCalls = composites + roles.size() + users / memberPageSize;
+        return bulkCalls < users ? Enrichment.BULK : Enrichment.PER_USER;
+    }
+
+    private Flux<UserResponse> perUser(int size) {
+        return users(size)
+                .flatMapSequential(u -> effectiveRoles(u.id())
+                        .map(roles -> withRoles(u, roles))
+                        // deleted while the listing ran
+                        .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty()),
+                        roleProps.enrichmentConcurrency());
+    }
+
+    private Flux<UserResponse> bulk(int size) {
+        return roleCatalog.roles()
+                .flatMap(roles -> Mono.zip(grants(roles), directRoles(roles)))
+                .flatMapMany(t -> {
+                    Map<String, Set<String>> grants = t.getT1();
+                    Map<String, Set<String>> direct = t.getT2();
+                    // most users share one of a few role sets, so each is expanded once
+                    Map<Set<String>, List<String>> expanded = new HashMap<>();
+                    return users(size).map(u -> withRoles(u, expanded.computeIfAbsent(
+                            direct.getOrDefault(u.id(), Set.of()), names -> effective(names, grants))));
+                });
+    }
+
+    /**
+     * Each role's name mapped to itself and every role it grants through composites.
+     */
+    private Mono<Map<String, Set<String>>> grants(Collection<RoleRep> roles) {
+        return Flux.fromIterable(roles)
+                .filter(r -> Boolean.TRUE.equals(r.composite()))
+                .flatMap(r -> fetchComposites(r.name()).map(children -> Map.entry(r.name(), children)),
+                        roleProps.enrichmentConcurrency())
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .map(children -> closure(roles.stream().map(RoleRep::name).toList(), children));
+    }
+
+    static Map<String, Set<String>> closure(Collection<String> roles, Map<String, List<String>> children) {
+        Map<String, Set<String>> grants = new HashMap<>();
+        for (String role : roles) {
+            Set<String> granted = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>(List.of(role));
+            while (!pending.isEmpty()) {
+                String next = pending.pop();
+                if (granted.add(next)) {
+                    pending.addAll(children.getOrDefault(next, List.of()));
+                }
+            }
+            grants.put(role, granted);
+        }
+        return grants;
+    }
+
+    /**
+     * Direct realm roles by user ID, from one walk over every role's member list.
+     */
+    private Mono<Map<String, Set<String>>> directRoles(Collection<RoleRep> roles) {
+        return Flux.fromIterable(roles)
+                .flatMap(r -> fetchMembers(r.name()).map(userId -> Map.entry(userId, r.name())),
+                        roleProps.enrichmentConcurrency())
+                .<Map<String, Set<String>>>collect(HashMap::new, (byUser, e) -> byUser
+                        .computeIfAbsent(e.getKey(), id -> new HashSet<>())
+                        .add(e.getValue()));
+    }
+
+    private static List<String> effective(Set<String> direct, Map<String, Set<String>> grants) {
+        Set<String> effective = new TreeSet<>();
+        for (String role : direct) {
+            effective.addAll(grants.getOrDefault(role, Set.of(role)));
+        }
+        return List.copyOf(effective);
+    }
+
+    private static UserResponse withRoles(UserRep u, List<String> roles) {
+        return new UserResponse(u.id(), u.username(), u.email(), u.enabled(), roles, null, null, null, null);
+    }
+
+    private Flux<UserRep> users(int size) {
+        return OffsetPages.read(countUsers(), size, pagingProps.prefetchPages(),
+                        first -> fetchUserPage(first, size), List::size)
+                .concatMapIterable(page -> page);
+    }
+
+    private Flux<String> fetchMembers(String role) {
+        int size = pagingProps.maxPageSize();
+        return Flux.<Integer, Integer>generate(() -> 0, (first, sink) -> {
+                    sink.next(first);
+                    return first + size;
+                })
+                .concatMap(first -> fetchMemberPage(role, first, size))
+                .takeUntil(page -> page.size() < size)
+                .concatMapIterable(page -> page)
+                .map(UserRep::id);
+    }
+
+    Mono<Long> countUsers() {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/count", props.realm())
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.COUNT_USERS)
+                .retrieve()
+                .bodyToMono(Long.class);
+    }
+
+    private Mono<List<UserRep>> fetchUserPage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    private Mono<List<UserRep>> fetchMemberPage(String role, int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/roles/{role}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm(), role))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ROLE_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    private Mono<Boolean> hasGroups(String role) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/roles/{role}/groups")
+                        .queryParam("first", 0)
+                        .queryParam("max", 1)
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm(), role))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_GROUPS)
+                .retrieve()
+                .bodyToFlux(UserReplica.ReplicaGroupRep.class)
+                .hasElements();
+    }
+
+    private Mono<List<String>> fetchComposites(String role) {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/roles/{role}/composites/realm", props.realm(), role)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_ROLE_COMPOSITES)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .map(RoleRep::name)
+                .collectList();
+    }
+
+    /**
+     * One user's effective realm roles, sorted by name, including those granted through groups.
+     */
+    Mono<List<String>> effectiveRoles(String userId) {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm/composite", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER_ROLES)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .map(RoleRep::name)
+                .sort()
+                .collectList();
+    }
+}
@@ -0,0 +1,148 @@
+package co.vuckovic.demo.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns a Keycloak user list (a JSON array of user representations) into comma-separated
+ * {@code {"id":...,"username":...}} objects, token by token. Input is fed as it arrives off
+ * the wire and no user objects are built, so the cost per user is a few tokens rather than a
+ * full bind and re-serialization. Output matches what {@code UserSummary} serializes to.
+ * <p>
+ * Not thread-safe; one instance per response body.
+ */
+final class UserSummaryTranscoder implements AutoCloseable {
+
+    private static final String ID = "id";
+    private static final String USERNAME = "username";
+
+    private final JsonParser parser;
+    private final ByteArrayBuilder out = new ByteArrayBuilder();
+    private final JsonGenerator generator;
+
+    // 1 = inside the top-level array, 2 = inside a user
+    private int depth;
+    private String field;
+    private boolean seenId;
+    private boolean seenUsername;
+    private int count;
+
+    UserSummaryTranscoder(JsonFactory factory) {
+        try {
+            this.parser = factory.createNonBlockingByteBufferParser();
+            this.generator = factory.createGenerator(out);
+            generator.setRootValueSeparator(new SerializedString(","));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Consumes the whole buffer; the caller may release it once this returns.
+     */
+    void feed(ByteBuffer input) {
+        try {
+            ((ByteBufferFeeder) parser.getNonBlockingInputFeeder()).feedInput(input);
+            drain();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Completes the input and returns everything written so far.
+     */
+    byte[] finish() {
+        try {
+            parser.getNonBlockingInputFeeder().endOfInput();
+            drain();
+            generator.flush();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Users written so far.
+     */
+    int count() {
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            parser.close();
+            generator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT -> {
+                    if (++depth == 2) {
+                        generator.writeStartObject();
+                        seenId = false;
+                        seenUsername = false;
+                    }
+                }
+                case END_OBJECT -> {
+                    if (depth-- == 2) {
+                        endUser();
+                    }
+                }
+                case START_ARRAY -> depth++;
+                case END_ARRAY -> depth--;
+                case FIELD_NAME -> {
+                    if (depth == 2) {
+                        // names come from the parser's symbol table, so nothing is allocated per field
+                        field = parser.currentName();
+                    }
+                }
+                default -> {
+                    if (depth == 2) {
+                        copyScalar();
+                    }
+                }
+            }
+        }
+    }
+
+    private void copyScalar() throws IOException {
+        if (ID.equals(field) && !seenId) {
+            seenId = true;
+        } else if (USERNAME.equals(field) && !seenUsername) {
+            seenUsername = true;
+        } else {
+            return;
+        }
+        generator.writeFieldName(field);
+        // strings are copied from the parser's char buffer without becoming a String
+        generator.copyCurrentEvent(parser);
+    }
+
+    private void endUser() throws IOException {
+        if (!seenId) {
+            generator.writeNullField(ID);
+        }
+        if (!seenUsername) {
+            generator.writeNullField(USERNAME);
+        }
+        generator.writeEndObject();
+        count++;
+    }
+}
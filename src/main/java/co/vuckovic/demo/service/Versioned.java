@@ -0,0 +1,6 @@
+package co.vuckovic.demo.service;
+
+/**
+ * A value together with the entity tag of the Keycloak representation it was built from.
+ */
+public record Versioned<T>(T value, String etag) {}
@@ -0,0 +1,511 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakDetailProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakUpdateProperties;
+import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSearchPage;
+import co.vuckovic.demo.dto.UserSearchQuery;
+import co.vuckovic.demo.dto.UserSessionInfo;
+import co.vuckovic.demo.dto.UserSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.*;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * {@link UserManagementService} on the shared reactive {@code keycloakWebClient}, with every
+ * admin call written against Keycloak's REST API.
+ */
+@Slf4j
+@Service
+@Qualifier("userBackend")
+@ConditionalOnProperty(name = "keycloak.backend", havingValue = "webclient", matchIfMissing = true)
+@RegisterReflectionForBinding({UserRep.class, RoleRep.class, UserPatchRep.class})
+@RequiredArgsConstructor
+public class WebClientUserManagementService implements UserManagementService {
+
+    private final WebClient keycloakWebClient;
+    private final KeycloakProperties props;
+    private final KeycloakPagingProperties pagingProps;
+    private final KeycloakDetailProperties detailProps;
+    private final RoleCatalog roleCatalog;
+    private final UserRoleEnricher userRoleEnricher;
+    private final UserCache userCache;
+    private final KeycloakUpdateProperties updateProps;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Streams every user in the realm page by page. Up to {@code prefetchPages} page requests
+     * are in flight at once and pages are only requested as the subscriber consumes them, so
+     * memory stays bounded regardless of realm size. The realm is counted first so that no page
+     * past the end is prefetched; see {@link OffsetPages}.
+     */
+    @Override
+    public Flux<UserSummary> streamUsers(Integer pageSize) {
+        int size = pagingProps.clamp(pageSize);
+        return OffsetPages.read(countUsers(), size, pagingProps.prefetchPages(),
+                        first -> fetchUserPage(first, size), List::size)
+                .concatMapIterable(page -> page)
+                .map(u -> new UserSummary(u.id(), u.username()));
+    }
+
+    @Override
+    public Flux<UserResponse> streamUsersWithRoles(Integer pageSize) {
+        return userRoleEnricher.streamUsers(pageSize);
+    }
+
+    /**
+     * In pass-through mode each Keycloak page is projected token by token as its bytes arrive, and only the projected
+     * output is buffered, instead of binding every user and serializing it again.
+     */
+    @Override
+    public Flux<DataBuffer> getAllUsersJson() {
+        if (!pagingProps.passThrough()) {
+            return JsonArrays.write(getAllUsers(), objectMapper.writerFor(UserSummary.class));
+        }
+        int size = pagingProps.defaultPageSize();
+        return JsonArrays.of(OffsetPages.read(countUsers(), size, pagingProps.prefetchPages(),
+                        first -> fetchProjectedPage(first, size), ProjectedPage::count)
+                .filter(page -> page.count() > 0)
+                .map(ProjectedPage::json));
+    }
+
+    private Mono<ProjectedPage> fetchProjectedPage(int first, int max) {
+        return Mono.using(
+                () -> new UserSummaryTranscoder(objectMapper.getFactory()),
+                transcoder -> keycloakWebClient.get()
+                        .uri(b -> b.path("/admin/realms/{realm}/users")
+                                .queryParam("first", first)
+                                .queryParam("max", max)
+                                .queryParam("briefRepresentation", true)
+                                .build(props.realm()))
+                        .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_USERS)
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class)
+                        .doOnNext(buffer -> {
+                            try (var chunks = buffer.readableByteBuffers()) {
+                                chunks.forEachRemaining(transcoder::feed);
+                            } finally {
+                                DataBufferUtils.release(buffer);
+                            }
+                        })
+                        .then(Mono.fromCallable(() -> new ProjectedPage(transcoder.finish(), transcoder.count()))),
+                UserSummaryTranscoder::close);
+    }
+
+    private record ProjectedPage(byte[] json, int count) {}
+
+    @Override
+    public Mono<UserPage> getUsersPage(String cursor, Integer pageSize) {
+        int first = OffsetCursor.parse(cursor);
+        int size = pagingProps.clamp(pageSize);
+        UserPage cached = userCache.getPage(first, size);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        long stamp = userCache.stamp();
+        // one extra row tells us whether another page exists without a trailing empty request
+        return fetchUserPage(first, size + 1)
+                .map(users -> {
+                    boolean hasMore = users.size() > size;
+                    List<UserSummary> items = users.stream()
+                            .limit(size)
+                            .map(u -> new UserSummary(u.id(), u.username()))
+                            .toList();
+                    return new UserPage(items, hasMore ? String.valueOf(first + size) : null);
+                })
+                .doOnNext(page -> userCache.putPage(first, size, page, stamp));
+    }
+
+    private Mono<Long> countUsers() {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/count", props.realm())
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.COUNT_USERS)
+                .retrieve()
+                .bodyToMono(Long.class);
+    }
+
+    private Mono<List<UserRep>> fetchUserPage(int first, int max) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm()))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    /**
+     * Runs the search in Keycloak, one page per call, so the realm is never scanned locally.
+     * The brief representation is requested unless attributes are among the {@code fields}.
+     */
+    @Override
+    public Mono<UserSearchPage> searchUsers(UserSearchQuery query, String cursor, Integer pageSize,
+                                            Set<UserField> fields) {
+        int first = OffsetCursor.parse(cursor);
+        int size = pagingProps.clamp(pageSize);
+        boolean brief = !fields.contains(UserField.ATTRIBUTES);
+
+        Mono<List<UserRep>> users;
+        if (query.role() != null) {
+            if (query.hasUserFilters()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "role cannot be combined with other user filters"));
+            }
+            // unknown roles fail with 400 from the catalog instead of a Keycloak 404
+            users = roleCatalog.resolve(List.of(query.role()))
+                    .then(fetchRoleUsers(query.role(), first, size + 1, brief));
+        } else {
+            users = fetchSearchPage(query, first, size + 1, brief);
+        }
+        return users.map(found -> new UserSearchPage(
+                found.stream()
+                        .limit(size)
+                        .map(u -> u.project(fields))
+                        .toList(),
+                found.size() > size ? String.valueOf(first + size) : null));
+    }
+
+    private Mono<List<UserRep>> fetchSearchPage(UserSearchQuery query, int first, int max, boolean brief) {
+        // filter values go in as URI variables so they are fully encoded; a '+' in an email stays a '+'
+        Map<String, Object> filters = new LinkedHashMap<>();
+        if (query.search() != null) filters.put("search", query.search());
+        if (query.username() != null) filters.put("username", query.username());
+        if (query.email() != null) filters.put("email", query.email());
+        if (query.enabled() != null) filters.put("enabled", query.enabled());
+        if (query.exact() != null) filters.put("exact", query.exact());
+        if (query.q() != null) filters.put("q", query.q());
+
+        Map<String, Object> vars = new HashMap<>(filters);
+        vars.put("realm", props.realm());
+        return keycloakWebClient.get()
+                .uri(b -> {
+                    b.path("/admin/realms/{realm}/users");
+                    filters.keySet().forEach(name -> b.queryParam(name, "{" + name + "}"));
+                    return b.queryParam("first", first)
+                            .queryParam("max", max)
+                            .queryParam("briefRepresentation", brief)
+                            .build(vars);
+                })
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.SEARCH_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    private Mono<List<UserRep>> fetchRoleUsers(String role, int first, int max, boolean brief) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/roles/{role}/users")
+                        .queryParam("first", first)
+                        .queryParam("max", max)
+                        .queryParam("briefRepresentation", brief)
+                        .build(props.realm(), role))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_ROLE_USERS)
+                .retrieve()
+                .bodyToFlux(UserRep.class)
+                .collectList();
+    }
+
+    /**
+     * Fetches the user and every requested facet concurrently. Roles are critical, since callers
+     * authorize on them: if they fail the lookup fails, and if they miss
+     * {@code keycloak.detail.timeout} it fails with 504. The other facets are not: one that fails
+     * or exceeds {@code keycloak.detail.facet-timeout} is left out and listed in
+     * {@link UserResponse#incomplete()} instead of failing the whole lookup. The entity tag
+     * identifies the user representation and can be sent back as {@code If-Match} on writes.
+     */
+    @Override
+    public Mono<Versioned<UserResponse>> getVersionedUser(String userId, Set<UserFacet> include) {
+        Versioned<UserResponse> cached = userCache.getDetail(userId, include);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        long stamp = userCache.stamp();
+        return fetchUserById(userId, include)
+                .doOnNext(u -> userCache.putDetail(userId, include, u, stamp));
+    }
+
+    private Mono<Versioned<UserResponse>> fetchUserById(String userId, Set<UserFacet> include) {
+        Set<UserFacet> incomplete = ConcurrentHashMap.newKeySet();
+
+        Mono<UserRepresentation> user = fetchRepresentation(userId);
+        Mono<Optional<List<String>>> roles = include.contains(UserFacet.ROLES)
+                ? fetchRolesForUser(userId).collectList().map(Optional::of)
+                : Mono.just(Optional.empty());
+        Mono<Optional<List<String>>> groups = facet(UserFacet.GROUPS, include, incomplete,
+                () -> fetchGroupsForUser(userId).collectList());
+        Mono<Optional<List<UserSessionInfo>>> sessions = facet(UserFacet.SESSIONS, include, incomplete,
+                () -> fetchSessionsForUser(userId).collectList());
+
+        return Mono.zip(user, roles, groups, sessions)
+                .timeout(detailProps.timeout())
+                .map(t -> {
+                    UserRep u = objectMapper.convertValue(t.getT1().body(), UserRep.class);
+                    return new Versioned<>(new UserResponse(
+                            u.id(),
+                            u.username(),
+                            u.email(),
+                            u.enabled(),
+                            t.getT2().orElse(null),
+                            t.getT3().orElse(null),
+                            include.contains(UserFacet.ATTRIBUTES) ? Objects.requireNonNullElse(u.attributes(), Map.of()) : null,
+                            t.getT4().orElse(null),
+                            incomplete.isEmpty() ? null : List.copyOf(new TreeSet<>(incomplete))),
+                            t.getT1().etag());
+                })
+                .onErrorMap(TimeoutException.class, e -> new ResponseStatusException(
+                        HttpStatus.GATEWAY_TIMEOUT, "Keycloak did not return the user in time", e))
+                .onErrorMap(WebClientResponseException.class, WebClientUserManagementService::toStatus);
+    }
+
+    private Mono<UserRepresentation> fetchRepresentation(String userId) {
+        long stamp = userCache.stamp();
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER)
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .map(json -> UserRepresentation.parse(json, objectMapper))
+                .doOnNext(rep -> userCache.putRepresentation(userId, rep, stamp));
+    }
+
+    /**
+     * The representation to write against. With {@code If-Match}, a cached representation
+     * carrying that tag is used without reading Keycloak again; otherwise the current one is
+     * read and checked, failing with 412 on mismatch. Keycloak itself has no conditional
+     * writes, so a change made elsewhere after that check (or not yet reported by an admin
+     * event) is not detected.
+     */
+    private Mono<UserRepresentation> currentRepresentation(String userId, String ifMatch) {
+        if (ifMatch != null) {
+            UserRepresentation cached = userCache.getRepresentation(userId);
+            if (cached != null && cached.matches(ifMatch)) {
+                return Mono.just(cached);
+            }
+        }
+        return fetchRepresentation(userId)
+                .flatMap(rep -> ifMatch == null || rep.matches(ifMatch)
+                        ? Mono.just(rep)
+                        : Mono.error(new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User has been modified")));
+    }
+
+    private static Throwable toStatus(WebClientResponseException e) {
+        if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+            return new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found", e);
+        }
+        if (e.getStatusCode() == HttpStatus.CONFLICT) {
+            return new ResponseStatusException(HttpStatus.CONFLICT, e.getResponseBodyAsString(), e);
+        }
+        return e;
+    }
+
+    private <T> Mono<Optional<T>> facet(UserFacet facet, Set<UserFacet> include, Set<UserFacet> incomplete,
+                                        Supplier<Mono<T>> fetch) {
+        if (!include.contains(facet)) {
+            return Mono.just(Optional.empty());
+        }
+        return fetch.get()
+                .map(Optional::of)
+                .timeout(detailProps.facetTimeout())
+                .onErrorResume(e -> {
+                    log.debug("Facet {} unavailable, returning partial user: {}", facet, e.toString());
+                    incomplete.add(facet);
+                    return Mono.just(Optional.empty());
+                });
+    }
+
+    @Override
+    public Mono<String> createUser(UserCreateRequest req) {
+        return keycloakWebClient.post()
+                .uri("/admin/realms/{realm}/users", props.realm())
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.CREATE_USER)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of(
+                        "username", req.username(),
+                        "email", req.email(),
+                        "enabled", true,
+                        "credentials", List.of(Map.of(
+                                "type", "password",
+                                "value", req.password(),
+                                "temporary", false
+                        ))
+                ))
+                .exchangeToMono(resp -> {
+                    if (resp.statusCode().is2xxSuccessful()) {
+                        return Mono.justOrEmpty(resp.headers()
+                                .header("Location")
+                                .stream()
+                                .findFirst()
+                                .map(loc -> loc.substring(loc.lastIndexOf('/') + 1)));
+                    } else {
+                        return resp.createException().flatMap(Mono::error);
+                    }
+                })
+                .onErrorMap(WebClientResponseException.class, WebClientUserManagementService::toStatus)
+                .doOnNext(id -> userCache.invalidatePages());
+    }
+
+    /**
+     * Sends only the changed fields, which Keycloak applies on top of the stored user. The
+     * current representation is read only when it is needed: to merge attributes (Keycloak
+     * replaces them as a whole), to check {@code ifMatch}, or when
+     * {@code keycloak.update.full-representation} is set. A cached representation with a
+     * matching entity tag saves that read; see {@link #currentRepresentation}.
+     */
+    @Override
+    public Mono<Void> patchUser(String userId, UserPatchRequest patch, String ifMatch) {
+        boolean full = updateProps.fullRepresentation();
+        Mono<Object> body;
+        if (full || patch.attributes() != null || ifMatch != null) {
+            body = currentRepresentation(userId, ifMatch)
+                    .map(rep -> full ? rep.merged(patch) : rep.minimalPatch(patch));
+        } else {
+            body = Mono.just(UserPatchRep.of(patch, null));
+        }
+
+        return body
+                .flatMap(b -> {
+                    Mono<Void> updateMono = b instanceof UserPatchRep minimal && minimal.isEmpty()
+                            ? Mono.empty()
+                            : keycloakWebClient.put()
+                                    .uri("/admin/realms/{realm}/users/{id}", props.realm(), userId)
+                                    .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.UPDATE_USER)
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .bodyValue(b)
+                                    .retrieve()
+                                    .bodyToMono(Void.class);
+
+                    if (patch.roles() != null) {
+                        return updateMono.then(updateUserRoles(userId, patch.roles()));
+                    } else {
+                        return updateMono;
+                    }
+                })
+                .onErrorMap(WebClientResponseException.class, WebClientUserManagementService::toStatus)
+                // also on failure: a role update may have been applied partially
+                .doFinally(s -> {
+                    userCache.invalidateUser(userId);
+                    // a rename can move the user to another page
+                    if (patch.username() != null) {
+                        userCache.invalidatePages();
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteUser(String userId, String ifMatch) {
+        Mono<Void> delete = keycloakWebClient.delete()
+                .uri("/admin/realms/{realm}/users/{id}", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.DELETE_USER)
+                .retrieve()
+                .bodyToMono(Void.class);
+        return (ifMatch == null ? delete : currentRepresentation(userId, ifMatch).then(delete))
+                .onErrorMap(WebClientResponseException.class, WebClientUserManagementService::toStatus)
+                .doFinally(s -> {
+                    userCache.invalidateUser(userId);
+                    userCache.invalidatePages();
+                });
+    }
+
+    private Flux<String> fetchRolesForUser(String userId) {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm/composite", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER_ROLES)
+                .retrieve()
+                .bodyToFlux(Map.class)
+                .map(m -> (String) m.get("name"));
+    }
+
+    private Flux<String> fetchGroupsForUser(String userId) {
+        return keycloakWebClient.get()
+                .uri(b -> b.path("/admin/realms/{realm}/users/{id}/groups")
+                        .queryParam("briefRepresentation", true)
+                        .build(props.realm(), userId))
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER_GROUPS)
+                .retrieve()
+                .bodyToFlux(Map.class)
+                .map(m -> (String) m.get("path"));
+    }
+
+    private Flux<UserSessionInfo> fetchSessionsForUser(String userId) {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}/sessions", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER_SESSIONS)
+                .retrieve()
+                .bodyToFlux(UserSessionInfo.class);
+    }
+
+    /**
+     * Reconciles the user's direct realm roles with {@code newRoles}: one read of the current
+     * mappings, then only the missing roles are added and the surplus removed, concurrently.
+     * Nothing is written when the sets already match, and the user never passes through an
+     * empty role set.
+     */
+    private Mono<Void> updateUserRoles(String userId, List<String> newRoles) {
+        return Mono.zip(roleCatalog.resolve(newRoles), fetchDirectRoleMappings(userId))
+                .flatMap(t -> {
+                    RoleDiff diff = RoleDiff.between(t.getT2(), t.getT1());
+                    if (diff.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    return Mono.when(
+                            diff.toRemove().isEmpty() ? Mono.empty() : removeRoleMappings(userId, diff.toRemove()),
+                            diff.toAdd().isEmpty() ? Mono.empty() : addRoleMappings(userId, diff.toAdd()));
+                });
+    }
+
+    private Mono<List<RoleRep>> fetchDirectRoleMappings(String userId) {
+        return keycloakWebClient.get()
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_ROLE_MAPPINGS)
+                .retrieve()
+                .bodyToFlux(RoleRep.class)
+                .collectList();
+    }
+
+    private Mono<Void> addRoleMappings(String userId, List<RoleRep> roles) {
+        return keycloakWebClient.post()
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.ADD_ROLE_MAPPINGS)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(roles)
+                .retrieve()
+                .bodyToMono(Void.class);
+    }
+
+    private Mono<Void> removeRoleMappings(String userId, List<RoleRep> roles) {
+        return keycloakWebClient.method(HttpMethod.DELETE)
+                .uri("/admin/realms/{realm}/users/{id}/role-mappings/realm", props.realm(), userId)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.REMOVE_ROLE_MAPPINGS)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(roles)
+                .retrieve()
+                .bodyToMono(Void.class);
+    }
+}
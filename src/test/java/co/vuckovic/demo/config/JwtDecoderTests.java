@@ -0,0 +1,168 @@
+package co.vuckovic.demo.config;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtDecoderTests {
+
+    private static final String ISSUER = "http://keycloak/realms/demo";
+    private static final String CERTS = ISSUER + "/protocol/openid-connect/certs";
+
+    private final List<String> fetched = new CopyOnWriteArrayList<>();
+    private volatile JWKSet published;
+
+    JwtDecoderTests() throws JOSEException {
+        published = new JWKSet(key("k1"));
+    }
+
+    private static RSAKey key(String kid) throws JOSEException {
+        return new RSAKeyGenerator(2048).keyID(kid).generate();
+    }
+
+    private final WebClient.Builder keycloak = WebClient.builder().exchangeFunction(req -> {
+        String url = req.url().toString();
+        fetched.add(url);
+        String body = url.endsWith("/.well-known/openid-configuration")
+                ? "{\"issuer\":\"%s\",\"jwks_uri\":\"%s\"}".formatted(ISSUER, CERTS)
+                : published.toString(true);
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+    });
+
+    private static OAuth2ResourceServerProperties resourceServer(String jwkSetUri, String issuerUri, String... audiences) {
+        OAuth2ResourceServerProperties props = new OAuth2ResourceServerProperties();
+        props.getJwt().setJwkSetUri(jwkSetUri);
+        props.getJwt().setIssuerUri(issuerUri);
+        props.getJwt().setAudiences(List.of(audiences));
+        return props;
+    }
+
+    private static KeycloakJwtProperties jwtProps(boolean cache, Duration minRefresh) {
+        return new KeycloakJwtProperties(cache, 100, Duration.ofMinutes(5), minRefresh);
+    }
+
+    private ReactiveJwtDecoder decoder(OAuth2ResourceServerProperties props, KeycloakJwtProperties jwtProps) {
+        JwkSetCache cache = new JwkSetCache(keycloak, props, jwtProps);
+        return new KeycloakConfig().jwtDecoder(cache, props, jwtProps, new SimpleMeterRegistry());
+    }
+
+    private String token(String kid, String issuer, String audience, Instant expiresAt) throws JOSEException {
+        RSAKey signingKey = (RSAKey) published.getKeyByKeyId(kid);
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(kid).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("alice")
+                        .issuer(issuer)
+                        .audience(audience)
+                        .issueTime(Date.from(expiresAt.minusSeconds(300)))
+                        .expirationTime(Date.from(expiresAt))
+                        .build());
+        jwt.sign(new RSASSASigner(signingKey));
+        return jwt.serialize();
+    }
+
+    private String token(String kid) throws JOSEException {
+        return token(kid, ISSUER, "sso", Instant.now().plusSeconds(300));
+    }
+
+    @Test
+    void keysAreFoundThroughTheIssuer() throws JOSEException {
+        ReactiveJwtDecoder decoder = decoder(resourceServer(null, ISSUER), jwtProps(false, Duration.ZERO));
+
+        assertThat(decoder.decode(token("k1")).block().getSubject()).isEqualTo("alice");
+        assertThat(fetched).containsExactly(ISSUER + "/.well-known/openid-configuration", CERTS);
+    }
+
+    @Test
+    void issuerAndAudienceAreChecked() throws JOSEException {
+        ReactiveJwtDecoder decoder = decoder(resourceServer(CERTS, ISSUER, "sso", "account"),
+                jwtProps(false, Duration.ZERO));
+
+        assertThat(decoder.decode(token("k1", ISSUER, "account", Instant.now().plusSeconds(300))).block()).isNotNull();
+        assertThatThrownBy(() -> decoder.decode(token("k1", "http://evil/realms/demo", "sso",
+                Instant.now().plusSeconds(300))).block())
+                .isInstanceOf(JwtValidationException.class)
+                .hasMessageContaining("iss");
+        assertThatThrownBy(() -> decoder.decode(token("k1", ISSUER, "other-client", Instant.now().plusSeconds(300))).block())
+                .isInstanceOf(JwtValidationException.class)
+                .hasMessageContaining("aud");
+    }
+
+    @Test
+    void expiredTokensAreRejected() throws JOSEException {
+        ReactiveJwtDecoder decoder = decoder(resourceServer(CERTS, null), jwtProps(true, Duration.ZERO));
+
+        // past the default 60s clock skew
+        assertThatThrownBy(() -> decoder.decode(token("k1", ISSUER, "sso", Instant.now().minusSeconds(120))).block())
+                .isInstanceOf(JwtValidationException.class)
+                .hasMessageContaining("expired");
+    }
+
+    @Test
+    void cachedTokenIsDroppedAtExpiry() throws Exception {
+        OAuth2ResourceServerProperties props = resourceServer(CERTS, null);
+        KeycloakJwtProperties jwtProps = jwtProps(true, Duration.ZERO);
+        JwkSetCache cache = new JwkSetCache(keycloak, props, jwtProps);
+        CachingReactiveJwtDecoder decoder = (CachingReactiveJwtDecoder) new KeycloakConfig()
+                .jwtDecoder(cache, props, jwtProps, new SimpleMeterRegistry());
+
+        String shortLived = token("k1", ISSUER, "sso", Instant.now().plusSeconds(1));
+        decoder.decode(shortLived).block();
+        assertThat(decoder.cache().estimatedSize()).isEqualTo(1);
+
+        Thread.sleep(1200);
+        decoder.cache().cleanUp();
+        assertThat(decoder.cache().estimatedSize()).isZero();
+    }
+
+    @Test
+    void unknownKidRefetchesOnceWithinTheMinimumInterval() throws Exception {
+        RSAKey rotated = key("k2");
+        RSAKey unpublished = key("k3");
+        ReactiveJwtDecoder decoder = decoder(resourceServer(CERTS, null), jwtProps(false, Duration.ofSeconds(1)));
+        assertThat(decoder.decode(token("k1")).block()).isNotNull();
+        assertThat(fetched).hasSize(1);
+        Thread.sleep(1100);
+
+        // the realm rotates to a new key
+        published = new JWKSet(List.of(published.getKeyByKeyId("k1"), rotated, unpublished));
+        String k2 = token("k2");
+        String k3 = token("k3");
+        published = new JWKSet(List.of(published.getKeyByKeyId("k1"), rotated));
+        assertThat(decoder.decode(k2).block()).isNotNull();
+        assertThat(fetched).hasSize(2);
+
+        // a kid the realm does not publish does not fetch again until the interval has passed
+        assertThatThrownBy(() -> decoder.decode(k3).block()).isInstanceOf(JwtException.class);
+        assertThat(fetched).hasSize(2);
+    }
+}
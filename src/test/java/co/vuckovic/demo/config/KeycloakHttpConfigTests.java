@@ -0,0 +1,87 @@
+package co.vuckovic.demo.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeycloakHttpConfigTests {
+
+    private static final String TOTAL = "reactor.netty.connection.provider.total.connections";
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DisposableServer keycloak = HttpServer.create()
+            .port(0)
+            .doOnChannelInit((observer, channel, address) -> connections.incrementAndGet())
+            .route(r -> r
+                    .get("/fast", (req, res) -> res.sendString(Mono.just("ok")))
+                    .get("/slow", (req, res) -> res.sendString(Mono.just("late").delayElement(Duration.ofSeconds(1)))))
+            .bindNow();
+    private ConnectionProvider provider;
+
+    @AfterEach
+    void stop() {
+        if (provider != null) {
+            provider.dispose();
+        }
+        keycloak.disposeNow();
+    }
+
+    private WebClient client(Duration timeouts) {
+        KeycloakHttpProperties http = new KeycloakHttpProperties(10, 100, Duration.ofSeconds(1),
+                Duration.ofSeconds(30), Duration.ofMinutes(5), Duration.ofSeconds(30), true,
+                Duration.ofSeconds(1), timeouts, timeouts, false, false, true);
+        KeycloakHttpConfig config = new KeycloakHttpConfig(http, registry);
+        provider = config.keycloakConnectionProvider();
+        return WebClient.builder()
+                .clientConnector(config.keycloakHttpConnector(provider))
+                .baseUrl("http://localhost:" + keycloak.port())
+                .build();
+    }
+
+    private static String get(WebClient client, String path) {
+        return client.get().uri(path).retrieve().bodyToMono(String.class).block();
+    }
+
+    @Test
+    void idleConnectionOutlivesTheTimeouts() throws InterruptedException {
+        WebClient client = client(Duration.ofMillis(200));
+
+        assertThat(get(client, "/fast")).isEqualTo("ok");
+        Thread.sleep(500);
+        assertThat(get(client, "/fast")).isEqualTo("ok");
+
+        // kept until max-idle-time, not closed by a timeout while sitting in the pool
+        assertThat(connections).hasValue(1);
+    }
+
+    @Test
+    void responseTimeoutStillBoundsTheWaitForHeaders() {
+        WebClient client = client(Duration.ofMillis(200));
+
+        assertThatThrownBy(() -> get(client, "/slow")).hasRootCauseInstanceOf(ReadTimeoutException.class);
+    }
+
+    @Test
+    void poolGaugesAreRegisteredOnceInTheApplicationRegistry() {
+        get(client(Duration.ofSeconds(1)), "/fast");
+
+        assertThat(registry.find(TOTAL).tag("name", "keycloak").gauges()).singleElement()
+                .satisfies(g -> assertThat(g.value()).isEqualTo(1.0));
+
+        provider.disposeLater().block();
+        assertThat(registry.find(TOTAL).gauges()).isEmpty();
+    }
+}
@@ -0,0 +1,48 @@
+package co.vuckovic.demo.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeycloakJwtAuthenticationConverterTests {
+
+    private final KeycloakJwtAuthenticationConverter converter =
+            new KeycloakJwtAuthenticationConverter(new AuthoritySetCache());
+
+    private List<String> authorities(Object roles) {
+        Jwt.Builder jwt = Jwt.withTokenValue("token")
+                .header("alg", "none")
+                .subject("alice")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(300));
+        if (roles != null) {
+            jwt.claim("roles", roles);
+        }
+        return converter.convert(jwt.build()).block().getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .toList();
+    }
+
+    @Test
+    void arrayClaimMapsEachRole() {
+        assertThat(authorities(List.of("ADMIN", "USER"))).containsExactlyInAnyOrder("ROLE_ADMIN", "ROLE_USER");
+    }
+
+    @Test
+    void stringClaimIsSplitOnSpacesAndCommas() {
+        assertThat(authorities("ADMIN USER")).containsExactlyInAnyOrder("ROLE_ADMIN", "ROLE_USER");
+        assertThat(authorities("ADMIN,USER, manage-users")).containsExactlyInAnyOrder(
+                "ROLE_ADMIN", "ROLE_USER", "ROLE_manage-users");
+        assertThat(authorities(" ")).isEmpty();
+    }
+
+    @Test
+    void missingClaimGrantsNothing() {
+        assertThat(authorities(null)).isEmpty();
+    }
+}
@@ -0,0 +1,46 @@
+package co.vuckovic.demo.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReactorSchedulerMetricsTests {
+
+    @Test
+    void fixedSizeSchedulersAreTimedAndBoundedElasticIsLeftOut() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ReactorSchedulerMetrics metrics = new ReactorSchedulerMetrics(registry);
+        Scheduler parallel = Schedulers.newParallel("metrics-test", 2);
+        Scheduler elastic = Schedulers.newBoundedElastic(2, 10, "metrics-elastic");
+        try {
+            Mono.delay(Duration.ofMillis(10), parallel).block();
+            Mono.fromCallable(() -> 1).subscribeOn(elastic).block();
+
+            assertThat(registry.find("reactor.scheduler.executor").tag("scheduler", "parallel").timers())
+                    .hasSize(2)
+                    .anySatisfy(t -> assertThat(t.count()).isEqualTo(1));
+            assertThat(registry.find("reactor.scheduler.executor.queued").tag("scheduler", "parallel").gauges())
+                    .hasSize(2);
+            assertThat(registry.find("reactor.scheduler.executor").tag("scheduler", "boundedElastic").meters())
+                    .isEmpty();
+        } finally {
+            parallel.dispose();
+            elastic.dispose();
+            metrics.destroy();
+        }
+
+        Scheduler afterDestroy = Schedulers.newSingle("metrics-after");
+        try {
+            Mono.fromCallable(() -> 1).subscribeOn(afterDestroy).block();
+            assertThat(registry.find("reactor.scheduler.executor").tag("scheduler", "single").meters()).isEmpty();
+        } finally {
+            afterDestroy.dispose();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package co.vuckovic.demo.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@AutoConfigureWebTestClient
+class SecurityRulesTests {
+
+    @TestConfiguration
+    static class Tokens {
+
+        /** The bearer value is the dot-separated list of realm roles. */
+        @Bean
+        @Primary
+        ReactiveJwtDecoder rolesDecoder() {
+            return token -> Mono.just(Jwt.withTokenValue(token)
+                    .header("alg", "none")
+                    .subject("alice")
+                    .claim("roles", List.of(token.split("\\.")))
+                    .issuedAt(Instant.now())
+                    .expiresAt(Instant.now().plusSeconds(300))
+                    .build());
+        }
+    }
+
+    @Autowired
+    private WebTestClient client;
+
+    @Test
+    void tokenWithoutAnAdminRoleIsForbiddenOnTheAdminApi() {
+        client.get().uri("/api/admin/users")
+                .headers(h -> h.setBearerAuth("USER.EDITOR"))
+                .exchange()
+                .expectStatus().isForbidden();
+        client.get().uri("/api/admin/users")
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    void configuredRolesGrantAccess() {
+        client.get().uri("/api/users")
+                .headers(h -> h.setBearerAuth("USER"))
+                .exchange()
+                .expectStatus().isOk();
+        client.get().uri("/api/admin")
+                .headers(h -> h.setBearerAuth("manage-users"))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void actuatorIsNotServedOnThePublicPort() {
+        client.get().uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void adminRuleIsKeptWhenTheListLeavesItOut() {
+        var rules = new SecurityRuleProperties(List.of(
+                new SecurityRuleProperties.Rule(List.of("/api/users"), List.of(), List.of("USER"), false)));
+
+        assertThat(rules.rules()).endsWith(SecurityRuleProperties.ADMIN_RULE);
+    }
+
+    @Test
+    void ruleOpeningTheAdminApiFailsStartup() {
+        assertThatThrownBy(() -> new SecurityRuleProperties(List.of(
+                new SecurityRuleProperties.Rule(List.of("/api/**"), List.of(), List.of(), false))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("/api/admin/**");
+        assertThatThrownBy(() -> new SecurityRuleProperties(List.of(
+                new SecurityRuleProperties.Rule(List.of("/api/admin/users"), List.of(HttpMethod.GET), List.of(), true))))
+                .isInstanceOf(IllegalStateException.class);
+
+        // any admin route, not just /api/admin/users
+        for (String path : List.of("/api/admin/users/search", "/api/admin/users/*/roles", "/api/*/users", "/**")) {
+            assertThatThrownBy(() -> new SecurityRuleProperties(List.of(
+                    new SecurityRuleProperties.Rule(List.of(path), List.of(), List.of(), true))))
+                    .as(path)
+                    .isInstanceOf(IllegalStateException.class);
+        }
+
+        // a method-scoped rule with a role does not hide a later open one
+        assertThatThrownBy(() -> new SecurityRuleProperties(List.of(
+                new SecurityRuleProperties.Rule(List.of("/api/admin/**"), List.of(HttpMethod.GET), List.of("ADMIN"), false),
+                new SecurityRuleProperties.Rule(List.of("/api/**"), List.of(), List.of(), true))))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void openRulesBesideTheAdminApiAreAllowed() {
+        var rules = new SecurityRuleProperties(List.of(
+                new SecurityRuleProperties.Rule(List.of("/api/administration/**", "/api", "/api/users/**"),
+                        List.of(), List.of(), true)));
+
+        assertThat(rules.rules()).hasSize(2);
+    }
+}
@@ -0,0 +1,261 @@
+package co.vuckovic.demo.controller;
+
+import co.vuckovic.demo.dto.UserJob;
+import co.vuckovic.demo.service.UserCache;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "keycloak.admin-events.enabled=false",
+        "keycloak.roles.warm-on-startup=false"
+})
+@AutoConfigureWebTestClient
+class UserManagementControllerTests {
+
+    private static final String USER = "/admin/realms/demo/users/u1";
+
+    private static final List<String> writes = new CopyOnWriteArrayList<>();
+    private static final AtomicReference<Duration> writeDelay = new AtomicReference<>(Duration.ZERO);
+
+    private static final DisposableServer keycloak = HttpServer.create()
+            .port(0)
+            .route(r -> r
+                    .post("/realms/master/protocol/openid-connect/token", (req, res) -> json(res,
+                            "{\"access_token\":\"admin\",\"token_type\":\"Bearer\",\"expires_in\":300,"
+                                    + "\"refresh_expires_in\":0}"))
+                    .get(USER, (req, res) -> json(res,
+                            "{\"id\":\"u1\",\"username\":\"alice\",\"email\":\"alice@example.com\",\"enabled\":true}"))
+                    .get(USER + "/role-mappings/realm/composite", (req, res) -> json(res, "[{\"name\":\"user\"}]"))
+                    .put(USER, UserManagementControllerTests::write)
+                    .delete(USER, UserManagementControllerTests::write)
+                    .put("/admin/realms/demo/users/taken", (req, res) -> res.status(HttpStatus.CONFLICT.value())
+                            .sendString(Mono.just("{\"errorMessage\":\"User exists with same username\"}")))
+                    .route(req -> req.uri().startsWith("/admin/realms/demo/users/missing"),
+                            (req, res) -> res.status(HttpStatus.NOT_FOUND.value()).send())
+                    .route(req -> true, (req, res) -> json(res, "[]")))
+            .bindNow();
+
+    @DynamicPropertySource
+    static void keycloakUrl(DynamicPropertyRegistry registry) {
+        registry.add("keycloak.server-url", () -> "http://localhost:" + keycloak.port());
+    }
+
+    @AfterAll
+    static void stop() {
+        keycloak.disposeNow();
+    }
+
+    private static Mono<Void> json(HttpServerResponse res, String body) {
+        return res.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .sendString(Mono.just(body))
+                .then();
+    }
+
+    private static Mono<Void> write(HttpServerRequest req, HttpServerResponse res) {
+        return req.receive().aggregate().asString().defaultIfEmpty("")
+                .delayElement(writeDelay.get())
+                .doOnNext(body -> writes.add(req.method() + " " + body))
+                .then(res.status(HttpStatus.NO_CONTENT.value()).send().then());
+    }
+
+    @TestConfiguration
+    static class Tokens {
+
+        @Bean
+        @Primary
+        ReactiveJwtDecoder adminDecoder() {
+            return token -> Mono.just(Jwt.withTokenValue(token)
+                    .header("alg", "none")
+                    .subject("alice")
+                    .claim("roles", List.of("ADMIN"))
+                    .issuedAt(Instant.now())
+                    .expiresAt(Instant.now().plusSeconds(300))
+                    .build());
+        }
+    }
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private UserCache userCache;
+
+    @BeforeEach
+    void reset() {
+        writes.clear();
+        writeDelay.set(Duration.ZERO);
+        userCache.invalidateAll();
+    }
+
+    private WebTestClient.RequestHeadersSpec<?> admin(WebTestClient.RequestHeadersSpec<?> spec) {
+        return spec.headers(h -> h.setBearerAuth("admin"));
+    }
+
+    private String etag() {
+        return admin(client.get().uri("/api/admin/users/u1"))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseHeaders()
+                .getETag();
+    }
+
+    @Test
+    void getReturnsTheUserWithAnEntityTag() {
+        String first = etag();
+        assertThat(first).startsWith("\"").endsWith("\"");
+
+        admin(client.get().uri("/api/admin/users/u1"))
+                .exchange()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, first)
+                .expectBody().jsonPath("$.username").isEqualTo("alice");
+    }
+
+    @Test
+    void staleIfMatchIsRejectedWith412AndNothingIsWritten() {
+        etag();
+
+        admin(client.put().uri("/api/admin/users/u1")
+                .header(HttpHeaders.IF_MATCH, "\"stale\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"enabled\":false}"))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        admin(client.delete().uri("/api/admin/users/u1")
+                .header(HttpHeaders.IF_MATCH, "\"stale\""))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        assertThat(writes).isEmpty();
+    }
+
+    @Test
+    void currentIfMatchWrites() {
+        String etag = etag();
+
+        admin(client.put().uri("/api/admin/users/u1")
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"enabled\":false}"))
+                .exchange()
+                .expectStatus().isNoContent();
+        admin(client.delete().uri("/api/admin/users/u1")
+                .header(HttpHeaders.IF_MATCH, etag))
+                .exchange()
+                .expectStatus().isNoContent();
+
+        assertThat(writes).containsExactly("PUT {\"enabled\":false}", "DELETE ");
+    }
+
+    @Test
+    void keycloakErrorsMapTo404And409() {
+        admin(client.put().uri("/api/admin/users/missing")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"enabled\":false}"))
+                .exchange()
+                .expectStatus().isNotFound();
+        admin(client.delete().uri("/api/admin/users/missing"))
+                .exchange()
+                .expectStatus().isNotFound();
+        admin(client.put().uri("/api/admin/users/taken")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"username\":\"bob\"}"))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    void respondAsyncQueuesTheWriteAndReportsItsOutcome() {
+        writeDelay.set(Duration.ofMillis(300));
+
+        var accepted = admin(client.put().uri("/api/admin/users/u1")
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"enabled\":false}"))
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectHeader().valueEquals("Preference-Applied", "respond-async")
+                .expectBody(UserJob.class)
+                .returnResult();
+        UserJob job = accepted.getResponseBody();
+        assertThat(job.op()).isEqualTo("update");
+        assertThat(job.status()).isIn(UserJob.Status.PENDING, UserJob.Status.RUNNING);
+        assertThat(accepted.getResponseHeaders().getLocation()).hasPath("/api/admin/users/jobs/" + job.id());
+        assertThat(writes).isEmpty();
+
+        assertThat(awaitJob(job.id())).satisfies(done -> {
+            assertThat(done.status()).isEqualTo(UserJob.Status.SUCCEEDED);
+            assertThat(done.httpStatus()).isEqualTo(204);
+        });
+        assertThat(writes).containsExactly("PUT {\"enabled\":false}");
+    }
+
+    @Test
+    void failedAsyncWriteKeepsTheStatusTheSynchronousCallWouldHaveReturned() {
+        UserJob job = admin(client.delete().uri("/api/admin/users/missing")
+                .header("Prefer", "respond-async"))
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectBody(UserJob.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertThat(awaitJob(job.id())).satisfies(done -> {
+            assertThat(done.status()).isEqualTo(UserJob.Status.FAILED);
+            assertThat(done.httpStatus()).isEqualTo(404);
+            assertThat(done.error()).isEqualTo("User not found");
+        });
+        admin(client.get().uri("/api/admin/users/jobs/unknown"))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private UserJob awaitJob(String id) {
+        Instant deadline = Instant.now().plusSeconds(5);
+        while (true) {
+            UserJob job = admin(client.get().uri("/api/admin/users/jobs/" + id))
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(UserJob.class)
+                    .returnResult()
+                    .getResponseBody();
+            if (job.completedAt() != null || Instant.now().isAfter(deadline)) {
+                return job;
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return job;
+            }
+        }
+    }
+}
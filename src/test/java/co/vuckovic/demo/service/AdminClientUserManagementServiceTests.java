@@ -0,0 +1,213 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakAdminClientConfig;
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.config.KeycloakDetailProperties;
+import co.vuckovic.demo.config.KeycloakHttpProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.config.KeycloakUpdateProperties;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import co.vuckovic.demo.dto.UserSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdminClientUserManagementServiceTests {
+
+    private static final String USERS = "/admin/realms/demo/users";
+    private static final int USER_COUNT = 25;
+
+    private final List<String> writes = new CopyOnWriteArrayList<>();
+    private final DisposableServer server = HttpServer.create()
+            .port(0)
+            .route(r -> r
+                    .post("/realms/master/protocol/openid-connect/token", (req, res) -> json(res,
+                            "{\"access_token\":\"admin\",\"token_type\":\"Bearer\",\"expires_in\":300,"
+                                    + "\"refresh_expires_in\":0}"))
+                    .get(USERS + "/count", (req, res) -> json(res, String.valueOf(USER_COUNT)))
+                    .get(USERS, (req, res) -> {
+                        var query = new QueryStringDecoder(req.uri()).parameters();
+                        int first = Integer.parseInt(query.get("first").get(0));
+                        int max = Integer.parseInt(query.get("max").get(0));
+                        return json(res, IntStream.range(first, Math.min(USER_COUNT, first + max))
+                                .mapToObj(i -> "{\"id\":\"id-%d\",\"username\":\"user%d\"}".formatted(i, i))
+                                .collect(Collectors.joining(",", "[", "]")));
+                    })
+                    .get(USERS + "/u1", (req, res) -> json(res, "{\"id\":\"u1\",\"username\":\"alice\",\"enabled\":true}"))
+                    .get(USERS + "/slow", (req, res) -> json(res, "{\"id\":\"slow\",\"username\":\"slow\"}",
+                            Duration.ofMillis(500)))
+                    .get(USERS + "/u1/role-mappings/realm", (req, res) -> json(res,
+                            "[{\"id\":\"r-user\",\"name\":\"user\"},{\"id\":\"r-old\",\"name\":\"old\"}]"))
+                    .get(USERS + "/u1/role-mappings/realm/composite", (req, res) -> json(res, "[{\"name\":\"user\"}]"))
+                    .put(USERS + "/u1", this::record)
+                    .post(USERS + "/u1/role-mappings/realm", this::record)
+                    .delete(USERS + "/u1/role-mappings/realm", this::record)
+                    .put(USERS + "/taken", (req, res) -> res.status(HttpStatus.CONFLICT.value())
+                            .sendString(Mono.just("{\"errorMessage\":\"User exists with same username\"}")))
+                    .route(req -> true, (req, res) -> res.status(HttpStatus.NOT_FOUND.value()).send()))
+            .bindNow();
+    private final List<Keycloak> clients = new ArrayList<>();
+
+    private final WebClient roles = WebClient.builder().exchangeFunction(req -> Mono.just(
+            ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(req.url().getQuery().contains("first=0")
+                            ? "[{\"id\":\"r-user\",\"name\":\"user\"},{\"id\":\"r-admin\",\"name\":\"admin\"}]"
+                            : "[]")
+                    .build())).build();
+
+    @AfterEach
+    void stop() {
+        clients.forEach(Keycloak::close);
+        server.disposeNow();
+    }
+
+    private static Mono<Void> json(HttpServerResponse res, String body) {
+        return json(res, body, Duration.ZERO);
+    }
+
+    private static Mono<Void> json(HttpServerResponse res, String body, Duration delay) {
+        return res.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .sendString(Mono.just(body).delayElement(delay))
+                .then();
+    }
+
+    private Mono<Void> record(HttpServerRequest req, HttpServerResponse res) {
+        return req.receive().aggregate().asString().defaultIfEmpty("")
+                .doOnNext(body -> writes.add(req.method() + " " + req.fullPath() + " " + body))
+                .then(res.status(HttpStatus.NO_CONTENT.value()).send().then());
+    }
+
+    private AdminClientUserManagementService service(String serverUrl, int maxConcurrentCalls) {
+        KeycloakProperties props = new KeycloakProperties(
+                serverUrl, "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+        KeycloakHttpProperties http = new KeycloakHttpProperties(10, 100, Duration.ofSeconds(1),
+                Duration.ofSeconds(30), Duration.ofMinutes(5), Duration.ofSeconds(30), true,
+                Duration.ofSeconds(1), Duration.ofSeconds(2), Duration.ofSeconds(2), false, false, false);
+        Keycloak keycloak = new KeycloakAdminClientConfig(props, http).keycloakAdminClient();
+        clients.add(keycloak);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        KeycloakPagingProperties pagingProps = new KeycloakPagingProperties(10, 100, 4, true);
+        KeycloakRoleProperties roleProps = new KeycloakRoleProperties(
+                Duration.ofMinutes(5), Duration.ofSeconds(5), false, KeycloakRoleProperties.Enrichment.PER_USER, 8);
+        RoleCatalog catalog = new RoleCatalog(roles, props, roleProps, pagingProps, registry);
+        return new AdminClientUserManagementService(keycloak, props, pagingProps,
+                new KeycloakDetailProperties(Duration.ofSeconds(2), Duration.ofMillis(500)),
+                new KeycloakUpdateProperties(false),
+                new KeycloakResilienceProperties(Duration.ofSeconds(5), Map.of(),
+                        new KeycloakResilienceProperties.Retry(2, Duration.ofMillis(1), Duration.ofMillis(5), 0.5),
+                        new KeycloakResilienceProperties.CircuitBreaker(50, Duration.ofSeconds(3), 80, 10, 4,
+                                Duration.ofMinutes(1), 1),
+                        new KeycloakResilienceProperties.Bulkhead(maxConcurrentCalls, Map.of())),
+                catalog,
+                new UserRoleEnricher(roles, props, roleProps, pagingProps, catalog, registry),
+                new UserCache(new KeycloakCacheProperties(false, 100, 100, Duration.ofMinutes(1)), registry),
+                Jackson2ObjectMapperBuilder.json().build());
+    }
+
+    private AdminClientUserManagementService service() {
+        return service("http://localhost:" + server.port(), 10);
+    }
+
+    private static HttpStatus statusOf(Throwable e) {
+        return HttpStatus.valueOf(((ResponseStatusException) e).getStatusCode().value());
+    }
+
+    @Test
+    void pagesCarryTheNextOffsetAsCursor() {
+        AdminClientUserManagementService service = service();
+
+        UserPage first = service.getUsersPage(null, 10).block();
+        UserPage last = service.getUsersPage("20", 10).block();
+
+        assertThat(first.items()).hasSize(10);
+        assertThat(first.nextCursor()).isEqualTo("10");
+        assertThat(last.items()).extracting(UserSummary::username).startsWith("user20").hasSize(5);
+        assertThat(last.nextCursor()).isNull();
+        assertThat(service.streamUsers(10).collectList().block()).hasSize(USER_COUNT);
+    }
+
+    @Test
+    void keycloakErrorsMapTo404And409() {
+        AdminClientUserManagementService service = service();
+
+        assertThatThrownBy(() -> service.getVersionedUser("missing", UserFacet.DEFAULT).block())
+                .satisfies(e -> assertThat(statusOf(e)).isEqualTo(HttpStatus.NOT_FOUND));
+        assertThatThrownBy(() -> service.deleteUser("missing", null).block())
+                .satisfies(e -> assertThat(statusOf(e)).isEqualTo(HttpStatus.NOT_FOUND));
+        assertThatThrownBy(() -> service.patchUser("taken",
+                new UserPatchRequest("bob", null, null, null, null, null, null, null), null).block())
+                .satisfies(e -> assertThat(statusOf(e)).isEqualTo(HttpStatus.CONFLICT));
+    }
+
+    @Test
+    void unreachableKeycloakIsServiceUnavailable() {
+        int port = server.port();
+        server.disposeNow();
+
+        assertThatThrownBy(() -> service("http://localhost:" + port, 10).getUsersPage(null, 10).block())
+                .satisfies(e -> assertThat(statusOf(e)).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+
+    @Test
+    void roleUpdateAddsBeforeItRemoves() {
+        service().patchUser("u1", new UserPatchRequest(null, null, null, null, false, null, null,
+                List.of("user", "admin")), null).block();
+
+        assertThat(writes).hasSize(3);
+        assertThat(writes.get(0)).startsWith("PUT " + USERS + "/u1 ").contains("\"enabled\":false");
+        assertThat(writes.get(1)).startsWith("POST " + USERS + "/u1/role-mappings/realm ")
+                .contains("\"name\":\"admin\"").doesNotContain("\"name\":\"user\"");
+        assertThat(writes.get(2)).startsWith("DELETE " + USERS + "/u1/role-mappings/realm ")
+                .contains("\"name\":\"old\"").doesNotContain("\"name\":\"admin\"");
+    }
+
+    @Test
+    void callsBeyondTheBulkheadFailFast() throws InterruptedException {
+        AdminClientUserManagementService service = service("http://localhost:" + server.port(), 1);
+        // logs in first, so the slow call below is the only one holding the permit
+        service.getUsersPage(null, 1).block();
+
+        Mono<?> slow = service.getVersionedUser("slow", EnumSet.noneOf(UserFacet.class)).cache();
+        slow.subscribe(u -> {}, e -> {});
+        Thread.sleep(200);
+
+        assertThatThrownBy(() -> service.getUsersPage(null, 10).block())
+                .satisfies(e -> assertThat(statusOf(e)).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE))
+                .hasMessageContaining("Too many concurrent Keycloak calls");
+        slow.block();
+        assertThat(service.getUsersPage(null, 10).block().items()).hasSize(10);
+    }
+}
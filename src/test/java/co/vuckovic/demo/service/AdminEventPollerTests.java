@@ -0,0 +1,89 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakAdminEventProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdminEventPollerTests {
+
+    // Keycloak's events, newest first
+    private final List<AdminEvent> events = new CopyOnWriteArrayList<>();
+
+    private AdminEventPoller poller() {
+        KeycloakProperties props = new KeycloakProperties(
+                "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+        WebClient client = WebClient.builder().exchangeFunction(req -> {
+            boolean firstPage = req.url().getQuery().contains("first=0");
+            String max = req.url().getQuery().replaceAll(".*max=(\\d+).*", "$1");
+            String body = firstPage
+                    ? events.stream().limit(Long.parseLong(max))
+                            .map(e -> "{\"time\":%d,\"operationType\":\"%s\",\"resourceType\":\"USER\",\"resourcePath\":\"%s\"}"
+                                    .formatted(e.time(), e.operationType(), e.resourcePath()))
+                            .collect(Collectors.joining(",", "[", "]"))
+                    : "[]";
+            return Mono.just(ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(body)
+                    .build());
+        }).build();
+        return new AdminEventPoller(client, props,
+                new KeycloakAdminEventProperties(true, Duration.ofSeconds(10), 100, Duration.ofMinutes(1)),
+                event -> {});
+    }
+
+    private static AdminEvent update(Instant at, String userId) {
+        return new AdminEvent(at.toEpochMilli(), "UPDATE", "USER", "users/" + userId);
+    }
+
+    @Test
+    void watermarkStartsAClockSkewBeforeStartup() {
+        long before = Instant.now().toEpochMilli();
+
+        AdminEventPoller poller = poller();
+        poller.seed().block();
+
+        // no events in the realm yet
+        assertThat(poller.watermark()).isBetween(before - 60_000, Instant.now().toEpochMilli() - 60_000);
+    }
+
+    @Test
+    void keycloakClockBehindThisInstanceDoesNotSkipEvents() {
+        // Keycloak runs ten minutes behind: its newest event is older than this instance's clock says
+        Instant keycloakNow = Instant.now().minus(Duration.ofMinutes(10));
+        events.add(update(keycloakNow, "u1"));
+        AdminEventPoller poller = poller();
+        poller.seed().block();
+        assertThat(poller.watermark()).isEqualTo(keycloakNow.toEpochMilli());
+
+        events.addFirst(update(keycloakNow.plusSeconds(1), "u2"));
+
+        assertThat(poller.poll().collectList().block())
+                .extracting(AdminEvent::resourcePath).containsExactly("users/u2");
+        assertThat(poller.watermark()).isEqualTo(keycloakNow.plusSeconds(1).toEpochMilli());
+    }
+
+    @Test
+    void seedDoesNotMoveTheWatermarkForward() {
+        AdminEventPoller poller = poller();
+        poller.resumeFrom(1_000);
+        events.add(update(Instant.now(), "u1"));
+
+        poller.seed().block();
+
+        assertThat(poller.watermark()).isEqualTo(1_000);
+    }
+}
@@ -0,0 +1,237 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakCoalescingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeycloakCoalescingFilterTests {
+
+    private static final String USER = "http://keycloak/admin/realms/demo/users/u1";
+
+    private final List<ClientRequest> sent = new CopyOnWriteArrayList<>();
+    private final List<Sinks.One<ClientResponse>> pending = new CopyOnWriteArrayList<>();
+
+    /** Every request stays open until {@link #respond} answers it. */
+    private WebClient client(Duration window) {
+        KeycloakCoalescingFilter filter = new KeycloakCoalescingFilter(
+                new KeycloakCoalescingProperties(true, window), new SimpleMeterRegistry());
+        return WebClient.builder()
+                .exchangeFunction(req -> {
+                    sent.add(req);
+                    Sinks.One<ClientResponse> response = Sinks.one();
+                    pending.add(response);
+                    return response.asMono();
+                })
+                .filter(filter)
+                .build();
+    }
+
+    private void respond(int index, String body) {
+        pending.get(index).tryEmitValue(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8))))
+                .build());
+    }
+
+    private static Mono<String> get(WebClient client, KeycloakOperation operation) {
+        return get(client, USER, operation);
+    }
+
+    private static Mono<String> get(WebClient client, String uri, KeycloakOperation operation) {
+        return client.get()
+                .uri(uri)
+                .attribute(KeycloakOperation.ATTRIBUTE, operation)
+                .retrieve()
+                .bodyToMono(String.class)
+                .cache();
+    }
+
+    /** Body length read as raw buffers, past the caller's own codec limit. */
+    private static Mono<Long> size(WebClient client) {
+        return client.get()
+                .uri(USER)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class)
+                .map(buffer -> {
+                    long length = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return length;
+                })
+                .reduce(0L, Long::sum)
+                .cache();
+    }
+
+    @Test
+    void concurrentGetJoinsTheRequestInFlight() {
+        WebClient client = client(Duration.ofSeconds(10));
+        Mono<String> first = get(client, KeycloakOperation.GET_USER);
+        Mono<String> second = get(client, KeycloakOperation.GET_USER);
+        first.subscribe();
+        second.subscribe();
+
+        assertThat(sent).hasSize(1);
+        respond(0, "{\"id\":\"u1\"}");
+        assertThat(first.block()).isEqualTo("{\"id\":\"u1\"}");
+        assertThat(second.block()).isEqualTo("{\"id\":\"u1\"}");
+
+        // the finished request is forgotten
+        get(client, KeycloakOperation.GET_USER).subscribe();
+        assertThat(sent).hasSize(2);
+    }
+
+    @Test
+    void getAfterTheWindowIsSentAgain() throws InterruptedException {
+        WebClient client = client(Duration.ofMillis(50));
+        Mono<String> first = get(client, KeycloakOperation.GET_USER);
+        first.subscribe();
+        Thread.sleep(100);
+
+        Mono<String> late = get(client, KeycloakOperation.GET_USER);
+        late.subscribe();
+        assertThat(sent).hasSize(2);
+
+        respond(1, "\"new\"");
+        respond(0, "\"old\"");
+        assertThat(late.block()).isEqualTo("\"new\"");
+        assertThat(first.block()).isEqualTo("\"old\"");
+    }
+
+    @Test
+    void completedWriteClearsRequestsInFlight() {
+        WebClient client = client(Duration.ofSeconds(10));
+        Mono<String> before = get(client, KeycloakOperation.GET_USER);
+        before.subscribe();
+
+        Mono<Void> write = client.put()
+                .uri(USER)
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.UPDATE_USER)
+                .retrieve()
+                .bodyToMono(Void.class)
+                .cache();
+        write.subscribe();
+        respond(1, "");
+        write.block();
+
+        // the read sent before the write is not joined
+        Mono<String> after = get(client, KeycloakOperation.GET_USER);
+        after.subscribe();
+        assertThat(sent).hasSize(3);
+        respond(2, "\"after\"");
+        respond(0, "\"before\"");
+        assertThat(after.block()).isEqualTo("\"after\"");
+        assertThat(before.block()).isEqualTo("\"before\"");
+    }
+
+    @Test
+    void writeToOneUserKeepsOtherUsersReadsInFlight() {
+        WebClient client = client(Duration.ofSeconds(10));
+        String roles = USER + "/role-mappings/realm/composite";
+        String other = "http://keycloak/admin/realms/demo/users/u10";
+        get(client, USER, KeycloakOperation.GET_USER).subscribe();
+        get(client, roles, KeycloakOperation.GET_USER_ROLES).subscribe();
+        get(client, other, KeycloakOperation.GET_USER).subscribe();
+
+        Mono<Void> write = client.delete()
+                .uri(USER + "/role-mappings/realm")
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.REMOVE_ROLE_MAPPINGS)
+                .retrieve()
+                .bodyToMono(Void.class)
+                .cache();
+        write.subscribe();
+        respond(3, "");
+        write.block();
+
+        get(client, USER, KeycloakOperation.GET_USER).subscribe();
+        get(client, roles, KeycloakOperation.GET_USER_ROLES).subscribe();
+        get(client, other, KeycloakOperation.GET_USER).subscribe();
+        // u1's reads are sent again; u10, which merely shares the prefix, is still joined
+        assertThat(sent).extracting(r -> r.url().getPath()).containsExactly(
+                "/admin/realms/demo/users/u1", "/admin/realms/demo/users/u1/role-mappings/realm/composite",
+                "/admin/realms/demo/users/u10", "/admin/realms/demo/users/u1/role-mappings/realm",
+                "/admin/realms/demo/users/u1", "/admin/realms/demo/users/u1/role-mappings/realm/composite");
+    }
+
+    @Test
+    void writeBeyondOneUserClearsEveryReadInFlight() {
+        WebClient client = client(Duration.ofSeconds(10));
+        get(client, KeycloakOperation.GET_USER).subscribe();
+
+        Mono<Void> write = client.put()
+                .uri("http://keycloak/admin/realms/demo/roles/admin")
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.OTHER)
+                .retrieve()
+                .bodyToMono(Void.class)
+                .cache();
+        write.subscribe();
+        respond(1, "");
+        write.block();
+
+        get(client, KeycloakOperation.GET_USER).subscribe();
+        assertThat(sent).hasSize(3);
+    }
+
+    @Test
+    void userPathIsTheWrittenUsersResource() {
+        assertThat(KeycloakCoalescingFilter.userPath(URI.create(USER + "/reset-password")))
+                .isEqualTo("/admin/realms/demo/users/u1");
+        assertThat(KeycloakCoalescingFilter.userPath(URI.create("http://keycloak/auth/admin/realms/demo/users/u1")))
+                .isEqualTo("/auth/admin/realms/demo/users/u1");
+        assertThat(KeycloakCoalescingFilter.userPath(URI.create("http://keycloak/admin/realms/demo/users"))).isNull();
+        assertThat(KeycloakCoalescingFilter.userPath(URI.create("http://keycloak/admin/realms/demo/partialImport")))
+                .isNull();
+    }
+
+    @Test
+    void onlySingleResourceReadsAreCoalesced() {
+        WebClient client = client(Duration.ofSeconds(10));
+        get(client, KeycloakOperation.LIST_USERS).subscribe();
+        get(client, KeycloakOperation.LIST_USERS).subscribe();
+        get(client, KeycloakOperation.GET_ROLE_MAPPINGS).subscribe();
+        get(client, KeycloakOperation.GET_ROLE_MAPPINGS).subscribe();
+
+        assertThat(sent).hasSize(3);
+    }
+
+    @Test
+    void bodiesLargerThanTheCodecLimitAreShared() {
+        WebClient client = client(Duration.ofSeconds(10));
+        // well past the 256 KB default of the in-memory codecs
+        String large = "\"" + "x".repeat(1024 * 1024) + "\"";
+        Mono<Long> first = size(client);
+        Mono<Long> second = size(client);
+        first.subscribe();
+        second.subscribe();
+
+        pending.get(0).tryEmitValue(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(Flux.range(0, large.length() / 8192 + 1)
+                        .map(i -> large.substring(i * 8192, Math.min(large.length(), (i + 1) * 8192)))
+                        .map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.UTF_8))))
+                .build());
+
+        assertThat(sent).hasSize(1);
+        assertThat(first.block()).isEqualTo((long) large.length());
+        assertThat(second.block()).isEqualTo((long) large.length());
+    }
+}
@@ -0,0 +1,37 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class KeycloakHealthIndicatorTests {
+
+    @Test
+    void openBreakerIsReportedWithoutTakingTheInstanceOutOfService() {
+        KeycloakResilienceFilter filter = new KeycloakResilienceFilter(new KeycloakResilienceProperties(
+                Duration.ofSeconds(5), Map.of(),
+                new KeycloakResilienceProperties.Retry(2, Duration.ofMillis(1), Duration.ofMillis(5), 0.5),
+                new KeycloakResilienceProperties.CircuitBreaker(50, Duration.ofSeconds(3), 80, 10, 4,
+                        Duration.ofMinutes(1), 1),
+                new KeycloakResilienceProperties.Bulkhead(10, Map.of())), new SimpleMeterRegistry());
+        KeycloakLoadBalancer loadBalancer = mock(KeycloakLoadBalancer.class);
+        when(loadBalancer.status()).thenReturn(Map.of());
+        KeycloakHealthIndicator indicator = new KeycloakHealthIndicator(filter, loadBalancer);
+
+        filter.circuitBreaker().transitionToOpenState();
+        Health health = indicator.health();
+
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("circuitBreaker", CircuitBreaker.State.OPEN);
+    }
+}
@@ -0,0 +1,172 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoutingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeycloakLoadBalancerTests {
+
+    private final List<Stub> stubs = new ArrayList<>();
+    private KeycloakLoadBalancer loadBalancer;
+
+    @AfterEach
+    void tearDown() {
+        if (loadBalancer != null) {
+            loadBalancer.stop();
+        }
+        stubs.forEach(stub -> stub.server.disposeNow());
+    }
+
+    @Test
+    void slowNodeGetsLessTraffic() {
+        Stub fast = stub(Duration.ofMillis(5), 200);
+        Stub slow = stub(Duration.ofMillis(200), 200);
+        WebClient client = client(routing(false, 5));
+
+        Flux.range(0, 200)
+                .flatMap(i -> get(client), 8)
+                .blockLast();
+
+        assertThat(fast.hits.get() + slow.hits.get()).isEqualTo(200);
+        assertThat(fast.hits.get()).isGreaterThan(160);
+    }
+
+    @Test
+    void hedgedReadsAvoidStalledNode() {
+        Stub fast = stub(Duration.ZERO, 200);
+        Stub stalled = stub(Duration.ofSeconds(5), 200);
+        WebClient client = client(routing(true, 1000));
+
+        long start = System.nanoTime();
+        Flux.range(0, 20)
+                .concatMap(i -> get(client))
+                .blockLast(Duration.ofSeconds(4));
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(4));
+        assertThat(fast.hits.get()).isEqualTo(20);
+    }
+
+    @Test
+    void failingNodeIsEjected() {
+        Stub healthy = stub(Duration.ZERO, 200);
+        Stub failing = stub(Duration.ZERO, 500);
+        WebClient client = client(routing(false, 3));
+
+        List<Integer> statuses = Flux.range(0, 50)
+                .concatMap(i -> get(client))
+                .collectList()
+                .block();
+
+        assertThat(failing.hits.get()).isLessThanOrEqualTo(3);
+        assertThat(statuses).filteredOn(s -> s == 200).hasSize(50 - failing.hits.get());
+        assertThat(healthy.hits.get()).isEqualTo(50 - failing.hits.get());
+    }
+
+    @Test
+    void nodeFailingHealthChecksIsSkipped() throws InterruptedException {
+        Stub healthy = stub(Duration.ZERO, 200);
+        Stub unhealthy = stub(Duration.ZERO, 503);
+        WebClient client = client(routing(false, 1000));
+
+        loadBalancer.start();
+        for (int i = 0; i < 50 && loadBalancer.status().get(unhealthy.url()).get("healthy").equals(true); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(loadBalancer.status().get(unhealthy.url())).containsEntry("healthy", false);
+        int before = unhealthy.hits.get();
+
+        Flux.range(0, 20)
+                .concatMap(i -> get(client))
+                .blockLast();
+
+        assertThat(unhealthy.hits.get()).isEqualTo(before);
+        assertThat(loadBalancer.status().get(healthy.url())).containsEntry("healthy", true);
+    }
+
+    @Test
+    void hedgeBudgetSavesUpAtMostTheBurst() {
+        KeycloakLoadBalancer.HedgeBudget budget = new KeycloakLoadBalancer.HedgeBudget(10, 5);
+
+        assertThat(budget.tryWithdraw()).isFalse();
+        // a long healthy spell earns 100 hedges at 10%, but only 5 are kept
+        for (int i = 0; i < 1000; i++) {
+            budget.deposit();
+        }
+        for (int i = 0; i < 5; i++) {
+            assertThat(budget.tryWithdraw()).isTrue();
+        }
+        assertThat(budget.tryWithdraw()).isFalse();
+
+        // from then on one hedge per ten reads
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertThat(budget.tryWithdraw()).isFalse();
+        budget.deposit();
+        assertThat(budget.tryWithdraw()).isTrue();
+    }
+
+    private Stub stub(Duration delay, int status) {
+        AtomicInteger hits = new AtomicInteger();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle((req, res) -> {
+                    // admin calls only, not health checks
+                    if (req.uri().startsWith("/admin/")) {
+                        hits.incrementAndGet();
+                    }
+                    return Mono.delay(delay).then(res.status(status).sendString(Mono.just("{}")).then());
+                })
+                .bindNow();
+        Stub stub = new Stub(server, hits);
+        stubs.add(stub);
+        return stub;
+    }
+
+    private WebClient client(KeycloakRoutingProperties routing) {
+        KeycloakProperties props = new KeycloakProperties(null, "demo", null, null, "master", "admin-cli",
+                "admin", "admin", stubs.stream().map(Stub::url).toList());
+        loadBalancer = new KeycloakLoadBalancer(props, routing, WebClient.builder(),
+                new ReactorClientHttpConnector(), new SimpleMeterRegistry());
+        return WebClient.builder()
+                .baseUrl(loadBalancer.baseUrl())
+                .filter(loadBalancer)
+                .build();
+    }
+
+    private static Mono<Integer> get(WebClient client) {
+        return client.get()
+                .uri("/admin/realms/demo/users")
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.LIST_USERS)
+                .exchangeToMono(resp -> resp.releaseBody().thenReturn(resp.statusCode().value()));
+    }
+
+    private static KeycloakRoutingProperties routing(boolean hedging, int ejectAfter) {
+        return new KeycloakRoutingProperties(
+                new KeycloakRoutingProperties.HealthCheck(Duration.ofMillis(100), Duration.ofSeconds(1),
+                        "/realms/master", 2, 2),
+                new KeycloakRoutingProperties.Ejection(ejectAfter, Duration.ofSeconds(30), 50),
+                new KeycloakRoutingProperties.Hedging(hedging, 3.0, Duration.ofMillis(50), 100, 10));
+    }
+
+    private record Stub(DisposableServer server, AtomicInteger hits) {
+        String url() {
+            return "http://localhost:" + server.port();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeycloakMetricsFilterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private WebClient client(ExchangeFunction keycloak) {
+        KeycloakResilienceProperties resilience = new KeycloakResilienceProperties(
+                Duration.ofMillis(200), Map.of(),
+                new KeycloakResilienceProperties.Retry(2, Duration.ofMillis(1), Duration.ofMillis(5), 0.5),
+                new KeycloakResilienceProperties.CircuitBreaker(50, Duration.ofSeconds(3), 80, 10, 4,
+                        Duration.ofMinutes(1), 1),
+                new KeycloakResilienceProperties.Bulkhead(10, Map.of()));
+        return WebClient.builder()
+                .exchangeFunction(req -> {
+                    attempts.incrementAndGet();
+                    return keycloak.exchange(req);
+                })
+                .filter(new KeycloakMetricsFilter(registry))
+                .filter(new KeycloakResilienceFilter(resilience, registry))
+                .build();
+    }
+
+    private static Mono<String> get(WebClient client, KeycloakOperation operation) {
+        return client.get()
+                .uri("http://keycloak/admin/realms/demo/users/u1")
+                .attribute(KeycloakOperation.ATTRIBUTE, operation)
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+
+    private static Mono<ClientResponse> status(HttpStatus status) {
+        return Mono.just(ClientResponse.create(status).build());
+    }
+
+    private Timer timer(String operation, String status, String outcome) {
+        return registry.find("keycloak.admin.calls")
+                .tags("operation", operation, "status", status, "outcome", outcome)
+                .timer();
+    }
+
+    @Test
+    void callsAreTaggedWithOperationStatusAndOutcome() {
+        WebClient client = client(req -> req.url().getPath().endsWith("u1")
+                ? status(HttpStatus.OK)
+                : status(HttpStatus.NOT_FOUND));
+
+        get(client, KeycloakOperation.GET_USER).block();
+        get(client, KeycloakOperation.GET_USER).block();
+        assertThatThrownBy(() -> client.delete()
+                .uri("http://keycloak/admin/realms/demo/users/u2")
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.DELETE_USER)
+                .retrieve()
+                .toBodilessEntity()
+                .block());
+
+        assertThat(timer("GET_USER", "200", "SUCCESS").count()).isEqualTo(2);
+        assertThat(timer("DELETE_USER", "404", "CLIENT_ERROR").count()).isEqualTo(1);
+    }
+
+    @Test
+    void retriedCallIsOneSampleWithItsFinalStatus() {
+        WebClient client = client(req -> attempts.get() < 3
+                ? status(HttpStatus.SERVICE_UNAVAILABLE)
+                : status(HttpStatus.OK));
+
+        get(client, KeycloakOperation.GET_USER).block();
+
+        assertThat(attempts).hasValue(3);
+        assertThat(registry.find("keycloak.admin.calls").timers()).singleElement()
+                .satisfies(t -> {
+                    assertThat(t.getId().getTag("status")).isEqualTo("200");
+                    assertThat(t.count()).isEqualTo(1);
+                });
+    }
+
+    @Test
+    void failuresWithoutAResponseAreTaggedByKind() {
+        WebClient client = client(req -> Mono.never());
+
+        assertThatThrownBy(() -> get(client, KeycloakOperation.LIST_USERS).block());
+
+        assertThat(timer("LIST_USERS", "TIMEOUT", "UNKNOWN").count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,158 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeycloakResilienceFilterTests {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private static KeycloakResilienceProperties properties(int maxConcurrentCalls) {
+        return new KeycloakResilienceProperties(
+                Duration.ofMillis(300), Map.of(),
+                new KeycloakResilienceProperties.Retry(2, Duration.ofMillis(1), Duration.ofMillis(5), 0.5),
+                new KeycloakResilienceProperties.CircuitBreaker(50, Duration.ofSeconds(3), 80, 10, 4,
+                        Duration.ofMinutes(1), 1),
+                new KeycloakResilienceProperties.Bulkhead(maxConcurrentCalls, Map.of()));
+    }
+
+    private WebClient client(KeycloakResilienceFilter filter, ExchangeFunction keycloak) {
+        return WebClient.builder()
+                .exchangeFunction(req -> {
+                    calls.incrementAndGet();
+                    return keycloak.exchange(req);
+                })
+                .filter(filter)
+                .build();
+    }
+
+    private static Mono<String> get(WebClient client) {
+        return client.get()
+                .uri("http://keycloak/admin/realms/demo/users/u1")
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.GET_USER)
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+
+    private static Mono<ClientResponse> status(HttpStatus status) {
+        return Mono.just(ClientResponse.create(status).build());
+    }
+
+    private static Mono<ClientResponse> ok(Flux<DataBuffer> body) {
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+    }
+
+    private static Flux<DataBuffer> text(String body) {
+        return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void idempotentCallsAreRetriedOnServerErrors() {
+        KeycloakResilienceFilter filter = new KeycloakResilienceFilter(properties(10), new SimpleMeterRegistry());
+        WebClient client = client(filter, req -> calls.get() < 3
+                ? status(HttpStatus.SERVICE_UNAVAILABLE)
+                : ok(text("\"ok\"")));
+
+        assertThat(get(client).block()).isEqualTo("\"ok\"");
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    void postsAndClientErrorsAreNotRetried() {
+        KeycloakResilienceFilter filter = new KeycloakResilienceFilter(properties(10), new SimpleMeterRegistry());
+        WebClient failing = client(filter, req -> status(HttpStatus.SERVICE_UNAVAILABLE));
+
+        assertThatThrownBy(() -> failing.post()
+                .uri("http://keycloak/admin/realms/demo/users")
+                .attribute(KeycloakOperation.ATTRIBUTE, KeycloakOperation.CREATE_USER)
+                .retrieve()
+                .toBodilessEntity()
+                .block())
+                .isInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+        assertThat(calls).hasValue(1);
+
+        WebClient missing = client(filter, req -> status(HttpStatus.NOT_FOUND));
+        assertThatThrownBy(() -> get(missing).block()).isInstanceOf(WebClientResponseException.NotFound.class);
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void breakerOpensAfterRepeatedFailuresAndFailsFast() {
+        KeycloakResilienceFilter filter = new KeycloakResilienceFilter(properties(10), new SimpleMeterRegistry());
+        WebClient client = client(filter, req -> status(HttpStatus.BAD_GATEWAY));
+
+        // three failed attempts, then the fourth opens the breaker and the retry after it is refused
+        assertThatThrownBy(() -> get(client).block()).isInstanceOf(WebClientResponseException.BadGateway.class);
+        assertThatThrownBy(() -> get(client).block()).isInstanceOf(ResponseStatusException.class);
+        assertThat(filter.circuitBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(calls).hasValue(4);
+
+        int before = calls.get();
+        assertThatThrownBy(() -> get(client).block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(calls).hasValue(before);
+    }
+
+    @Test
+    void bulkheadPermitIsHeldUntilTheBodyIsRead() {
+        KeycloakResilienceFilter filter = new KeycloakResilienceFilter(properties(1), new SimpleMeterRegistry());
+        Sinks.Many<DataBuffer> body = Sinks.many().unicast().onBackpressureBuffer();
+        WebClient client = client(filter, req -> calls.get() == 1 ? ok(body.asFlux()) : ok(text("\"second\"")));
+
+        Mono<String> first = get(client).cache();
+        first.subscribe();
+
+        // headers are in, the body is still streaming: the only permit is taken
+        assertThatThrownBy(() -> get(client).block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getReason()).isEqualTo("Too many concurrent Keycloak calls"));
+
+        body.tryEmitNext(text("\"first\"").blockFirst());
+        body.tryEmitComplete();
+        assertThat(first.block()).isEqualTo("\"first\"");
+        assertThat(get(client).block()).isEqualTo("\"second\"");
+    }
+
+    @Test
+    void timeoutCoversTheResponseBody() {
+        KeycloakResilienceFilter filter = new KeycloakResilienceFilter(properties(1), new SimpleMeterRegistry());
+        WebClient client = client(filter, req -> ok(Flux.never()));
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> get(client).block(Duration.ofSeconds(5)))
+                .hasRootCauseInstanceOf(TimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+
+        // the timed-out call gave its permit back
+        WebClient healthy = client(filter, req -> ok(text("\"ok\"")));
+        assertThat(get(healthy).block()).isEqualTo("\"ok\"");
+    }
+}
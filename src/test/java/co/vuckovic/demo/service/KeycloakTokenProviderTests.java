@@ -0,0 +1,91 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakTokenProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeycloakTokenProviderTests {
+
+    private final KeycloakProperties props = new KeycloakProperties(
+            "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // a single endpoint, so requests pass through without routing settings
+    private final KeycloakLoadBalancer loadBalancer = new KeycloakLoadBalancer(
+            props, null, WebClient.builder(), new ReactorClientHttpConnector(), registry);
+
+    private KeycloakTokenProvider provider(long expiresIn) {
+        WebClient.Builder builder = WebClient.builder().exchangeFunction(req -> {
+            int n = fetches.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body("""
+                                    {"access_token":"token-%d","token_type":"Bearer","expires_in":%d,
+                                     "refresh_token":"refresh-%d","refresh_expires_in":1800}
+                                    """.formatted(n, expiresIn, n))
+                            .build())
+                    .delayElement(Duration.ofMillis(50));
+        });
+        // the exchange function takes precedence over the connector
+        return new KeycloakTokenProvider(
+                props, new KeycloakTokenProperties(Duration.ofSeconds(30), true), builder,
+                new ReactorClientHttpConnector(), loadBalancer, registry);
+    }
+
+    @Test
+    void concurrentCallersShareOneFetch() {
+        KeycloakTokenProvider provider = provider(300);
+
+        var tokens = Flux.range(0, 50)
+                .flatMap(i -> provider.getToken())
+                .collectList()
+                .block();
+
+        assertThat(tokens).hasSize(50).containsOnly("token-1");
+        assertThat(fetches).hasValue(1);
+        assertThat(provider.getToken().block()).isEqualTo("token-1");
+        assertThat(fetches).hasValue(1);
+        provider.shutdown();
+    }
+
+    @Test
+    void invalidatedTokenIsReplaced() {
+        KeycloakTokenProvider provider = provider(300);
+
+        String first = provider.getToken().block();
+        provider.invalidate(first);
+
+        assertThat(provider.getToken().block()).isEqualTo("token-2");
+        assertThat(registry.get("keycloak.token.renewal").tag("grant", "password").timer().count())
+                .isEqualTo(2);
+        provider.shutdown();
+    }
+
+    @Test
+    void tokenNearExpiryIsRenewedWithRefreshGrant() {
+        KeycloakTokenProvider provider = provider(1);
+
+        assertThat(provider.getToken().block()).isEqualTo("token-1");
+
+        // expires_in=1 is already inside the usable margin, so the next caller waits for a new token
+        assertThat(provider.getToken().block()).isEqualTo("token-2");
+        assertThat(registry.get("keycloak.token.renewal").tag("grant", "refresh_token").timer().count())
+                .isEqualTo(1);
+        provider.shutdown();
+    }
+}
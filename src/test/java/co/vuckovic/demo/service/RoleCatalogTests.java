@@ -0,0 +1,93 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RoleCatalogTests {
+
+    private final List<String> realmRoles = new CopyOnWriteArrayList<>(List.of("admin", "user"));
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private RoleCatalog catalog(Duration missReloadInterval) {
+        KeycloakProperties props = new KeycloakProperties(
+                "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+        WebClient client = WebClient.builder().exchangeFunction(req -> {
+            loads.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(realmRoles.stream()
+                                    .map(name -> "{\"id\":\"%s\",\"name\":\"%s\"}".formatted(name, name))
+                                    .collect(Collectors.joining(",", "[", "]")))
+                            .build())
+                    .delayElement(Duration.ofMillis(50));
+        }).build();
+        return new RoleCatalog(client, props,
+                new KeycloakRoleProperties(Duration.ofMinutes(5), missReloadInterval, false,
+                        KeycloakRoleProperties.Enrichment.PER_USER, 8),
+                new KeycloakPagingProperties(100, 1000, 4, true), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void knownRolesResolveFromTheCatalog() {
+        RoleCatalog catalog = catalog(Duration.ZERO);
+
+        assertThat(catalog.resolve(List.of("user", "admin")).block())
+                .extracting(RoleRep::name).containsExactly("user", "admin");
+        assertThat(catalog.resolve(List.of("admin")).block()).hasSize(1);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void roleCreatedAfterLoadResolvesAfterOneReload() {
+        RoleCatalog catalog = catalog(Duration.ZERO);
+        catalog.resolve(List.of("admin")).block();
+        realmRoles.add("auditor");
+
+        assertThat(catalog.resolve(List.of("auditor")).block()).extracting(RoleRep::name).containsExactly("auditor");
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void concurrentMissesShareOneReload() {
+        RoleCatalog catalog = catalog(Duration.ZERO);
+        catalog.resolve(List.of("admin")).block();
+
+        assertThatThrownBy(() -> Flux.range(0, 20)
+                .flatMap(i -> catalog.resolve(List.of("missing")))
+                .blockLast())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void unknownRoleIsRejectedWithoutReloadingARecentCatalog() {
+        RoleCatalog catalog = catalog(Duration.ofMinutes(1));
+        catalog.resolve(List.of("admin")).block();
+
+        assertThatThrownBy(() -> catalog.resolve(List.of("admin", "missing")).block())
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("[missing]");
+        assertThat(loads).hasValue(1);
+    }
+}
@@ -0,0 +1,69 @@
+package co.vuckovic.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoleDiffTests {
+
+    private static final RoleRep DEFAULT_ROLES = role("default-roles-demo");
+    private static final RoleRep ADMIN = role("admin");
+    private static final RoleRep EDITOR = role("editor");
+    private static final RoleRep USER = role("user");
+
+    private static RoleRep role(String name) {
+        return new RoleRep(name + "-id", name, null, false, false, "demo");
+    }
+
+    @Test
+    void unchangedSetIsEmpty() {
+        RoleDiff diff = RoleDiff.between(List.of(USER, ADMIN), List.of(ADMIN, USER));
+
+        assertThat(diff.isEmpty()).isTrue();
+    }
+
+    @Test
+    void addsMissingAndRemovesSurplusRoles() {
+        RoleDiff diff = RoleDiff.between(List.of(USER, EDITOR), List.of(USER, ADMIN));
+
+        assertThat(diff.toAdd()).containsExactly(ADMIN);
+        assertThat(diff.toRemove()).containsExactly(EDITOR);
+        assertThat(diff.isEmpty()).isFalse();
+    }
+
+    @Test
+    void rolesAreComparedByName() {
+        RoleRep sameNameOtherId = new RoleRep("other-id", "admin", "Administrators", false, false, "demo");
+
+        assertThat(RoleDiff.between(List.of(ADMIN), List.of(sameNameOtherId)).isEmpty()).isTrue();
+    }
+
+    @Test
+    void duplicateRequestedRolesAreAddedOnce() {
+        RoleDiff diff = RoleDiff.between(List.of(), List.of(ADMIN, ADMIN));
+
+        assertThat(diff.toAdd()).containsExactly(ADMIN);
+        assertThat(diff.toRemove()).isEmpty();
+    }
+
+    @Test
+    void emptyRequestRemovesEveryDirectRole() {
+        RoleDiff diff = RoleDiff.between(List.of(DEFAULT_ROLES, USER), List.of());
+
+        assertThat(diff.toAdd()).isEmpty();
+        assertThat(diff.toRemove()).containsExactly(DEFAULT_ROLES, USER);
+    }
+
+    @Test
+    void defaultRolesAreKeptOnlyWhenRequested() {
+        // like any direct mapping: the requested set replaces it unless it is listed
+        assertThat(RoleDiff.between(List.of(DEFAULT_ROLES, USER), List.of(USER, ADMIN)).toRemove())
+                .containsExactly(DEFAULT_ROLES);
+
+        RoleDiff kept = RoleDiff.between(List.of(DEFAULT_ROLES, USER), List.of(DEFAULT_ROLES, ADMIN));
+        assertThat(kept.toAdd()).containsExactly(ADMIN);
+        assertThat(kept.toRemove()).containsExactly(USER);
+    }
+}
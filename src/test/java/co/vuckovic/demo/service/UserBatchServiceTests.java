@@ -0,0 +1,93 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakBatchProperties;
+import co.vuckovic.demo.dto.UserBatchResult;
+import co.vuckovic.demo.dto.UserCreateRequest;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserBatchServiceTests {
+
+    private final UserManagementService users = mock(UserManagementService.class);
+
+    private UserBatchService service(int rateLimit) {
+        return new UserBatchService(users, new KeycloakBatchProperties(4, rateLimit), new ObjectMapper());
+    }
+
+    private static List<UserBatchResult> sorted(Flux<UserBatchResult> results) {
+        return results.collectSortedList(Comparator.comparingLong(UserBatchResult::index)).block();
+    }
+
+    @Test
+    void malformedLineFailsAloneAndTheStreamGoesOn() {
+        when(users.createUser(any(UserCreateRequest.class))).thenReturn(Mono.just("new-id"));
+        when(users.deleteUser(anyString())).thenReturn(Mono.empty());
+
+        List<UserBatchResult> results = sorted(service(0).execute(Flux.just(
+                "{\"op\":\"create\",\"user\":{\"username\":\"alice\"}}",
+                "{\"op\":\"create\",\"user\":",
+                "",
+                "{\"op\":\"rename\",\"id\":\"u1\"}",
+                "{\"op\":\"delete\",\"id\":\"u2\"}",
+                "null")));
+
+        assertThat(results).extracting(UserBatchResult::index).containsExactly(0L, 1L, 3L, 4L, 5L);
+        assertThat(results.get(0)).isEqualTo(UserBatchResult.ok(0, "create", "new-id"));
+        assertThat(results.get(1).error()).startsWith("400 Malformed operation");
+        assertThat(results.get(2).error()).startsWith("400 Malformed operation");
+        assertThat(results.get(3)).isEqualTo(UserBatchResult.ok(4, "delete", "u2"));
+        assertThat(results.get(4)).isEqualTo(
+                UserBatchResult.failed(5, null, null, "400 Malformed operation: expected an object"));
+    }
+
+    @Test
+    void failedOperationIsReportedWithItsId() {
+        when(users.deleteUser(anyString()))
+                .thenReturn(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found")));
+
+        List<UserBatchResult> results = sorted(service(0).execute(Flux.just("{\"op\":\"delete\",\"id\":\"gone\"}")));
+
+        assertThat(results).containsExactly(UserBatchResult.failed(0, "delete", "gone", "404 User not found"));
+    }
+
+    @Test
+    void setEnabledRejectsMissingIds() {
+        for (List<String> ids : Arrays.asList(null, List.<String>of(), Arrays.asList("u1", null))) {
+            assertThatThrownBy(() -> service(0).setEnabled(ids, false).blockLast())
+                    .isInstanceOfSatisfying(ResponseStatusException.class,
+                            e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        }
+    }
+
+    @Test
+    void setEnabledIsPacedByTheRateLimit() {
+        when(users.patchUser(anyString(), any(UserPatchRequest.class), isNull())).thenReturn(Mono.empty());
+
+        long start = System.nanoTime();
+        List<UserBatchResult> results = sorted(service(20).setEnabled(List.of("u1", "u2", "u3", "u4"), false));
+
+        // 20 per second: one start every 50ms
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+        assertThat(results).containsExactly(
+                UserBatchResult.ok(0, "disable", "u1"), UserBatchResult.ok(1, "disable", "u2"),
+                UserBatchResult.ok(2, "disable", "u3"), UserBatchResult.ok(3, "disable", "u4"));
+    }
+}
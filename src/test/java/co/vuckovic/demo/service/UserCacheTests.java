@@ -0,0 +1,118 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserCacheTests {
+
+    private final UserCache cache = new UserCache(
+            new KeycloakCacheProperties(true, 100, 100, Duration.ofMinutes(1)), new SimpleMeterRegistry());
+
+    private static Versioned<UserResponse> user(String id, String email) {
+        return new Versioned<>(new UserResponse(id, "user-" + id, email, true, List.of("user"), null, null, null, null),
+                "\"" + email + "\"");
+    }
+
+    private static UserPage page(String... ids) {
+        return new UserPage(List.of(ids).stream().map(id -> new UserSummary(id, "user-" + id)).toList(), null);
+    }
+
+    @Test
+    void readStartedBeforeAWriteIsNotCached() {
+        long stamp = cache.stamp();
+        // the write lands and invalidates while the read is still in flight
+        cache.invalidateUser("u1");
+        cache.putDetail("u1", UserFacet.DEFAULT, user("u1", "old@example.com"), stamp);
+
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT)).isNull();
+
+        cache.putDetail("u1", UserFacet.DEFAULT, user("u1", "new@example.com"), cache.stamp());
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT).etag()).isEqualTo("\"new@example.com\"");
+    }
+
+    @Test
+    void writeToAnotherUserDoesNotBlockThePut() {
+        long stamp = cache.stamp();
+        cache.invalidateUser("u2");
+        cache.putDetail("u1", UserFacet.DEFAULT, user("u1", "a@example.com"), stamp);
+
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT)).isNotNull();
+    }
+
+    @Test
+    void userInvalidationDropsEveryFacetCombinationOfThatUserOnly() {
+        cache.putDetail("u1", UserFacet.DEFAULT, user("u1", "a@example.com"), cache.stamp());
+        cache.putDetail("u1", EnumSet.of(UserFacet.ROLES, UserFacet.GROUPS), user("u1", "a@example.com"), cache.stamp());
+        cache.putDetail("u2", UserFacet.DEFAULT, user("u2", "b@example.com"), cache.stamp());
+        assertThat(cache.getDetail("u1", EnumSet.of(UserFacet.GROUPS, UserFacet.ROLES))).isNotNull();
+
+        cache.invalidateUser("u1");
+
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT)).isNull();
+        assertThat(cache.getDetail("u1", EnumSet.of(UserFacet.ROLES, UserFacet.GROUPS))).isNull();
+        assertThat(cache.getDetail("u2", UserFacet.DEFAULT)).isNotNull();
+    }
+
+    @Test
+    void invalidateAllDropsEveryEarlierRead() {
+        long stamp = cache.stamp();
+        cache.invalidateAll();
+        cache.putDetail("u1", UserFacet.DEFAULT, user("u1", "a@example.com"), stamp);
+        cache.putPage(0, 10, page("u1"), stamp);
+
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT)).isNull();
+        assertThat(cache.getPage(0, 10)).isNull();
+    }
+
+    @Test
+    void userInvalidationKeepsPages() {
+        cache.putPage(0, 10, page("u1", "u2"), cache.stamp());
+        cache.putDetail("u1", UserFacet.DEFAULT, user("u1", "a@example.com"), cache.stamp());
+
+        cache.invalidateUser("u1");
+
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT)).isNull();
+        assertThat(cache.getPage(0, 10)).isNotNull();
+    }
+
+    @Test
+    void pageReadStartedBeforeACreateIsNotCached() {
+        long stamp = cache.stamp();
+        cache.invalidatePages();
+        cache.putPage(0, 10, page("u1"), stamp);
+
+        assertThat(cache.getPage(0, 10)).isNull();
+    }
+
+    @Test
+    void adminEventsOnTheUserResourceDropPages() {
+        cache.putPage(0, 10, page("u1"), cache.stamp());
+        cache.onAdminEvent(new AdminEvent(0, "CREATE", "REALM_ROLE_MAPPING", "users/u1/role-mappings/realm"));
+        assertThat(cache.getPage(0, 10)).isNotNull();
+
+        cache.onAdminEvent(new AdminEvent(0, "UPDATE", "USER", "users/u1"));
+        assertThat(cache.getPage(0, 10)).isNull();
+    }
+
+    @Test
+    void partialAndSessionResponsesAreNotCached() {
+        var partial = new Versioned<>(new UserResponse("u1", "user-u1", null, true, List.of("user"), null, null, null,
+                List.of(UserFacet.GROUPS)), "\"1\"");
+        cache.putDetail("u1", UserFacet.DEFAULT, partial, cache.stamp());
+        cache.putDetail("u1", EnumSet.of(UserFacet.SESSIONS), user("u1", "a@example.com"), cache.stamp());
+
+        assertThat(cache.getDetail("u1", UserFacet.DEFAULT)).isNull();
+        assertThat(cache.getDetail("u1", EnumSet.of(UserFacet.SESSIONS))).isNull();
+    }
+}
@@ -0,0 +1,158 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.dto.UserSearchQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserDirectoryTests {
+
+    private static final UserDirectory.User ALICE = new UserDirectory.User("u1", "alice", "alice@example.com",
+            "Alice", "Smith", true, Map.of("department", List.of("sales")), List.of("user"), List.of());
+    private static final UserDirectory.User BOB = new UserDirectory.User("u2", "bob", "bob@example.org",
+            "Bob", "Jones", false, null, List.of("admin"), List.of());
+    // editor only through a group
+    private static final UserDirectory.User CAROL = new UserDirectory.User("u3", "carol", "carol@example.com",
+            "Carol", "Alison", true, null, List.of(), List.of("editor"));
+    private static final UserDirectory.User ALINA = new UserDirectory.User("u4", "alina", null,
+            null, null, true, null, List.of("unknown-role"), List.of());
+
+    private final UserDirectory directory = directory();
+
+    private static UserDirectory directory() {
+        // admin grants editor, editor grants user
+        UserDirectory directory = new UserDirectory(List.of("user", "editor", "admin"),
+                Map.of("admin", List.of("editor"), "editor", List.of("user")));
+        for (UserDirectory.User user : List.of(ALICE, BOB, CAROL, ALINA)) {
+            directory.put(user);
+        }
+        return directory;
+    }
+
+    private static UserSearchQuery search(String search) {
+        return new UserSearchQuery(search, null, null, null, null, null, null);
+    }
+
+    private List<String> usernames(UserSearchQuery query) {
+        return directory.search(query, 0, 100).stream().map(UserDirectory.User::username).toList();
+    }
+
+    @Test
+    void usersAreFoundByIdAndUnknownRolesDropped() {
+        assertThat(directory.size()).isEqualTo(4);
+        assertThat(directory.get("u1")).isEqualTo(ALICE);
+        assertThat(directory.get("u4").roles()).isEmpty();
+        assertThat(directory.get("missing")).isNull();
+    }
+
+    @Test
+    void replacingAUserMovesItsIndexEntries() {
+        directory.put(new UserDirectory.User("u1", "alicia", "alicia@example.com", "Alicia", "Smith", false,
+                null, List.of("admin"), List.of()));
+
+        assertThat(directory.size()).isEqualTo(4);
+        assertThat(usernames(new UserSearchQuery(null, "alice", null, null, true, null, null))).isEmpty();
+        assertThat(usernames(new UserSearchQuery(null, "alicia", null, null, true, null, null))).containsExactly("alicia");
+        assertThat(usernames(new UserSearchQuery(null, null, null, null, null, null, "user"))).isEmpty();
+        assertThat(usernames(new UserSearchQuery(null, null, null, null, null, null, "admin"))).containsExactly("alicia", "bob");
+    }
+
+    @Test
+    void removedSlotIsReused() {
+        assertThat(directory.remove("u2")).isTrue();
+        assertThat(directory.remove("u2")).isFalse();
+        assertThat(directory.size()).isEqualTo(3);
+        assertThat(usernames(search("bob"))).isEmpty();
+
+        directory.put(new UserDirectory.User("u5", "dave", null, null, null, true, null, List.of(), List.of()));
+        assertThat(directory.size()).isEqualTo(4);
+        assertThat(directory.page(0, 10)).extracting(UserDirectory.User::username)
+                .containsExactly("alice", "alina", "carol", "dave");
+    }
+
+    @Test
+    void effectiveRolesExpandDirectAndInheritedRoles() {
+        assertThat(directory.effectiveRoles("u1")).containsExactly("user");
+        assertThat(directory.effectiveRoles("u2")).containsExactly("user", "editor", "admin");
+        assertThat(directory.effectiveRoles("u3")).containsExactly("user", "editor");
+        assertThat(directory.effectiveRoles("u4")).isEmpty();
+        assertThat(directory.effectiveRoles("missing")).isNull();
+    }
+
+    @Test
+    void roleFilterListsDirectMembersOnly() {
+        // like Keycloak's role member list: carol holds editor through a group only
+        assertThat(usernames(new UserSearchQuery(null, null, null, null, null, null, "editor"))).isEmpty();
+        assertThat(usernames(new UserSearchQuery(null, null, null, null, null, null, "user"))).containsExactly("alice");
+        assertThat(usernames(new UserSearchQuery(null, null, null, null, null, null, "nope"))).isEmpty();
+    }
+
+    @Test
+    void searchTermIsAPrefixOfAnyNameField() {
+        // username, username, last name
+        assertThat(usernames(search("ali"))).containsExactly("alice", "alina", "carol");
+        assertThat(usernames(search("ALI smi"))).containsExactly("alice");
+        assertThat(usernames(search("example"))).isEmpty();
+    }
+
+    @Test
+    void quotedTermMatchesExactly() {
+        assertThat(usernames(search("\"alice\""))).containsExactly("alice");
+        assertThat(usernames(search("\"bob@example.org\""))).containsExactly("bob");
+        assertThat(usernames(search("\"ali\""))).isEmpty();
+    }
+
+    @Test
+    void asteriskIsAWildcard() {
+        assertThat(usernames(search("a*e"))).containsExactly("alice");
+        assertThat(usernames(search("*son"))).containsExactly("carol");
+        assertThat(usernames(search("*@example.com"))).containsExactly("alice", "carol");
+    }
+
+    @Test
+    void usernameAndEmailFiltersAreSubstringsUnlessExact() {
+        assertThat(usernames(new UserSearchQuery(null, "li", null, null, null, null, null))).containsExactly("alice", "alina");
+        assertThat(usernames(new UserSearchQuery(null, "li", null, null, true, null, null))).isEmpty();
+        assertThat(usernames(new UserSearchQuery(null, "ALICE", null, null, true, null, null))).containsExactly("alice");
+        assertThat(usernames(new UserSearchQuery(null, null, "example.com", null, null, null, null))).containsExactly("alice", "carol");
+        assertThat(usernames(new UserSearchQuery(null, null, "Bob@Example.org", null, true, null, null))).containsExactly("bob");
+        assertThat(usernames(new UserSearchQuery(null, null, null, false, null, null, null))).containsExactly("bob");
+    }
+
+    @Test
+    void pagesFollowUsernameOrder() {
+        assertThat(directory.page(1, 2)).extracting(UserDirectory.User::username).containsExactly("alina", "bob");
+        assertThat(directory.pageAfter("alina", 2)).extracting(UserDirectory.User::username).containsExactly("bob", "carol");
+        assertThat(directory.pageAfter("", 1)).extracting(UserDirectory.User::username).containsExactly("alice");
+        assertThat(directory.search(search("ali"), 1, 1)).extracting(UserDirectory.User::username).containsExactly("alina");
+    }
+
+    @Test
+    void snapshotRoundTrip(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("replica.snapshot");
+        Instant syncedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        directory.writeTo(file, "demo", 42, syncedAt);
+
+        UserDirectory.Snapshot snapshot = UserDirectory.readFrom(file);
+
+        assertThat(snapshot.realm()).isEqualTo("demo");
+        assertThat(snapshot.watermark()).isEqualTo(42);
+        assertThat(snapshot.syncedAt()).isEqualTo(syncedAt);
+        UserDirectory restored = snapshot.directory();
+        assertThat(restored.size()).isEqualTo(4);
+        assertThat(restored.roleNames()).containsExactly("user", "editor", "admin");
+        for (String id : List.of("u1", "u2", "u3", "u4")) {
+            assertThat(restored.get(id)).isEqualTo(directory.get(id));
+            assertThat(restored.effectiveRoles(id)).isEqualTo(directory.effectiveRoles(id));
+        }
+        assertThat(restored.search(search("ali"), 0, 10)).isEqualTo(directory.search(search("ali"), 0, 10));
+    }
+}
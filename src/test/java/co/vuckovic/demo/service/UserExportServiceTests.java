@@ -0,0 +1,201 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakExportProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.dto.UserExport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserExportServiceTests {
+
+    private static final String USERS = "/admin/realms/demo/users";
+    private static final int USER_COUNT = 25;
+
+    @TempDir
+    private Path directory;
+
+    private final List<Integer> pageRequests = new CopyOnWriteArrayList<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile int failingPage = -1;
+    private volatile Duration pageDelay = Duration.ZERO;
+    private UserExportService service;
+
+    private final WebClient keycloak = WebClient.builder().exchangeFunction(req -> {
+        String path = req.url().getPath();
+        if (path.equals(USERS + "/count")) {
+            return json(String.valueOf(USER_COUNT));
+        }
+        if (path.endsWith("/role-mappings/realm/composite")) {
+            return json("[{\"name\":\"user\"}]");
+        }
+        var query = UriComponentsBuilder.fromUri(req.url()).build().getQueryParams();
+        int first = Integer.parseInt(query.getFirst("first"));
+        int max = Integer.parseInt(query.getFirst("max"));
+        pageRequests.add(first);
+        if (first == failingPage) {
+            return Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build());
+        }
+        return json(IntStream.range(first, Math.min(USER_COUNT, first + max))
+                .mapToObj(i -> "{\"id\":\"id-%d\",\"username\":\"user%d\",\"enabled\":true}".formatted(i, i))
+                .collect(Collectors.joining(",", "[", "]")))
+                .delayElement(pageDelay);
+    }).build();
+
+    private static Mono<ClientResponse> json(String body) {
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+    }
+
+    private UserExportService service() {
+        KeycloakProperties props = new KeycloakProperties(
+                "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+        KeycloakRoleProperties roleProps = new KeycloakRoleProperties(
+                Duration.ofMinutes(5), Duration.ofSeconds(5), false, KeycloakRoleProperties.Enrichment.PER_USER, 8);
+        KeycloakPagingProperties pagingProps = new KeycloakPagingProperties(10, 100, 4, true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UserRoleEnricher enricher = new UserRoleEnricher(keycloak, props, roleProps, pagingProps,
+                new RoleCatalog(keycloak, props, roleProps, pagingProps, registry), registry);
+        service = new UserExportService(keycloak, props, new KeycloakExportProperties(directory, 10, 2, 4),
+                enricher, objectMapper, registry);
+        return service;
+    }
+
+    @AfterEach
+    void stop() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private static UserExport awaitFinished(UserExportService service, String name) throws InterruptedException {
+        Instant deadline = Instant.now().plusSeconds(5);
+        UserExport export = service.status(name).block();
+        while (export.state() == UserExport.State.RUNNING && Instant.now().isBefore(deadline)) {
+            Thread.sleep(20);
+            export = service.status(name).block();
+        }
+        return export;
+    }
+
+    private static List<String> usernames(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .map(line -> line.replaceAll(".*\"username\":\"([^\"]+)\".*", "$1"))
+                    .toList();
+        }
+    }
+
+    private static List<String> users(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "user" + i).toList();
+    }
+
+    @Test
+    void completedExportIsRenamedFromPart() throws Exception {
+        UserExportService service = service();
+
+        service.start("all").block();
+        UserExport done = awaitFinished(service, "all");
+
+        assertThat(done.state()).isEqualTo(UserExport.State.COMPLETED);
+        assertThat(done.rows()).isEqualTo(USER_COUNT);
+        assertThat(done.totalUsers()).isEqualTo(USER_COUNT);
+        assertThat(usernames(directory.resolve("all.ndjson.gz"))).isEqualTo(users(0, USER_COUNT));
+        try (var files = Files.list(directory)) {
+            assertThat(files).extracting(p -> p.getFileName().toString()).containsExactly("all.ndjson.gz");
+        }
+    }
+
+    @Test
+    void failureMidRunKeepsTheEarlierPages() throws Exception {
+        failingPage = 20;
+        UserExportService service = service();
+
+        service.start("partial").block();
+        UserExport failed = awaitFinished(service, "partial");
+
+        assertThat(failed.state()).isEqualTo(UserExport.State.FAILED);
+        assertThat(failed.rows()).isEqualTo(20);
+        assertThat(usernames(directory.resolve("partial.ndjson.gz.part"))).isEqualTo(users(0, 20));
+        assertThat(objectMapper.readValue(directory.resolve("partial.ndjson.gz.checkpoint").toFile(),
+                UserExportService.Checkpoint.class).nextUser()).isEqualTo(20);
+        assertThat(directory.resolve("partial.ndjson.gz")).doesNotExist();
+    }
+
+    @Test
+    void restartCutsBackToTheCheckpointAndResumesAtItsNextUser() throws Exception {
+        failingPage = 20;
+        service().start("resumed").block();
+        awaitFinished(service, "resumed");
+        // a page written after the last checkpoint, e.g. before a crash
+        Files.write(directory.resolve("resumed.ndjson.gz.part"), new byte[64 * 1024], StandardOpenOption.APPEND);
+
+        failingPage = -1;
+        pageRequests.clear();
+        UserExportService restarted = service();
+        restarted.start("resumed").block();
+        UserExport done = awaitFinished(restarted, "resumed");
+
+        assertThat(done.state()).isEqualTo(UserExport.State.COMPLETED);
+        assertThat(done.resumedFrom()).isEqualTo(20);
+        assertThat(pageRequests).first().isEqualTo(20);
+        assertThat(pageRequests).doesNotContain(0, 10);
+        assertThat(usernames(directory.resolve("resumed.ndjson.gz"))).isEqualTo(users(0, USER_COUNT));
+        assertThat(Files.size(directory.resolve("resumed.ndjson.gz"))).isEqualTo(done.bytes());
+        assertThat(directory.resolve("resumed.ndjson.gz.checkpoint")).doesNotExist();
+    }
+
+    @Test
+    void conflictingStartsAreRejected() throws Exception {
+        pageDelay = Duration.ofMillis(200);
+        UserExportService service = service();
+
+        service.start("first").block();
+        assertThatThrownBy(() -> service.start("second").block())
+                .isInstanceOfSatisfying(ResponseStatusException.class, e -> {
+                    assertThat(e.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+                    assertThat(e.getReason()).isEqualTo("Export first is still running");
+                });
+        assertThat(awaitFinished(service, "first").state()).isEqualTo(UserExport.State.COMPLETED);
+
+        assertThatThrownBy(() -> service.start("first").block())
+                .isInstanceOfSatisfying(ResponseStatusException.class, e -> {
+                    assertThat(e.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+                    assertThat(e.getReason()).isEqualTo("Export first already exists");
+                });
+        assertThatThrownBy(() -> service.start("../etc").block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+}
@@ -0,0 +1,159 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.config.KeycloakHttpConfig;
+import co.vuckovic.demo.config.KeycloakHttpProperties;
+import co.vuckovic.demo.config.KeycloakImportProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakResilienceProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.dto.UserImportFailure;
+import co.vuckovic.demo.dto.UserImportPolicy;
+import co.vuckovic.demo.dto.UserImportProgress;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserImportServiceTests {
+
+    private static final String IMPORTED = "{\"added\":1,\"skipped\":0,\"overwritten\":0}";
+
+    private final KeycloakProperties props = new KeycloakProperties(
+            "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private UserImportService service(WebClient client) {
+        KeycloakRoleProperties roleProps = new KeycloakRoleProperties(
+                Duration.ofMinutes(5), Duration.ofSeconds(5), false, KeycloakRoleProperties.Enrichment.PER_USER, 8);
+        return new UserImportService(client, props, new KeycloakImportProperties(10, 2),
+                new RoleCatalog(client, props, roleProps, new KeycloakPagingProperties(10, 100, 4, true), registry),
+                new UserCache(new KeycloakCacheProperties(false, 100, 100, Duration.ofMinutes(1)), registry),
+                new ObjectMapper(), registry);
+    }
+
+    @Test
+    void plainFieldsAreSplitAndTrimmed() {
+        assertThat(UserImportService.splitCsv("alice, a@example.com ,secret,user;editor"))
+                .containsExactly("alice", "a@example.com", "secret", "user;editor");
+    }
+
+    @Test
+    void quotedFieldsMayContainCommas() {
+        assertThat(UserImportService.splitCsv("\"smith, john\",j@example.com,\"a,b,c\""))
+                .containsExactly("smith, john", "j@example.com", "a,b,c");
+    }
+
+    @Test
+    void doubledQuotesBecomeOneQuote() {
+        assertThat(UserImportService.splitCsv("\"say \"\"hi\"\"\",\"\"\"\",x"))
+                .containsExactly("say \"hi\"", "\"", "x");
+    }
+
+    @Test
+    void emptyAndTrailingFieldsAreKept() {
+        assertThat(UserImportService.splitCsv("alice,,\"\","))
+                .containsExactly("alice", "", "", "");
+        assertThat(UserImportService.splitCsv("")).containsExactly("");
+    }
+
+    @Test
+    void headerColumnsAreCaseInsensitiveAndMayBeQuoted() {
+        assertThat(UserImportService.columns(" Username ,\"EMAIL\",roles"))
+                .containsEntry("username", 0)
+                .containsEntry("email", 1)
+                .containsEntry("roles", 2)
+                .hasSize(3);
+    }
+
+    @Test
+    void headerWithoutUsernameIsRejected() {
+        for (String header : new String[]{"email,password", "", "\"user,name\",email"}) {
+            assertThatThrownBy(() -> UserImportService.columns(header))
+                    .as(header)
+                    .isInstanceOfSatisfying(ResponseStatusException.class, e -> {
+                        assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+                        assertThat(e.getReason()).isEqualTo("CSV header must name a username column");
+                    });
+        }
+    }
+
+    @Test
+    void nullLineIsReportedAsMalformedAndTheRestIsImported() {
+        WebClient keycloak = WebClient.builder()
+                .exchangeFunction(req -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .body(IMPORTED)
+                        .build()))
+                .build();
+
+        List<UserImportProgress> progress = service(keycloak)
+                .importNdjson(Flux.just("null", "{\"username\":\"bob\"}"), UserImportPolicy.SKIP)
+                .collectList()
+                .block();
+
+        assertThat(progress).singleElement().satisfies(p -> {
+            assertThat(p.added()).isEqualTo(1);
+            assertThat(p.failures()).containsExactly(
+                    new UserImportFailure(1, null, "Malformed line: expected an object"));
+        });
+    }
+
+    @Test
+    void partialImportMayOutlastTheConnectorResponseTimeout() {
+        // scaled down: a 200ms response-timeout, a 2s partial-import budget and a 600ms import
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .route(r -> r.post("/admin/realms/demo/partialImport", (req, res) -> req.receive().then()
+                        .then(res.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                .sendString(Mono.just(IMPORTED).delayElement(Duration.ofMillis(600)))
+                                .then())))
+                .bindNow();
+        KeycloakHttpProperties http = new KeycloakHttpProperties(10, 100, Duration.ofSeconds(1),
+                Duration.ofSeconds(30), Duration.ofMinutes(5), Duration.ofSeconds(30), true,
+                Duration.ofSeconds(1), Duration.ofMillis(200), Duration.ofMillis(200), false, false, false);
+        KeycloakHttpConfig config = new KeycloakHttpConfig(http, registry);
+        ConnectionProvider provider = config.keycloakConnectionProvider();
+        KeycloakResilienceFilter resilience = new KeycloakResilienceFilter(new KeycloakResilienceProperties(
+                Duration.ofMillis(200), Map.of(KeycloakOperation.PARTIAL_IMPORT, Duration.ofSeconds(2)),
+                new KeycloakResilienceProperties.Retry(2, Duration.ofMillis(1), Duration.ofMillis(5), 0.5),
+                new KeycloakResilienceProperties.CircuitBreaker(50, Duration.ofSeconds(3), 80, 10, 4,
+                        Duration.ofMinutes(1), 1),
+                new KeycloakResilienceProperties.Bulkhead(10, Map.of())), registry);
+        try {
+            WebClient keycloak = WebClient.builder()
+                    .clientConnector(config.keycloakHttpConnector(provider))
+                    .baseUrl("http://localhost:" + server.port())
+                    .filter(resilience)
+                    .build();
+
+            UserImportProgress progress = service(keycloak)
+                    .importNdjson(Flux.just("{\"username\":\"bob\"}"), UserImportPolicy.SKIP)
+                    .blockLast();
+
+            assertThat(progress.failed()).isZero();
+            assertThat(progress.added()).isEqualTo(1);
+        } finally {
+            provider.dispose();
+            server.disposeNow();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakAdminEventProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakReplicaProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserReplicaTests {
+
+    private static final String REALM = "/admin/realms/demo";
+
+    private final KeycloakProperties props = new KeycloakProperties(
+            "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+    // keyed by path; paged lists are served whole on their first page
+    private final Map<String, String> realm = new ConcurrentHashMap<>();
+    private final Map<String, HttpStatus> failing = new ConcurrentHashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    private UserReplica replica;
+
+    UserReplicaTests() {
+        realm.put(REALM + "/roles", """
+                [{"name":"user"},{"name":"editor","composite":true},{"name":"admin"}]""");
+        realm.put(REALM + "/roles/editor/composites/realm", "[{\"name\":\"user\"}]");
+        realm.put(REALM + "/roles/user/users", "[{\"id\":\"u1\"}]");
+        realm.put(REALM + "/users", """
+                [{"id":"u1","username":"alice","email":"alice@example.com","enabled":true},
+                 {"id":"u2","username":"bob","enabled":true},
+                 {"id":"u3","username":"carol","enabled":true}]""");
+        // staff > editors maps editor; ops only reports its child, which maps admin
+        realm.put(REALM + "/groups", """
+                [{"id":"staff","realmRoles":[],"subGroups":[{"id":"editors","realmRoles":["editor"],"subGroups":[]}]},
+                 {"id":"ops","subGroupCount":1}]""");
+        realm.put(REALM + "/groups/ops/children", "[{\"id\":\"oncall\",\"realmRoles\":[\"admin\"]}]");
+        realm.put(REALM + "/groups/editors/members", "[{\"id\":\"u2\"}]");
+        realm.put(REALM + "/groups/oncall/members", "[{\"id\":\"u3\"}]");
+    }
+
+    private Mono<ClientResponse> exchange(ClientRequest request) {
+        String path = request.url().getPath();
+        requests.add(path);
+        HttpStatus status = failing.get(path);
+        if (status != null) {
+            return Mono.just(ClientResponse.create(status).build());
+        }
+        String query = request.url().getQuery();
+        String body = query != null && query.contains("first=") && !query.contains("first=0")
+                ? "[]"
+                : realm.getOrDefault(path, path.startsWith(REALM + "/users/") ? null : "[]");
+        if (body == null) {
+            return Mono.just(ClientResponse.create(HttpStatus.NOT_FOUND).build());
+        }
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+    }
+
+    private UserReplica start(Duration maxStaleness) {
+        WebClient client = WebClient.builder().baseUrl(props.serverUrl()).exchangeFunction(this::exchange).build();
+        KeycloakAdminEventProperties eventProps =
+                new KeycloakAdminEventProperties(true, Duration.ofSeconds(10), 100, Duration.ofMinutes(1));
+        replica = new UserReplica(client, props,
+                new KeycloakReplicaProperties(true, maxStaleness, Duration.ofHours(6), dir.resolve("replica.snapshot"),
+                        Duration.ofHours(1), Duration.ofHours(1), 4),
+                new KeycloakPagingProperties(10, 100, 4, true), eventProps,
+                new AdminEventPoller(client, props, eventProps, event -> {}), new SimpleMeterRegistry());
+        replica.start();
+        return replica;
+    }
+
+    @AfterEach
+    void stop() {
+        if (replica != null) {
+            replica.stop();
+        }
+    }
+
+    /** One user as {@code GET users/{id}} and its role mapping endpoints answer. */
+    private void serve(String id, String json, String directRoles, String effectiveRoles) {
+        realm.put(REALM + "/users/" + id, json);
+        realm.put(REALM + "/users/" + id + "/role-mappings/realm", directRoles);
+        realm.put(REALM + "/users/" + id + "/role-mappings/realm/composite", effectiveRoles);
+    }
+
+    private List<String> effectiveRoles(String id) {
+        return replica.read(d -> d.effectiveRoles(id));
+    }
+
+    private UserDirectory.User stored(String id) {
+        return replica.read(d -> d.get(id));
+    }
+
+    private static void poll(UserReplica replica, AdminEvent... events) {
+        Instant polledAt = Instant.now();
+        for (AdminEvent event : events) {
+            replica.onAdminEvent(event);
+        }
+        replica.onAdminEventsPolled(new AdminEventsPolled(0, polledAt));
+    }
+
+    private static AdminEvent userUpdated(String id) {
+        return new AdminEvent(0, "UPDATE", "USER", "users/" + id);
+    }
+
+    @Test
+    void fullLoadIncludesRolesGrantedThroughGroups() {
+        UserReplica replica = start(Duration.ofSeconds(30));
+
+        assertThat(replica.isFresh()).isTrue();
+        assertThat(effectiveRoles("u1")).containsExactly("user");
+        // editor through staff > editors, and user through editor
+        assertThat(effectiveRoles("u2")).containsExactly("user", "editor");
+        // admin through ops > oncall, a child only listed on request
+        assertThat(effectiveRoles("u3")).containsExactly("admin");
+        // groups without realm roles above or on them are not walked for members
+        assertThat(requests).doesNotContain(REALM + "/groups/staff/members", REALM + "/groups/ops/members");
+    }
+
+    @Test
+    void catchUpReReadsMarkedUsersWithTheirEffectiveRoles() {
+        UserReplica replica = start(Duration.ofSeconds(30));
+        serve("u1", "{\"id\":\"u1\",\"username\":\"alice\",\"email\":\"alice@new.example.com\",\"enabled\":true}",
+                "[{\"name\":\"user\"}]", "[{\"name\":\"user\"},{\"name\":\"admin\"}]");
+
+        // events alone change nothing until the poll that reported them has ended
+        replica.onAdminEvent(userUpdated("u1"));
+        assertThat(stored("u1").email()).isEqualTo("alice@example.com");
+
+        replica.onAdminEventsPolled(new AdminEventsPolled(0, Instant.now()));
+        assertThat(stored("u1").email()).isEqualTo("alice@new.example.com");
+        assertThat(effectiveRoles("u1")).containsExactly("user", "admin");
+        assertThat(stored("u1").roles()).containsExactly("user");
+    }
+
+    @Test
+    void failedReadKeepsTheUserMarkedAndTheReplicaStale() throws InterruptedException {
+        UserReplica replica = start(Duration.ofMillis(200));
+        Thread.sleep(300);
+        assertThat(replica.isFresh()).isFalse();
+
+        serve("u2", "{\"id\":\"u2\",\"username\":\"bob\",\"enabled\":false}", "[]", "[]");
+        failing.put(REALM + "/users/u2", HttpStatus.BAD_GATEWAY);
+        poll(replica, userUpdated("u2"));
+        assertThat(replica.isFresh()).isFalse();
+        assertThat(stored("u2").enabled()).isTrue();
+
+        // the next poll retries the user without a new event
+        failing.clear();
+        poll(replica);
+        assertThat(replica.isFresh()).isTrue();
+        assertThat(stored("u2").enabled()).isFalse();
+    }
+
+    @Test
+    void userGoneFromKeycloakIsRemoved() {
+        UserReplica replica = start(Duration.ofSeconds(30));
+
+        poll(replica, new AdminEvent(0, "DELETE", "USER", "users/u3"));
+
+        assertThat(stored("u3")).isNull();
+        assertThat(replica.<Integer>read(UserDirectory::size)).isEqualTo(2);
+    }
+
+    @Test
+    void groupRoleChangeReloadsEveryUser() {
+        UserReplica replica = start(Duration.ofSeconds(30));
+        long userPages = requests.stream().filter((REALM + "/users")::equals).count();
+
+        realm.put(REALM + "/groups", """
+                [{"id":"staff","realmRoles":[],"subGroups":[{"id":"editors","realmRoles":["admin"],"subGroups":[]}]}]""");
+        poll(replica, new AdminEvent(0, "CREATE", "REALM_ROLE_MAPPING", "groups/editors/role-mappings/realm"));
+
+        assertThat(requests.stream().filter((REALM + "/users")::equals).count()).isEqualTo(userPages + 1);
+        assertThat(effectiveRoles("u2")).containsExactly("admin");
+        assertThat(effectiveRoles("u3")).isEmpty();
+    }
+}
@@ -0,0 +1,114 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties.Enrichment;
+import co.vuckovic.demo.dto.UserResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserRoleEnricherTests {
+
+    private static final String REALM = "/admin/realms/demo";
+    private static final int USERS = 20;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<String, String> groupsByRole = new ConcurrentHashMap<>();
+
+    private final WebClient keycloak = WebClient.builder().exchangeFunction(req -> {
+        String path = req.url().getPath();
+        var query = UriComponentsBuilder.fromUri(req.url()).build().getQueryParams();
+        int first = Integer.parseInt(query.getOrDefault("first", List.of("0")).get(0));
+        String body;
+        if (path.equals(REALM + "/users/count")) {
+            body = String.valueOf(USERS);
+        } else if (path.equals(REALM + "/users")) {
+            int max = Integer.parseInt(query.getFirst("max"));
+            body = users(IntStream.range(first, Math.min(USERS, first + max)));
+        } else if (path.equals(REALM + "/roles")) {
+            body = first == 0 ? roles(List.of("user", "admin")) : "[]";
+        } else if (path.equals(REALM + "/roles/user/users")) {
+            body = first == 0 ? users(IntStream.range(0, USERS)) : "[]";
+        } else if (path.endsWith("/groups")) {
+            body = groupsByRole.getOrDefault(path.split("/")[5], "[]");
+        } else if (path.endsWith("/role-mappings/realm/composite")) {
+            // u0 is an admin through a group only
+            body = roles(path.contains("/users/u0/") && !groupsByRole.isEmpty()
+                    ? List.of("user", "admin") : List.of("user"));
+        } else {
+            body = "[]";
+        }
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+    }).build();
+
+    private static String users(IntStream ids) {
+        return ids.mapToObj(i -> "{\"id\":\"u%d\",\"username\":\"user%d\"}".formatted(i, i))
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private static String roles(List<String> names) {
+        return names.stream().map(n -> "{\"id\":\"%s\",\"name\":\"%s\"}".formatted(n, n))
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private UserRoleEnricher enricher(Enrichment enrichment) {
+        KeycloakProperties props = new KeycloakProperties(
+                "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+        KeycloakRoleProperties roleProps = new KeycloakRoleProperties(
+                Duration.ofMinutes(5), Duration.ofSeconds(5), false, enrichment, 8);
+        KeycloakPagingProperties pagingProps = new KeycloakPagingProperties(100, 1000, 4, true);
+        return new UserRoleEnricher(keycloak, props, roleProps, pagingProps,
+                new RoleCatalog(keycloak, props, roleProps, pagingProps, registry), registry);
+    }
+
+    private double listings(String strategy) {
+        return registry.get("keycloak.roles.enrichment").tag("strategy", strategy).counter().count();
+    }
+
+    private static List<String> rolesOf(List<UserResponse> users, String id) {
+        return users.stream().filter(u -> u.id().equals(id)).findFirst().orElseThrow().roles();
+    }
+
+    @Test
+    void autoUsesBulkWhenNoGroupMapsARealmRole() {
+        List<UserResponse> users = enricher(Enrichment.AUTO).streamUsers(10).collectList().block();
+
+        assertThat(users).hasSize(USERS);
+        assertThat(rolesOf(users, "u0")).containsExactly("user");
+        assertThat(listings("bulk")).isEqualTo(1);
+        assertThat(listings("per-user")).isZero();
+    }
+
+    @Test
+    void autoFallsBackToPerUserWhenAGroupMapsARealmRole() {
+        groupsByRole.put("admin", "[{\"id\":\"g1\"}]");
+
+        List<UserResponse> users = enricher(Enrichment.AUTO).streamUsers(10).collectList().block();
+
+        assertThat(users).hasSize(USERS);
+        assertThat(rolesOf(users, "u0")).containsExactly("admin", "user");
+        assertThat(listings("per-user")).isEqualTo(1);
+        assertThat(listings("bulk")).isZero();
+    }
+}
@@ -0,0 +1,104 @@
+package co.vuckovic.demo.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserSummaryTranscoderTests {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** Feeds the input in chunks of {@code chunk} bytes and returns the transcoded output. */
+    private static String transcode(String json, int chunk) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        try (UserSummaryTranscoder transcoder = new UserSummaryTranscoder(FACTORY)) {
+            for (int from = 0; from < bytes.length; from += chunk) {
+                transcoder.feed(ByteBuffer.wrap(Arrays.copyOfRange(bytes, from, Math.min(bytes.length, from + chunk))));
+            }
+            return new String(transcoder.finish(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String transcode(String json) {
+        return transcode(json, Integer.MAX_VALUE);
+    }
+
+    @Test
+    void keepsOnlyIdAndUsername() {
+        String users = """
+                [{"id":"u1","createdTimestamp":1700000000000,"username":"alice","enabled":true,"email":"a@example.com"},
+                 {"id":"u2","username":"bob","emailVerified":false}]""";
+
+        assertThat(transcode(users)).isEqualTo("{\"id\":\"u1\",\"username\":\"alice\"},{\"id\":\"u2\",\"username\":\"bob\"}");
+    }
+
+    @Test
+    void nestedObjectsAndArraysAreSkipped() {
+        // fields named id or username below the user must not leak into the summary
+        String users = """
+                [{"id":"u1",
+                  "attributes":{"id":["attr-id"],"username":["attr-name"],"nested":{"id":"deep"}},
+                  "access":{"manageGroupMembership":true,"view":true},
+                  "requiredActions":[],
+                  "credentials":[{"id":"c1","type":"password"},[{"username":"x"}]],
+                  "username":"alice",
+                  "notBefore":0}]""";
+
+        assertThat(transcode(users)).isEqualTo("{\"id\":\"u1\",\"username\":\"alice\"}");
+    }
+
+    @Test
+    void missingIdOrUsernameIsWrittenAsNull() {
+        String users = "[{\"username\":\"alice\"},{\"id\":\"u2\"},{}]";
+
+        assertThat(transcode(users)).isEqualTo(
+                "{\"username\":\"alice\",\"id\":null},{\"id\":\"u2\",\"username\":null},{\"id\":null,\"username\":null}");
+    }
+
+    @Test
+    void repeatedFieldKeepsTheFirstValue() {
+        assertThat(transcode("[{\"id\":\"u1\",\"id\":\"u9\",\"username\":\"alice\"}]"))
+                .isEqualTo("{\"id\":\"u1\",\"username\":\"alice\"}");
+    }
+
+    @Test
+    void inputSplitMidTokenGivesTheSameOutput() {
+        String users = """
+                [{"id":"0b6a1c2e-0000-4000-8000-000000000001","username":"ålice \\"quoted\\" \\u00e9",\
+                "attributes":{"locale":["de"]},"createdTimestamp":1700000000000},\
+                {"id":"u2","username":"bøb"}]""";
+        String whole = transcode(users);
+
+        // every split point, including inside strings, escapes, numbers and multi-byte characters
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            assertThat(transcode(users, chunk)).as("chunk size %d", chunk).isEqualTo(whole);
+        }
+        assertThat(whole).isEqualTo("{\"id\":\"0b6a1c2e-0000-4000-8000-000000000001\",\"username\":\"ålice \\\"quoted\\\" é\"},"
+                + "{\"id\":\"u2\",\"username\":\"bøb\"}");
+    }
+
+    @Test
+    void countsUsersAndHandlesAnEmptyList() {
+        try (UserSummaryTranscoder transcoder = new UserSummaryTranscoder(FACTORY)) {
+            transcoder.feed(ByteBuffer.wrap("[{\"id\":\"u1\"},{\"id\":\"u2\"}".getBytes(StandardCharsets.UTF_8)));
+            assertThat(transcoder.count()).isEqualTo(2);
+            transcoder.feed(ByteBuffer.wrap("]".getBytes(StandardCharsets.UTF_8)));
+            transcoder.finish();
+            assertThat(transcoder.count()).isEqualTo(2);
+        }
+        assertThat(transcode("[]")).isEmpty();
+    }
+
+    @Test
+    void truncatedInputFails() {
+        assertThatThrownBy(() -> transcode("[{\"id\":\"u1\",\"usern"))
+                .isInstanceOf(UncheckedIOException.class);
+    }
+}
@@ -0,0 +1,392 @@
+package co.vuckovic.demo.service;
+
+import co.vuckovic.demo.config.KeycloakCacheProperties;
+import co.vuckovic.demo.config.KeycloakDetailProperties;
+import co.vuckovic.demo.config.KeycloakPagingProperties;
+import co.vuckovic.demo.config.KeycloakProperties;
+import co.vuckovic.demo.config.KeycloakRoleProperties;
+import co.vuckovic.demo.config.KeycloakUpdateProperties;
+import co.vuckovic.demo.dto.UserFacet;
+import co.vuckovic.demo.dto.UserField;
+import co.vuckovic.demo.dto.UserPage;
+import co.vuckovic.demo.dto.UserPatchRequest;
+import co.vuckovic.demo.dto.UserResponse;
+import co.vuckovic.demo.dto.UserSearchPage;
+import co.vuckovic.demo.dto.UserSearchQuery;
+import co.vuckovic.demo.dto.UserSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WebClientUserManagementServiceTests {
+
+    private static final String REALM = "/admin/realms/demo";
+    private static final String USERS = REALM + "/users";
+
+    private final KeycloakProperties props = new KeycloakProperties(
+            "http://keycloak", "demo", null, null, "master", "admin-cli", "admin", "admin", null);
+    private final KeycloakPagingProperties pagingProps = new KeycloakPagingProperties(10, 100, 4, true);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> writes = new CopyOnWriteArrayList<>();
+
+    private int users;
+    private boolean fullRepresentation;
+    private Mono<ClientResponse> roles = json("[{\"name\":\"admin\"}]");
+    private Mono<ClientResponse> groups = json("[{\"path\":\"/staff\"}]");
+
+    private WebClientUserManagementService service() {
+        WebClient client = WebClient.builder().baseUrl(props.serverUrl()).exchangeFunction(this::exchange).build();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        KeycloakRoleProperties roleProps = new KeycloakRoleProperties(
+                Duration.ofMinutes(5), Duration.ofSeconds(5), false, KeycloakRoleProperties.Enrichment.PER_USER, 8);
+        RoleCatalog catalog = new RoleCatalog(client, props, roleProps, pagingProps, registry);
+        return new WebClientUserManagementService(client, props, pagingProps,
+                new KeycloakDetailProperties(Duration.ofSeconds(2), Duration.ofMillis(500)), catalog,
+                new UserRoleEnricher(client, props, roleProps, pagingProps, catalog, registry),
+                new UserCache(new KeycloakCacheProperties(false, 100, 100, Duration.ofMinutes(1)), registry),
+                new KeycloakUpdateProperties(fullRepresentation), objectMapper);
+    }
+
+    private Mono<ClientResponse> exchange(ClientRequest request) {
+        if (request.method() == HttpMethod.PUT) {
+            return written(request)
+                    .doOnNext(body -> writes.add(request.url().getPath() + " " + body))
+                    .then(Mono.just(ClientResponse.create(HttpStatus.NO_CONTENT).build()));
+        }
+        requests.add(request.url().getPath() + (request.url().getRawQuery() == null ? "" : "?" + request.url().getRawQuery()));
+        String path = request.url().getPath();
+        if (path.equals(REALM + "/roles")) {
+            return json(request.url().getQuery().contains("first=0") ? "[{\"id\":\"admin\",\"name\":\"admin\"}]" : "[]");
+        }
+        if (path.equals(REALM + "/roles/admin/users")) {
+            return json("[{\"id\":\"id-7\",\"username\":\"user7\"}]");
+        }
+        if (path.equals(USERS + "/count")) {
+            return json(String.valueOf(users));
+        }
+        if (path.endsWith("/role-mappings/realm/composite")) {
+            return roles;
+        }
+        if (path.endsWith("/groups")) {
+            return groups;
+        }
+        if (path.equals(USERS + "/id-1")) {
+            return json("{\"id\":\"id-1\",\"username\":\"user1\",\"enabled\":true,"
+                    + "\"attributes\":{\"dept\":[\"it\"],\"site\":[\"hq\"]}}");
+        }
+        if (path.equals(USERS)) {
+            var query = UriComponentsBuilder.fromUri(request.url()).build().getQueryParams();
+            int first = Integer.parseInt(query.getFirst("first"));
+            int max = Integer.parseInt(query.getFirst("max"));
+            String attributes = "false".equals(query.getFirst("briefRepresentation"))
+                    ? ",\"attributes\":{\"dept\":[\"it\"]}" : "";
+            return json(IntStream.range(first, Math.min(users, first + max))
+                    .mapToObj(i -> """
+                            {"id":"id-%d","username":"user%d","email":"user%d@example.com","enabled":true%s}"""
+                            .formatted(i, i, i, attributes))
+                    .collect(Collectors.joining(",", "[", "]")));
+        }
+        return Mono.just(ClientResponse.create(HttpStatus.NOT_FOUND).build());
+    }
+
+    private static Mono<String> written(ClientRequest request) {
+        MockClientHttpRequest sent = new MockClientHttpRequest(request.method(), request.url());
+        return request.body().insert(sent, new BodyInserter.Context() {
+                    @Override
+                    public List<HttpMessageWriter<?>> messageWriters() {
+                        return ExchangeStrategies.withDefaults().messageWriters();
+                    }
+
+                    @Override
+                    public Optional<ServerHttpRequest> serverRequest() {
+                        return Optional.empty();
+                    }
+
+                    @Override
+                    public Map<String, Object> hints() {
+                        return Map.of();
+                    }
+                })
+                .then(Mono.defer(sent::getBodyAsString));
+    }
+
+    private static Mono<ClientResponse> json(String body) {
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build());
+    }
+
+    private long pageRequests() {
+        return requests.stream().filter(r -> r.startsWith(USERS + "?")).count();
+    }
+
+    @Test
+    void streamUsersReadsOnlyCountedPages() {
+        users = 35;
+
+        List<UserSummary> streamed = service().streamUsers(10).collectList().block();
+
+        assertThat(streamed).hasSize(35);
+        assertThat(streamed.get(34).username()).isEqualTo("user34");
+        // four pages, the last one short, and nothing past it
+        assertThat(pageRequests()).isEqualTo(4);
+    }
+
+    @Test
+    void streamUsersConfirmsTheEndAfterAFullLastPage() {
+        users = 30;
+
+        assertThat(service().streamUsers(10).collectList().block()).hasSize(30);
+        assertThat(pageRequests()).isEqualTo(4);
+        assertThat(requests).last().isEqualTo(USERS + "?first=30&max=10&briefRepresentation=true");
+    }
+
+    @Test
+    void streamUsersOfAnEmptyRealm() {
+        users = 0;
+
+        assertThat(service().streamUsers(10).collectList().block()).isEmpty();
+        assertThat(pageRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void allUsersJsonStopsAtTheLastPage() {
+        users = 25;
+
+        String json = DataBufferUtils.join(service().getAllUsersJson())
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .block();
+
+        assertThat(json).startsWith("[{\"id\":\"id-0\"").endsWith("\"username\":\"user24\"}]");
+        assertThat(pageRequests()).isEqualTo(3);
+    }
+
+    @Test
+    void pagesCarryTheNextOffsetAsCursor() {
+        users = 25;
+        WebClientUserManagementService service = service();
+
+        UserPage first = service.getUsersPage(null, 10).block();
+        UserPage second = service.getUsersPage(first.nextCursor(), 10).block();
+        UserPage last = service.getUsersPage(second.nextCursor(), 10).block();
+
+        assertThat(first.nextCursor()).isEqualTo("10");
+        assertThat(second.items()).first().extracting(UserSummary::username).isEqualTo("user10");
+        assertThat(last.items()).hasSize(5);
+        assertThat(last.nextCursor()).isNull();
+    }
+
+    @Test
+    void pageSizeIsClampedToTheMaximum() {
+        users = 500;
+
+        assertThat(service().getUsersPage(null, 1000).block().items()).hasSize(100);
+    }
+
+    @Test
+    void failedOptionalFacetIsReportedIncomplete() {
+        groups = Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build());
+
+        UserResponse user = service().getVersionedUser("id-1", EnumSet.of(UserFacet.ROLES, UserFacet.GROUPS))
+                .block().value();
+
+        assertThat(user.roles()).containsExactly("admin");
+        assertThat(user.groups()).isNull();
+        assertThat(user.incomplete()).containsExactly(UserFacet.GROUPS);
+    }
+
+    @Test
+    void failedRolesFailTheLookup() {
+        roles = Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build());
+
+        assertThatThrownBy(() -> service().getVersionedUser("id-1", UserFacet.DEFAULT).block())
+                .isInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+    }
+
+    @Test
+    void slowRolesFailWithGatewayTimeout() {
+        // past the facet timeout, within the detail timeout: still waited for
+        roles = json("[{\"name\":\"admin\"}]").delayElement(Duration.ofMillis(700));
+        assertThat(service().getVersionedUser("id-1", UserFacet.DEFAULT).block().value().roles())
+                .containsExactly("admin");
+
+        roles = Mono.never();
+        assertThatThrownBy(() -> service().getVersionedUser("id-1", UserFacet.DEFAULT).block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT));
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThatThrownBy(() -> OffsetCursor.parse("-1"))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThatThrownBy(() -> OffsetCursor.parse("abc")).isInstanceOf(ResponseStatusException.class);
+        assertThat(OffsetCursor.parse(null)).isZero();
+        assertThat(OffsetCursor.parse("40")).isEqualTo(40);
+    }
+
+    private static UserSearchQuery query(String username, String email, String q, String role) {
+        return new UserSearchQuery(null, username, email, true, true, q, role);
+    }
+
+    @Test
+    void searchPassesFiltersToKeycloakFullyEncoded() {
+        users = 3;
+
+        service().searchUsers(query("bob", "bob+test@example.com", "dept:r&d", null), null, 10, UserField.DEFAULT)
+                .block();
+
+        assertThat(requests).containsExactly(USERS + "?username=bob&email=bob%2Btest%40example.com&enabled=true"
+                + "&exact=true&q=dept%3Ar%26d&first=0&max=11&briefRepresentation=true");
+    }
+
+    @Test
+    void searchReturnsOnlyTheRequestedFields() {
+        users = 3;
+        WebClientUserManagementService service = service();
+
+        UserResponse brief = service.searchUsers(query(null, null, null, null), null, 10,
+                EnumSet.of(UserField.USERNAME)).block().items().get(0);
+        assertThat(brief).isEqualTo(new UserResponse(null, "user0", null, null, null, null, null, null, null));
+
+        UserResponse full = service.searchUsers(query(null, null, null, null), null, 10,
+                EnumSet.of(UserField.ID, UserField.ATTRIBUTES)).block().items().get(0);
+        assertThat(full.id()).isEqualTo("id-0");
+        assertThat(full.email()).isNull();
+        assertThat(full.attributes()).containsEntry("dept", List.of("it"));
+        // attributes are only in Keycloak's full representation
+        assertThat(requests).last().asString().endsWith("briefRepresentation=false");
+    }
+
+    @Test
+    void searchPagesFollowTheCursor() {
+        users = 25;
+        WebClientUserManagementService service = service();
+
+        UserSearchPage first = service.searchUsers(query(null, null, null, null), null, 10, UserField.DEFAULT).block();
+        UserSearchPage last = service.searchUsers(query(null, null, null, null), "20", 10, UserField.DEFAULT).block();
+
+        // one user past the page tells whether another page follows
+        assertThat(first.items()).hasSize(10);
+        assertThat(first.nextCursor()).isEqualTo("10");
+        assertThat(last.items()).extracting(UserResponse::username).startsWith("user20").hasSize(5);
+        assertThat(last.nextCursor()).isNull();
+        assertThat(requests).last().asString().contains("first=20&max=11");
+    }
+
+    @Test
+    void searchByRoleListsTheRoleMembers() {
+        UserSearchPage page = service().searchUsers(new UserSearchQuery(null, null, null, null, null, null, "admin"),
+                null, 10, UserField.DEFAULT).block();
+
+        assertThat(page.items()).extracting(UserResponse::id).containsExactly("id-7");
+        assertThat(requests).last().isEqualTo(REALM + "/roles/admin/users?first=0&max=11&briefRepresentation=true");
+    }
+
+    @Test
+    void badSearchesAreRejected() {
+        WebClientUserManagementService service = service();
+
+        assertThatThrownBy(() -> service.searchUsers(query("bob", null, null, "admin"), null, 10, UserField.DEFAULT).block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThatThrownBy(() -> service.searchUsers(new UserSearchQuery(null, null, null, null, null, null, "ghost"),
+                null, 10, UserField.DEFAULT).block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThatThrownBy(() -> service.searchUsers(query(null, null, null, null), "-5", 10, UserField.DEFAULT).block())
+                .isInstanceOf(ResponseStatusException.class);
+        assertThatThrownBy(() -> UserField.parse(List.of("id", "password")))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("password");
+        // none of them reached Keycloak's user endpoints
+        assertThat(requests).noneMatch(r -> r.startsWith(USERS) || r.contains("/roles/ghost/"));
+    }
+
+    private static UserPatchRequest patch(String email, Boolean enabled, Map<String, List<String>> attributes) {
+        return new UserPatchRequest(null, email, null, null, enabled, null, attributes, null);
+    }
+
+    @Test
+    void patchSendsOnlyTheGivenFieldsWithoutReadingTheUser() {
+        service().patchUser("id-1", patch(null, false, null), null).block();
+        service().patchUser("id-1", patch("new@example.com", null, null), null).block();
+
+        assertThat(writes).containsExactly(
+                USERS + "/id-1 {\"enabled\":false}",
+                USERS + "/id-1 {\"email\":\"new@example.com\"}");
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    void attributePatchIsMergedIntoTheCurrentAttributes() {
+        Map<String, List<String>> attributes = new HashMap<>();
+        attributes.put("dept", List.of("ops"));
+        attributes.put("site", null);
+
+        service().patchUser("id-1", patch(null, null, attributes), null).block();
+
+        // Keycloak replaces attributes as a whole, so the other ones are read and sent back
+        assertThat(requests).containsExactly(USERS + "/id-1");
+        assertThat(writes).containsExactly(USERS + "/id-1 {\"attributes\":{\"dept\":[\"ops\"]}}");
+    }
+
+    @Test
+    void patchHonoursIfMatch() {
+        WebClientUserManagementService service = service();
+        String etag = service.getVersionedUser("id-1", UserFacet.DEFAULT).block().etag();
+
+        assertThatThrownBy(() -> service.patchUser("id-1", patch(null, false, null), "\"stale\"").block())
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED));
+        assertThat(writes).isEmpty();
+
+        service.patchUser("id-1", patch(null, false, null), "\"" + etag + "\"").block();
+        assertThat(writes).containsExactly(USERS + "/id-1 {\"enabled\":false}");
+    }
+
+    @Test
+    void fullRepresentationSendsTheWholeUserWithThePatchApplied() {
+        fullRepresentation = true;
+
+        service().patchUser("id-1", patch(null, false, Map.of("dept", List.of("ops"))), null).block();
+
+        assertThat(requests).containsExactly(USERS + "/id-1");
+        assertThat(writes).containsExactly(USERS + "/id-1 {\"id\":\"id-1\",\"username\":\"user1\",\"enabled\":false,"
+                + "\"attributes\":{\"dept\":[\"ops\"],\"site\":[\"hq\"]},\"emailVerified\":true}");
+    }
+}